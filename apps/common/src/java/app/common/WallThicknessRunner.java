@@ -21,13 +21,21 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
 
+import abfab3d.core.AttributeGrid;
+import abfab3d.grid.op.WallThicknessAnalyzer;
+import abfab3d.io.input.GridLoader;
+
 import app.common.WallThicknessResult.ResultType;
 
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+
 /**
  * Runs wallthickness.
  *
- * This should eventually go through the Shapeways API to add to a services queue.  But for now it will
- * directly call wallthickness assuming its installed locally.
+ * By default the external wallthickness tool is used, it has to be installed locally.  The analysis can run
+ * in process via WallThicknessAnalyzer with setUseExternalProcess(false).  In process analysis has no gap
+ * analysis, the minimal gap distance of material is not checked.
  *
  * @author Alan Hudson
  */
@@ -64,6 +72,30 @@ public class WallThicknessRunner {
 
     private String[] ENV_VARIABLES;
 
+    /** Voxels per minimal wall thickness used by external tool and in process analysis */
+    private static final int VOXELS_PER_WALL_THICKNESS = 15;    // was 17 (7346)  15(5296)
+
+    /** Maximal grid size used by in process analysis */
+    private static final long MAX_GRID_SIZE = 200000000L;
+
+    /** Max density value of rasterized grid */
+    private static final int SUBVOXEL_RESOLUTION = 255;
+
+    /** Boundary/interface ratio of suspect and unsafe thin regions */
+    private static final double BIR_SUSPECT = 1.5;
+    private static final double BIR_UNSAFE = 2.7;
+
+    /** Minimal volume of suspect and unsafe regions in mm^3.
+        if we want to filter out only 5 voxels size, we use 5 * 0.1*0.1*0.1 mm = 0.005 mm^3 */
+    private static final double MIN_SUSPECT_VOL = 0.005;
+    private static final double MIN_UNSAFE_VOL = 0.05;
+
+    /** Use external wallthickness tool instead of in process analysis */
+    private boolean useExternalProcess = true;
+
+    /** Thread count of in process analysis, 0 means all available processors */
+    private int threadCount = 0;
+
     private static final HashMap<String, MaterialProperties> wtProps;
 
     static {
@@ -98,6 +130,20 @@ public class WallThicknessRunner {
         wtProps.put(mp.getName(), mp);
 
     }
+    /**
+     * Use external wallthickness tool instead of in process analysis.  Default is true.
+     */
+    public void setUseExternalProcess(boolean value) {
+        useExternalProcess = value;
+    }
+
+    /**
+     * Set thread count of in process analysis. 0 means use all available processors.
+     */
+    public void setThreadCount(int count) {
+        threadCount = count;
+    }
+
     /**
      * Run wallthickness
      *
@@ -105,6 +151,93 @@ public class WallThicknessRunner {
      */
     public WallThicknessResult runWallThickness(String filename, String material) {
 
+        if (useExternalProcess) {
+            return runWallThicknessExternal(filename, material);
+        } else {
+            return runWallThicknessInProcess(filename, material);
+        }
+    }
+
+    /**
+     * Run wallthickness analysis in process.  No visualization files are produced.
+     * Gap analysis is not done, minimal gap distance of the material is ignored.
+     *
+     * @param filename  mesh file
+     * @throws RuntimeException if the file can not be loaded or analyzed
+     */
+    public WallThicknessResult runWallThicknessInProcess(String filename, String material) {
+
+        MaterialProperties props = wtProps.get(material);
+        double wt = getBiasedWallThickness(props.getMinWallthickness());
+
+        if (props.getMinGapDistance() > 0) {
+            System.out.println("Skipping gap analysis, min gap distance " + props.getMinGapDistance() + " is not checked");
+        }
+
+        try {
+            long t0 = time();
+            GridLoader loader = new GridLoader();
+            loader.setPreferredVoxelSize(wt / VOXELS_PER_WALL_THICKNESS);
+            loader.setMaxGridSize(MAX_GRID_SIZE);
+            loader.setThreadCount(threadCount);
+            AttributeGrid grid = loader.loadDensityGrid(filename);
+            printf("Density grid: [%d x %d x %d] vs: %7.5f mm loaded: %d ms\n",
+                   grid.getWidth(), grid.getHeight(), grid.getDepth(), grid.getVoxelSize()*1000, (time() - t0));
+
+            WallThicknessAnalyzer analyzer = new WallThicknessAnalyzer(wt, SUBVOXEL_RESOLUTION);
+            analyzer.setThreadCount(threadCount);
+            WallThicknessAnalyzer.Result wtRes = analyzer.analyze(grid);
+
+            return new WallThicknessResult(0, getResultType(wtRes), null);
+
+        } catch(RuntimeException e) {
+            throw new RuntimeException("Wall thickness analysis failed for file: " + filename + " material: " + material, e);
+        }
+    }
+
+    /**
+     * Classify results of in process analysis the same way as the external tool does.
+     */
+    protected ResultType getResultType(WallThicknessAnalyzer.Result wtRes) {
+
+        // volumes are given in mm^3
+        double mm3 = 1.e-9;
+        int unsafe = wtRes.getThinRegionCount(MIN_UNSAFE_VOL * mm3, BIR_UNSAFE);
+        int suspect = wtRes.getThinRegionCount(MIN_SUSPECT_VOL * mm3, BIR_SUSPECT);
+
+        System.out.println(wtRes);
+        System.out.println(THIN_MARKER + " " + wtRes.getThinVoxels());
+        System.out.println(THIN_RUMP_RATIO_MARKER + " " + wtRes.getThinThickRatio());
+        System.out.println("Unsafe regions: " + unsafe + " suspect regions: " + suspect);
+
+        if (unsafe > 0) {
+            return ResultType.UNSAFE;
+        } else if (suspect > 0) {
+            return ResultType.SUSPECT;
+        } else {
+            return ResultType.SAFE;
+        }
+    }
+
+    /**
+     * Bias WT to insure thin things are caught.
+     */
+    protected static double getBiasedWallThickness(double wt) {
+
+        double max_error = wt / VOXELS_PER_WALL_THICKNESS;
+        System.out.println("Maximum error: " + max_error);
+        wt += max_error;
+        System.out.println("Using wallthickness of: " + wt);
+        return wt;
+    }
+
+    /**
+     * Run external wallthickness tool
+     *
+     * @param filename  X3D file, must meet analytical file constraints.
+     */
+    public WallThicknessResult runWallThicknessExternal(String filename, String material) {
+
 
         String releaseLoc = null;
         String command = null;
@@ -129,16 +262,10 @@ er.sh.x3db -wt 0.0007 -vpwt 7 -visType 2 -visDir wtOutput -maxReg 10 -debug 4 -b
         MaterialProperties props = wtProps.get(material);
 
         double wt = props.getMinWallthickness();
-        double bir_suspect = 1.5;
-        double bir_unsafe = 2.7;
         boolean vis_classify = true;
         boolean vis_thin = !vis_classify;
 
-        //if we want to filter out only 5 voxels size, we use 5 * 0.1*0.1*0.1 mm = 0.005 mm^3
-        double min_suspect_vol = 0.005;
-        double min_unsafe_vol = 0.05;
-//        int vpwt = 9;
-        int vpwt = 15;    // was 17 (7346)  15(5296)
+        int vpwt = VOXELS_PER_WALL_THICKNESS;
         int thin_area_erosion = vpwt / 2;
         boolean vis_gap = false;
         double gap_distance = 0;
@@ -152,17 +279,13 @@ er.sh.x3db -wt 0.0007 -vpwt 7 -visType 2 -visDir wtOutput -maxReg 10 -debug 4 -b
         }
         */
 
-        // Bias WT to insure thin things are caught.
-        double max_error = wt / vpwt;
-        System.out.println("Maximum error: " + max_error);
-        wt += max_error;
-        System.out.println("Using wallthickness of: " + wt);
+        wt = getBiasedWallThickness(wt);
 
         // TODO: Stop hardcoding params
         String[] params = new String[] {"-input", filename, "-wt", Double.toString(wt), "-visType","1",
-                "-visDir","/tmp", "-maxReg", "1000", "-debug","4", "-birSuspect", Double.toString(bir_suspect),
-                "-birUnsafe", Double.toString(bir_unsafe), "-vpwt", Integer.toString(vpwt),
-                "-minSuspectVol",Double.toString(min_suspect_vol),"-minUnsafeVol",Double.toString(min_unsafe_vol),
+                "-visDir","/tmp", "-maxReg", "1000", "-debug","4", "-birSuspect", Double.toString(BIR_SUSPECT),
+                "-birUnsafe", Double.toString(BIR_UNSAFE), "-vpwt", Integer.toString(vpwt),
+                "-minSuspectVol",Double.toString(MIN_SUSPECT_VOL),"-minUnsafeVol",Double.toString(MIN_UNSAFE_VOL),
                 "-maxRunTime", "60", "-visThin", Boolean.toString(vis_thin), "-visClassification", Boolean.toString(vis_classify), "-visGap", Boolean.toString(vis_gap), "-gapDistance", Double.toString(gap_distance),"-thinAreaErosion", Integer.toString(thin_area_erosion)};
         String workingDirPath = "/tmp";
 
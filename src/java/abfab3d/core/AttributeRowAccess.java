@@ -0,0 +1,50 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.core;
+
+/**
+   capability of AttributeGrid to read and write rows of attributes along z axis in one call 
+   it avoids per voxel virtual calls and index calculations in hot loops 
+
+   attributes are the same as returned by getAttribute(x,y,z) and accepted by setAttribute(x,y,z,attribute)
+   use abfab3d.grid.util.GridUtil.getAttributes() and setAttributes() to work with grids, which may not support it 
+
+   @author Vladimir Bulatov
+ */
+public interface AttributeRowAccess {
+
+    /**
+       reads attributes of voxels (x,y,zmin) ... (x,y,zmax-1) 
+
+       @param x x coordinate of the row 
+       @param y y coordinate of the row 
+       @param zmin first z coordinate of the row 
+       @param zmax z coordinate after the last voxel of the row
+       @param attributes array to store attributes into 
+       @param offset index in attributes to store attribute of voxel (x,y,zmin)
+     */
+    public void getAttributes(int x, int y, int zmin, int zmax, long attributes[], int offset);
+
+    /**
+       writes attributes of voxels (x,y,zmin) ... (x,y,zmax-1)
+
+       @param x x coordinate of the row 
+       @param y y coordinate of the row 
+       @param zmin first z coordinate of the row 
+       @param zmax z coordinate after the last voxel of the row
+       @param attributes array of attributes to write 
+       @param offset index in attributes of attribute of voxel (x,y,zmin)
+     */
+    public void setAttributes(int x, int y, int zmin, int zmax, long attributes[], int offset);
+
+}
@@ -0,0 +1,36 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.core;
+
+/**
+   bulk variant of DataSource which calculates values for blocks of points stored in primitive arrays 
+   it avoids per point calls and intermediate Vec objects 
+
+   points are stored as 3 consecutive coordinates: x, y, z 
+   only the first data channel is calculated 
+   
+ */
+public interface BulkDataSource {
+
+    /**
+       calculates values for block of points 
+
+       @param coord coordinates of points, the array is not modified 
+       @param voxelSize voxel size at each point (see Vec.voxelSize), may be null for zero voxel size 
+       @param values calculated values 
+       @param offset index of the first point in the block 
+       @param count count of points in the block 
+     */
+    public void getDataValues(double coord[], double voxelSize[], double values[], int offset, int count);
+    
+}
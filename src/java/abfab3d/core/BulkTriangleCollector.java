@@ -0,0 +1,35 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.core;
+
+/**
+   interface accepts a collection of triangles in blocks of primitive coordinates 
+   it is bulk variant of TriangleCollector which avoids per triangle calls and Vector3d objects 
+   
+ */
+public interface BulkTriangleCollector {
+
+    /**
+       add block of triangles 
+       each triangle is stored as 9 consecutive coordinates: v0.x, v0.y, v0.z, v1.x, v1.y, v1.z, v2.x, v2.y, v2.z
+       coordinates are copied into internal structure and the array can be reused after return       
+
+       @param coord array of coordinates 
+       @param offset offset of the first triangle in the array 
+       @param triCount count of triangles in the block 
+
+       returns true if success, false if faiure 
+     */
+    public boolean addTriangles(double coord[], int offset, int triCount);
+    
+}
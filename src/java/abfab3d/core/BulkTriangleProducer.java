@@ -0,0 +1,30 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.core;
+
+/**
+   interface which generates a raw mesh of triangles in blocks of primitive coordinates 
+   
+ */
+public interface BulkTriangleProducer extends TriangleProducer {
+
+    /**
+       feeds all triangles into supplied BulkTriangleCollector 
+       
+       @param tc collector to send triangles to 
+       @param blockSize max count of triangles passed to collector in one call 
+       returns true if success, false if faiure        
+     */
+    public boolean getTriangles(BulkTriangleCollector tc, int blockSize);
+    
+}
@@ -0,0 +1,43 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.core;
+
+/**
+   bulk variant of VecTransform which transforms blocks of points stored in primitive arrays 
+   it avoids per point calls and intermediate Vec objects 
+
+   points are stored as 3 consecutive coordinates: x, y, z 
+   points are transformed in place 
+   
+ */
+public interface BulkVecTransform {
+
+    /**
+       direct transform of block of points 
+
+       @param coord coordinates of points 
+       @param scale accumulated scale factors of points (see Vec.scaleFactor), updated in place, may be null 
+       @param result result codes of points. Points with result other than RESULT_OK are not transformed. 
+              Points which can not be transformed get result code of failure 
+       @param offset index of the first point in the block 
+       @param count count of points in the block 
+     */
+    public void transform(double coord[], double scale[], int result[], int offset, int count);
+
+    /**
+       inverse transform of block of points
+       parameters are the same as in transform()
+     */
+    public void inverse_transform(double coord[], double scale[], int result[], int offset, int count);
+    
+}
@@ -0,0 +1,35 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.core;
+
+/**
+   grid which stores all voxels in single primitive array 
+
+   voxel (x,y,z) is stored at index y*getSliceStride() + x*getRowStride() + z 
+   therefore rows along z axis are contiguous 
+
+   @author Vladimir Bulatov
+ */
+public interface DenseAttributeGrid extends AttributeRowAccess {
+
+    /**
+       @return distance in data array between voxels (x,y,z) and (x,y+1,z)
+     */
+    public int getSliceStride();
+
+    /**
+       @return distance in data array between voxels (x,y,z) and (x+1,y,z)
+     */
+    public int getRowStride();
+
+}
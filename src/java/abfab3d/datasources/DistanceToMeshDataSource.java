@@ -30,6 +30,7 @@ import abfab3d.util.MeshRasterizer;
 
 import abfab3d.util.TriangleMeshSurfaceBuilder;
 import abfab3d.util.AttributedTriangleMeshSurfaceBuilder;
+import abfab3d.util.AttributedTriangleProducerConverter;
 
 import abfab3d.grid.ArrayAttributeGridInt;
 import abfab3d.grid.GridMask;
@@ -38,6 +39,8 @@ import abfab3d.grid.op.PointSetShellBuilder;
 import abfab3d.grid.op.ClosestPointIndexer;
 import abfab3d.grid.op.ClosestPointIndexerMT;
 
+import abfab3d.mesh.TriangleBVH;
+
 
 import abfab3d.datasources.TransformableDataSource;
 
@@ -71,6 +74,11 @@ import static abfab3d.core.Output.time;
    during calculation it finds the closest voxel to the given point and uses 
    that voxel closest point index to calculate the actual euclidean distance  
 
+   if exactDistance is true, no grid is calculated. Instead bounding volume hierarchy over mesh triangles 
+   is built (and shared between identical meshes) and exact distance is calculated at each point. 
+   The sign of distance is given by winding number of the mesh. Only distance channel is calculated in that mode, 
+   therefore it can not be used with meshes which have vertex attributes (data dimension > 3). 
+
    
    @author Vladimir Bulatov
    
@@ -106,6 +114,7 @@ public class DistanceToMeshDataSource extends TransformableDataSource {
     BooleanParameter mp_extendDistance = new BooleanParameter("extendDistance", "whether to extend distance outside of grid",true);
     DoubleParameter mp_thinLayerHalfThickness = new DoubleParameter("thinLayerHalfThickness", "half thickness of thin layer (in voxels)",2.0);
     BooleanParameter mp_makeSolid = new BooleanParameter("makeSolid", "make interior data for closed mash",true);
+    BooleanParameter mp_exactDistance = new BooleanParameter("exactDistance", "calculate exact distance via bounding volume hierarchy of triangles",false);
 
     protected long m_maxGridSize = 1000L*1000L*1000L;
     protected long m_minGridSize = 1000L;
@@ -125,7 +134,8 @@ public class DistanceToMeshDataSource extends TransformableDataSource {
         mp_useThinLayer,
         mp_thinLayerHalfThickness,
         mp_extendDistance,
-        mp_makeSolid
+        mp_makeSolid,
+        mp_exactDistance
     };
 
     protected String m_savedParamString = "";
@@ -135,6 +145,8 @@ public class DistanceToMeshDataSource extends TransformableDataSource {
 
     // interpolator used to calculate distances 
     IndexedDistanceInterpolator m_distCalc;
+    // hierarchy used to calculate exact distances 
+    TriangleBVH m_bvh;
     
     /**
        constructor with plain mesh producer 
@@ -166,6 +178,13 @@ public class DistanceToMeshDataSource extends TransformableDataSource {
         return m_distCalc;
     }
 
+    /**
+       @return bounding volume hierarchy used to calculate exact distances or null if exactDistance is false
+     */
+    public TriangleBVH getTriangleBVH(){
+        return m_bvh;
+    }
+
     /**
        @return physical bounds of the mesh
      */
@@ -214,6 +233,8 @@ public class DistanceToMeshDataSource extends TransformableDataSource {
             fullInitialize();
             cd = new CachedData();
             cd.distCalc = m_distCalc;
+            cd.bvh = m_bvh;
+            cd.maxDistance = m_maxDistance;
             cd.bounds = m_bounds;
             cd.meshBounds = m_meshBounds;            
             ParamCache.getInstance().put(m_currentParamString, cd);
@@ -223,6 +244,8 @@ public class DistanceToMeshDataSource extends TransformableDataSource {
             if(DEBUG) printf("%s : got cached\n", this);
             // init from chached data 
             m_distCalc = cd.distCalc;
+            m_bvh = cd.bvh;
+            m_maxDistance = cd.maxDistance;
             m_meshBounds = cd.meshBounds;
             m_bounds = cd.bounds;
         }
@@ -242,6 +265,18 @@ public class DistanceToMeshDataSource extends TransformableDataSource {
         long t0 = time();
         Object producer = mp_meshProducer.getValue();
 
+        if(mp_exactDistance.getValue()){
+            if(producer instanceof AttributedTriangleProducer){
+                AttributedTriangleProducer atp = (AttributedTriangleProducer)producer;
+                if(atp.getDataDimension() > 3) 
+                    throw new IllegalArgumentException(fmt("exactDistance can not be used with attributed mesh %s of data dimension %d", 
+                                                           producer, atp.getDataDimension()));
+                if(!(producer instanceof TriangleProducer))
+                    return initExactMesh(new AttributedTriangleProducerConverter(atp));
+            }
+            if(producer instanceof TriangleProducer)
+                return initExactMesh((TriangleProducer)producer);
+        }
         if(producer instanceof AttributedTriangleProducer){
             AttributedTriangleProducer atp = (AttributedTriangleProducer)producer;
             if(atp.getDataDimension() == 3) 
@@ -255,6 +290,25 @@ public class DistanceToMeshDataSource extends TransformableDataSource {
         throw new RuntimeException(fmt("don't know how to handle mesh %s",producer));
     }
 
+    /**
+       builds (or gets from cache) bounding volume hierarchy of mesh triangles 
+     */
+    protected int initExactMesh(TriangleProducer producer){
+        
+        long t0 = time();
+        m_bvh = TriangleBVH.getCachedBVH(producer);
+        Bounds gridBounds = calculateGridBounds(m_bvh.getBounds());
+        super.setBounds(gridBounds);
+        m_maxDistance = getMaxDistance(gridBounds);
+        m_distCalc = null;
+        super.m_channelsCount = 1;
+        if(DEBUG)printf("%s.initExactMesh() %d triangles %d ms\n", getClass().getSimpleName(), m_bvh.getTriangleCount(), (time() - t0));
+        
+        m_savedParamString = m_currentParamString;
+
+        return ResultCodes.RESULT_OK;
+    }
+
     protected int initAttributedMesh(AttributedTriangleProducer atProducer){
 
         if(DEBUG)printf("%s.initAttributedMesh(%s)\n", getClass().getName(),atProducer);
@@ -681,8 +735,15 @@ public class DistanceToMeshDataSource extends TransformableDataSource {
      */
     public int getBaseValue(Vec pnt, Vec data){
 
-        if(m_distCalc != null)
+        if(m_bvh != null) {
+            double v[] = pnt.v;
+            if(mp_makeSolid.getValue()) 
+                data.v[0] = m_bvh.getSignedDistance(v[0], v[1], v[2], m_maxDistance);
+            else 
+                data.v[0] = m_bvh.getDistance(v[0], v[1], v[2], m_maxDistance);
+        } else if(m_distCalc != null) {
             m_distCalc.getDataValue(pnt, data);
+        }
 
         return ResultCodes.RESULT_OK;
     }
@@ -751,6 +812,8 @@ public class DistanceToMeshDataSource extends TransformableDataSource {
     static class CachedData {
 
         IndexedDistanceInterpolator distCalc;
+        TriangleBVH bvh;
+        double maxDistance;
         Bounds meshBounds;
         Bounds bounds;
         
@@ -11,27 +11,40 @@
  ****************************************************************************/
 package abfab3d.datasources;
 
-import java.util.Vector;
+import java.util.Arrays;
 
 import abfab3d.core.ResultCodes;
 import abfab3d.core.Vec;
+import abfab3d.core.BulkDataSource;
 
 import abfab3d.core.AttributeGrid;
 
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.Slice;
+import abfab3d.util.SliceManager;
+
 
 import static java.lang.Math.floor;
 import static java.lang.Math.abs;
 import static java.lang.Math.log;
 
 import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.fmt;
+import static abfab3d.core.Output.time;
 
 /**
    provides accress to a grid on several levels of details. 
    similar to mipmapping techniques used for texture mapping
 
+   the first level is sampled directly from the grid. 
+   other levels are stored in compact arrays of short (if max attribute fits into 16 bits), int or long, 
+   so level values are the same as downsampled grid attributes.
+   Grid attributes outside of the storage range of max attribute (see setMaxAttribute()) cause IllegalArgumentException. 
+   levels are calculated in parallel, each level is split into slices along y 
+
    @author Vladimir Bulatov
  */
-public class GridMipMap extends TransformableDataSource {
+public class GridMipMap extends TransformableDataSource implements BulkDataSource {
     
     static final boolean DEBUG = false;
     static int debugCount = 100;
@@ -40,13 +53,19 @@ public class GridMipMap extends TransformableDataSource {
  
     static final double LOG2 = log(2.);
 
+    // mipmap levels 
+    protected MipLevel m_levels[];
+    // grids made from levels on request 
     protected AttributeGrid m_grids[];
     // type of mip map interpolation
     static public final int INTERPOLATION_BOX = 0, INTERPOLATION_LINEAR = 1;
+    // type of interpolation inside of single level 
+    static public final int SAMPLING_LINEAR = 0, SAMPLING_CUBIC = 1;
     // type of grid downsampling 
     static public final int SCALING_AVERAGE = 0, SCALING_MAX = 1;
 
     protected int m_interpolationType = INTERPOLATION_LINEAR;//INTERPOLATION_BOX;
+    protected int m_samplingType = SAMPLING_LINEAR;
     protected int m_repeatType = REPEAT_NONE;
 
     // what algorithm to use for grid downsampling 
@@ -62,13 +81,32 @@ public class GridMipMap extends TransformableDataSource {
     double gbounds[] = new double[6]; 
     AttributeGrid m_grid; 
 
+    int m_threadCount;
+    int m_sliceThickness = 4;
+
     public GridMipMap(AttributeGrid grid){
 
         m_grid = grid;
+        m_threadCount = ThreadUtil.getMaxThreadCount();
         //new Exception().printStackTrace();
         
     }
 
+    /**
+       set count of threads to use for mipmap creation.
+       count < 1 means use all available processors
+     */
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
+    /**
+       set thickness of slices processed by single thread
+     */
+    public void setSliceThickness(int thickness){
+        m_sliceThickness = Math.max(1, thickness);
+    }
+
     public int initialize(){
         
         super.initialize();
@@ -88,6 +126,13 @@ public class GridMipMap extends TransformableDataSource {
         m_interpolationType = type;
     }
 
+    /**
+       set interpolation inside of single level, SAMPLING_LINEAR or SAMPLING_CUBIC
+     */
+    public void setSamplingType(int type){
+        m_samplingType = type;
+    }
+
     /**
        allowed values REPEAT_NONE or bitwise combination of REPEAT_X, REPEAT_Y, REPEAT_Z 
      */
@@ -95,6 +140,12 @@ public class GridMipMap extends TransformableDataSource {
         m_repeatType = type;
     }
 
+    /**
+       set max value of grid attribute, default is 255. 
+       It is used for normalization and to select storage of levels: 
+       short for max attribute up to 0xFFFF, int up to Integer.MAX_VALUE, long otherwise. 
+       Grid attributes which do not fit into storage cause IllegalArgumentException in initialize()
+     */
     public void setMaxAttribute(long value){
         m_maxAttribute  = value;
     }
@@ -119,30 +170,46 @@ public class GridMipMap extends TransformableDataSource {
         if(DEBUG){
             printf("createMipMap()\n grid [%d x %d x %d]\n", nx, ny, nz);
         }
-        Vector vgrids = new Vector();
-        vgrids.add(grid);
+        long t0 = time();
+        int storage = MipLevel.getStorage(m_maxAttribute);
         int levelCount = 1;
-        while(nx > 1 || ny > 1 ||nz > 1){
-            
-            grid = makeGridHalfSize(grid, nx, ny, nz, m_scalingType);
-            vgrids.add(grid);
-            
+        for(int n = Math.max(nx, Math.max(ny, nz)); n > 1; n = (n+1)/2) 
+            levelCount++;
+
+        m_levels = new MipLevel[levelCount];
+        m_grids = new AttributeGrid[levelCount];
+        m_grids[0] = grid;
+        // first level is sampled from the grid without copy 
+        m_levels[0] = new MipLevel(grid);
+
+        for(int k = 1; k < levelCount; k++){
+
             nx = (nx+1)/2;
             ny = (ny+1)/2;
             nz = (nz+1)/2;            
+            m_levels[k] = new MipLevel(nx, ny, nz, storage);
+            runLevel(m_levels[k], m_levels[k-1]);
 
             if(DEBUG){
                 printf("  mipmap level [%d x %d x %d]\n", nx, ny, nz);
             }
-            levelCount++;
         }
-        printf("  levelCount: %d\n", levelCount);
+        if(DEBUG)printf("  levelCount: %d  %d ms\n", levelCount, (time() - t0));
+        
+    }
 
-        m_grids = (AttributeGrid[])vgrids.toArray(new AttributeGrid[levelCount]);
+    /**
+       downsamples level from previous level in parallel 
+     */
+    void runLevel(final MipLevel out, final MipLevel in){
         
+        ThreadUtil.runSlices(new SliceManager(out.ny, m_sliceThickness), new ThreadUtil.SliceTask(){
+                public void processSlice(Slice slice){
+                    makeHalfSize(in, out, slice.smin, slice.smax, m_scalingType);
+                }
+            }, m_threadCount);
     }
 
-    
     /**      
        returns interpolated mipmaped value at point (x,y,z) 
        point and voxelSize is given in world coordinates 
@@ -163,11 +230,11 @@ public class GridMipMap extends TransformableDataSource {
         double vg = abs(pnt.getScaledVoxelSize()) * scaleFactor;
         
         if(vg <= 1.) {        
-            dataValue.v[0] = m_normalization*getValue(m_grids[0], xg, yg, zg);
+            dataValue.v[0] = m_normalization*getValue(m_levels[0], xg, yg, zg);
             return ResultCodes.RESULT_OK;
         } 
 
-        int level = 0, maxLevel = m_grids.length-1;
+        int level = 0, maxLevel = m_levels.length-1;
         int scale  = 1;
                 
         while((vg > 1.0) && (level < maxLevel)){
@@ -178,7 +245,7 @@ public class GridMipMap extends TransformableDataSource {
         }
                 
         //TODO interpolation between levels 
-        double v0 = m_normalization*getValue(m_grids[level], xg/scale, yg/scale, zg/scale);
+        double v0 = m_normalization*getValue(m_levels[level], xg/scale, yg/scale, zg/scale);
         if(false){
             dataValue.v[0] = v0;
             return ResultCodes.RESULT_OK;
@@ -186,7 +253,7 @@ public class GridMipMap extends TransformableDataSource {
         if(level < maxLevel && m_interpolationType != INTERPOLATION_BOX){  
             // intrerpolate with next level 
             level--; scale /= 2;
-            double v1 = m_normalization*getValue(m_grids[level], xg/scale, yg/scale, zg/scale);
+            double v1 = m_normalization*getValue(m_levels[level], xg/scale, yg/scale, zg/scale);
 
             //double v = v1 * exp(2*(1-vg) * log(v0/v1));
             double lv = -log(vg)/LOG2;  // lv is in [0,1]
@@ -241,14 +308,17 @@ public class GridMipMap extends TransformableDataSource {
     static final int ALLCORNERS = 0xFF; 
     
     /**
-       returns interpolated value from one grid; 
+       returns interpolated value from one level
     */
-    double getValue(AttributeGrid grid, double x, double y, double z){
+    final double getValue(MipLevel grid, double x, double y, double z){
         
+        if(m_samplingType == SAMPLING_CUBIC)
+            return getValueCubic(grid, x, y, z);
+
         int 
-            nx = grid.getWidth(),
-            ny = grid.getHeight(),
-            nz = grid.getDepth();
+            nx = grid.nx,
+            ny = grid.ny,
+            nz = grid.nz;
         
         // half voxel shift to get to the voxels centers 
         x -= 0.5;
@@ -300,15 +370,15 @@ public class GridMipMap extends TransformableDataSource {
         }
         
         //try {
-            long 
-            v000 = ((mask & B000) != 0) ? grid.getAttribute(ix,  iy,  iz ): 0,  
-            v100 = ((mask & B100) != 0) ? grid.getAttribute(ix1, iy,  iz ): 0, 
-            v010 = ((mask & B010) != 0) ? grid.getAttribute(ix,  iy1, iz ): 0, 
-            v110 = ((mask & B110) != 0) ? grid.getAttribute(ix1, iy1, iz ): 0,
-            v001 = ((mask & B001) != 0) ? grid.getAttribute(ix,  iy,  iz1): 0,
-            v101 = ((mask & B101) != 0) ? grid.getAttribute(ix1, iy,  iz1): 0,
-            v011 = ((mask & B011) != 0) ? grid.getAttribute(ix,  iy1, iz1): 0,
-            v111 = ((mask & B111) != 0) ? grid.getAttribute(ix1, iy1, iz1): 0;
+            double 
+            v000 = ((mask & B000) != 0) ? grid.get(ix,  iy,  iz ): 0,  
+            v100 = ((mask & B100) != 0) ? grid.get(ix1, iy,  iz ): 0, 
+            v010 = ((mask & B010) != 0) ? grid.get(ix,  iy1, iz ): 0, 
+            v110 = ((mask & B110) != 0) ? grid.get(ix1, iy1, iz ): 0,
+            v001 = ((mask & B001) != 0) ? grid.get(ix,  iy,  iz1): 0,
+            v101 = ((mask & B101) != 0) ? grid.get(ix1, iy,  iz1): 0,
+            v011 = ((mask & B011) != 0) ? grid.get(ix,  iy1, iz1): 0,
+            v111 = ((mask & B111) != 0) ? grid.get(ix1, iy1, iz1): 0;
         double d = 
             dx1 *(dy1 * (dz1 * v000 + dz  * v001) +  dy*(dz1 * v010 + dz  * v011)) +   
             dx  *(dy1 * (dz1 * v100 + dz  * v101) +  dy*(dz1 * v110 + dz  * v111));
@@ -322,30 +392,185 @@ public class GridMipMap extends TransformableDataSource {
         //return 0;
     }
     
+    /**
+       returns tricubic (Catmull-Rom) interpolated value from one level
+       voxels outside of the level are zero unless level is repeated 
+       no work arrays are used, so the method is thread safe and does not allocate memory 
+    */
+    final double getValueCubic(MipLevel grid, double x, double y, double z){
+
+        x -= 0.5;
+        y -= 0.5;
+        z -= 0.5;
+        
+        int 
+            ix = (int)floor(x),
+            iy = (int)floor(y),
+            iz = (int)floor(z);
+        int 
+            x0 = wrap(ix - 1, grid.nx, REPEAT_X),
+            x1 = wrap(ix, grid.nx, REPEAT_X),
+            x2 = wrap(ix + 1, grid.nx, REPEAT_X),
+            x3 = wrap(ix + 2, grid.nx, REPEAT_X),
+            z0 = wrap(iz - 1, grid.nz, REPEAT_Z),
+            z1 = wrap(iz, grid.nz, REPEAT_Z),
+            z2 = wrap(iz + 1, grid.nz, REPEAT_Z),
+            z3 = wrap(iz + 2, grid.nz, REPEAT_Z);
+        double 
+            tx = x - ix,
+            tz = z - iz;
+
+        return cubic(y - iy,
+                     getPlaneCubic(grid, wrap(iy - 1, grid.ny, REPEAT_Y), x0, x1, x2, x3, z0, z1, z2, z3, tx, tz),
+                     getPlaneCubic(grid, wrap(iy, grid.ny, REPEAT_Y), x0, x1, x2, x3, z0, z1, z2, z3, tx, tz),
+                     getPlaneCubic(grid, wrap(iy + 1, grid.ny, REPEAT_Y), x0, x1, x2, x3, z0, z1, z2, z3, tx, tz),
+                     getPlaneCubic(grid, wrap(iy + 2, grid.ny, REPEAT_Y), x0, x1, x2, x3, z0, z1, z2, z3, tx, tz));
+    }
+
+    /**
+       @return bicubic interpolated value in xz-plane y, negative coordinates are outside of level 
+     */
+    static final double getPlaneCubic(MipLevel grid, int y, int x0, int x1, int x2, int x3, 
+                                      int z0, int z1, int z2, int z3, double tx, double tz){
+        if(y < 0) 
+            return 0;
+        return cubic(tx, 
+                     getLineCubic(grid, x0, y, z0, z1, z2, z3, tz),
+                     getLineCubic(grid, x1, y, z0, z1, z2, z3, tz),
+                     getLineCubic(grid, x2, y, z0, z1, z2, z3, tz),
+                     getLineCubic(grid, x3, y, z0, z1, z2, z3, tz));
+    }
+
+    /**
+       @return cubic interpolated value along z-line (x,y), negative coordinates are outside of level 
+     */
+    static final double getLineCubic(MipLevel grid, int x, int y, int z0, int z1, int z2, int z3, double tz){
+        if(x < 0) 
+            return 0;
+        return cubic(tz, 
+                     (z0 < 0)? 0: grid.get(x, y, z0),
+                     (z1 < 0)? 0: grid.get(x, y, z1),
+                     (z2 < 0)? 0: grid.get(x, y, z2),
+                     (z3 < 0)? 0: grid.get(x, y, z3));
+    }
+
+    /**
+       @return wrapped coordinate or -1 if coordinate is outside and axis is not repeated 
+     */
+    final int wrap(int x, int n, int repeatMask){
+        if((m_repeatType & repeatMask) != 0) 
+            return reminder(x, n);
+        else if(isOutside(x, n))
+            return -1;
+        else 
+            return x;
+    }
+
+    /**
+       Catmull-Rom interpolation of 4 samples at fractional coordinate t in [0,1) between v1 and v2 
+     */
+    static final double cubic(double t, double v0, double v1, double v2, double v3){
+
+        double t2 = t*t, t3 = t2*t;
+        return 0.5*((-t3 + 2*t2 - t)*v0 + (3*t3 - 5*t2 + 2)*v1 + (-3*t3 + 4*t2 + t)*v2 + (t3 - t2)*v3);
+    }
+
+    /**
+       calculates values for block of points 
+       points are transformed by transform of this data source, material channels are not calculated 
+       voxelSize is used to select mipmap level, null voxelSize means sampling of the finest level 
+
+       @Override
+     */
+    public void getDataValues(double coord[], double voxelSize[], double values[], int offset, int count){
+
+        double pc[] = new double[3*count];
+        double scale[] = new double[count];
+        int result[] = new int[count];
+        System.arraycopy(coord, 3*offset, pc, 0, 3*count);
+        Arrays.fill(scale, 1.);
+        transform(pc, scale, result, 0, count);
+        getBaseValues(pc, scale, voxelSize, values, offset, count);
+    }
+
+    /**
+       calculates values for block of points in coordinates of the grid
+       @param coord points coordinates (x,y,z) triples starting at index 0
+       @param scale accumulated scale factor at each point 
+       @param voxelSize voxel size at each point starting at index offset, may be null 
+       @param values calculated values starting at index offset 
+     */
+    protected void getBaseValues(double coord[], double scale[], double voxelSize[], double values[], int offset, int count){
+
+        MipLevel levels[] = m_levels;
+        int maxLevel = levels.length-1;
+        boolean box = (m_interpolationType == INTERPOLATION_BOX);
+        for(int i = 0; i < count; i++){
+            int k = 3*i;
+            double 
+                xg = (coord[k] - xgmin)*scaleFactor,
+                yg = (coord[k+1] - ygmin)*scaleFactor,
+                zg = (coord[k+2] - zgmin)*scaleFactor;
+            double vg = (voxelSize == null)? 0: abs(voxelSize[offset + i]*scale[i])*scaleFactor;
+            if(vg <= 1.){
+                values[offset + i] = m_normalization*getValue(levels[0], xg, yg, zg);
+                continue;
+            }
+            int level = 0;
+            int s = 1;
+            while((vg > 1.0) && (level < maxLevel)){
+                vg /= 2;
+                level++;
+                s *= 2;
+            }
+            double v0 = m_normalization*getValue(levels[level], xg/s, yg/s, zg/s);
+            if(level < maxLevel && !box){
+                s /= 2;
+                double v1 = m_normalization*getValue(levels[level-1], xg/s, yg/s, zg/s);
+                double lv = -log(vg)/LOG2;
+                values[offset + i] = v1* lv + v0*(1-lv);
+            } else {
+                values[offset + i] = v0;
+            }
+        }
+    }
+
     public int getLevelsCount(){
-        return m_grids.length;
+        return m_levels.length;
     }
     
+    /**
+       @return grid with data of given level, the grid is created on first request 
+     */
     public AttributeGrid getLevel(int level){
+
+        if(m_grids[level] == null){
+            MipLevel ml = m_levels[level];
+            int s = 1 << level;
+            AttributeGrid grid = (AttributeGrid)m_grid.createEmpty(ml.nx, ml.ny, ml.nz, s*m_grid.getVoxelSize(),s*m_grid.getSliceHeight());
+            for(int y = 0; y < ml.ny; y++){
+                for(int x = 0; x < ml.nx; x++){
+                    for(int z = 0; z < ml.nz; z++){
+                        grid.setAttribute(x,y,z,ml.getLong(ml.index(x,y,z)));
+                    }
+                }
+            }
+            m_grids[level] = grid;
+        }
         return m_grids[level];
     }
     
-    
     /**
-       creates grid of half size 
-       
+       calculates y-slices [ymin, ymax) of level of half size 
      */
-    static AttributeGrid makeGridHalfSize(AttributeGrid inGrid, int nx, int ny, int nz, int type){
-
+    static void makeHalfSize(MipLevel in, MipLevel out, int ymin, int ymax, int type){
             
-        int nx1 = (nx+1)/2;
-        int ny1 = (ny+1)/2;
-        int nz1 = (nz+1)/2;
-        AttributeGrid grid = (AttributeGrid)inGrid.createEmpty(nx1, ny1, nz1, 2*inGrid.getVoxelSize(),2*inGrid.getSliceHeight());        
+        int nx = in.nx, ny = in.ny, nz = in.nz;
+        int nx1 = out.nx, nz1 = out.nz;
 
         long att[] = new long[8];
 
-        for(int y = 0; y < ny1; y++){
+        for(int y = ymin; y < ymax; y++){
             int yy = 2*y;
             int yy1 = (yy+1);
             if(yy1 >= ny) yy1 = yy;
@@ -354,40 +579,141 @@ public class GridMipMap extends TransformableDataSource {
                 int xx = 2*x;
                 int xx1 = (xx+1);
                 if(xx1 >= nx) xx1 = xx;
+                int ind = out.index(x, y, 0);
+                // indices are not used for level sampled from the grid 
+                int i00 = in.index(xx, yy, 0), i10 = in.index(xx1, yy, 0), i11 = in.index(xx1, yy1, 0), i01 = in.index(xx, yy1, 0);
 
                 for(int z = 0; z < nz1; z++){
 
                     int zz = 2*z;
-                    int zz1 = (zz+1) % nz;
+                    int zz1 = (zz+1);
                     if(zz1 >= nz) zz1 = zz;
                     int c = 0;
 
-                    att[c++] = inGrid.getAttribute(xx,yy,zz);
-                    att[c++] = inGrid.getAttribute(xx,yy,zz1);
-                    att[c++] = inGrid.getAttribute(xx1,yy,zz);
-                    att[c++] = inGrid.getAttribute(xx1,yy,zz1);
-                    att[c++] = inGrid.getAttribute(xx1,yy1,zz);
-                    att[c++] = inGrid.getAttribute(xx1,yy1,zz1);
-                    att[c++] = inGrid.getAttribute(xx,yy1,zz);
-                    att[c++] = inGrid.getAttribute(xx,yy1,zz1);
+                    if(in.grid != null){
+                        // level is downsampled from the grid 
+                        AttributeGrid grid = in.grid;
+                        att[c++] = grid.getAttribute(xx, yy, zz);
+                        att[c++] = grid.getAttribute(xx, yy, zz1);
+                        att[c++] = grid.getAttribute(xx1, yy, zz);
+                        att[c++] = grid.getAttribute(xx1, yy, zz1);
+                        att[c++] = grid.getAttribute(xx1, yy1, zz);
+                        att[c++] = grid.getAttribute(xx1, yy1, zz1);
+                        att[c++] = grid.getAttribute(xx, yy1, zz);
+                        att[c++] = grid.getAttribute(xx, yy1, zz1);
+                    } else {
+                        att[c++] = in.getLong(i00 + zz);
+                        att[c++] = in.getLong(i00 + zz1);
+                        att[c++] = in.getLong(i10 + zz);
+                        att[c++] = in.getLong(i10 + zz1);
+                        att[c++] = in.getLong(i11 + zz);
+                        att[c++] = in.getLong(i11 + zz1);
+                        att[c++] = in.getLong(i01 + zz);
+                        att[c++] = in.getLong(i01 + zz1);
+                    }
                     
                     switch(type){                        
                     default:
                     case SCALING_AVERAGE:
-                        grid.setAttribute(x,y,z,average(att));
+                        out.set(ind + z, average(att));
                         break;
                     case SCALING_MAX:
-                        grid.setAttribute(x,y,z,max(att));
+                        out.set(ind + z, max(att));
                         break;
                     }
                 }
             }
         }
-        
-        return grid;
-            
     }
 
+    /**
+       single level of mipmap stored in primitive array with z being the fastest coordinate 
+       or sampled from the grid
+     */
+    static class MipLevel {
+
+        static final long MAX_SHORT = 0xFFFF;
+        static final int STORAGE_SHORT = 0, STORAGE_INT = 1, STORAGE_LONG = 2;
+
+        final int nx, ny, nz;
+        final short sdata[];
+        final int idata[];
+        final long ldata[];
+        // grid to sample or null 
+        final AttributeGrid grid;
+
+        /**
+           @return the most compact storage for attributes up to maxAttribute
+         */
+        static int getStorage(long maxAttribute){
+            if(maxAttribute <= MAX_SHORT) 
+                return STORAGE_SHORT;
+            else if(maxAttribute <= Integer.MAX_VALUE)
+                return STORAGE_INT;
+            else 
+                return STORAGE_LONG;
+        }
+
+        MipLevel(int nx, int ny, int nz, int storage){
+            this.nx = nx;
+            this.ny = ny;
+            this.nz = nz;
+            long size = (long)nx*ny*nz;
+            if(size > Integer.MAX_VALUE)
+                throw new IllegalArgumentException(fmt("mipmap level [%d x %d x %d] is too large", nx, ny, nz));
+            sdata = (storage == STORAGE_SHORT)? new short[(int)size]: null;
+            idata = (storage == STORAGE_INT)? new int[(int)size]: null;
+            ldata = (storage == STORAGE_LONG)? new long[(int)size]: null;
+            grid = null;
+        }
+
+        /**
+           level which samples the grid 
+         */
+        MipLevel(AttributeGrid grid){
+            this.nx = grid.getWidth();
+            this.ny = grid.getHeight();
+            this.nz = grid.getDepth();
+            this.grid = grid;
+            sdata = null;
+            idata = null;
+            ldata = null;
+        }
+
+        final int index(int x, int y, int z){
+            return (y*nx + x)*nz + z;
+        }
+
+        final double get(int x, int y, int z){
+            if(grid != null) 
+                return grid.getAttribute(x, y, z);
+            return getLong((y*nx + x)*nz + z);
+        }
+
+        final long getLong(int ind){
+            if(sdata != null) return (sdata[ind] & 0xFFFF);
+            else if(idata != null) return idata[ind];
+            else return ldata[ind];
+        }
+
+        /**
+           stores value, short levels store values in [0, MAX_SHORT], int levels store values in int range
+           @throws IllegalArgumentException if value does not fit into storage 
+         */
+        final void set(int ind, long value){
+            if(sdata != null) {
+                if(value < 0 || value > MAX_SHORT) 
+                    throw new IllegalArgumentException(fmt("grid attribute %d is outside of range [0, %d], max attribute has to be set", value, MAX_SHORT));
+                sdata[ind] = (short)value;
+            } else if(idata != null) {
+                if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException(fmt("grid attribute %d is outside of int range, max attribute has to be set", value));
+                idata[ind] = (int)value;
+            } else {
+                ldata[ind] = value;
+            }
+        }
+    } // class MipLevel 
 
     protected static long max(long att[]){
         long s = att[0];
@@ -12,8 +12,11 @@
 
 package abfab3d.datasources;
 
+import java.util.Arrays;
+
 import javax.vecmath.Vector3d;
 
+import abfab3d.core.BulkDataSource;
 import abfab3d.core.ResultCodes;
 import abfab3d.param.*;
 
@@ -30,15 +33,21 @@ import static abfab3d.core.Units.MM;
    noise is controlled by gradients vectors defined at the grid of a given size and dimension
    noise value between grid nodes is smoothly interpolated from values and gradients 
    the values are periodicaly replicated to the whole space
+
+   if octaves > 1 the value is fractal Brownian motion - sum of several octaves of noise 
+   each next octave has frequency multiplied by lacunarity and amplitude multiplied by gain 
  */
-public class Noise extends TransformableDataSource {  // Periodic noise in 3D 
+public class Noise extends TransformableDataSource implements BulkDataSource {  // Periodic noise in 3D 
 
     protected double 
         m_scaleX,
         m_scaleY,
         m_scaleZ,
         m_offset,
-        m_factor;
+        m_factor,
+        m_lacunarity,
+        m_gain;
+    protected int m_octaves;
         
     protected double m_gradients[];
 
@@ -54,6 +63,9 @@ public class Noise extends TransformableDataSource {  // Periodic noise in 3D
     DoubleParameter mp_offset = new DoubleParameter("offset","offset in (result = value*factor+offset) ",0.);
     DoubleParameter mp_factor = new DoubleParameter("factor","factor in (result = value*factor+offset)",1.);
     Vector3dParameter mp_size = new Vector3dParameter("size","Physical size of grid",new Vector3d(10*MM,10*MM,10*MM));
+    IntParameter mp_octaves = new IntParameter("octaves","count of noise octaves",1);
+    DoubleParameter mp_lacunarity = new DoubleParameter("lacunarity","frequency factor of each next octave",2.);
+    DoubleParameter mp_gain = new DoubleParameter("gain","amplitude factor of each next octave",0.5);
 
     Parameter m_aparam[] = new Parameter[]{
         mp_nx,
@@ -64,6 +76,9 @@ public class Noise extends TransformableDataSource {  // Periodic noise in 3D
         mp_factor,
         mp_offset,
         mp_periodic,
+        mp_octaves,
+        mp_lacunarity,
+        mp_gain,
     };
 
     public Noise(){
@@ -94,6 +109,18 @@ public class Noise extends TransformableDataSource {  // Periodic noise in 3D
         mp_size.setValue(val);
     }
 
+    public void setOctaves(int val) {
+        mp_octaves.setValue(val);
+    }
+
+    public void setLacunarity(double val) {
+        mp_lacunarity.setValue(val);
+    }
+
+    public void setGain(double val) {
+        mp_gain.setValue(val);
+    }
+
     public Noise(Vector3d size, int nx,int ny,int nz, double gradients[]){
         super.addParams(m_aparam);
 
@@ -134,6 +161,9 @@ public class Noise extends TransformableDataSource {  // Periodic noise in 3D
         m_scaleZ = nz/size.z;
         m_offset = mp_offset.getValue();
         m_factor = mp_factor.getValue();
+        m_octaves = Math.max(1, mp_octaves.getValue());
+        m_lacunarity = mp_lacunarity.getValue();
+        m_gain = mp_gain.getValue();
 
         int seed = mp_seed.getValue();
         
@@ -160,11 +190,35 @@ public class Noise extends TransformableDataSource {  // Periodic noise in 3D
         
         //double v = m_noise.turbulence(x,y,z, 4, 0.5);
 
-        double v = (m_noise.get(x,y,z)*m_factor + m_offset);
+        double v = (m_noise.fbm(x,y,z, m_octaves, m_lacunarity, m_gain)*m_factor + m_offset);
         value.v[0] = v;
         
         return ResultCodes.RESULT_OK;
     }
 
+    /**
+       calculates noise for block of points 
+       @Override 
+     */
+    public void getDataValues(double coord[], double voxelSize[], double values[], int offset, int count){
+
+        double pc[] = new double[3*count];
+        double scale[] = new double[count];
+        int result[] = new int[count];
+        double nv[] = new double[count];
+        System.arraycopy(coord, 3*offset, pc, 0, 3*count);
+        Arrays.fill(scale, 1.);
+        transform(pc, scale, result, 0, count);
+        for(int i = 0; i < count; i++){
+            pc[3*i] *= m_scaleX;
+            pc[3*i+1] *= m_scaleY;
+            pc[3*i+2] *= m_scaleZ;
+        }
+        m_noise.fbm(pc, nv, 0, count, m_octaves, m_lacunarity, m_gain);
+        for(int i = 0; i < count; i++){
+            values[offset + i] = nv[i]*m_factor + m_offset;
+        }
+    }
+
 }
 
@@ -35,6 +35,7 @@ import abfab3d.transforms.TransformsFactory;
 import abfab3d.core.DataSource;
 import abfab3d.core.Initializable;
 import abfab3d.core.VecTransform;
+import abfab3d.core.BulkVecTransform;
 import abfab3d.core.Vec;
 import abfab3d.core.Bounds;
 import abfab3d.core.MathUtil;
@@ -371,6 +372,39 @@ public abstract class TransformableDataSource extends BaseParameterizable implem
         }
         return ResultCodes.RESULT_OK;
     }
+
+    /**
+       applies transform to block of points 
+       @param coord (x,y,z) coordinates of points, transformed in place 
+       @param scale accumulated scale factors of points, updated in place 
+       @param result result codes of points 
+       @param offset index of the first point 
+       @param count count of points 
+     * @noRefGuide
+     */
+    protected final void transform(double coord[], double scale[], int result[], int offset, int count){
+
+        VecTransform trans = m_transform;
+        if(trans == null) 
+            return;
+        if(trans instanceof BulkVecTransform){
+            ((BulkVecTransform)trans).inverse_transform(coord, scale, result, offset, count);
+            return;
+        }
+        Vec pnt = new Vec(3);
+        for(int i = offset; i < offset + count; i++){
+            if(result[i] != ResultCodes.RESULT_OK)
+                continue;
+            int k = 3*i;
+            pnt.set(coord[k], coord[k+1], coord[k+2]);
+            pnt.setScaleFactor(scale[i]);
+            result[i] = trans.inverse_transform(pnt, pnt);
+            coord[k] = pnt.v[0];
+            coord[k+1] = pnt.v[1];
+            coord[k+2] = pnt.v[2];
+            scale[i] = pnt.getScaleFactor();
+        }
+    }
     
     /**
      *  @return number of channes this data source generates 
@@ -474,6 +508,20 @@ public abstract class TransformableDataSource extends BaseParameterizable implem
         return result;
     }
 
+    /**
+       variant of getShapeValue() for bulk calculations 
+     */
+    protected final double getShapeValue(double value, double scaleFactor, double voxelSize){
+        
+        switch(m_dataType) {
+        default: 
+        case DATA_TYPE_DENSITY: 
+            return toDensity(value, voxelSize);
+        case DATA_TYPE_DISTANCE:            
+            return value / scaleFactor;
+        }            
+    }
+
     /**
        convert distance into density 
      */
@@ -13,6 +13,9 @@
 package abfab3d.datasources;
 
 
+import java.util.Arrays;
+
+import abfab3d.core.BulkDataSource;
 import abfab3d.core.ResultCodes;
 import abfab3d.param.DoubleParameter;
 import abfab3d.param.Parameter;
@@ -37,10 +40,49 @@ public class VolumePatterns {
     static final boolean DEBUG = false;
     static int debugCount = 100;
 
+    /**
+       base class for patterns defined by distance function of point 
+       implements single point and bulk calculations 
+     */
+    static abstract class BasePattern extends TransformableDataSource implements BulkDataSource {
+
+        /**
+           @return distance to pattern surface at the point 
+         */
+        abstract double getDistance(double x, double y, double z);
+
+        /**
+         * @noRefGuide
+         */
+        public int getBaseValue(Vec pnt, Vec data){
+
+            data.v[0] = getShapeValue(getDistance(pnt.v[0], pnt.v[1], pnt.v[2]), pnt);
+            return ResultCodes.RESULT_OK;
+        }
+
+        /**
+         * @noRefGuide
+         */
+        public void getDataValues(double coord[], double voxelSize[], double values[], int offset, int count){
+
+            double pc[] = new double[3*count];
+            double scale[] = new double[count];
+            int result[] = new int[count];
+            System.arraycopy(coord, 3*offset, pc, 0, 3*count);
+            Arrays.fill(scale, 1.);
+            transform(pc, scale, result, 0, count);
+            for(int i = 0; i < count; i++){
+                int k = 3*i;
+                double vs = (voxelSize != null)? voxelSize[offset + i]: 0.;
+                values[offset + i] = getShapeValue(getDistance(pc[k], pc[k+1], pc[k+2]), scale[i], vs);
+            }
+        }
+    } // class BasePattern 
+
     /**
        approximation to Gyroid 
     */
-    public static class Gyroid  extends TransformableDataSource{
+    public static class Gyroid extends BasePattern {
         
 
         // member variables should be initialized 
@@ -138,14 +180,11 @@ public class VolumePatterns {
 
         /**
          * @noRefGuide
-         * @param pnt
-         * @param data
-         * @return
          */
-        public int getBaseValue(Vec pnt, Vec data){
-            double x = pnt.v[0] - m_centerX;
-            double y = pnt.v[1] - m_centerY;
-            double z = pnt.v[2] - m_centerZ;
+        final double getDistance(double x, double y, double z){
+            x -= m_centerX;
+            y -= m_centerY;
+            z -= m_centerZ;
             
             x *= m_factor;
             y *= m_factor;
@@ -153,10 +192,7 @@ public class VolumePatterns {
             
             // gyroid 
             double dist = abs(( sin(x)*cos(y) + sin(y)*cos(z) + sin(z) * cos(x) - m_level)/m_factor) - (m_thickness);
-            
-            data.v[0] = getShapeValue(dist, pnt);
-
-            return ResultCodes.RESULT_OK;
+            return dist;
         }
         
     } // Gyroid 
@@ -164,7 +200,7 @@ public class VolumePatterns {
     /**
        http://en.wikipedia.org/wiki/Lidinoid
     */
-    public static class Lidinoid extends TransformableDataSource{
+    public static class Lidinoid extends BasePattern {
 
         private double m_thickness;
         private double m_level;
@@ -211,11 +247,7 @@ public class VolumePatterns {
         /**
          * @noRefGuide
          */
-        public int getBaseValue(Vec pnt, Vec data){
-
-            double x = pnt.v[0];
-            double y = pnt.v[1];
-            double z = pnt.v[2];
+        final double getDistance(double x, double y, double z){
 
             x *= m_factor;
             y *= m_factor;
@@ -240,10 +272,7 @@ public class VolumePatterns {
             double dist = abs(((s2x * cy * sz + s2y * cz * sx + s2z * cx * sy) -
                             (c2x * c2y + c2y * c2z + c2z * c2x) 
                             - m_level)/(4*m_factor))  - m_thickness;
-            
-            data.v[0] = getShapeValue(dist, pnt);
-
-            return ResultCodes.RESULT_OK;
+            return dist;
         }
 
     } // Lidinoid
@@ -253,7 +282,7 @@ public class VolumePatterns {
      *
      * @author Alan Hudson
      */
-    public static class SchwarzP extends TransformableDataSource{
+    public static class SchwarzP extends BasePattern {
 
 
         private double m_thickness;
@@ -301,21 +330,14 @@ public class VolumePatterns {
         /**
          * @noRefGuide
          */
-        public int getBaseValue(Vec pnt, Vec data){
-
-            double x = pnt.v[0];
-            double y = pnt.v[1];
-            double z = pnt.v[2];
+        final double getDistance(double x, double y, double z){
 
             x *= m_factor;
             y *= m_factor;
             z *= m_factor;
 
             double dist = abs(cos(x) + cos(y) + cos(z)-m_level)/m_factor - m_thickness;
-
-            data.v[0] = getShapeValue(dist, pnt);
-
-            return ResultCodes.RESULT_OK;
+            return dist;
         }
     }
 
@@ -324,7 +346,7 @@ public class VolumePatterns {
      *
      * @author Alan Hudson
      */
-    public static class SchwarzD extends TransformableDataSource {
+    public static class SchwarzD extends BasePattern {
         
         double m_thickness;
         double m_level;
@@ -370,21 +392,14 @@ public class VolumePatterns {
         /**
          * @noRefGuide
          */
-        public int getBaseValue(Vec pnt, Vec data){
-
-            double x = pnt.v[0];
-            double y = pnt.v[1];
-            double z = pnt.v[2];
+        final double getDistance(double x, double y, double z){
 
             x *= m_factor;
             y *= m_factor;
             z *= m_factor;
 
             double dist = abs(sin(x) * sin(y) * sin(z) + sin(x) * cos(y) * cos(z) + cos(x) * sin(x) * cos(z) + cos(x) * cos(y) * sin(z) - m_level)/m_factor - m_thickness;
-            
-            data.v[0] = getShapeValue(dist, pnt);
-
-            return ResultCodes.RESULT_OK;
+            return dist;
         }
     }
 
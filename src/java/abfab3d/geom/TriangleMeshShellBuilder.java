@@ -21,6 +21,7 @@ import abfab3d.grid.op.Neighborhood;
 
 import abfab3d.core.Bounds;
 import abfab3d.core.TriangleCollector;
+import abfab3d.core.BulkTriangleCollector;
 import abfab3d.util.TriangleRenderer;
 import abfab3d.util.PointToTriangleDistance;
 import abfab3d.util.PointMap;
@@ -46,7 +47,7 @@ import static abfab3d.core.Output.printf;
    
    @author Vladimir Bulatov
  */
-public class TriangleMeshShellBuilder implements TriangleCollector {
+public class TriangleMeshShellBuilder implements TriangleCollector, BulkTriangleCollector {
 
     static final boolean DEBUG = true;
     static final double TOL = 1.e-2;
@@ -236,11 +237,33 @@ public class TriangleMeshShellBuilder implements TriangleCollector {
        
      */
     public boolean addTri(Vector3d p0, Vector3d p1, Vector3d p2){
-        m_triCount++;
         v0.set(p0);
         v1.set(p1);
         v2.set(p2);
+        return addTriInternal();
+    }
+
+    /**
+       method of interface BulkTriangleCollector 
+     */
+    public boolean addTriangles(double coord[], int offset, int triCount){
+
+        int end = offset + 9*triCount;
+        for(int k = offset; k < end; k += 9){
+            v0.set(coord[k],  coord[k+1],coord[k+2]);
+            v1.set(coord[k+3],coord[k+4],coord[k+5]);
+            v2.set(coord[k+6],coord[k+7],coord[k+8]);
+            addTriInternal();
+        }
+        return true;
+    }
+
+    /**
+       process triangle stored in v0, v1, v2 
+     */
+    final boolean addTriInternal(){
 
+        m_triCount++;
         toGrid(v0);
         toGrid(v1);
         toGrid(v2);
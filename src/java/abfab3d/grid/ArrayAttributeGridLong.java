@@ -14,6 +14,7 @@ package abfab3d.grid;
 
 // External Imports
 
+import abfab3d.core.DenseAttributeGrid;
 import abfab3d.core.Grid;
 import abfab3d.core.VoxelData;
 import abfab3d.core.Bounds;
@@ -29,7 +30,7 @@ import abfab3d.core.Bounds;
  * @author Alan Hudson
  * @author Vladimir Bulatov
  */
-public class ArrayAttributeGridLong extends BaseAttributeGrid {
+public class ArrayAttributeGridLong extends BaseAttributeGrid implements DenseAttributeGrid {
     protected long[] data;
 
     /**
@@ -190,6 +191,69 @@ public class ArrayAttributeGridLong extends BaseAttributeGrid {
         data[idx] = ioFunc.updateAttribute(data[idx], material);
     }
 
+    /**
+     * Get attributes of a row of voxels along z axis.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @param zmin The first z grid coordinate
+     * @param zmax The z grid coordinate after the last voxel
+     * @param attributes The array to store attributes into
+     * @param offset The index of the first attribute in the array
+     */
+    public void getAttributes(int x, int y, int zmin, int zmax, long attributes[], int offset) {
+        int idx = y * sliceSize + x * depth + zmin;
+        int end = offset + zmax - zmin;
+
+        for(int i = offset; i < end; i++) {
+            attributes[i] = ioFunc.getAttribute(data[idx++]);
+        }
+    }
+
+    /**
+     * Set attributes of a row of voxels along z axis.  Leaves the states unchanged.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @param zmin The first z grid coordinate
+     * @param zmax The z grid coordinate after the last voxel
+     * @param attributes The attributes to set
+     * @param offset The index of the first attribute in the array
+     */
+    public void setAttributes(int x, int y, int zmin, int zmax, long attributes[], int offset) {
+        int idx = y * sliceSize + x * depth + zmin;
+        int end = offset + zmax - zmin;
+
+        for(int i = offset; i < end; i++, idx++) {
+            data[idx] = ioFunc.updateAttribute(data[idx], attributes[i]);
+        }
+    }
+
+    /**
+     * Set a z row of attribute values
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @param attribute The attributes to set
+     */
+    public void setAttributes(int x, int y, long[] attribute) {
+        setAttributes(x, y, 0, attribute.length, attribute, 0);
+    }
+
+    /**
+     * @return distance in data array between voxels (x,y,z) and (x,y+1,z)
+     */
+    public int getSliceStride() {
+        return sliceSize;
+    }
+
+    /**
+     * @return distance in data array between voxels (x,y,z) and (x+1,y,z)
+     */
+    public int getRowStride() {
+        return depth;
+    }
+
     /**
      * Set the state value of a voxel.  Leaves the material unchanged.
      *
@@ -16,6 +16,7 @@ package abfab3d.grid;
 import java.io.Serializable;
 
 import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.fmt;
 
 
 /**
@@ -33,6 +34,11 @@ import static abfab3d.core.Output.printf;
    
  */
 public class BitIntervals implements RowOfInt, Serializable {
+
+    /**
+       boolean operations on rows 
+     */
+    public static final int UNION = 0, SUBTRACT = 1, INTERSECT = 2;
     
     short m_intervals[];
 
@@ -374,6 +380,97 @@ public class BitIntervals implements RowOfInt, Serializable {
 
     }
 
+    /**
+       replaces this row with result of boolean operation between this row and given row. 
+       Rows are merged in single pass over interval ends, 
+       the time is proportional to the count of intervals and not to the row length 
+
+       @param row second operand, null means empty row
+       @param operation one of UNION, SUBTRACT, INTERSECT
+     */
+    public synchronized void combine(BitIntervals row, int operation){
+
+        int na = m_curcount;
+        int nb = (row == null)? 0: row.m_curcount;
+
+        switch(operation){
+        default: 
+            throw new IllegalArgumentException(fmt("unknown operation: %d", operation));
+        case UNION: 
+            if(nb == 0) return;
+            if(na == 0) {
+                setIntervals(row.m_intervals, nb);
+                return;
+            }
+            break;
+        case SUBTRACT: 
+            if(na == 0 || nb == 0) return;
+            break;
+        case INTERSECT: 
+            if(na == 0) return;
+            if(nb == 0) {
+                m_curcount = 0;
+                return;
+            }
+            break;
+        }
+
+        short a[] = m_intervals;
+        short b[] = row.m_intervals;
+        short out[] = new short[na + nb];
+        int count = 0;
+        int i = 0, j = 0;
+        boolean ina = false, inb = false, in = false;
+
+        while(i < na || j < nb){
+            // next interval end 
+            int x = (j >= nb || (i < na && a[i] <= b[j]))? a[i]: b[j];
+            if(i < na && a[i] == x){
+                ina = !ina;
+                i++;
+            }
+            if(j < nb && b[j] == x){
+                inb = !inb;
+                j++;
+            }
+            boolean v;
+            switch(operation){
+            default:
+            case UNION: v = ina | inb; break;
+            case SUBTRACT: v = ina & !inb; break;
+            case INTERSECT: v = ina & inb; break;
+            }
+            if(v != in){
+                out[count++] = (short)x;
+                in = v;
+            }
+        }
+        setIntervals(out, count);
+    }
+
+    /**
+       set intervals from given array of interval ends 
+     */
+    void setIntervals(short intervals[], int count){
+
+        short d[] = new short[(count > 2)? count: 2];
+        System.arraycopy(intervals, 0, d, 0, count);
+        m_intervals = d;
+        m_curcount = count;
+
+    }
+
+    /**
+       @return count of bits set in the row 
+     */
+    public int getBitCount(){
+        int count = 0;
+        for(int i = 0; i < m_curcount; i += 2){
+            count += m_intervals[i+1] - m_intervals[i];
+        }
+        return count;
+    }
+
     public int compareIntevals(BitIntervals bi){
         int d = m_intervals.length - bi.m_intervals.length;
         if(d != 0)
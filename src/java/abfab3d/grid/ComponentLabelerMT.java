@@ -0,0 +1,580 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid;
+
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import abfab3d.core.AttributeGrid;
+
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.SliceManager;
+import abfab3d.util.Slice;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+   multithreaded labelling of 6-connected components of voxels accepted by AttributeTester
+
+   the grid is split into slabs of y-slices which are labelled independently in parallel.
+   Each slab is labelled by two pass algorithm with local union-find, voxel counts and bounds
+   of local labels are accumulated in the second pass.
+   Labels of adjacent faces of neighboring slabs are merged in parallel via lock-free union-find.
+   Only labels of the slab faces are kept in memory.
+   The labelling of slab is deterministic, which allows to repeat it
+   to modify voxels of selected components without storing label of each voxel.
+
+   @author Vladimir Bulatov
+ */
+public class ComponentLabelerMT {
+
+    static final boolean DEBUG = false;
+
+    static final int DEFAULT_SLICE_THICKNESS = 32;
+    static final int NO_LABEL = -1;
+
+    AttributeTester m_tester;
+    VoxelCounter m_counters[];
+    int m_threadCount = 0;
+    int m_sliceThickness = DEFAULT_SLICE_THICKNESS;
+
+    int nx, ny, nz;
+    AttributeGrid m_grid;
+    SlabData m_slabs[];
+    // offset of global label of the first label of each slab
+    int m_labelOffset[];
+    int m_labelCount;
+    // union-find over global labels
+    AtomicIntegerArray m_parent;
+    // voxel count of each root label
+    long m_rootVolume[];
+    Vector<Component> m_components;
+
+    /**
+       @param tester tester of voxels which belong to components
+     */
+    public ComponentLabelerMT(AttributeTester tester){
+
+        m_tester = tester;
+        m_threadCount = ThreadUtil.getMaxThreadCount();
+
+    }
+
+    /**
+       set count of threads to use.
+       count < 1 means use all available processors
+     */
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
+    /**
+       set thickness of slabs labelled independently
+     */
+    public void setSliceThickness(int thickness){
+        m_sliceThickness = max(1, thickness);
+    }
+
+    /**
+       set counters to be summed over voxels of each component
+       sums are stored in Component.counts[]
+     */
+    public void setCounters(VoxelCounter counters[]){
+        m_counters = counters;
+    }
+
+    /**
+       finds connected components of the grid
+       @return count of components
+     */
+    public int label(AttributeGrid grid){
+
+        long t0 = time();
+        m_grid = grid;
+        nx = grid.getWidth();
+        ny = grid.getHeight();
+        nz = grid.getDepth();
+
+        SliceManager slicer = new SliceManager(ny, m_sliceThickness);
+        int slabCount = slicer.getSliceCount();
+        m_slabs = new SlabData[slabCount];
+        runPass(PASS_LABEL, slicer);
+        if(DEBUG)printf("slabs labelling: %d ms\n", (time() - t0));
+
+        m_labelOffset = new int[slabCount];
+        long labelCount = 0;
+        for(int k = 0; k < slabCount; k++){
+            m_labelOffset[k] = (int)labelCount;
+            labelCount += m_slabs[k].labelCount;
+        }
+        if(labelCount >= Integer.MAX_VALUE)
+            throw new RuntimeException("ComponentLabelerMT: too many labels");
+        m_labelCount = (int)labelCount;
+
+        m_parent = new AtomicIntegerArray(m_labelCount);
+        for(int i = 0; i < m_labelCount; i++){
+            m_parent.lazySet(i, i);
+        }
+
+        runPass(PASS_MERGE, new SliceManager(slabCount, 1));
+        if(DEBUG)printf("faces merging: %d ms\n", (time() - t0));
+
+        makeComponents();
+        if(DEBUG)printf("labelling done: %d ms labels: %d components: %d\n", (time() - t0), m_labelCount, m_components.size());
+
+        return m_components.size();
+
+    }
+
+    /**
+       @return components found by last call to label()
+     */
+    public Vector<Component> getComponents(){
+        return m_components;
+    }
+
+    /**
+       sets attribute of voxels of components with volume less than minSize to removedAttribute
+       the grid has to be labelled by label()
+       @return count of removed components
+     */
+    public int removeSmallComponents(AttributeGrid grid, int minSize, long removedAttribute){
+
+        if(grid != m_grid)
+            throw new IllegalArgumentException("grid was not labelled");
+        int count = 0;
+        for(int i = 0; i < m_components.size(); i++){
+            if(m_components.get(i).volume < minSize)
+                count++;
+        }
+        if(count == 0)
+            return 0;
+
+        m_minSize = minSize;
+        m_removedAttribute = removedAttribute;
+        runPass(PASS_REMOVE, new SliceManager(ny, m_sliceThickness));
+
+        // removed components are not part of the grid anymore
+        Vector<Component> comp = new Vector<Component>();
+        for(int i = 0; i < m_components.size(); i++){
+            Component c = m_components.get(i);
+            if(c.volume >= minSize)
+                comp.add(c);
+        }
+        m_components = comp;
+
+        return count;
+    }
+
+    int m_minSize;
+    long m_removedAttribute;
+
+    static final int
+        PASS_LABEL = 0,
+        PASS_MERGE = 1,
+        PASS_REMOVE = 2;
+
+    /**
+       runs single pass in parallel
+     */
+    void runPass(int pass, SliceManager slicer){
+
+        int threadCount = max(1, min(m_threadCount, slicer.getSliceCount()));
+
+        SliceProcessor processors[] = new SliceProcessor[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            processors[i] = new SliceProcessor(pass);
+        }
+        ThreadUtil.runSlices(slicer, processors);
+    }
+
+    /**
+       @return root of global label
+     */
+    final int find(int label){
+
+        while(true){
+            int p = m_parent.get(label);
+            if(p == label)
+                return label;
+            int gp = m_parent.get(p);
+            // path halving, failed update is harmless
+            if(gp != p)
+                m_parent.compareAndSet(label, p, gp);
+            label = gp;
+        }
+    }
+
+    /**
+       merges two global labels, the smaller label becomes root
+     */
+    final void union(int a, int b){
+
+        while(true){
+            a = find(a);
+            b = find(b);
+            if(a == b)
+                return;
+            if(a < b){
+                int t = a; a = b; b = t;
+            }
+            if(m_parent.compareAndSet(a, a, b))
+                return;
+        }
+    }
+
+    /**
+       combines statistics of slab labels into components
+     */
+    void makeComponents(){
+
+        int rootIndex[] = new int[m_labelCount];
+        Arrays.fill(rootIndex, NO_LABEL);
+        m_components = new Vector<Component>();
+
+        for(int k = 0; k < m_slabs.length; k++){
+            SlabData slab = m_slabs[k];
+            int offset = m_labelOffset[k];
+            for(int i = 0; i < slab.labelCount; i++){
+                int root = find(offset + i);
+                Component c;
+                if(rootIndex[root] == NO_LABEL){
+                    rootIndex[root] = m_components.size();
+                    int b = 6*i;
+                    c = new Component(slab.seed[3*i], slab.seed[3*i+1], slab.seed[3*i+2]);
+                    c.xmin = slab.bounds[b]; c.xmax = slab.bounds[b+1];
+                    c.ymin = slab.bounds[b+2]; c.ymax = slab.bounds[b+3];
+                    c.zmin = slab.bounds[b+4]; c.zmax = slab.bounds[b+5];
+                    c.counts = new long[slab.counterCount];
+                    m_components.add(c);
+                } else {
+                    c = m_components.get(rootIndex[root]);
+                    c.addBounds(slab.bounds, 6*i);
+                }
+                c.volume += slab.volume[i];
+                for(int j = 0; j < slab.counterCount; j++){
+                    c.counts[j] += slab.counts[i*slab.counterCount + j];
+                }
+            }
+            // face data are not needed anymore
+            slab.bottom = null;
+            slab.top = null;
+        }
+
+        m_rootVolume = new long[m_labelCount];
+        for(int i = 0; i < m_labelCount; i++){
+            int root = find(i);
+            if(root == i)
+                m_rootVolume[i] = m_components.get(rootIndex[i]).volume;
+        }
+    }
+
+    /**
+       calculates value to be summed over voxels of component
+       it is called from multiple threads
+     */
+    public interface VoxelCounter {
+        public long count(int x, int y, int z);
+    }
+
+    /**
+       connected component found by the labeler
+     */
+    public static class Component {
+
+        /** count of voxels in the component */
+        public long volume;
+        /** first voxel of the component in y,x,z scan order */
+        public int seedX, seedY, seedZ;
+        /** inclusive bounds of the component in voxels */
+        public int xmin, xmax, ymin, ymax, zmin, zmax;
+        /** sums of counters over voxels of the component */
+        public long counts[];
+
+        Component(int x, int y, int z){
+            seedX = x;
+            seedY = y;
+            seedZ = z;
+        }
+
+        public long getVolume(){
+            return volume;
+        }
+
+        void addBounds(int b[], int offset){
+            xmin = min(xmin, b[offset]);
+            xmax = max(xmax, b[offset+1]);
+            ymin = min(ymin, b[offset+2]);
+            ymax = max(ymax, b[offset+3]);
+            zmin = min(zmin, b[offset+4]);
+            zmax = max(zmax, b[offset+5]);
+        }
+    }
+
+    /**
+       results of labelling of single slab
+     */
+    static class SlabData {
+
+        int labelCount;
+        int counterCount;
+        long volume[];
+        long counts[];
+        int bounds[];
+        int seed[];
+        // labels of the first and last slices of slab
+        int bottom[];
+        int top[];
+    }
+
+    /**
+       class to process slabs of the grid for single pass
+    */
+    class SliceProcessor implements ThreadUtil.SliceTask {
+
+        int pass;
+        // work arrays
+        int labels[];
+        int parent[] = new int[1024];
+
+        SliceProcessor(int pass){
+
+            this.pass = pass;
+
+        }
+
+        public void processSlice(Slice slice){
+
+            switch(pass){
+            default:
+            case PASS_LABEL:
+                for(int s = slice.smin; s < slice.smax; s += m_sliceThickness){
+                    labelSlab(s, min(s + m_sliceThickness, ny));
+                }
+                break;
+            case PASS_MERGE:
+                for(int s = slice.smin; s < slice.smax; s++){
+                    mergeFaces(s);
+                }
+                break;
+            case PASS_REMOVE:
+                for(int s = slice.smin; s < slice.smax; s += m_sliceThickness){
+                    removeSmall(s, min(s + m_sliceThickness, ny));
+                }
+                break;
+            }
+        }
+
+        /**
+           labels slab and stores labels statistics
+         */
+        void labelSlab(int ymin, int ymax){
+
+            int labelCount = labelLocal(ymin, ymax);
+            int nxz = nx*nz;
+
+            SlabData slab = new SlabData();
+            slab.labelCount = labelCount;
+            slab.volume = new long[labelCount];
+            slab.bounds = new int[6*labelCount];
+            slab.seed = new int[3*labelCount];
+            VoxelCounter counters[] = m_counters;
+            int cc = (counters != null)? counters.length: 0;
+            slab.counterCount = cc;
+            slab.counts = new long[cc*labelCount];
+            slab.bottom = Arrays.copyOfRange(labels, 0, nxz);
+            slab.top = Arrays.copyOfRange(labels, (ymax - ymin - 1)*nxz, (ymax - ymin)*nxz);
+
+            long volume[] = slab.volume;
+            int bounds[] = slab.bounds;
+            int seed[] = slab.seed;
+            int index = 0;
+            for(int y = ymin; y < ymax; y++){
+                for(int x = 0; x < nx; x++){
+                    for(int z = 0; z < nz; z++, index++){
+                        int lab = labels[index];
+                        if(lab == NO_LABEL)
+                            continue;
+                        int b = 6*lab;
+                        if(volume[lab] == 0){
+                            seed[3*lab] = x; seed[3*lab+1] = y; seed[3*lab+2] = z;
+                            bounds[b] = x; bounds[b+1] = x;
+                            bounds[b+2] = y; bounds[b+3] = y;
+                            bounds[b+4] = z; bounds[b+5] = z;
+                        } else {
+                            if(x < bounds[b]) bounds[b] = x;
+                            if(x > bounds[b+1]) bounds[b+1] = x;
+                            bounds[b+3] = y; // y is growing
+                            if(z < bounds[b+4]) bounds[b+4] = z;
+                            if(z > bounds[b+5]) bounds[b+5] = z;
+                        }
+                        volume[lab]++;
+                        for(int k = 0; k < cc; k++){
+                            slab.counts[lab*cc + k] += counters[k].count(x,y,z);
+                        }
+                    }
+                }
+            }
+            m_slabs[ymin/m_sliceThickness] = slab;
+        }
+
+        /**
+           merges labels of last slice of slab with labels of the first slice of next slab
+         */
+        void mergeFaces(int slabIndex){
+
+            if(slabIndex + 1 >= m_slabs.length)
+                return;
+            int top[] = m_slabs[slabIndex].top;
+            int bottom[] = m_slabs[slabIndex+1].bottom;
+            int off0 = m_labelOffset[slabIndex];
+            int off1 = m_labelOffset[slabIndex+1];
+            int lastA = NO_LABEL, lastB = NO_LABEL;
+            for(int i = 0; i < top.length; i++){
+                int a = top[i];
+                int b = bottom[i];
+                if(a == NO_LABEL || b == NO_LABEL)
+                    continue;
+                // skip repeated pairs along runs of voxels
+                if(a == lastA && b == lastB)
+                    continue;
+                union(off0 + a, off1 + b);
+                lastA = a;
+                lastB = b;
+            }
+        }
+
+        /**
+           sets attribute of voxels of small components in slab
+         */
+        void removeSmall(int ymin, int ymax){
+
+            labelLocal(ymin, ymax);
+            int offset = m_labelOffset[ymin/m_sliceThickness];
+            AttributeGrid grid = m_grid;
+            int index = 0;
+            for(int y = ymin; y < ymax; y++){
+                for(int x = 0; x < nx; x++){
+                    for(int z = 0; z < nz; z++, index++){
+                        int lab = labels[index];
+                        if(lab == NO_LABEL)
+                            continue;
+                        if(m_rootVolume[find(offset + lab)] < m_minSize)
+                            grid.setAttribute(x,y,z,m_removedAttribute);
+                    }
+                }
+            }
+        }
+
+        /**
+           labels voxels of slab by two pass algorithm
+           labels are stored in labels[] as (y-ymin)*nx*nz + x*nz + z
+           @return count of labels
+         */
+        int labelLocal(int ymin, int ymax){
+
+            int nxz = nx*nz;
+            int size = (ymax - ymin)*nxz;
+            if(labels == null || labels.length < size)
+                labels = new int[size];
+            int labels[] = this.labels;
+            AttributeGrid grid = m_grid;
+            AttributeTester tester = m_tester;
+            int count = 0;
+            int index = 0;
+
+            for(int y = ymin; y < ymax; y++){
+                for(int x = 0; x < nx; x++){
+                    for(int z = 0; z < nz; z++, index++){
+                        if(!tester.test(x,y,z,grid.getAttribute(x,y,z))){
+                            labels[index] = NO_LABEL;
+                            continue;
+                        }
+                        int lz = (z > 0)? labels[index-1]: NO_LABEL;
+                        int lx = (x > 0)? labels[index-nz]: NO_LABEL;
+                        int ly = (y > ymin)? labels[index-nxz]: NO_LABEL;
+                        int lab = lz;
+                        if(lab == NO_LABEL) lab = lx;
+                        if(lab == NO_LABEL) lab = ly;
+                        if(lab == NO_LABEL){
+                            if(count == parent.length)
+                                parent = Arrays.copyOf(parent, 2*count);
+                            parent[count] = count;
+                            lab = count++;
+                        } else {
+                            if(lx != NO_LABEL && lx != lab) lab = localUnion(lab, lx);
+                            if(ly != NO_LABEL && ly != lab) lab = localUnion(lab, ly);
+                        }
+                        labels[index] = lab;
+                    }
+                }
+            }
+
+            // replace provisional labels with consecutive labels of roots
+            int rootCount = 0;
+            for(int i = 0; i < count; i++){
+                if(parent[i] == i) {
+                    parent[i] = -(++rootCount);
+                }
+            }
+            for(int i = 0; i < count; i++){
+                if(parent[i] >= 0)
+                    parent[i] = parent[localFind(i)];
+            }
+            for(int i = 0; i < size; i++){
+                int lab = labels[i];
+                if(lab != NO_LABEL)
+                    labels[i] = -parent[lab] - 1;
+            }
+            return rootCount;
+        }
+
+        /**
+           @return root of local label. Roots are labels with parent[label] == label
+         */
+        final int localFind(int label){
+            int p;
+            while((p = parent[label]) != label && p >= 0){
+                int gp = parent[p];
+                if(gp >= 0 && gp != p)
+                    parent[label] = gp;
+                label = p;
+            }
+            return label;
+        }
+
+        /**
+           merges two local labels, the smaller label becomes root
+           @return root
+         */
+        final int localUnion(int a, int b){
+            a = localFind(a);
+            b = localFind(b);
+            if(a == b)
+                return a;
+            if(a < b){
+                parent[b] = a;
+                return a;
+            } else {
+                parent[a] = b;
+                return b;
+            }
+        }
+    } // class SliceProcessor
+
+} // class ComponentLabelerMT
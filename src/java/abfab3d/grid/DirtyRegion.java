@@ -0,0 +1,143 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.grid;
+
+import java.util.Vector;
+
+import abfab3d.core.Bounds;
+import abfab3d.core.Grid;
+
+/**
+   tracks regions of a grid which need recalculation after local scene edits
+
+   region is kept as a set of disjoint voxel boxes.
+   Touching boxes are merged on addition. If the count of boxes exceeds the max count
+   all boxes are merged into single bounding box.
+
+   @author Vladimir Bulatov
+ */
+public class DirtyRegion {
+
+    static final int DEFAULT_MAX_BOX_COUNT = 16;
+
+    protected Vector<VoxelBox> m_boxes = new Vector<VoxelBox>();
+    protected int m_maxBoxCount = DEFAULT_MAX_BOX_COUNT;
+
+    public DirtyRegion(){
+    }
+
+    /**
+       sets max count of separate boxes to keep
+     */
+    public void setMaxBoxCount(int count){
+
+        m_maxBoxCount = Math.max(1, count);
+
+    }
+
+    /**
+       marks voxel box as dirty
+     */
+    public synchronized void add(VoxelBox box){
+
+        if(box.isEmpty())
+            return;
+
+        VoxelBox nbox = new VoxelBox(box);
+        boolean merged = true;
+        // merge with all touching boxes until nothing touches
+        while(merged){
+            merged = false;
+            for(int i = 0; i < m_boxes.size(); i++){
+                VoxelBox b = m_boxes.get(i);
+                if(b.touches(nbox)){
+                    nbox.union(b);
+                    m_boxes.remove(i);
+                    merged = true;
+                    break;
+                }
+            }
+        }
+        m_boxes.add(nbox);
+
+        if(m_boxes.size() > m_maxBoxCount){
+            VoxelBox ubox = getBounds();
+            m_boxes.clear();
+            m_boxes.add(ubox);
+        }
+    }
+
+    /**
+       marks voxels of the grid which intersect physical bounds as dirty
+     */
+    public void add(Bounds bounds, Grid grid){
+
+        add(VoxelBox.getVoxelBox(bounds, grid));
+
+    }
+
+    /**
+       @return copy of dirty boxes
+     */
+    public synchronized VoxelBox[] getBoxes(){
+
+        VoxelBox boxes[] = new VoxelBox[m_boxes.size()];
+        for(int i = 0; i < boxes.length; i++){
+            boxes[i] = new VoxelBox(m_boxes.get(i));
+        }
+        return boxes;
+    }
+
+    /**
+       @return bounding box of all dirty boxes
+     */
+    public synchronized VoxelBox getBounds(){
+
+        VoxelBox box = new VoxelBox();
+        for(int i = 0; i < m_boxes.size(); i++){
+            box.union(m_boxes.get(i));
+        }
+        return box;
+    }
+
+    /**
+       @return true if any of the boxes touches given box
+     */
+    public synchronized boolean intersects(VoxelBox box){
+
+        for(int i = 0; i < m_boxes.size(); i++){
+            if(m_boxes.get(i).intersects(box))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+       @return total count of dirty voxels
+     */
+    public synchronized long getVolume(){
+
+        long volume = 0;
+        for(int i = 0; i < m_boxes.size(); i++){
+            volume += m_boxes.get(i).getVolume();
+        }
+        return volume;
+    }
+
+    public synchronized boolean isEmpty(){
+        return m_boxes.isEmpty();
+    }
+
+    public synchronized void clear(){
+        m_boxes.clear();
+    }
+}
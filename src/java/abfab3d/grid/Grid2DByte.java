@@ -116,6 +116,13 @@ public class Grid2DByte extends BaseGrid2D implements Grid2D {
         data[idx] = (byte) (attribute & 0xFF);
     }
 
+    /**
+       @return backing array of grid data, pixel (x,y) is stored at index x + y*width
+     */
+    public byte[] getData() {
+        return data;
+    }
+
     /**
      * Clone the object.
      */
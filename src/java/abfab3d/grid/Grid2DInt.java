@@ -126,6 +126,13 @@ public class Grid2DInt extends BaseGrid2D implements Grid2D {
         }
     }
 
+    /**
+       @return backing array of grid data, pixel (x,y) is stored at index x + y*width
+     */
+    public int[] getData() {
+        return data;
+    }
+
     /**
      * Clone the object.
      */
@@ -22,6 +22,10 @@ import abfab3d.core.VoxelClasses;
 import abfab3d.core.VoxelData;
 import abfab3d.core.Bounds;
 
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.Slice;
+import abfab3d.util.SliceManager;
+
 import java.io.Serializable;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
@@ -641,6 +645,189 @@ public class GridBitIntervals  extends BaseAttributeGrid implements GridBit, Gri
     }
 
 
+    /**
+       @return true if grid stores its states as rows of BitIntervals 
+     */
+    public static boolean isBitIntervals(Grid grid){
+        return (grid != null && grid.getClass() == GridBitIntervals.class);
+    }
+
+    /**
+       @return true if both grids store states as rows of BitIntervals and have the same size 
+     */
+    public static boolean canCombine(Grid grid1, Grid grid2){
+        return isBitIntervals(grid1) && isBitIntervals(grid2) &&
+            grid1.getWidth() == grid2.getWidth() && 
+            grid1.getHeight() == grid2.getHeight() && 
+            grid1.getDepth() == grid2.getDepth();
+    }
+
+    /**
+       replaces this grid with result of boolean operation between this grid and given grid. 
+       Rows of intervals are merged directly and in parallel, 
+       the time is proportional to the surface of the shapes and not to the volume 
+
+       @param grid second operand of the same size 
+       @param operation one of BitIntervals.UNION, BitIntervals.SUBTRACT, BitIntervals.INTERSECT
+       @param threadCount count of threads to use, values below 1 mean all available processors 
+     */
+    public void combine(GridBitIntervals grid, int operation, int threadCount){
+        
+        if(!canCombine(this, grid))
+            throw new IllegalArgumentException(fmt("grids can not be combined: %s %s", this, grid));
+        runRows(new RowOp(RowOp.COMBINE, grid, operation), threadCount);
+
+    }
+
+    /**
+       sets states of this grid from states of given grid of the same size. Rows are processed in parallel
+       
+       @param grid source of states 
+       @param threadCount count of threads to use, values below 1 mean all available processors 
+     */
+    public void copyStatesFrom(Grid grid, int threadCount){
+
+        runRows(new RowOp(RowOp.FROM_GRID, grid, 0), threadCount);
+
+    }
+
+    /**
+       writes states of this grid into given grid of the same size. Rows are processed in parallel
+       
+       @param grid destination of states 
+       @param threadCount count of threads to use, values below 1 mean all available processors 
+     */
+    public void copyStatesTo(Grid grid, int threadCount){
+
+        runRows(new RowOp(RowOp.TO_GRID, grid, 0), threadCount);
+
+    }
+
+    /**
+       runs row operation over all rows of the grid in parallel 
+     */
+    protected void runRows(RowOp op, int threadCount){
+
+        if(m_nx != op.grid.getWidth() || m_ny != op.grid.getHeight() || m_nz != op.grid.getDepth())
+            throw new IllegalArgumentException(fmt("grids have different size: [%d %d %d] [%d %d %d]", 
+                                                   m_nx, m_ny, m_nz, op.grid.getWidth(), op.grid.getHeight(), op.grid.getDepth()));
+        threadCount = ThreadUtil.getThreadCount(threadCount);
+
+        SliceManager slicer = new SliceManager(m_ny, 1);
+        threadCount = Math.max(1, Math.min(threadCount, slicer.getSliceCount()));
+        RowRunner runners[] = new RowRunner[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            runners[i] = new RowRunner(op);
+        }
+        ThreadUtil.runSlices(slicer, runners);
+    }
+
+    /**
+       operation on one row of the grid 
+     */
+    class RowOp {
+
+        static final int COMBINE = 0, FROM_GRID = 1, TO_GRID = 2;
+
+        int type;
+        Grid grid;
+        int operation;
+
+        RowOp(int type, Grid grid, int operation){
+            this.type = type;
+            this.grid = grid;
+            this.operation = operation;
+        }
+
+        /**
+           @param buffer work buffer of size (m_nz + 1)
+         */
+        void processRow(int x, int y, short buffer[]){
+
+            int ind = x + m_nx * y;
+            BitIntervals row = (BitIntervals)m_data[ind];
+
+            switch(type){
+
+            case COMBINE:
+                {
+                    BitIntervals row1 = (BitIntervals)((GridBitIntervals)grid).m_data[ind];
+                    if(row == null){
+                        if(operation == BitIntervals.UNION && row1 != null && row1.m_curcount > 0)
+                            m_data[ind] = new BitIntervals(row1);
+                    } else {
+                        row.combine(row1, operation);
+                    }
+                }
+                break;
+
+            case FROM_GRID:
+                {
+                    int count = 0;
+                    boolean in = false;
+                    for(int z = 0; z < m_nz; z++){
+                        boolean v = (grid.getState(x,y,z) != Grid.OUTSIDE);
+                        if(v != in){
+                            buffer[count++] = (short)z;
+                            in = v;
+                        }
+                    }
+                    if(in) buffer[count++] = (short)m_nz;
+
+                    if(count == 0){
+                        if(row != null) row.clear();
+                    } else {
+                        if(row == null) 
+                            m_data[ind] = row = new BitIntervals();
+                        row.setIntervals(buffer, count);
+                    }
+                }
+                break;
+
+            case TO_GRID:
+                {
+                    int z = 0;
+                    if(row != null){
+                        short intervals[] = row.m_intervals;
+                        int count = row.m_curcount;
+                        for(int i = 0; i < count; i += 2){
+                            int zmin = intervals[i], zmax = intervals[i+1];
+                            for(; z < zmin; z++) 
+                                grid.setState(x,y,z,Grid.OUTSIDE);
+                            for(; z < zmax; z++) 
+                                grid.setState(x,y,z,Grid.INSIDE);
+                        }
+                    }
+                    for(; z < m_nz; z++) 
+                        grid.setState(x,y,z,Grid.OUTSIDE);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+       processes slices of rows 
+     */
+    class RowRunner implements ThreadUtil.SliceTask {
+
+        RowOp op;
+        short buffer[];
+
+        RowRunner(RowOp op){
+            this.op = op;
+            this.buffer = new short[m_nz + 1];
+        }
+
+        public void processSlice(Slice slice){
+            for(int y = slice.smin; y < slice.smax; y++){
+                for(int x = 0; x < m_nx; x++){
+                    op.processRow(x, y, buffer);
+                }
+            }
+        }
+    }
+
     public static boolean compareGrids(AttributeGrid grid1, AttributeGrid grid2 ){
 
         GridBitIntervals g1 = (GridBitIntervals)grid1;
@@ -23,7 +23,7 @@ import abfab3d.core.VoxelData;
 import abfab3d.core.Bounds;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 // Internal Imports
 
@@ -36,8 +36,11 @@ import java.util.concurrent.ConcurrentHashMap;
  * class will use E * (sizeof(pointer) + sizeof(VoxelCoordinate)) == 20
  * bytes extra to index.
  *
- * Insert operations will be slower(~100%).  Removal and traversal operations
- * will be much faster(2E verses N^3).
+ * Insert operations only append the voxel coordinates to a buffer local to the
+ * writing thread, so the wrapper can be written from several threads at once.
+ * The buffers are merged into the per-material index on the first query after
+ * the writes.  Queries should not run concurrently with writes.
+ * Removal and traversal operations will be much faster(2E verses N^3).
  *
  * This class can told to optimize for read usage.  This means
  * that find operations will be much faster at the expense of change ops.
@@ -46,20 +49,24 @@ import java.util.concurrent.ConcurrentHashMap;
  * @author Vladimir Bulatov
  */
 public class MaterialIndexedWrapper extends BaseAttributeWrapper implements AttributeGridWrapper {
-    private static final boolean CONCURRENT = true;
-
     /** Starting size of Sets per material */
     private static final int INDEX_SIZE = 1024;
 
+    /** Number of writes kept in a thread buffer before it is merged into the index */
+    private static final int BUFFER_SIZE = 4096;
+
     /** The index */
-    private Map<Long, Set<VoxelCoordinate>> index;
+    private HashMap<Long, Set<VoxelCoordinate>> index;
+
+    /** Write buffers of all threads which have written into this wrapper */
+    private ConcurrentLinkedQueue<WriteBuffer> buffers;
+
+    /** Write buffer of the current thread */
+    private ThreadLocal<WriteBuffer> buffer;
 
     /** The optimized index */
     private HashMap<Long, Voxel[]> optIndex;
 
-    /** Scratch var */
-    private int[] gcoords;
-
     /** Optimize for read usage */
     private boolean optRead;
 
@@ -71,12 +78,8 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
     public MaterialIndexedWrapper(AttributeGrid grid) {
         super(grid);
 
-        if (CONCURRENT) {
-            index = new ConcurrentHashMap<Long, Set<VoxelCoordinate>>();
-        } else {
-            index = new HashMap<Long, Set<VoxelCoordinate>>();
-        }
-        gcoords = new int[3];
+        index = new HashMap<Long, Set<VoxelCoordinate>>();
+        initBuffers();
         optRead = false;
     }
 
@@ -90,16 +93,14 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
 
         if (wrap.grid != null)
             this.grid = (AttributeGrid) wrap.grid.clone();
-        if (wrap.index != null) {
-            if (CONCURRENT) {
-                this.index = new ConcurrentHashMap<Long, Set<VoxelCoordinate>>(wrap.index);
-            } else {
-                index = new HashMap<Long, Set<VoxelCoordinate>>(wrap.index);
-            }
+        index = new HashMap<Long, Set<VoxelCoordinate>>();
+        wrap.flushBuffers();
+        for(Map.Entry<Long, Set<VoxelCoordinate>> entry : wrap.index.entrySet()) {
+            index.put(entry.getKey(), new HashSet<VoxelCoordinate>(entry.getValue()));
         }
+        initBuffers();
         if (wrap.optIndex != null)
             this.optIndex = (HashMap<Long, Voxel[]>) wrap.optIndex.clone();
-        gcoords = new int[3];
         this.optRead = wrap.optRead;
     }
 
@@ -114,12 +115,95 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
 
         this.optRead = optRead;
 
-        if (CONCURRENT) {
-            index = new ConcurrentHashMap<Long, Set<VoxelCoordinate>>();
-        } else {
-            index = new HashMap<Long, Set<VoxelCoordinate>>();
+        index = new HashMap<Long, Set<VoxelCoordinate>>();
+        initBuffers();
+    }
+
+    /**
+     * Create the per-thread write buffers.
+     */
+    private void initBuffers() {
+        buffers = new ConcurrentLinkedQueue<WriteBuffer>();
+        buffer = new ThreadLocal<WriteBuffer>() {
+            protected WriteBuffer initialValue() {
+                WriteBuffer wb = new WriteBuffer();
+                buffers.add(wb);
+                return wb;
+            }
+        };
+    }
+
+    /**
+     * Merge the writes of all threads into the index.
+     */
+    private synchronized void flushBuffers() {
+        for(WriteBuffer wb : buffers) {
+            mergeBuffer(wb);
+        }
+    }
+
+    /**
+     * Merge the writes of one thread into the index.
+     *
+     * @param wb The buffer
+     */
+    private synchronized void mergeBuffer(WriteBuffer wb) {
+        int count = wb.count;
+        if (count == 0)
+            return;
+
+        int[] coords = wb.coords;
+        long[] mats = wb.mats;
+        Set<VoxelCoordinate> set = null;
+        long lastMat = 0;
+
+        for(int i=0; i < count; i++) {
+            long mat = mats[i];
+            if (set == null || mat != lastMat) {
+                set = getSet(mat);
+                lastMat = mat;
+            }
+            set.add(new VoxelCoordinate(coords[3*i], coords[3*i+1], coords[3*i+2]));
+        }
+
+        wb.count = 0;
+        optIndex = null;
+    }
+
+    /**
+     * Get the set of coordinates of a material, creating it if needed.
+     *
+     * @param mat The material
+     */
+    private Set<VoxelCoordinate> getSet(long mat) {
+        Long b = new Long(mat);
+        Set<VoxelCoordinate> coords = index.get(b);
+        if (coords == null) {
+            coords = new HashSet<VoxelCoordinate>(INDEX_SIZE);
+            index.put(b, coords);
+        }
+        return coords;
+    }
+
+    /**
+     * Get the set of coordinates written with a material.
+     *
+     * @param mat The material
+     * @return The coordinates or null if the material was never written
+     */
+    private Set<VoxelCoordinate> getCoords(long mat) {
+        flushBuffers();
+        return index.get(new Long(mat));
+    }
+
+    /**
+     * Record a write into the buffer of the current thread.
+     */
+    private void addWrite(WriteBuffer wb, int x, int y, int z, long material) {
+        if (wb.count == BUFFER_SIZE) {
+            mergeBuffer(wb);
         }
-        gcoords = new int[3];
+        wb.add(x, y, z, material);
     }
 
     /**
@@ -151,7 +235,9 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
      * @param materials The new list of materials
      * @param matID The new materialID
      */
-    public void reassignAttribute(long[] materials, long matID) {
+    public synchronized void reassignAttribute(long[] materials, long matID) {
+
+        flushBuffers();
 
         int len = materials.length;
 
@@ -167,17 +253,7 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
                 continue;
             }
 
-            Set<VoxelCoordinate> target = index.get(matID);
-
-            if (target == null) {
-                if (CONCURRENT) {
-                    target = Collections.newSetFromMap(new ConcurrentHashMap<VoxelCoordinate, Boolean>(INDEX_SIZE));
-                } else {
-                    target = new HashSet<VoxelCoordinate>(INDEX_SIZE);
-                }
-
-                index.put(matID, target);
-            }
+            Set<VoxelCoordinate> target = getSet(matID);
 
             Iterator<VoxelCoordinate> itr = coords.iterator();
             while(itr.hasNext()) {
@@ -198,10 +274,10 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
      *
      * @param mat The materialID
      */
-    public void removeAttribute(long mat) {
+    public synchronized void removeAttribute(long mat) {
         Long b = new Long(mat);
 
-        Set<VoxelCoordinate> coords = index.get(b);
+        Set<VoxelCoordinate> coords = getCoords(mat);
         if (coords == null) {
             // Nothing to do
             return;
@@ -312,29 +388,14 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
      * @param material The materialID
      */
     public void setDataWorld(double x, double y, double z, byte state, long material) {
-        Long b = new Long(material);
-
-        Set<VoxelCoordinate> coords = index.get(b);
-        if (coords == null) {
-            if (CONCURRENT) {
-                coords = Collections.newSetFromMap(new ConcurrentHashMap<VoxelCoordinate, Boolean>(INDEX_SIZE));
-            } else {
-                coords = new HashSet<VoxelCoordinate>(INDEX_SIZE);
-            }
-            index.put(b, coords);
-        }
-
-        // TODO: this makes this method not thread safe.
-        // Make synchronized?  Use thread local.  Just allocate each time?
+        WriteBuffer wb = buffer.get();
+        int[] gcoords = wb.gcoords;
 
         grid.getGridCoords(x,y,z,gcoords);
 
-        VoxelCoordinate vc = new VoxelCoordinate(gcoords[0], gcoords[1], gcoords[2]);
-        coords.add(vc);
+        addWrite(wb, gcoords[0], gcoords[1], gcoords[2], material);
 
         ((AttributeGrid)grid).setData(gcoords[0],gcoords[1],gcoords[2],state,material);
-
-        optIndex = null;
     }
 
     /**
@@ -348,24 +409,9 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
     public void setData(int x, int y, int z, byte state, long material) {
         // TODO: I think this method does not correctly remove the entry from the old coords.
 
-        Long b = new Long(material);
-
-        Set<VoxelCoordinate> coords = index.get(b);
-        if (coords == null) {
-            if (CONCURRENT) {
-                coords = Collections.newSetFromMap(new ConcurrentHashMap<VoxelCoordinate, Boolean>(INDEX_SIZE));
-            } else {
-                coords = new HashSet<VoxelCoordinate>(INDEX_SIZE);
-            }
-            index.put(b, coords);
-        }
-
-        VoxelCoordinate vc = new VoxelCoordinate(x,y,z);
-        coords.add(vc);
+        addWrite(buffer.get(), x, y, z, material);
 
         ((AttributeGrid)grid).setData(x,y,z,state,material);
-
-        optIndex = null;
     }
 
     /**
@@ -379,24 +425,9 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
     public void setAttribute(int x, int y, int z, long material) {
         // TODO: I think this method does not correctly remove the entry from the old coords.
 
-        Long b = new Long(material);
-
-        Set<VoxelCoordinate> coords = index.get(b);
-        if (coords == null) {
-            if (CONCURRENT) {
-                coords = Collections.newSetFromMap(new ConcurrentHashMap<VoxelCoordinate, Boolean>(INDEX_SIZE));
-            } else {
-                coords = new HashSet<VoxelCoordinate>(INDEX_SIZE);
-            }
-            index.put(b, coords);
-        }
-
-        VoxelCoordinate vc = new VoxelCoordinate(x,y,z);
-        coords.add(vc);
+        addWrite(buffer.get(), x, y, z, material);
 
         ((AttributeGrid)grid).setAttribute(x, y, z, material);
-
-        optIndex = null;
     }
 
     /**
@@ -510,9 +541,7 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
     public int findCount(long mat) {
         int ret_val = 0;
 
-        Long b = new Long(mat);
-
-        Set<VoxelCoordinate> coords = index.get(b);
+        Set<VoxelCoordinate> coords = getCoords(mat);
         if (coords == null) {
             return 0;
         }
@@ -549,7 +578,7 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
     public void findAttribute(VoxelClasses vc, long mat, ClassAttributeTraverser t) {
         Long b = new Long(mat);
 
-        Set<VoxelCoordinate> coords = index.get(b);
+        Set<VoxelCoordinate> coords = getCoords(mat);
 
         if (coords == null) {
             return;
@@ -609,7 +638,7 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
     public void findAttribute(long mat, ClassAttributeTraverser t) {
         Long b = new Long(mat);
 
-        Set<VoxelCoordinate> coords = index.get(b);
+        Set<VoxelCoordinate> coords = getCoords(mat);
 
         if (coords == null) {
             return;
@@ -685,6 +714,8 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
         Long b = new Long(mat);
 
         if (optRead) {
+            flushBuffers();
+
             if (optIndex == null) {
                 // TODO: in theory we could rebuild during the traversal and then
                 // keep last processed position to pickup the rebuild.
@@ -731,7 +762,7 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
             return;
         }
 
-        Set<VoxelCoordinate> coords = index.get(b);
+        Set<VoxelCoordinate> coords = getCoords(mat);
 
         if (coords == null) {
             return;
@@ -780,7 +811,7 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
 
 // TODO: add optRead enhancements
 
-        Set<VoxelCoordinate> coords = index.get(b);
+        Set<VoxelCoordinate> coords = getCoords(mat);
 
         if (coords == null) {
             return;
@@ -817,7 +848,7 @@ public class MaterialIndexedWrapper extends BaseAttributeWrapper implements Attr
 
 // TODO: add optRead enhancements
 
-        Set<VoxelCoordinate> coords = index.get(b);
+        Set<VoxelCoordinate> coords = getCoords(mat);
 
         if (coords == null) {
             return;
@@ -1071,6 +1102,37 @@ System.out.println("Speed opt: " + (System.currentTimeMillis() - startTime));
         ((AttributeGrid)grid).copyData(fromGrid);
     }
 
+
+    /**
+     * Writes done by one thread since the last merge into the index.
+     */
+    static class WriteBuffer {
+        /** Written coordinates, 3 per write */
+        int[] coords = new int[3*INDEX_SIZE];
+
+        /** Written materials */
+        long[] mats = new long[INDEX_SIZE];
+
+        /** Number of writes */
+        int count;
+
+        /** Scratch var */
+        int[] gcoords = new int[3];
+
+        void add(int x, int y, int z, long material) {
+            if (count == mats.length) {
+                int newSize = Math.min(2*count, BUFFER_SIZE);
+                coords = Arrays.copyOf(coords, 3*newSize);
+                mats = Arrays.copyOf(mats, newSize);
+            }
+            int i = 3*count;
+            coords[i] = x;
+            coords[i+1] = y;
+            coords[i+2] = z;
+            mats[count++] = material;
+        }
+    }
+
 } // MaterialIndexerWrapper 
 
 class EmptyFound implements ClassAttributeTraverser {
@@ -1103,4 +1165,4 @@ class EmptyFound implements ClassAttributeTraverser {
         return true;
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
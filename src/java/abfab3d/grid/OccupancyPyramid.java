@@ -0,0 +1,499 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Bounds;
+import abfab3d.core.Grid;
+import abfab3d.core.GridDataChannel;
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.Slice;
+import abfab3d.util.SliceManager;
+
+import static abfab3d.core.Output.fmt;
+
+/**
+   Summary of occupied voxels of a grid.
+
+   The grid is split into cubic blocks. Each block stores count of occupied voxels and
+   extent of occupied voxels inside of the block. Blocks are grouped 2x2x2 into levels
+   of coarser blocks which store counts only, up to the single top block.
+
+   Count, volume, bounds and "any voxel in box" queries are answered from the summary
+   and touch the grid voxels only in partially covered blocks.
+
+   The pyramid is built in one parallel pass by build() and may be kept up to date
+   with incremental update() calls made by the writer (see OccupancyPyramidWrapper).
+   Concurrent writers should write to different voxels.
+
+   A voxel is occupied if its state is not OUTSIDE or, if data channel is given,
+   if the channel value of voxel attribute is above threshold.
+
+   @author Vladimir Bulatov
+ */
+public class OccupancyPyramid {
+
+    static final int DEFAULT_BLOCK_SIZE = 8;
+    static final int MAX_BLOCK_SIZE = 64;
+
+    // extent of empty block
+    static final byte EMPTY_MIN = Byte.MAX_VALUE, EMPTY_MAX = -1;
+
+    protected Grid m_grid;
+    protected GridDataChannel m_channel;
+    protected double m_threshold;
+
+    protected int m_nx, m_ny, m_nz;
+    protected int m_blockSize;
+    protected int m_blockBits;
+
+    // dimensions of levels
+    protected int m_lnx[], m_lny[], m_lnz[];
+    // count of occupied voxels in blocks of each level
+    protected long m_counts[][];
+    // extents of occupied voxels in blocks of level 0 (xmin, xmax, ymin, ymax, zmin, zmax) relative to block origin
+    protected byte m_extents[];
+    // blocks with extents which need to be recalculated
+    protected boolean m_dirty[];
+
+    /**
+       pyramid for voxel states with default block size
+     */
+    public OccupancyPyramid(Grid grid){
+        this(grid, null, 0., DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+       pyramid for voxel states
+
+       @param grid the grid
+       @param blockSize size of block, should be power of 2 between 2 and 64
+     */
+    public OccupancyPyramid(Grid grid, int blockSize){
+        this(grid, null, 0., blockSize);
+    }
+
+    /**
+       pyramid for values of data channel
+
+       @param grid the grid
+       @param channel data channel to use, if null voxel states are used
+       @param threshold voxel is occupied if channel value is above threshold
+       @param blockSize size of block, should be power of 2 between 2 and 64
+     */
+    public OccupancyPyramid(AttributeGrid grid, GridDataChannel channel, double threshold, int blockSize){
+        this((Grid)grid, channel, threshold, blockSize);
+    }
+
+    protected OccupancyPyramid(Grid grid, GridDataChannel channel, double threshold, int blockSize){
+
+        if(blockSize < 2 || blockSize > MAX_BLOCK_SIZE || (blockSize & (blockSize-1)) != 0)
+            throw new IllegalArgumentException(fmt("block size should be power of 2 between 2 and %d: %d", MAX_BLOCK_SIZE, blockSize));
+        if(channel != null && !(grid instanceof AttributeGrid))
+            throw new IllegalArgumentException("data channel requires AttributeGrid");
+
+        m_grid = grid;
+        m_channel = channel;
+        m_threshold = threshold;
+        m_blockSize = blockSize;
+        m_blockBits = Integer.numberOfTrailingZeros(blockSize);
+
+        m_nx = grid.getWidth();
+        m_ny = grid.getHeight();
+        m_nz = grid.getDepth();
+
+        int levelCount = 1;
+        int nx = blocks(m_nx), ny = blocks(m_ny), nz = blocks(m_nz);
+        while(nx > 1 || ny > 1 || nz > 1){
+            nx = (nx+1)/2; ny = (ny+1)/2; nz = (nz+1)/2;
+            levelCount++;
+        }
+
+        m_lnx = new int[levelCount];
+        m_lny = new int[levelCount];
+        m_lnz = new int[levelCount];
+        m_counts = new long[levelCount][];
+        nx = blocks(m_nx); ny = blocks(m_ny); nz = blocks(m_nz);
+        for(int l = 0; l < levelCount; l++){
+            m_lnx[l] = nx; m_lny[l] = ny; m_lnz[l] = nz;
+            m_counts[l] = new long[nx*ny*nz];
+            nx = (nx+1)/2; ny = (ny+1)/2; nz = (nz+1)/2;
+        }
+        int blockCount = m_counts[0].length;
+        m_extents = new byte[6*blockCount];
+        m_dirty = new boolean[blockCount];
+        for(int i = 0; i < blockCount; i++)
+            setEmptyExtents(i);
+    }
+
+    public Grid getGrid(){
+        return m_grid;
+    }
+
+    public int getBlockSize(){
+        return m_blockSize;
+    }
+
+    public int getLevelCount(){
+        return m_counts.length;
+    }
+
+    /**
+       @return true if occupancy is given by voxel states, false if by values of data channel
+     */
+    public boolean isStateBased(){
+        return m_channel == null;
+    }
+
+    /**
+       @return true if the voxel is occupied
+     */
+    public final boolean isOccupied(int x, int y, int z){
+        if(m_channel != null)
+            return m_channel.getValue(((AttributeGrid)m_grid).getAttribute(x,y,z)) > m_threshold;
+        else
+            return m_grid.getState(x,y,z) != Grid.OUTSIDE;
+    }
+
+    /**
+       builds the pyramid from the grid voxels.
+       Rows of blocks are processed in parallel
+
+       @param threadCount count of threads to use, values below 1 mean all available processors
+     */
+    public synchronized void build(int threadCount){
+
+        ThreadUtil.runSlices(new SliceManager(m_lny[0], 1), new BlockRunner(), ThreadUtil.getThreadCount(threadCount));
+
+        for(int l = 1; l < m_counts.length; l++){
+            buildLevel(l);
+        }
+    }
+
+    /**
+       updates the pyramid after the voxel was written
+
+       @param wasOccupied occupancy of the voxel before write
+       @param occupied occupancy of the voxel after write
+     */
+    public void update(int x, int y, int z, boolean wasOccupied, boolean occupied){
+
+        if(wasOccupied == occupied)
+            return;
+        updateChanged(x, y, z, occupied);
+    }
+
+    private synchronized void updateChanged(int x, int y, int z, boolean occupied){
+
+        int bx = x >> m_blockBits, by = y >> m_blockBits, bz = z >> m_blockBits;
+        int block = index(0, bx, by, bz);
+        long count = m_counts[0][block];
+
+        if(occupied){
+            int ox = x - (bx << m_blockBits), oy = y - (by << m_blockBits), oz = z - (bz << m_blockBits);
+            if(count == 0){
+                int e = 6*block;
+                m_extents[e] = m_extents[e+1] = (byte)ox;
+                m_extents[e+2] = m_extents[e+3] = (byte)oy;
+                m_extents[e+4] = m_extents[e+5] = (byte)oz;
+                m_dirty[block] = false;
+            } else if(!m_dirty[block]){
+                addToExtents(block, ox, oy, oz);
+            }
+        } else {
+            // removed voxel may shrink extents, they are recalculated when needed
+            if(count == 1)
+                setEmptyExtents(block);
+            else
+                m_dirty[block] = true;
+        }
+
+        int delta = (occupied)? 1: -1;
+        for(int l = 0; l < m_counts.length; l++){
+            m_counts[l][index(l, bx, by, bz)] += delta;
+            bx >>= 1; by >>= 1; bz >>= 1;
+        }
+    }
+
+    /**
+       @return count of occupied voxels
+     */
+    public synchronized long getCount(){
+        return m_counts[m_counts.length-1][0];
+    }
+
+    /**
+       @return volume of occupied voxels
+     */
+    public double getVolume(){
+        double vs = m_grid.getVoxelSize();
+        return getCount()*vs*vs*m_grid.getSliceHeight();
+    }
+
+    /**
+       calculates inclusive grid bounds of occupied voxels
+
+       @param min minimal coordinates of occupied voxels
+       @param max maximal coordinates of occupied voxels
+       @return false if there are no occupied voxels
+     */
+    public synchronized boolean getOccupiedBounds(int min[], int max[]){
+
+        int bounds[] = new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE,
+                                 Integer.MAX_VALUE, Integer.MIN_VALUE,
+                                 Integer.MAX_VALUE, Integer.MIN_VALUE};
+        if(getCount() == 0)
+            return false;
+
+        findBounds(m_counts.length-1, 0, 0, 0, bounds, new int[6]);
+
+        min[0] = bounds[0]; max[0] = bounds[1];
+        min[1] = bounds[2]; max[1] = bounds[3];
+        min[2] = bounds[4]; max[2] = bounds[5];
+        return true;
+    }
+
+    /**
+       @return world bounds of occupied voxels or null if there are no occupied voxels
+     */
+    public Bounds getBounds(){
+
+        int min[] = new int[3], max[] = new int[3];
+        if(!getOccupiedBounds(min, max))
+            return null;
+        double cmin[] = new double[3], cmax[] = new double[3];
+        m_grid.getWorldCoords(min[0], min[1], min[2], cmin);
+        m_grid.getWorldCoords(max[0], max[1], max[2], cmax);
+        double hvs = m_grid.getVoxelSize()/2, hsh = m_grid.getSliceHeight()/2;
+
+        return new Bounds(cmin[0]-hvs, cmax[0]+hvs, cmin[1]-hsh, cmax[1]+hsh, cmin[2]-hvs, cmax[2]+hvs);
+    }
+
+    /**
+       @return true if there is an occupied voxel in the inclusive box of grid coordinates
+     */
+    public synchronized boolean hasOccupied(int xmin, int xmax, int ymin, int ymax, int zmin, int zmax){
+
+        int box[] = new int[]{Math.max(xmin, 0), Math.min(xmax, m_nx-1),
+                              Math.max(ymin, 0), Math.min(ymax, m_ny-1),
+                              Math.max(zmin, 0), Math.min(zmax, m_nz-1)};
+        if(box[0] > box[1] || box[2] > box[3] || box[4] > box[5])
+            return false;
+
+        return findOccupied(m_counts.length-1, 0, 0, 0, box, new int[6]);
+    }
+
+    /**
+       @return count of occupied voxels in the block of given level
+     */
+    public synchronized long getBlockCount(int level, int bx, int by, int bz){
+        return m_counts[level][index(level, bx, by, bz)];
+    }
+
+    /**
+       extends bounds to include occupied voxels of the block
+     */
+    private void findBounds(int level, int bx, int by, int bz, int bounds[], int ext[]){
+
+        if(m_counts[level][index(level, bx, by, bz)] == 0)
+            return;
+
+        getBlockBox(level, bx, by, bz, ext);
+        if(contains(bounds, ext))
+            return;
+
+        if(level == 0){
+            getExtents(index(0, bx, by, bz), bx, by, bz, ext);
+            for(int i = 0; i < 6; i += 2){
+                if(ext[i] < bounds[i]) bounds[i] = ext[i];
+                if(ext[i+1] > bounds[i+1]) bounds[i+1] = ext[i+1];
+            }
+            return;
+        }
+
+        for(int i = 0; i < 8; i++){
+            int cx = 2*bx + (i & 1), cy = 2*by + ((i >> 1) & 1), cz = 2*bz + ((i >> 2) & 1);
+            if(cx < m_lnx[level-1] && cy < m_lny[level-1] && cz < m_lnz[level-1])
+                findBounds(level-1, cx, cy, cz, bounds, ext);
+        }
+    }
+
+    private boolean findOccupied(int level, int bx, int by, int bz, int box[], int ext[]){
+
+        if(m_counts[level][index(level, bx, by, bz)] == 0)
+            return false;
+
+        getBlockBox(level, bx, by, bz, ext);
+        if(!intersects(box, ext))
+            return false;
+        if(contains(box, ext))
+            return true;
+
+        if(level == 0){
+            getExtents(index(0, bx, by, bz), bx, by, bz, ext);
+            if(!intersects(box, ext))
+                return false;
+            if(contains(box, ext))
+                return true;
+            int x0 = Math.max(box[0], ext[0]), x1 = Math.min(box[1], ext[1]);
+            int y0 = Math.max(box[2], ext[2]), y1 = Math.min(box[3], ext[3]);
+            int z0 = Math.max(box[4], ext[4]), z1 = Math.min(box[5], ext[5]);
+            for(int y = y0; y <= y1; y++){
+                for(int x = x0; x <= x1; x++){
+                    for(int z = z0; z <= z1; z++){
+                        if(isOccupied(x,y,z))
+                            return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        for(int i = 0; i < 8; i++){
+            int cx = 2*bx + (i & 1), cy = 2*by + ((i >> 1) & 1), cz = 2*bz + ((i >> 2) & 1);
+            if(cx < m_lnx[level-1] && cy < m_lny[level-1] && cz < m_lnz[level-1]){
+                if(findOccupied(level-1, cx, cy, cz, box, ext))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+       inclusive grid box of the block
+     */
+    private void getBlockBox(int level, int bx, int by, int bz, int box[]){
+
+        int bits = m_blockBits + level;
+        box[0] = bx << bits; box[1] = Math.min(((bx+1) << bits), m_nx) - 1;
+        box[2] = by << bits; box[3] = Math.min(((by+1) << bits), m_ny) - 1;
+        box[4] = bz << bits; box[5] = Math.min(((bz+1) << bits), m_nz) - 1;
+    }
+
+    /**
+       inclusive grid extents of occupied voxels of block of level 0
+     */
+    private void getExtents(int block, int bx, int by, int bz, int ext[]){
+
+        if(m_dirty[block])
+            calculateBlock(bx, by, bz, false);
+        int e = 6*block;
+        ext[0] = (bx << m_blockBits) + m_extents[e];
+        ext[1] = (bx << m_blockBits) + m_extents[e+1];
+        ext[2] = (by << m_blockBits) + m_extents[e+2];
+        ext[3] = (by << m_blockBits) + m_extents[e+3];
+        ext[4] = (bz << m_blockBits) + m_extents[e+4];
+        ext[5] = (bz << m_blockBits) + m_extents[e+5];
+    }
+
+    /**
+       calculates extents and optionally count of block of level 0 from grid voxels
+     */
+    private void calculateBlock(int bx, int by, int bz, boolean updateCount){
+
+        int block = index(0, bx, by, bz);
+        setEmptyExtents(block);
+        int x0 = bx << m_blockBits, y0 = by << m_blockBits, z0 = bz << m_blockBits;
+        int x1 = Math.min(x0 + m_blockSize, m_nx), y1 = Math.min(y0 + m_blockSize, m_ny), z1 = Math.min(z0 + m_blockSize, m_nz);
+        long count = 0;
+        for(int y = y0; y < y1; y++){
+            for(int x = x0; x < x1; x++){
+                for(int z = z0; z < z1; z++){
+                    if(isOccupied(x,y,z)){
+                        count++;
+                        addToExtents(block, x - x0, y - y0, z - z0);
+                    }
+                }
+            }
+        }
+        if(updateCount)
+            m_counts[0][block] = count;
+    }
+
+    private void buildLevel(int level){
+
+        long counts[] = m_counts[level];
+        long counts0[] = m_counts[level-1];
+        int nx0 = m_lnx[level-1], ny0 = m_lny[level-1], nz0 = m_lnz[level-1];
+
+        for(int by = 0; by < m_lny[level]; by++){
+            for(int bx = 0; bx < m_lnx[level]; bx++){
+                for(int bz = 0; bz < m_lnz[level]; bz++){
+                    long count = 0;
+                    for(int i = 0; i < 8; i++){
+                        int cx = 2*bx + (i & 1), cy = 2*by + ((i >> 1) & 1), cz = 2*bz + ((i >> 2) & 1);
+                        if(cx < nx0 && cy < ny0 && cz < nz0)
+                            count += counts0[index(level-1, cx, cy, cz)];
+                    }
+                    counts[index(level, bx, by, bz)] = count;
+                }
+            }
+        }
+    }
+
+    private void addToExtents(int block, int ox, int oy, int oz){
+
+        int e = 6*block;
+        if(ox < m_extents[e])   m_extents[e]   = (byte)ox;
+        if(ox > m_extents[e+1]) m_extents[e+1] = (byte)ox;
+        if(oy < m_extents[e+2]) m_extents[e+2] = (byte)oy;
+        if(oy > m_extents[e+3]) m_extents[e+3] = (byte)oy;
+        if(oz < m_extents[e+4]) m_extents[e+4] = (byte)oz;
+        if(oz > m_extents[e+5]) m_extents[e+5] = (byte)oz;
+    }
+
+    private void setEmptyExtents(int block){
+
+        int e = 6*block;
+        for(int i = 0; i < 6; i += 2){
+            m_extents[e+i] = EMPTY_MIN;
+            m_extents[e+i+1] = EMPTY_MAX;
+        }
+        m_dirty[block] = false;
+    }
+
+    private final int index(int level, int bx, int by, int bz){
+        return (by * m_lnx[level] + bx) * m_lnz[level] + bz;
+    }
+
+    private final int blocks(int n){
+        return (n + m_blockSize - 1) >> m_blockBits;
+    }
+
+    /**
+       @return true if inclusive box b1 contains inclusive box b2
+     */
+    static final boolean contains(int b1[], int b2[]){
+        return b1[0] <= b2[0] && b2[1] <= b1[1] && b1[2] <= b2[2] && b2[3] <= b1[3] && b1[4] <= b2[4] && b2[5] <= b1[5];
+    }
+
+    static final boolean intersects(int b1[], int b2[]){
+        return b1[0] <= b2[1] && b2[0] <= b1[1] && b1[2] <= b2[3] && b2[2] <= b1[3] && b1[4] <= b2[5] && b2[4] <= b1[5];
+    }
+
+    /**
+       calculates blocks of level 0 over slices of block rows
+     */
+    class BlockRunner implements ThreadUtil.SliceTask {
+
+        public void processSlice(Slice slice){
+            for(int by = slice.smin; by < slice.smax; by++){
+                for(int bx = 0; bx < m_lnx[0]; bx++){
+                    for(int bz = 0; bz < m_lnz[0]; bz++){
+                        calculateBlock(bx, by, bz, true);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid;
+
+// External Imports
+
+// Internal Imports
+
+import abfab3d.core.AttributeGrid;
+
+/**
+ * Keeps occupancy pyramid of the wrapped grid up to date on writes.
+ * Writes which don't change occupancy of a voxel don't touch the pyramid.
+ *
+ * Several threads may write into the wrapper as long as they write to different voxels.
+ *
+ * @author Vladimir Bulatov
+ */
+public class OccupancyPyramidWrapper extends BaseAttributeWrapper implements AttributeGridWrapper {
+
+    /** The pyramid of the wrapped grid */
+    private OccupancyPyramid pyramid;
+
+    /** The number of threads used to build the pyramid */
+    private int threadCount;
+
+    /**
+     * Constructor. Builds pyramid of voxel states of the grid.
+     *
+     * @param grid The grid to wrap
+     * @param threadCount The number of threads used to build the pyramid
+     */
+    public OccupancyPyramidWrapper(AttributeGrid grid, int threadCount) {
+        this(new OccupancyPyramid(grid, OccupancyPyramid.DEFAULT_BLOCK_SIZE), threadCount);
+    }
+
+    /**
+     * Constructor. Builds given pyramid and wraps its grid.
+     *
+     * @param pyramid The pyramid of AttributeGrid
+     * @param threadCount The number of threads used to build the pyramid
+     */
+    public OccupancyPyramidWrapper(OccupancyPyramid pyramid, int threadCount) {
+        super((AttributeGrid)pyramid.getGrid());
+
+        this.pyramid = pyramid;
+        this.threadCount = threadCount;
+        pyramid.build(threadCount);
+    }
+
+    /**
+     * Get the pyramid of the wrapped grid.
+     */
+    public OccupancyPyramid getPyramid() {
+        return pyramid;
+    }
+
+    /**
+     * Sets the underlying grid to use.  Not supported, the pyramid is bound to its grid.
+     *
+     * @param grid The grid
+     */
+    public void setGrid(AttributeGrid grid) {
+        throw new UnsupportedOperationException("pyramid grid can not be replaced");
+    }
+
+    public void setAttributeWorld(double x, double y, double z, long attribute) {
+        int coords[] = new int[3];
+        grid.getGridCoords(x, y, z, coords);
+        setAttribute(coords[0], coords[1], coords[2], attribute);
+    }
+
+    /**
+     * Set the value of a voxel.
+     *
+     * @param x The x world coordinate
+     * @param y The y world coordinate
+     * @param z The z world coordinate
+     * @param state The value.  0 = nothing. > 0 materialID
+     * @param material The materialID
+     */
+    public void setDataWorld(double x, double y, double z, byte state, long material) {
+        int coords[] = new int[3];
+        grid.getGridCoords(x, y, z, coords);
+        setData(coords[0], coords[1], coords[2], state, material);
+    }
+
+    /**
+     * Set the value of a voxel.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @param z The z grid coordinate
+     * @param state The new state
+     * @param material The new material value.  0 = nothing. > 0 materialID
+     */
+    public void setData(int x, int y, int z, byte state, long material) {
+        boolean was = pyramid.isOccupied(x, y, z);
+        ((AttributeGrid)grid).setData(x, y, z, state, material);
+        pyramid.update(x, y, z, was, pyramid.isOccupied(x, y, z));
+    }
+
+    /**
+     * Set the attribute value of a voxel.  Leaves the state unchanged.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @param attribute The attribute
+     */
+    public void setAttributes(int x, int y, long[] attribute) {
+        int nz = attribute.length;
+        for(int z=0; z < nz; z++) {
+            setAttribute(x, y, z, attribute[z]);
+        }
+    }
+
+    /**
+     * Set the material value of a voxel.  Leaves the state unchanged.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @param z The z grid coordinate
+     * @param material The materialID
+     */
+    public void setAttribute(int x, int y, int z, long material) {
+        boolean was = pyramid.isOccupied(x, y, z);
+        ((AttributeGrid)grid).setAttribute(x, y, z, material);
+        pyramid.update(x, y, z, was, pyramid.isOccupied(x, y, z));
+    }
+
+    /**
+     * Set the state value of a voxel.  Leaves the material unchanged.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @param z The z grid coordinate
+     * @param state The value.
+     */
+    public void setState(int x, int y, int z, byte state) {
+        boolean was = pyramid.isOccupied(x, y, z);
+        grid.setState(x, y, z, state);
+        pyramid.update(x, y, z, was, pyramid.isOccupied(x, y, z));
+    }
+
+    /**
+     * Set the state value of a voxel.  Leaves the material unchanged.
+     *
+     * @param x The x world coordinate
+     * @param y The y world coordinate
+     * @param z The z world coordinate
+     * @param state The value.
+     */
+    public void setStateWorld(double x, double y, double z, byte state) {
+        int coords[] = new int[3];
+        grid.getGridCoords(x, y, z, coords);
+        setState(coords[0], coords[1], coords[2], state);
+    }
+
+    /**
+     * Copy data from fromGrid into this grid and rebuild the pyramid.
+     */
+    public void copyData(AttributeGrid fromGrid) {
+        ((AttributeGrid)grid).copyData(fromGrid);
+        pyramid.build(threadCount);
+    }
+}
@@ -23,6 +23,7 @@ import abfab3d.core.VoxelData;
 import abfab3d.core.Bounds;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 // Internal Imports
 
@@ -33,15 +34,19 @@ import java.util.*;
  * Keep a list of materials which have been overlapped.  The operations
  * will not be stopped and all sets will happen to the underlying grid.
  *
+ * Each writing thread records overlaps into its own set, so the wrapper can be
+ * written from several threads at once.  The sets are merged in getOverlaps(),
+ * which should be called after the writes are finished.
+ *
  * @author Alan Hudson
  * @author Vladimir Bulatov
  */
 public class OverlapDetectorWrapper extends BaseAttributeWrapper implements AttributeGridWrapper {
-    /** The set of materials found overlapping */
-    private HashSet<Long> overlaps;
+    /** Overlaps found by each thread which has written into this wrapper */
+    private ConcurrentLinkedQueue<OverlapBuffer> buffers;
 
-    // Scratch Variable
-    private VoxelData vd;
+    /** Overlaps found by the current thread */
+    private ThreadLocal<OverlapBuffer> buffer;
 
     /**
      * Constructor.
@@ -50,9 +55,7 @@ public class OverlapDetectorWrapper extends BaseAttributeWrapper implements Attr
      */
     public OverlapDetectorWrapper(AttributeGrid grid) {
         super(grid);
-        overlaps = new HashSet<Long>();
-
-        vd = grid.getVoxelData();
+        initBuffers();
     }
 
     /**
@@ -72,16 +75,33 @@ public class OverlapDetectorWrapper extends BaseAttributeWrapper implements Attr
         if (wrap.grid != null)
             this.grid = (AttributeGrid) wrap.grid.clone();
 
-        overlaps = new HashSet<Long>();
-        vd = grid.getVoxelData();
+        initBuffers();
+    }
+
+    /**
+     * Create the per-thread overlap buffers.
+     */
+    private void initBuffers() {
+        buffers = new ConcurrentLinkedQueue<OverlapBuffer>();
+        buffer = new ThreadLocal<OverlapBuffer>() {
+            protected OverlapBuffer initialValue() {
+                OverlapBuffer ob = new OverlapBuffer(grid.getVoxelData());
+                buffers.add(ob);
+                return ob;
+            }
+        };
     }
 
     /**
-     * Get the list of overlaps.
+     * Get the list of overlaps found by all threads.
      *
      * @return The overlaps
      */
     public Set<Long> getOverlaps() {
+        HashSet<Long> overlaps = new HashSet<Long>();
+        for(OverlapBuffer ob : buffers) {
+            overlaps.addAll(ob.overlaps);
+        }
         return overlaps;
     }
 
@@ -89,7 +109,9 @@ public class OverlapDetectorWrapper extends BaseAttributeWrapper implements Attr
      * Clear the list of overlaps.
      */
     public void clearOverlaps() {
-        overlaps.clear();
+        for(OverlapBuffer ob : buffers) {
+            ob.clear();
+        }
     }
 
     /**
@@ -203,12 +225,14 @@ public class OverlapDetectorWrapper extends BaseAttributeWrapper implements Attr
      * @param material The materialID
      */
     public void setDataWorld(double x, double y, double z, byte state, long material) {
+        OverlapBuffer ob = buffer.get();
+        VoxelData vd = ob.vd;
         grid.getDataWorld(x, y, z, vd);
 
         if (vd.getState() != Grid.OUTSIDE && state != Grid.OUTSIDE
             && vd.getMaterial() != material ) {
 
-            overlaps.add(new Long(vd.getMaterial()));
+            ob.add(vd.getMaterial());
         }
 
         ((AttributeGrid)grid).setDataWorld(x, y, z, state, material);
@@ -222,12 +246,14 @@ public class OverlapDetectorWrapper extends BaseAttributeWrapper implements Attr
      * @param z The z world coordinate
      */
     public void setData(int x, int y, int z, byte state, long material) {
+        OverlapBuffer ob = buffer.get();
+        VoxelData vd = ob.vd;
         grid.getData(x,y,z,vd);
 
         if (vd.getState() != Grid.OUTSIDE && state != Grid.OUTSIDE
             && vd.getMaterial() != material ) {
 
-            overlaps.add(new Long(vd.getMaterial()));
+            ob.add(vd.getMaterial());
         }
 
         ((AttributeGrid)grid).setData(x,y,z,state,material);
@@ -243,7 +269,7 @@ public class OverlapDetectorWrapper extends BaseAttributeWrapper implements Attr
      */
     public void setAttribute(int x, int y, int z, long material) {
         if (((AttributeGrid)grid).getAttribute(x, y, z) != material ) {
-            overlaps.add(new Long(material));
+            buffer.get().add(material);
         }
 
         ((AttributeGrid)grid).setAttribute(x, y, z, material);
@@ -619,4 +645,36 @@ public class OverlapDetectorWrapper extends BaseAttributeWrapper implements Attr
         ((AttributeGrid)grid).copyData(fromGrid);
     }
 
+
+    /**
+     * Overlaps found by one thread.
+     */
+    static class OverlapBuffer {
+        /** The set of materials found overlapping */
+        HashSet<Long> overlaps = new HashSet<Long>();
+
+        /** Last material added, saves set lookups for runs of the same material */
+        long lastMaterial;
+        boolean hasLast;
+
+        // Scratch Variable
+        VoxelData vd;
+
+        OverlapBuffer(VoxelData vd) {
+            this.vd = vd;
+        }
+
+        void add(long material) {
+            if (hasLast && material == lastMaterial)
+                return;
+            overlaps.add(new Long(material));
+            lastMaterial = material;
+            hasLast = true;
+        }
+
+        void clear() {
+            overlaps.clear();
+            hasLast = false;
+        }
+    }
 }
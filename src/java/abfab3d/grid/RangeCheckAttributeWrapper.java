@@ -17,6 +17,7 @@ package abfab3d.grid;
 // Internal Imports
 
 import abfab3d.core.AttributeGrid;
+import abfab3d.core.AttributeRowAccess;
 import abfab3d.core.ClassAttributeTraverser;
 import abfab3d.core.ClassTraverser;
 import abfab3d.core.Grid;
@@ -25,6 +26,7 @@ import abfab3d.core.GridDataDesc;
 import abfab3d.core.VoxelClasses;
 import abfab3d.core.VoxelData;
 import abfab3d.core.Bounds;
+import abfab3d.grid.util.GridUtil;
 
 /**
  * Detects whether any operations exceed the dimensions specified by
@@ -38,7 +40,7 @@ import abfab3d.core.Bounds;
  * @author Alan Hudson
  * @author Vladimir Bulatov
  */
-public class RangeCheckAttributeWrapper extends RangeCheckWrapper implements AttributeGridWrapper {
+public class RangeCheckAttributeWrapper extends RangeCheckWrapper implements AttributeGridWrapper, AttributeRowAccess {
     /**
      * Constructor.
      *
@@ -275,6 +277,38 @@ public class RangeCheckAttributeWrapper extends RangeCheckWrapper implements Att
         }
     }
 
+    /**
+     * Get attributes of a row of voxels along z axis.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @param zmin The first z grid coordinate
+     * @param zmax The z grid coordinate after the last voxel
+     * @param attributes The array to store attributes into
+     * @param offset The index of the first attribute in the array
+     */
+    public void getAttributes(int x, int y, int zmin, int zmax, long attributes[], int offset) {
+        verifyRange(x, y, zmin, zmax);
+
+        GridUtil.getAttributes((AttributeGrid)grid, x, y, zmin, zmax, attributes, offset);
+    }
+
+    /**
+     * Set attributes of a row of voxels along z axis.  Leaves the states unchanged.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @param zmin The first z grid coordinate
+     * @param zmax The z grid coordinate after the last voxel
+     * @param attributes The attributes to set
+     * @param offset The index of the first attribute in the array
+     */
+    public void setAttributes(int x, int y, int zmin, int zmax, long attributes[], int offset) {
+        verifyRange(x, y, zmin, zmax);
+
+        GridUtil.setAttributes((AttributeGrid)grid, x, y, zmin, zmax, attributes, offset);
+    }
+
     /**
      * Set the material value of a voxel.  Leaves the state unchanged.
      *
@@ -661,6 +695,22 @@ public class RangeCheckAttributeWrapper extends RangeCheckWrapper implements Att
         return new_wrapper;
     }
 
+    /**
+     * Range check grid coord values.  If outside range then throw
+     * an IllegalArgumentException.
+     *
+     * @param x The x value
+     * @param y The y value
+     * @param zmin The first z value
+     * @param zmax The z value after the last one
+     */
+    private void verifyRange(int x, int y, int zmin, int zmax) {
+        if(zmax <= zmin)
+            return;
+        verifyRange(x, y, zmin);
+        verifyRange(x, y, zmax - 1);
+    }
+
     /**
      * Range check grid coord values.  If outside range then throw
      * an IllegalArgumentException.
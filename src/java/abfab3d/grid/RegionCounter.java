@@ -516,6 +516,61 @@ public class RegionCounter {
         return largeComp;
     }
 
+    /**
+       multithreaded components counting via ComponentLabelerMT
+       @param minSize minimal count of voxels in counted component
+       @param threadCount count of threads to use, count < 1 means use all available processors
+     */
+    public static RegionCounterResults countComponentsMT(AttributeGrid grid, AttributeTester tester, int minSize, int threadCount) {
+
+        ComponentLabelerMT labeler = new ComponentLabelerMT(tester);
+        labeler.setThreadCount(threadCount);
+        labeler.label(grid);
+        Vector<ComponentLabelerMT.Component> components = labeler.getComponents();
+
+        int compCount = 0;
+        long volume = 0;
+        long largestVoxels = 0;
+        for(int i = 0; i < components.size(); i++){
+            long cv = components.get(i).volume;
+            if(cv < minSize)
+                continue;
+            compCount++;
+            volume += cv;
+            if(cv > largestVoxels)
+                largestVoxels = cv;
+        }
+
+        RegionCounterResults ret_val = new RegionCounterResults();
+        ret_val.numRegions = compCount;
+        ret_val.totalVolume = volume;
+        ret_val.maxedCount = false;
+        ret_val.largestRegionVoxels = largestVoxels;
+        ret_val.largestRegionVolume = largestVoxels * Math.pow(grid.getVoxelSize(),3);
+        ret_val.voxelSize = grid.getVoxelSize();
+
+        return ret_val;
+    }
+
+    /**
+       multithreaded removal of small components via ComponentLabelerMT
+       @param minSize components with less voxels are removed
+       @param removedAttribute attribute to set to voxels of removed components
+       @param threadCount count of threads to use, count < 1 means use all available processors
+       @return remaining components
+     */
+    public static Vector<ComponentLabelerMT.Component> removeSmallComponentsMT(AttributeGrid grid, AttributeTester tester, int minSize,
+                                                                               long removedAttribute, int threadCount){
+
+        ComponentLabelerMT labeler = new ComponentLabelerMT(tester);
+        labeler.setThreadCount(threadCount);
+        int count = labeler.label(grid);
+        int removed = labeler.removeSmallComponents(grid, minSize, removedAttribute);
+        if(DEBUG)printf("removeSmallComponentsMT(minSize: %d) components: %d removed: %d\n", minSize, count, removed);
+        return labeler.getComponents();
+
+    }
+
     public static List<int[]> getComponentBoundsByVolume(AttributeGrid grid, long material, int maxCount, int minSize, boolean collectData) {
         return getComponentBoundsByVolume(grid, material, maxCount, minSize, collectData, ConnectedComponent.DEFAULT_ALGORITHM);
     }
@@ -0,0 +1,216 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.grid;
+
+import abfab3d.core.Bounds;
+import abfab3d.core.Grid;
+
+import static java.lang.Math.min;
+import static java.lang.Math.max;
+import static java.lang.Math.floor;
+import static java.lang.Math.ceil;
+
+import static abfab3d.core.Output.fmt;
+
+/**
+   axis aligned box of voxels of a grid
+
+   min values are inclusive, max values are exclusive
+   box with any max <= min is empty
+
+   @author Vladimir Bulatov
+ */
+public class VoxelBox implements Cloneable {
+
+    public int xmin, xmax, ymin, ymax, zmin, zmax;
+
+    /**
+       empty box
+     */
+    public VoxelBox(){
+    }
+
+    public VoxelBox(int xmin, int xmax, int ymin, int ymax, int zmin, int zmax){
+
+        set(xmin, xmax, ymin, ymax, zmin, zmax);
+
+    }
+
+    public VoxelBox(VoxelBox box){
+
+        set(box.xmin, box.xmax, box.ymin, box.ymax, box.zmin, box.zmax);
+
+    }
+
+    /**
+       box which covers the whole grid
+     */
+    public VoxelBox(Grid grid){
+
+        set(0, grid.getWidth(), 0, grid.getHeight(), 0, grid.getDepth());
+
+    }
+
+    public void set(int xmin, int xmax, int ymin, int ymax, int zmin, int zmax){
+
+        this.xmin = xmin;
+        this.xmax = xmax;
+        this.ymin = ymin;
+        this.ymax = ymax;
+        this.zmin = zmin;
+        this.zmax = zmax;
+
+    }
+
+    public boolean isEmpty(){
+        return (xmax <= xmin || ymax <= ymin || zmax <= zmin);
+    }
+
+    /**
+       @return count of voxels in the box
+     */
+    public long getVolume(){
+        if(isEmpty()) return 0;
+        return ((long)(xmax - xmin))*(ymax - ymin)*(zmax - zmin);
+    }
+
+    public boolean contains(int x, int y, int z){
+        return (x >= xmin && x < xmax && y >= ymin && y < ymax && z >= zmin && z < zmax);
+    }
+
+    /**
+       @return true if boxes have common voxels
+     */
+    public boolean intersects(VoxelBox box){
+
+        if(isEmpty() || box.isEmpty())
+            return false;
+        return (xmin < box.xmax && box.xmin < xmax &&
+                ymin < box.ymax && box.ymin < ymax &&
+                zmin < box.zmax && box.zmin < zmax);
+    }
+
+    /**
+       @return true if boxes have common voxels or share a face
+     */
+    public boolean touches(VoxelBox box){
+
+        if(isEmpty() || box.isEmpty())
+            return false;
+        return (xmin <= box.xmax && box.xmin <= xmax &&
+                ymin <= box.ymax && box.ymin <= ymax &&
+                zmin <= box.zmax && box.zmin <= zmax);
+    }
+
+    /**
+       extends this box to contain given box
+     */
+    public void union(VoxelBox box){
+
+        if(box.isEmpty())
+            return;
+        if(isEmpty()) {
+            set(box.xmin, box.xmax, box.ymin, box.ymax, box.zmin, box.zmax);
+            return;
+        }
+        xmin = min(xmin, box.xmin);
+        xmax = max(xmax, box.xmax);
+        ymin = min(ymin, box.ymin);
+        ymax = max(ymax, box.ymax);
+        zmin = min(zmin, box.zmin);
+        zmax = max(zmax, box.zmax);
+
+    }
+
+    /**
+       shrinks this box to the common part with given box
+     */
+    public void intersect(VoxelBox box){
+
+        xmin = max(xmin, box.xmin);
+        xmax = min(xmax, box.xmax);
+        ymin = max(ymin, box.ymin);
+        ymax = min(ymax, box.ymax);
+        zmin = max(zmin, box.zmin);
+        zmax = min(zmax, box.zmax);
+
+    }
+
+    /**
+       clamps box to grid of given size
+     */
+    public void clamp(int nx, int ny, int nz){
+
+        intersect(new VoxelBox(0, nx, 0, ny, 0, nz));
+
+    }
+
+    /**
+       adds given number of voxels on each side of the box
+     */
+    public void expand(int width){
+
+        xmin -= width;
+        xmax += width;
+        ymin -= width;
+        ymax += width;
+        zmin -= width;
+        zmax += width;
+
+    }
+
+    /**
+       @return box of grid voxels which intersect physical bounds.
+       The box is clamped to the grid.
+     */
+    public static VoxelBox getVoxelBox(Bounds bounds, Grid grid){
+
+        Bounds gb = grid.getGridBounds();
+        int nx = grid.getWidth(), ny = grid.getHeight(), nz = grid.getDepth();
+        double
+            vx = (gb.xmax - gb.xmin)/nx,
+            vy = (gb.ymax - gb.ymin)/ny,
+            vz = (gb.zmax - gb.zmin)/nz;
+
+        VoxelBox box = new VoxelBox(toIndex(floor((bounds.xmin - gb.xmin)/vx)), toIndex(ceil((bounds.xmax - gb.xmin)/vx)),
+                                    toIndex(floor((bounds.ymin - gb.ymin)/vy)), toIndex(ceil((bounds.ymax - gb.ymin)/vy)),
+                                    toIndex(floor((bounds.zmin - gb.zmin)/vz)), toIndex(ceil((bounds.zmax - gb.zmin)/vz)));
+        box.clamp(nx, ny, nz);
+        return box;
+    }
+
+    // guards against overflow for bounds far outside of the grid
+    static final int toIndex(double v){
+        return (int)max(-Integer.MAX_VALUE/2, min(Integer.MAX_VALUE/2, v));
+    }
+
+    public boolean equals(Object obj){
+
+        if(!(obj instanceof VoxelBox))
+            return false;
+        VoxelBox b = (VoxelBox)obj;
+        return (xmin == b.xmin && xmax == b.xmax && ymin == b.ymin && ymax == b.ymax && zmin == b.zmin && zmax == b.zmax);
+
+    }
+
+    public int hashCode(){
+        return ((((xmin*31 + xmax)*31 + ymin)*31 + ymax)*31 + zmin)*31 + zmax;
+    }
+
+    public VoxelBox clone(){
+        return new VoxelBox(this);
+    }
+
+    public String toString(){
+        return fmt("VoxelBox(%d %d %d %d %d %d)", xmin, xmax, ymin, ymax, zmin, zmax);
+    }
+}
@@ -23,6 +23,7 @@ import abfab3d.core.Grid2D;
 
 import abfab3d.grid.ArrayAttributeGridShort;
 import abfab3d.grid.Grid2DShort;
+import abfab3d.grid.util.GridUtil;
 
 import abfab3d.core.Vec;
 import abfab3d.core.DataSource;
@@ -275,13 +276,29 @@ public class ClosestPointIndexer {
         int ipnt[] = new int[nm+1];
         double value1[] = new double[nm];
         int gpnt[] = new int[nm];
+        long att[] = new long[nm];
 
         // make 1D x transforms for each y row 
-        for(int iy = 0; iy < ny; iy++){
+        PI2_rows(0, ny, coordx, coordy, indexGrid, v, w, ipnt, value1, gpnt, att);
+        // make 1D y transforms for each x column 
+        PI2_columns(0, nx, coordx, coordy, indexGrid, v, w, ipnt, value1, gpnt, att);
+    }
+
+    /**
+       makes 1D x transforms of rows [ymin, ymax) of 2D index grid 
+       work arrays have length of max grid dimension (plus 1 for w and ipnt) 
+     */
+    public static void PI2_rows(int ymin, int ymax, double coordx[], double coordy[], Grid2D indexGrid, 
+                                int v[], double w[], int ipnt[], double value1[], int gpnt[], long att[]){
+
+        int nx = indexGrid.getWidth();
+
+        for(int iy = ymin; iy < ymax; iy++){
             int pcnt = 0;
+            GridUtil.getRow(indexGrid, iy, 0, nx, att);
             // prepare 1D chain of points 
             for(int ix = 0; ix < nx; ix++){
-                int ind = (int)indexGrid.getAttribute(ix, iy);
+                int ind = (int)att[ix];
                 if(ind > 0){
                     ipnt[pcnt] = ind;
                     double y = coordy[ind]-(iy+HALF);
@@ -293,17 +310,27 @@ public class ClosestPointIndexer {
                 PI1(nx,pcnt, ipnt, coordx, value1, gpnt, v, w);
                 // write chain of indices back into 2D grid 
                 for(int ix = 0; ix < nx; ix++){
-                    indexGrid.setAttribute(ix, iy, gpnt[ix]);
+                    att[ix] = gpnt[ix];
                 }            
+                GridUtil.setRow(indexGrid, iy, 0, nx, att);
             }
         }
-        //if(true) return;
-        // make 1D y transforms for each x column 
-        for(int ix = 0; ix < nx; ix++){
+    }
+
+    /**
+       makes 1D y transforms of columns [xmin, xmax) of 2D index grid 
+     */
+    public static void PI2_columns(int xmin, int xmax, double coordx[], double coordy[], Grid2D indexGrid, 
+                                   int v[], double w[], int ipnt[], double value1[], int gpnt[], long att[]){
+
+        int ny = indexGrid.getHeight();
+
+        for(int ix = xmin; ix < xmax; ix++){
             int pcnt = 0;
+            GridUtil.getColumn(indexGrid, ix, att);
             // prepare 1D chain of points 
             for(int iy = 0; iy < ny; iy++){
-                int ind = (int)indexGrid.getAttribute(ix, iy);
+                int ind = (int)att[iy];
                 if(ind > 0){
                     ipnt[pcnt] = ind;
                     double x = coordx[ind]-(ix+HALF);
@@ -315,8 +342,9 @@ public class ClosestPointIndexer {
                 PI1(ny, pcnt, ipnt, coordy, value1, gpnt, v, w);
                 // write chain of indices back into 2D grid 
                 for(int iy = 0; iy < ny; iy++){
-                    indexGrid.setAttribute(ix, iy, gpnt[iy]);
+                    att[iy] = gpnt[iy];
                 }            
+                GridUtil.setColumn(indexGrid, ix, att);
             }
         }
     }
@@ -828,6 +856,7 @@ public class ClosestPointIndexer {
         int nx = indexGrid.getWidth();
         int ny = indexGrid.getHeight();
         int nz = indexGrid.getDepth();
+        long row[] = new long[nz];
 
         // make 1D Z-transforms 
         for(int iy = ymin; iy < ymax; iy++){
@@ -836,8 +865,9 @@ public class ClosestPointIndexer {
                 double vx = (ix+HALF);
                 int pcnt = 0;
                 // prepare 1D chain of points 
+                GridUtil.getAttributes(indexGrid, ix, iy, 0, nz, row, 0);
                 for(int iz = 0; iz < nz; iz++){
-                    int ind = (int)indexGrid.getAttribute(ix, iy, iz);
+                    int ind = (int)row[iz];
                     if(ind > 0){
                         ipnt[pcnt] = ind;
                         double x = coordx[ind]-vx;
@@ -850,8 +880,9 @@ public class ClosestPointIndexer {
                     PI1(nz, pcnt, ipnt, coordz, value, gpnt, v, w);
                     // write chain of indices back into 3D grid 
                     for(int iz = 0; iz < nz; iz++){
-                        indexGrid.setAttribute(ix, iy, iz, gpnt[iz]);
+                        row[iz] = gpnt[iz];
                     }            
+                    GridUtil.setAttributes(indexGrid, ix, iy, 0, nz, row, 0);
                 }
             }
         }
@@ -866,6 +897,7 @@ public class ClosestPointIndexer {
         int nx = indexGrid.getWidth();
         int ny = indexGrid.getHeight();
         int nz = indexGrid.getDepth();
+        long row[] = new long[nz];
         int ecount = 0;
 
         // make 1D Z-transforms 
@@ -875,8 +907,9 @@ public class ClosestPointIndexer {
                 double vx = (ix+HALF);
                 int pcnt = 0;
                 // prepare 1D chain of points 
+                GridUtil.getAttributes(indexGrid, ix, iy, 0, nz, row, 0);
                 for(int iz = 0; iz < nz; iz++){
-                    int ind = (int)indexGrid.getAttribute(ix, iy, iz);
+                    int ind = (int)row[iz];
                     if(ind > 0){
                         // non empty voxel 
                         double dist = length2(coordx[ind]-vx, coordy[ind]-vy);
@@ -887,8 +920,9 @@ public class ClosestPointIndexer {
                     PI1(nz, pcnt, ipnt, coordz, value, gpnt, v, w);
                     // write chain of indices back into 3D grid 
                     for(int iz = 0; iz < nz; iz++){
-                        indexGrid.setAttribute(ix, iy, iz, gpnt[iz]);
+                        row[iz] = gpnt[iz];
                     }            
+                    GridUtil.setAttributes(indexGrid, ix, iy, 0, nz, row, 0);
                 }
             }
         }
@@ -906,6 +940,7 @@ public class ClosestPointIndexer {
         int nx = indexGrid.getWidth();
         int ny = indexGrid.getHeight();
         int nz = indexGrid.getDepth();
+        long row[] = new long[nz];
         int ecount = 0;
 
         // make 1D Z-transforms 
@@ -915,8 +950,9 @@ public class ClosestPointIndexer {
                 double vx = (ix+HALF);
                 int pcnt = 0;
                 // prepare 1D chain of points 
+                GridUtil.getAttributes(indexGrid, ix, iy, 0, nz, row, 0);
                 for(int iz = 0; iz < nz; iz++){
-                    int ind = (int)indexGrid.getAttribute(ix, iy, iz);
+                    int ind = (int)row[iz];
                     if(ind > 0){
                         // non empty voxel 
                         double dist = length2(coordx[ind]-vx, coordy[ind]-vy);
@@ -927,8 +963,9 @@ public class ClosestPointIndexer {
                     PI1_bounded(nz, pcnt, ipnt, coordz, value, maxDistance, gpnt, v, w);
                     // write chain of indices back into 3D grid 
                     for(int iz = 0; iz < nz; iz++){
-                        if(gpnt[iz] != 0)indexGrid.setAttribute(ix, iy, iz, gpnt[iz]);
+                        if(gpnt[iz] != 0) row[iz] = gpnt[iz];
                     }            
+                    GridUtil.setAttributes(indexGrid, ix, iy, 0, nz, row, 0);
                 }
             }
         }
@@ -1507,14 +1544,13 @@ public class ClosestPointIndexer {
             for(int x = 0; x < nx; x++){
                 double coordx = xmin + vs*x;
                 // read input grid data into 1D arrays
-                for(int z = 0; z < nz; z++){
-                    att[z] = indexGrid.getAttribute(x,y,z);
-                }   
                 if(interiorGrid != null){
+                    GridUtil.getAttributes(interiorGrid, x, y, 0, nz, att, 0);
                     for(int z = 0; z < nz; z++){
-                        interior[z] = (interiorGrid.getAttribute(x,y,z) != 0);
+                        interior[z] = (att[z] != 0);
                     }                
                 }
+                GridUtil.getAttributes(indexGrid, x, y, 0, nz, att, 0);
                 for(int z = 0; z < nz; z++){
                     int ind = (int)att[z];
                     if(ind > 0) {
@@ -1551,7 +1587,7 @@ public class ClosestPointIndexer {
                     }
                 } // for(int z
                 // write distances into output grid                
-                outGrid.setAttributes(x,y,att);                                
+                GridUtil.setAttributes(outGrid, x, y, 0, nz, att, 0);
             }
         }
         
@@ -1662,14 +1698,13 @@ public class ClosestPointIndexer {
             for(int x = 0; x < nx; x++){
                 double coordx = xmin + vs*x;
                 // read input grid data into 1D arrays
-                for(int z = 0; z < nz; z++){
-                    att[z] = indexGrid.getAttribute(x,y,z);
-                }   
                 if(interiorGrid != null){
+                    GridUtil.getAttributes(interiorGrid, x, y, 0, nz, att, 0);
                     for(int z = 0; z < nz; z++){
-                        interior[z] = (interiorGrid.getAttribute(x,y,z) != 0);
+                        interior[z] = (att[z] != 0);
                     }                
                 }
+                GridUtil.getAttributes(indexGrid, x, y, 0, nz, att, 0);
                 for(int z = 0; z < nz; z++){
                     int ind = (int)att[z];
                     if(ind > 0) {
@@ -1694,9 +1729,7 @@ public class ClosestPointIndexer {
                     }
                 } // for(int z
                 // write distances into output grid
-                for(int z = 0; z < nz; z++){
-                    distanceGrid.setAttribute(x,y,z,att[z]);
-                }                
+                GridUtil.setAttributes(distanceGrid, x, y, 0, nz, att, 0);
             }
         }
     }
@@ -1719,9 +1752,25 @@ public class ClosestPointIndexer {
                                           double maxOutDistance,
                                           Grid2D distanceGrid){
 
-        int 
-            nx = indexGrid.getWidth(),
-            ny = indexGrid.getHeight();
+        int nx = indexGrid.getWidth();
+        makeDistanceGrid2DSlice(0, indexGrid.getHeight(), indexGrid, pntx, pnty, interiorGrid, maxInDistance, maxOutDistance, distanceGrid, 
+                                new long[nx], new long[nx], new long[nx]);
+    }
+
+    /**
+       calculates rows [ymin, ymax) of distance grid 
+       @param indexAtt, interiorAtt, distAtt work arrays of grid width length 
+     */
+    public static void makeDistanceGrid2DSlice(int ymin, int ymax, 
+                                               Grid2D indexGrid, 
+                                               double pntx[], double pnty[],
+                                               Grid2D interiorGrid,                                           
+                                               double maxInDistance, 
+                                               double maxOutDistance,
+                                               Grid2D distanceGrid, 
+                                               long indexAtt[], long interiorAtt[], long distAtt[]){
+
+        int nx = indexGrid.getWidth();
         
         GridDataChannel distChannel = distanceGrid.getDataDesc().getChannel(0);
 
@@ -1730,26 +1779,29 @@ public class ClosestPointIndexer {
 
 
         Vector3d coord = new Vector3d();
-        for(int y = 0; y < ny; y++){
+        for(int y = ymin; y < ymax; y++){
+            GridUtil.getRow(indexGrid, y, 0, nx, indexAtt);
+            if(interiorGrid != null)
+                GridUtil.getRow(interiorGrid, y, 0, nx, interiorAtt);
             for(int x = 0; x < nx; x++){
-                int ind = (int)indexGrid.getAttribute(x,y);
+                int ind = (int)indexAtt[x];
+                boolean interior = (interiorGrid != null && interiorAtt[x] != 0);
                 if(ind > 0) {
                     indexGrid.getWorldCoords(x, y, coord);
                     double dist = distance(coord.x,coord.y, pntx[ind],pnty[ind]);
-                    if(interiorGrid != null && interiorGrid.getAttribute(x,y) != 0)
+                    if(interior)
                         dist = -dist;
-                    distanceGrid.setAttribute(x,y,distChannel.makeAtt(dist));
+                    distAtt[x] = distChannel.makeAtt(dist);
                 }  else {
                     // point is undefined 
-                    if(interiorGrid != null && interiorGrid.getAttribute(x,y) != 0){
-                        // interior 
-                        distanceGrid.setAttribute(x,y,intAtt);
+                    if(interior){
+                        distAtt[x] = intAtt;
                     } else {
-                        // exterior 
-                        distanceGrid.setAttribute(x,y,extAtt);
+                        distAtt[x] = extAtt;
                     }
                 }
             } // for(x
+            GridUtil.setRow(distanceGrid, y, 0, nx, distAtt);
         } // for(y 
     }
 
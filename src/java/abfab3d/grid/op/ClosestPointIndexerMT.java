@@ -28,6 +28,7 @@ import abfab3d.core.Grid2D;
 import abfab3d.core.Bounds;
 import abfab3d.util.SliceManager;
 import abfab3d.util.Slice;
+import abfab3d.util.ThreadUtil;
 import abfab3d.core.DataSource;
 
 import static abfab3d.core.Output.printf;
@@ -57,6 +58,8 @@ public class ClosestPointIndexerMT {
 
     static final boolean DEBUG_TIMING = false;
     static final boolean DEBUG = false;
+    // count of rows (or columns) of 2D grid processed as single slice 
+    static final int SLICE_SIZE_2D = 16;
     //static final double DEF_LAYER_THICKNESS = 1.8;
 
     
@@ -397,6 +400,60 @@ public class ClosestPointIndexerMT {
 
 
 
+    /**
+       MT version of ClosestPointIndexer.PI2()
+       rows of the index grid are processed in parallel, then columns are processed in parallel 
+       result is the same as of PI2()
+     */
+    public static void PI2_MT(int npnt, double coordx[], double coordy[], Grid2D indexGrid, int threadCount){
+
+        if(threadCount <= 1) {
+            ClosestPointIndexer.PI2(npnt, coordx, coordy, indexGrid);
+            return;
+        }
+        long t0 = time();
+        runPI2(0, indexGrid.getHeight(), coordx, coordy, indexGrid, threadCount);
+        runPI2(1, indexGrid.getWidth(), coordx, coordy, indexGrid, threadCount);
+        if(DEBUG_TIMING) printf("PI2_MT() done %d ms\n", (time() - t0));
+    }
+
+    // runs rows (direction 0) or columns (direction 1) pass of PI2 
+    static void runPI2(int direction, int gridSize, double coordx[], double coordy[], Grid2D indexGrid, int threadCount){
+
+        SliceManager slicer = new SliceManager(gridSize, SLICE_SIZE_2D);
+        threadCount = min(threadCount, slicer.getSliceCount());
+        SliceProcessorPI2 processors[] = new SliceProcessorPI2[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            processors[i] = new SliceProcessorPI2(i, direction, coordx, coordy, indexGrid);
+        }
+        ThreadUtil.runSlices(slicer, processors);
+    }
+
+    /**
+       MT version of ClosestPointIndexer.makeDistanceGrid2D()
+       rows of the distance grid are calculated in parallel 
+     */
+    public static void makeDistanceGrid2D_MT(Grid2D indexGrid, 
+                                             double pntx[], double pnty[],
+                                             Grid2D interiorGrid,                                           
+                                             double maxInDistance, 
+                                             double maxOutDistance,
+                                             int threadCount,
+                                             Grid2D distanceGrid){
+        if(threadCount <= 1) {
+            ClosestPointIndexer.makeDistanceGrid2D(indexGrid, pntx, pnty, interiorGrid, maxInDistance, maxOutDistance, distanceGrid);
+            return;
+        }
+
+        SliceManager slicer = new SliceManager(indexGrid.getHeight(), SLICE_SIZE_2D);
+        threadCount = min(threadCount, slicer.getSliceCount());
+        SliceProcessorDistance2D processors[] = new SliceProcessorDistance2D[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            processors[i] = new SliceProcessorDistance2D(i, indexGrid, pntx, pnty, interiorGrid, maxInDistance, maxOutDistance, distanceGrid);
+        }
+        ThreadUtil.runSlices(slicer, processors);
+    }
+
     /**
        compares distances to points stored in two grids and select shortest distance and stores result in first grid
      */
@@ -686,4 +743,84 @@ public class ClosestPointIndexerMT {
         }        
     } // static class SliceProcessorCombine
 
+
+    /**
+       class to calculate 2D closest point indices for slices of rows or columns 
+     */
+    static class SliceProcessorPI2 implements ThreadUtil.SliceTask {
+
+        int id;
+        int direction; // 0 - rows, 1 - columns 
+        double coordx[];
+        double coordy[];
+        Grid2D indexGrid;
+        // work arrays
+        int v[];
+        double w[];
+        int ipnt[];
+        double value[];
+        int gpnt[];
+        long att[];
+
+        SliceProcessorPI2(int id, int direction, double coordx[], double coordy[], Grid2D indexGrid){
+
+            this.id = id;
+            this.direction = direction;
+            this.coordx = coordx;
+            this.coordy = coordy;
+            this.indexGrid = indexGrid;
+
+            int nm = max(indexGrid.getWidth(), indexGrid.getHeight());
+            this.v = new int[nm];
+            this.w = new double[nm+1];
+            this.ipnt = new int[nm+1];
+            this.value = new double[nm];
+            this.gpnt = new int[nm];
+            this.att = new long[nm];
+        }
+
+        public void processSlice(Slice slice){
+
+            if(direction == 0)
+                ClosestPointIndexer.PI2_rows(slice.smin, slice.smax, coordx, coordy, indexGrid, v, w, ipnt, value, gpnt, att);
+            else 
+                ClosestPointIndexer.PI2_columns(slice.smin, slice.smax, coordx, coordy, indexGrid, v, w, ipnt, value, gpnt, att);
+        }        
+    } // static class SliceProcessorPI2
+
+    /**
+       class to calculate distance values of rows of 2D grid
+     */
+    static class SliceProcessorDistance2D implements ThreadUtil.SliceTask {
+
+        int id;
+        double pntx[], pnty[];
+        Grid2D indexGrid, interiorGrid, distanceGrid;
+        double maxInDistance, maxOutDistance;
+        // work arrays
+        long indexAtt[], interiorAtt[], distAtt[];
+
+        SliceProcessorDistance2D(int id, Grid2D indexGrid, double pntx[], double pnty[], Grid2D interiorGrid, 
+                                 double maxInDistance, double maxOutDistance, Grid2D distanceGrid){
+            this.id = id;
+            this.indexGrid = indexGrid;
+            this.pntx = pntx;
+            this.pnty = pnty;
+            this.interiorGrid = interiorGrid;
+            this.maxInDistance = maxInDistance;
+            this.maxOutDistance = maxOutDistance;
+            this.distanceGrid = distanceGrid;
+            int nx = indexGrid.getWidth();
+            this.indexAtt = new long[nx];
+            this.interiorAtt = new long[nx];
+            this.distAtt = new long[nx];
+        }
+
+        public void processSlice(Slice slice){
+
+            ClosestPointIndexer.makeDistanceGrid2DSlice(slice.smin, slice.smax, indexGrid, pntx, pnty, interiorGrid, 
+                                                        maxInDistance, maxOutDistance, distanceGrid, indexAtt, interiorAtt, distAtt);
+        }
+    } // static class SliceProcessorDistance2D
+
 } // class ClosestPointIndexer_MT
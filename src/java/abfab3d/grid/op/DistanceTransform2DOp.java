@@ -29,7 +29,12 @@ import abfab3d.param.Parameter;
 import abfab3d.param.DoubleParameter;
 import abfab3d.param.IntParameter;
 
+import abfab3d.util.ThreadUtil;
 import abfab3d.util.PointMap;
+import abfab3d.util.Slice;
+import abfab3d.util.SliceManager;
+
+import java.util.Arrays;
 
 
 import static abfab3d.core.Output.printf;
@@ -37,6 +42,7 @@ import static abfab3d.core.Output.time;
 import static abfab3d.core.Units.MM;
 
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.lang.Math.sqrt;
 import static java.lang.Math.round;
 import static abfab3d.core.MathUtil.iround;
@@ -53,6 +59,8 @@ import static abfab3d.core.MathUtil.iround;
  * interior pixels not reached by maxInDistance are initialized to -maxInDstance
  * exterior pixels not reached by maxOutDistance are initialized to maxOutDstance
  *
+ * rows and columns of the grid are processed in parallel, the result does not depend on count of threads 
+ *
  * @author Vladimir Bulatov
  */
 public class DistanceTransform2DOp extends BaseParameterizable implements Operation2D {
@@ -80,6 +88,9 @@ public class DistanceTransform2DOp extends BaseParameterizable implements Operat
     
 
     public static final int INTERP_THRESHOLD = 0, INTERP_LINEAR = 1, INTERP_IF = 2;
+
+    // count of rows processed as single slice 
+    static final int SLICE_SIZE = 16;
     
     /**
      @param inDistance maximal distance to calculate transform inside of the shape. Measured in meters
@@ -119,6 +130,14 @@ public class DistanceTransform2DOp extends BaseParameterizable implements Operat
         mp_interpolation.setValue(interpolation);
     }
 
+    /**
+       set count of threads to use.
+       count < 1 means use all available processors
+     */
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
 
     //
     // local class variable 
@@ -134,11 +153,13 @@ public class DistanceTransform2DOp extends BaseParameterizable implements Operat
     // sign of input data inside of shape 
     private int m_interiorSign;
     int m_interpolation = INTERP_LINEAR;
+    int m_threadCount = 0;
 
     private GridDataChannel m_dataChannel;
     private PointMap m_points;
     private Grid2D m_indexGrid;
     private Grid2D m_distanceGrid;
+    private Grid2D m_interiorGrid;
 
 
     /**
@@ -157,6 +178,8 @@ public class DistanceTransform2DOp extends BaseParameterizable implements Operat
         m_maxOutDistance = mp_maxOutDist.getValue();
         m_surfaceValue = mp_surfaceValue.getValue();
         m_interiorSign = mp_interiorSign.getValue();
+        if(m_threadCount < 1) 
+            setThreadCount(0);
 
         if(DEBUG)printf("DistanceTransform2D.execute(%s)\n", grid.getClass().getName());
         if(DEBUG)printf("  m_inDistance: %7.3f mm  m_outDistance: %7.3f mm \n", m_maxInDistance/MM, m_maxOutDistance/MM);
@@ -196,17 +219,20 @@ public class DistanceTransform2DOp extends BaseParameterizable implements Operat
             }
         }
 
+        if(DEBUG)printf("DistanceTransform2D surface layer: %d ms\n", (time() - t0));
+
         // distribute distances to the whole grid 
-        ClosestPointIndexer.PI2(pcnt, px, py, m_indexGrid);
+        ClosestPointIndexerMT.PI2_MT(pcnt, px, py, m_indexGrid, m_threadCount);
 
         ClosestPointIndexer.getPointsInWorldUnits(m_indexGrid, px, py);
 
-        Grid2D interiorGrid = makeInteriorGrid(grid, m_dataChannel, m_surfaceValue, m_interiorSign);
-        ClosestPointIndexer.makeDistanceGrid2D(m_indexGrid, px,py, 
-                                               interiorGrid,                                                
-                                               m_maxInDistance, 
-                                               m_maxOutDistance,
-                                               m_distanceGrid);
+        ClosestPointIndexerMT.makeDistanceGrid2D_MT(m_indexGrid, px,py, 
+                                                    m_interiorGrid,                                                
+                                                    m_maxInDistance, 
+                                                    m_maxOutDistance,
+                                                    m_threadCount, 
+                                                    m_distanceGrid);
+        m_interiorGrid = null;
         
         if(DEBUG)printf("DistanceTransformIndexed2D.execute() time: %d ms\n", (time() - t0));
         
@@ -221,38 +247,109 @@ public class DistanceTransform2DOp extends BaseParameterizable implements Operat
         return m_distanceGrid;
     }
 
+    /**
+       finds surface points on grid segments between centers of pixels and initializes distances in thin layer around them. 
+       Surface points of rows are found in parallel and added in the order of rows. 
+       Interior grid is calculated in the same pass 
+     */
     void initializeSurfaceLayer(Grid2D dataGrid, double surfaceThickness){
-        int nx = dataGrid.getWidth();
+
         int ny = dataGrid.getHeight();
-        GridDataChannel dataConverter = m_dataChannel;
-        int nx1 = nx-1;
-        int ny1 = ny-1;
-        double vs = dataGrid.getVoxelSize();
-        Bounds bounds = dataGrid.getGridBounds();
-        double xmin = bounds.xmin;
-        double ymin = bounds.ymin;
-        double th = m_surfaceValue;
+        m_interiorGrid = new Grid2DByte(dataGrid.getGridBounds(),dataGrid.getVoxelSize());
+        double rowPoints[][] = new double[ny][];
+
+        SliceManager slicer = new SliceManager(ny, SLICE_SIZE);
+        int threadCount = max(1, min(m_threadCount, slicer.getSliceCount()));
+        SurfaceRowsProcessor processors[] = new SurfaceRowsProcessor[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            processors[i] = new SurfaceRowsProcessor(dataGrid, rowPoints);
+        }
+        ThreadUtil.runSlices(slicer, processors);
+
+        for(int iy = 0; iy < ny; iy++){
+            double pnt[] = rowPoints[iy];
+            if(pnt == null) 
+                continue;
+            for(int i = 0; i < pnt.length; i += 2){
+                addPoint(pnt[i], pnt[i+1], surfaceThickness);
+            }
+        }
+    } 
+
+    /**
+       finds surface points in slices of rows and makes rows of interior grid 
+     */
+    class SurfaceRowsProcessor implements ThreadUtil.SliceTask {
+        
+        Grid2D dataGrid;
+        double rowPoints[][];
+        int nx, ny;
+        // work arrays 
+        long att[];
+        double row0[], row1[];
+        double pnt[];
+        
+        SurfaceRowsProcessor(Grid2D dataGrid, double rowPoints[][]){
+            this.dataGrid = dataGrid;
+            this.rowPoints = rowPoints;
+            nx = dataGrid.getWidth();
+            ny = dataGrid.getHeight();
+            att = new long[nx];
+            row0 = new double[nx];
+            row1 = new double[nx];
+            pnt = new double[4*nx];
+        }
 
+        public void processSlice(Slice slice){
+            for(int iy = slice.smin; iy < slice.smax; iy++){
+                processRow(iy);
+            }
+        }
+
+        // reads values of row relative to surface value 
+        void readRow(int iy, double row[]){
+
+            GridUtil.getRow(dataGrid, iy, 0, nx, att);
+            for(int ix = 0; ix < nx; ix++){
+                row[ix] = m_dataChannel.getValue(att[ix])-m_surfaceValue;
+            }            
+        }
 
-        for(int iy = 0; iy < ny1; iy++){
+        void processRow(int iy){
+
+            readRow(iy, row0);
+            // interior row 
+            for(int ix = 0; ix < nx; ix++){
+                att[ix] = (m_interiorSign*row0[ix] <= 0.)? 0: 1;
+            }
+            GridUtil.setRow(m_interiorGrid, iy, 0, nx, att);
+
+            if(iy >= ny-1) 
+                return;
+            readRow(iy+1, row1);
             double y = iy + HALF;
-            for(int ix = 0; ix < nx1; ix++){
+            int count = 0;
+            for(int ix = 0; ix < nx-1; ix++){
                 double x = ix + HALF;
-                double v0 = dataConverter.getValue(dataGrid.getAttribute(ix,iy))-th;
-                double vx = dataConverter.getValue(dataGrid.getAttribute(ix+1,iy))-th;
-                double vy = dataConverter.getValue(dataGrid.getAttribute(ix,iy+1))-th;
+                double v0 = row0[ix];
+                double vx = row0[ix+1];
+                double vy = row1[ix];
 
                 if((v0 <= 0. && vx > 0) || (v0 >= 0. && vx < 0)){
                     // add point on x segment 
-                    addPoint(x+coeff(v0, vx), y, surfaceThickness);
+                    pnt[count++] = x+coeff(v0, vx);
+                    pnt[count++] = y;
                 }
                 if((v0 <= 0. && vy > 0) || (v0 >= 0. && vy < 0)){
                     // add point on y segment 
-                    addPoint(x, y+coeff(v0, vy),surfaceThickness);                    
+                    pnt[count++] = x;
+                    pnt[count++] = y+coeff(v0, vy);
                 }
             }
+            if(count > 0)
+                rowPoints[iy] = Arrays.copyOf(pnt, count);
         }
-    } 
+    } // class SurfaceRowsProcessor
 
     final double coeff(double v0, double v1){
         switch(m_interpolation){
@@ -322,25 +419,5 @@ public class DistanceTransform2DOp extends BaseParameterizable implements Operat
         }
     }
 
-    Grid2D makeInteriorGrid(Grid2D grid, GridDataChannel dataConverter, double threshold, int interiorSign){
-
-        int nx = grid.getWidth();
-        int ny = grid.getHeight();
-        Grid2D interiorGrid = new Grid2DByte(grid.getGridBounds(),grid.getVoxelSize());
-        for(int y = 0; y < ny; y++){
-            for(int x = 0; x < nx; x++){
-                double d = interiorSign*(dataConverter.getValue(grid.getAttribute(x,y))-threshold);                
-                if(d <= 0.) {
-                    // exterior 
-                    interiorGrid.setAttribute(x,y,0);
-                } else {
-                    // interior 
-                    interiorGrid.setAttribute(x,y,1);
-                }
-            }
-        }        
-        return interiorGrid;
-    }
-    
     
 } // class DistanceTransformIndexed2D 
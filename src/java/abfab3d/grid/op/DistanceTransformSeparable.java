@@ -0,0 +1,664 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid.op;
+
+import java.util.Arrays;
+
+import abfab3d.core.Grid;
+import abfab3d.core.AttributeGrid;
+import abfab3d.grid.ArrayAttributeGridInt;
+import abfab3d.grid.ArrayAttributeGridShort;
+import abfab3d.grid.Operation;
+import abfab3d.grid.AttributeOperation;
+
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.SliceManager;
+import abfab3d.util.Slice;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.round;
+import static java.lang.Math.sqrt;
+
+/**
+
+ calculates signed Euclidean Distance Transform of density grid using separable linear time algorithm
+
+ Input grid has to be density grid with density stored in voxel attribute.
+ Density of interior voxels should be subvoxelResolution, density of exterior voxels should be 0.
+ Surface voxels have intermediate values.
+ The surface of the shape is isosurface with value (subvoxelResolution/2)
+
+ Output distances are normalized to subvoxelResolution,
+ this means that a voxel on distance K voxel sizes from the surface will have distance value K*subvoxelResolution
+ inside distances are negative
+ outside distances are positive
+ voxels further than maxInDistance (maxOutDistance) from the surface get values getInsideDefault() (getOutsideDefault())
+
+ algorithm works as follows
+ 1) each voxel which has 6-neighbor on the other side of the surface becomes a seed.
+    Seed stores the nearest point of the plane passing via nearest surface crossings along each axis
+ 2) the seed with nearest surface point is found for each voxel via 3 passes of 1D distance transform
+    (lower envelope of parabolas, Felzenszwalb and Huttenlocher) along x, y and z axes.
+    Similar to ClosestPointIndexer vertices of parabolas are located at surface points of seeds.
+    x and y passes run in parallel over z-slices, z pass runs in parallel over y-slices
+ 3) the z pass writes signed distance from voxel to the surface point of the nearest seed into the distance grid
+
+ the result is approximate. The separable passes are exact only for seeds located at voxel centers.
+ With subvoxel surface points each pass keeps a single winner per row and may drop the seed which would be nearest in 3D.
+ Compared to DistanceTransformExact distances differ by less than half voxel (subvoxelResolution/2)
+ and by less than quarter voxel for more than 99% of voxels within the distance limits
+
+ work memory is one int per voxel (index of nearest seed) stored as separate array for each z-slice
+
+ * @author Vladimir Bulatov
+ */
+public class DistanceTransformSeparable extends DistanceTransform implements Operation, AttributeOperation {
+
+    static final boolean DEBUG = false;
+    static final boolean DEBUG_TIMING = false;
+
+    static final double INF = Double.MAX_VALUE;
+    static final int NONE = -1; // undefined seed
+    static final double EPS = 1.e-6; // tolerance for coincident parabolas
+
+    static final int
+        PASS_INIT = 0, // collection of seeds
+        PASS_INDEX = 1,// global indexing of seeds
+        PASS_X = 2,    // 1D transform along x
+        PASS_Y = 3,    // 1D transform along y
+        PASS_Z = 4;    // 1D transform along z and output of distances
+
+    int m_maxInDistance = 0; // maximal inside distance (in subvoxels)
+    int m_maxOutDistance = 0; // maximal outside distance (in subvoxels)
+    int m_defaultValue = Short.MAX_VALUE;
+    int m_surfaceValue;
+    int m_threadCount = 0;
+    int m_sliceThickness = 1;
+
+    int nx, ny, nz;
+    // maximal squared distance of interest in voxels
+    double m_maxDist2;
+    // index of nearest seed for each voxel
+    int m_seedIndex[][];
+    // seeds found in each z-slice
+    SeedList m_sliceSeeds[];
+    int m_sliceSeedOffset[];
+    // surface points of all seeds (in grid units)
+    float m_surfX[], m_surfY[], m_surfZ[];
+
+    /**
+     @param subvoxelResolution sub voxel resolution
+     @param inDistance maximal distance to calculate transform inside of the shape. Measured in meters, positive value.
+     @param outDistance maximal distance to calculate transform outside of the shape. Measured in meters, positive value.
+     */
+    public DistanceTransformSeparable(int subvoxelResolution, double inDistance, double outDistance) {
+
+        m_subvoxelResolution = subvoxelResolution;
+        m_inDistance = inDistance;
+        m_outDistance = outDistance;
+        m_threadCount = ThreadUtil.getMaxThreadCount();
+
+    }
+
+    /**
+       set count of threads to use.
+       count < 1 means use all available processors
+     */
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
+    /**
+       set thickness of slices processed by single thread
+     */
+    public void setSliceThickness(int thickness){
+        m_sliceThickness = max(1, thickness);
+    }
+
+    /**
+     * Execute an operation on a grid.  If the operation changes the grid
+     * dimensions then a new one will be returned from the call.
+     *
+     * @param grid The grid to use for grid A.
+     * @return new grid with distance transform data
+     */
+    public Grid execute(Grid grid) {
+
+        if(grid instanceof AttributeGrid)
+            return execute((AttributeGrid)grid);
+
+        // voxel states are converted into density grid
+        AttributeGrid density = (m_subvoxelResolution <= 0xFFFF)?
+            new ArrayAttributeGridShort(grid.getGridBounds(), grid.getVoxelSize(), grid.getSliceHeight()):
+            new ArrayAttributeGridInt(grid.getGridBounds(), grid.getVoxelSize(), grid.getSliceHeight());
+        int gx = grid.getWidth(), gy = grid.getHeight(), gz = grid.getDepth();
+        for(int y = 0; y < gy; y++){
+            for(int x = 0; x < gx; x++){
+                for(int z = 0; z < gz; z++){
+                    if(grid.getState(x,y,z) != Grid.OUTSIDE)
+                        density.setAttribute(x,y,z,m_subvoxelResolution);
+                }
+            }
+        }
+        return execute(density);
+    }
+
+    /**
+       calculates distance transform of density grid
+       @param grid density grid
+       @return new grid with distance transform data
+     */
+    public AttributeGrid execute(AttributeGrid grid) {
+
+        long t0 = time();
+        if(DEBUG)printf("DistanceTransformSeparable.execute(%s)\n", grid);
+
+        m_surfaceValue = m_subvoxelResolution/2;
+        double vs = grid.getVoxelSize();
+
+        m_maxInDistance = (int)round(m_inDistance*m_subvoxelResolution/vs);
+        m_maxOutDistance = (int)round(m_outDistance*m_subvoxelResolution/vs);
+
+        nx = grid.getWidth();
+        ny = grid.getHeight();
+        nz = grid.getDepth();
+
+        // seeds further than maxDist are ignored
+        double maxDist = (double)max(m_maxInDistance, m_maxOutDistance)/m_subvoxelResolution + 2;
+        m_maxDist2 = maxDist*maxDist;
+
+        AttributeGrid distanceGrid = createDistanceGrid(grid);
+
+        m_seedIndex = new int[nz][];
+        m_sliceSeeds = new SeedList[nz];
+
+        runPass(PASS_INIT, grid, distanceGrid);
+        makeSeeds();
+        runPass(PASS_INDEX, grid, distanceGrid);
+        if(DEBUG_TIMING)printf("DistanceTransformSeparable seeds: %d (%d ms)\n", m_surfX.length, time() - t0);
+        runPass(PASS_X, grid, distanceGrid);
+        if(DEBUG_TIMING)printf("DistanceTransformSeparable pass x: %d ms\n", time() - t0);
+        runPass(PASS_Y, grid, distanceGrid);
+        if(DEBUG_TIMING)printf("DistanceTransformSeparable pass y: %d ms\n", time() - t0);
+        runPass(PASS_Z, grid, distanceGrid);
+        if(DEBUG_TIMING)printf("DistanceTransformSeparable done: %d ms\n", time() - t0);
+
+        // release work memory
+        m_seedIndex = null;
+        m_surfX = m_surfY = m_surfZ = null;
+
+        return distanceGrid;
+
+    }
+
+    /**
+     * Get the default value for distances inside the object.  The value will remain this for voxels past the maximal
+     * inside distance
+     * @return
+     */
+    public long getInsideDefault() {
+        return -m_defaultValue;
+    }
+
+    /**
+     * Get the default value for distances outside the object.  The value will remain this for voxels past the maximal
+     * outside distance
+     * @return
+     */
+    public long getOutsideDefault() {
+        return m_defaultValue;
+    }
+
+    /**
+       runs single pass of the algorithm in parallel
+     */
+    void runPass(int pass, AttributeGrid grid, AttributeGrid distanceGrid){
+
+        // z pass is parallel over y, other passes are parallel over z
+        int gridSize = (pass == PASS_Z)? ny: nz;
+        SliceManager slicer = new SliceManager(gridSize, m_sliceThickness);
+        int threadCount = max(1, min(m_threadCount, slicer.getSliceCount()));
+
+        SliceProcessor processors[] = new SliceProcessor[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            processors[i] = new SliceProcessor(pass, grid, distanceGrid);
+        }
+        ThreadUtil.runSlices(slicer, processors);
+    }
+
+    /**
+       combines seeds of all slices into global arrays
+     */
+    void makeSeeds(){
+
+        m_sliceSeedOffset = new int[nz];
+        int count = 0;
+        for(int z = 0; z < nz; z++){
+            m_sliceSeedOffset[z] = count;
+            count += m_sliceSeeds[z].size;
+        }
+
+        m_surfX = new float[count];
+        m_surfY = new float[count];
+        m_surfZ = new float[count];
+
+        for(int z = 0; z < nz; z++){
+            SeedList sl = m_sliceSeeds[z];
+            int offset = m_sliceSeedOffset[z];
+            for(int i = 0; i < sl.size; i++){
+                int ind = sl.index[i];
+                int x = ind % nx;
+                int y = ind / nx;
+                int k = offset + i;
+                m_surfX[k] = x + sl.dx[i];
+                m_surfY[k] = y + sl.dy[i];
+                m_surfZ[k] = z + sl.dz[i];
+            }
+            m_sliceSeeds[z] = null;
+        }
+    }
+
+    /**
+       calculates 1D distance transform of sampled function
+       finds for each grid point q the sample p which minimizes (q - coord[p])^2 + value[p]
+
+       @param coord coordinates of samples sorted in increasing order
+       @param value values of samples
+       @param count count of samples
+       @param gridSize size of the grid
+       @param closest output array of closest samples. Value NONE means no samples on the line
+       @param v work array of length (count+1) to store indices of parabolas in the lower envelope
+       @param w work array of length (count+1) to store boundaries between parabolas
+       @return count of parabolas in the lower envelope
+     */
+    static int DT1(double coord[], double value[], int count, int gridSize, int closest[], int v[], double w[]){
+
+        if(count == 0){
+            // no samples on the line
+            for(int q = 0; q < gridSize; q++){
+                closest[q] = NONE;
+            }
+            return 0;
+        }
+
+        int k = 0; // index of rightmost parabola in the lower envelope
+        v[0] = 0;
+        w[0] = -INF;
+        w[1] = INF;
+
+        for(int p = 1; p < count; p++){
+            double x1 = coord[p];
+            double f1 = value[p];
+            double s = 0;
+            boolean skip = false;
+            while(k >= 0){
+                double x0 = coord[v[k]];
+                double f0 = value[v[k]];
+                if(x1 - x0 > EPS){
+                    s = ((f1 + x1*x1) - (f0 + x0*x0))/(2*(x1 - x0));
+                    if(s > w[k])
+                        break;
+                } else if(f1 >= f0){
+                    // coincident parabolas, new one is above
+                    skip = true;
+                    break;
+                }
+                k--;
+            }
+            if(skip)
+                continue;
+            k++;
+            v[k] = p;
+            w[k] = (k == 0)? -INF: s;
+            w[k+1] = INF;
+        }
+        int envelopeSize = k+1;
+
+        k = 0;
+        for(int q = 0; q < gridSize; q++){
+            while(w[k+1] < q)
+                k++;
+            closest[q] = v[k];
+        }
+        return envelopeSize;
+    }
+
+    /**
+       sorts samples by coordinate
+       insertion sort is used because samples are almost sorted
+     */
+    static void sortSamples(double coord[], double value[], int seed[], int count){
+
+        for(int i = 1; i < count; i++){
+            double c = coord[i];
+            if(c >= coord[i-1])
+                continue;
+            double f = value[i];
+            int s = seed[i];
+            int j = i-1;
+            while(j >= 0 && coord[j] > c){
+                coord[j+1] = coord[j];
+                value[j+1] = value[j];
+                seed[j+1] = seed[j];
+                j--;
+            }
+            coord[j+1] = c;
+            value[j+1] = f;
+            seed[j+1] = s;
+        }
+    }
+
+    /**
+       returns distance from voxel with value v0 to the surface crossing between it and neighbor with value v1
+       the voxels are supposed to be on opposite sides of the surface
+     */
+    static final double crossing(int v0, int v1, double surfaceValue){
+        return (surfaceValue - v0)/(v1 - v0);
+    }
+
+    /**
+       seeds of single z-slice
+     */
+    static class SeedList {
+
+        int size = 0;
+        int index[] = new int[16];
+        float dx[] = new float[16];
+        float dy[] = new float[16];
+        float dz[] = new float[16];
+
+        void add(int ind, float x, float y, float z){
+            if(size == index.length){
+                int len = 2*size;
+                index = Arrays.copyOf(index, len);
+                dx = Arrays.copyOf(dx, len);
+                dy = Arrays.copyOf(dy, len);
+                dz = Arrays.copyOf(dz, len);
+            }
+            index[size] = ind;
+            dx[size] = x;
+            dy[size] = y;
+            dz[size] = z;
+            size++;
+        }
+    }
+
+    /**
+       class to process slices of the grid for single pass
+    */
+    class SliceProcessor implements ThreadUtil.SliceTask {
+
+        int pass;
+        AttributeGrid grid;
+        AttributeGrid distanceGrid;
+        // work arrays
+        int line[];
+        double coord[];
+        double value[];
+        int seed[];
+        int closest[];
+        int v[];
+        double w[];
+        int prev[], cur[], next[];
+
+        SliceProcessor(int pass, AttributeGrid grid, AttributeGrid distanceGrid){
+
+            this.pass = pass;
+            this.grid = grid;
+            this.distanceGrid = distanceGrid;
+
+            int nm = max(max(nx, ny), nz);
+            line = new int[nm];
+            coord = new double[nm];
+            value = new double[nm];
+            seed = new int[nm];
+            closest = new int[nm];
+            v = new int[nm+1];
+            w = new double[nm+1];
+
+        }
+
+        public void processSlice(Slice slice){
+            for(int s = slice.smin; s < slice.smax; s++){
+                switch(pass){
+                default:
+                case PASS_INIT: initSlice(s); break;
+                case PASS_INDEX: indexSlice(s); break;
+                case PASS_X: passX(s); break;
+                case PASS_Y: passY(s); break;
+                case PASS_Z: passZ(s); break;
+                }
+            }
+        }
+
+        /**
+           reads single z-slice of density grid into array
+         */
+        int[] readSlice(int z, int data[]){
+            if(data == null)
+                data = new int[nx*ny];
+            for(int y = 0; y < ny; y++){
+                int offset = y*nx;
+                for(int x = 0; x < nx; x++){
+                    data[offset + x] = (int)grid.getAttribute(x,y,z);
+                }
+            }
+            return data;
+        }
+
+        /**
+           finds seeds of z-slice
+         */
+        void initSlice(int z){
+
+            cur = readSlice(z, cur);
+            prev = (z > 0)? readSlice(z-1, prev): null;
+            next = (z < nz-1)? readSlice(z+1, next): null;
+
+            int index[] = new int[nx*ny];
+            SeedList seeds = new SeedList();
+            double sv = m_surfaceValue;
+            int nx1 = nx-1, ny1 = ny-1;
+
+            for(int y = 0; y < ny; y++){
+                for(int x = 0; x < nx; x++){
+                    int ind = x + y*nx;
+                    int v0 = cur[ind];
+                    boolean inside = (v0 > sv);
+                    // nearest crossings along each axis (signed)
+                    double cx = nearest(crossing(v0, inside, (x > 0)? cur[ind-1]: v0, sv),
+                                        crossing(v0, inside, (x < nx1)? cur[ind+1]: v0, sv));
+                    double cy = nearest(crossing(v0, inside, (y > 0)? cur[ind-nx]: v0, sv),
+                                        crossing(v0, inside, (y < ny1)? cur[ind+nx]: v0, sv));
+                    double cz = nearest(crossing(v0, inside, (prev != null)? prev[ind]: v0, sv),
+                                        crossing(v0, inside, (next != null)? next[ind]: v0, sv));
+                    if(cx == INF && cy == INF && cz == INF) {
+                        index[ind] = NONE;
+                        continue;
+                    }
+                    // surface is approximated by plane passing via crossing points
+                    // (ax, ay, az) is normal to the plane, surface point is the closest point on the plane
+                    index[ind] = seeds.size;
+                    if(cx == 0 || cy == 0 || cz == 0){
+                        // voxel value equals surface value, surface passes via voxel center
+                        seeds.add(ind, 0.f, 0.f, 0.f);
+                        continue;
+                    }
+                    double ax = (cx == INF)? 0: 1/cx;
+                    double ay = (cy == INF)? 0: 1/cy;
+                    double az = (cz == INF)? 0: 1/cz;
+                    double a2 = ax*ax + ay*ay + az*az;
+                    seeds.add(ind, (float)(ax/a2), (float)(ay/a2), (float)(az/a2));
+                }
+            }
+            m_seedIndex[z] = index;
+            m_sliceSeeds[z] = seeds;
+        }
+
+        /**
+           returns distance to crossing with neighbor or INF if neighbor is on the same side of the surface
+         */
+        final double crossing(int v0, boolean inside, int v1, double sv){
+
+            if(inside != (v1 > sv))
+                return DistanceTransformSeparable.crossing(v0, v1, sv);
+            else
+                return INF;
+        }
+
+        /**
+           returns nearest of crossings in negative and positive directions as signed value
+         */
+        final double nearest(double cneg, double cpos){
+            if(cneg < cpos)
+                return -cneg;
+            else
+                return cpos;
+        }
+
+        /**
+           converts slice seed indices into global indices
+         */
+        void indexSlice(int z){
+
+            int index[] = m_seedIndex[z];
+            int offset = m_sliceSeedOffset[z];
+            for(int i = 0; i < index.length; i++){
+                if(index[i] != NONE)
+                    index[i] += offset;
+            }
+        }
+
+        /**
+           collects samples of the line along given axis
+           @param axis axis of the line (0,1,2)
+           @param index indices of seeds on the line
+           @param x,y,z coordinates of the line point (coordinate along the axis is ignored)
+           @return count of samples
+         */
+        int getSamples(int axis, int index[], int length, int x, int y, int z){
+
+            int count = 0;
+            double maxDist2 = m_maxDist2;
+            for(int q = 0; q < length; q++){
+                int s = index[q];
+                if(s == NONE)
+                    continue;
+                double dx = x - m_surfX[s];
+                double dy = y - m_surfY[s];
+                double dz = z - m_surfZ[s];
+                double c, f;
+                switch(axis){
+                default:
+                case 0: c = m_surfX[s]; f = dy*dy + dz*dz; break;
+                case 1: c = m_surfY[s]; f = dx*dx + dz*dz; break;
+                case 2: c = m_surfZ[s]; f = dx*dx + dy*dy; break;
+                }
+                if(f > maxDist2)
+                    continue;
+                coord[count] = c;
+                value[count] = f;
+                seed[count] = s;
+                count++;
+            }
+            sortSamples(coord, value, seed, count);
+            return count;
+        }
+
+        /**
+           1D transform along line of given axis
+           on input line[] has seed indices, on output it has seeds of closest surface points
+         */
+        void transformLine(int axis, int length, int x, int y, int z){
+
+            int count = getSamples(axis, line, length, x, y, z);
+            DT1(coord, value, count, length, closest, v, w);
+            for(int q = 0; q < length; q++){
+                int c = closest[q];
+                line[q] = (c == NONE)? NONE: seed[c];
+            }
+        }
+
+        /**
+           1D transform along x lines of z-slice
+         */
+        void passX(int z){
+
+            int index[] = m_seedIndex[z];
+            for(int y = 0; y < ny; y++){
+                int offset = y*nx;
+                System.arraycopy(index, offset, line, 0, nx);
+                transformLine(0, nx, 0, y, z);
+                System.arraycopy(line, 0, index, offset, nx);
+            }
+        }
+
+        /**
+           1D transform along y lines of z-slice
+         */
+        void passY(int z){
+
+            int index[] = m_seedIndex[z];
+            for(int x = 0; x < nx; x++){
+                for(int y = 0; y < ny; y++){
+                    line[y] = index[x + y*nx];
+                }
+                transformLine(1, ny, x, 0, z);
+                for(int y = 0; y < ny; y++){
+                    index[x + y*nx] = line[y];
+                }
+            }
+        }
+
+        /**
+           1D transform along z lines of y-slice and output of signed distances
+         */
+        void passZ(int y){
+
+            double sv = m_surfaceValue;
+            double norm = m_subvoxelResolution;
+            int maxIn = m_maxInDistance;
+            int maxOut = m_maxOutDistance;
+            int defValue = m_defaultValue;
+
+            for(int x = 0; x < nx; x++){
+                int ind = x + y*nx;
+                for(int z = 0; z < nz; z++){
+                    line[z] = m_seedIndex[z][ind];
+                }
+                transformLine(2, nz, x, y, 0);
+                for(int z = 0; z < nz; z++){
+                    int s = line[z];
+                    int dist = defValue;
+                    if(s != NONE){
+                        double dx = x - m_surfX[s];
+                        double dy = y - m_surfY[s];
+                        double dz = z - m_surfZ[s];
+                        dist = (int)(norm*sqrt(dx*dx + dy*dy + dz*dz) + 0.5);
+                    }
+                    boolean inside = (grid.getAttribute(x,y,z) > sv);
+                    if(inside){
+                        distanceGrid.setAttribute(x,y,z, (dist <= maxIn)? -dist: -defValue);
+                    } else {
+                        distanceGrid.setAttribute(x,y,z, (dist <= maxOut)? dist: defValue);
+                    }
+                }
+            }
+        }
+    } // class SliceProcessor
+
+}
@@ -14,6 +14,7 @@ package abfab3d.grid.op;
 import abfab3d.core.AttributeGrid;
 import abfab3d.core.Grid;
 import abfab3d.grid.*;
+import abfab3d.grid.util.GridUtil;
 import abfab3d.util.AbFab3DGlobals;
 import abfab3d.util.DefaultLongConverter;
 import abfab3d.core.LongConverter;
@@ -276,14 +277,22 @@ public class DownsampleAlphaMT implements Operation {
             int len_y = ymax;
             int len_z = depth / factor;
 
+            // z rows of source voxels averaged into one row of dest
+            long rows[][] = new long[factor*factor][len_z*factor];
+            long att_avg[] = new long[len_z];
+
             for(int y=ymin; y < len_y; y = y + factor) {
                 for(int x=0; x < len_x; x++) {
+                    for(int yy = 0; yy < factor; yy++) {
+                        for(int xx = 0; xx < factor; xx++) {
+                            GridUtil.getAttributes(src, x*factor + xx, y + yy, 0, len_z*factor, rows[yy*factor + xx], 0);
+                        }
+                    }
                     for(int z=0; z < len_z; z++) {
-                        long att_avg = avgAttribute(src, x*factor, y, z*factor);
-
-                        // This should be ok, ie state test comes from IOFunc anyway
-                        dest.setAttribute(x,y / factor, z, att_avg);
+                        att_avg[z] = avgAttribute(rows, z*factor);
                     }
+                    // This should be ok, ie state test comes from IOFunc anyway
+                    GridUtil.setAttributes(dest, x, y / factor, 0, len_z, att_avg, 0);
                 }
             }
         }
@@ -291,27 +300,18 @@ public class DownsampleAlphaMT implements Operation {
         /**
          * Average attribute values.
          *
-         * @param grid
-         * @param x
-         * @param y
-         * @param z
+         * @param rows z rows of attributes, row (xx,yy) is stored at index yy*factor + xx
+         * @param z first z coordinate of the box
          * @return
          */
-        private long avgAttribute(AttributeGrid grid, int x, int y, int z) {
+        private long avgAttribute(long rows[][], int z) {
             long sum = 0;
 
             for(int yy = 0; yy < factor; yy++) {
                 for(int xx = 0; xx < factor; xx++) {
                     for(int zz = 0; zz < factor; zz++) {
 
-                        /*
-                        TODO: This method was 5X slower, why!?
-                        grid.getData(x + xx,y + yy,z + zz);
-                        long mat = dataConverter.get(vd.getMaterial());
-                                                */
-
-
-                        long mat = dataConverter.get(grid.getAttribute(x + xx,y + yy,z + zz));
+                        long mat = dataConverter.get(rows[yy*factor + xx][z + zz]);
                         sum += mat;
 
                         if (STATS) {
@@ -410,14 +410,22 @@ public class DownsampleAlphaMT implements Operation {
             int len_y = ymax;
             int len_z = depth / factor;
 
+            // z rows of source voxels averaged into one row of dest
+            long rows[][] = new long[factor*factor][len_z*factor];
+            long att_avg[] = new long[len_z];
+
             for(int y=ymin; y < len_y; y = y + factor) {
                 for(int x=0; x < len_x; x++) {
+                    for(int yy = 0; yy < factor; yy++) {
+                        for(int xx = 0; xx < factor; xx++) {
+                            GridUtil.getAttributes(src, x*factor + xx, y + yy, 0, len_z*factor, rows[yy*factor + xx], 0);
+                        }
+                    }
                     for(int z=0; z < len_z; z++) {
-                        long att_avg = avgAttribute(src, x*factor, y, z*factor);
-
-                        // This should be ok, ie state test comes from IOFunc anyway
-                        dest.setAttribute(x,y / factor, z, att_avg);
+                        att_avg[z] = avgAttribute(rows, z*factor);
                     }
+                    // This should be ok, ie state test comes from IOFunc anyway
+                    GridUtil.setAttributes(dest, x, y / factor, 0, len_z, att_avg, 0);
                 }
             }
         }
@@ -425,20 +433,18 @@ public class DownsampleAlphaMT implements Operation {
         /**
          * Average attribute values.
          *
-         * @param grid
-         * @param x
-         * @param y
-         * @param z
+         * @param rows z rows of attributes, row (xx,yy) is stored at index yy*factor + xx
+         * @param z first z coordinate of the box
          * @return
          */
-        private long avgAttribute(AttributeGrid grid, int x, int y, int z) {
+        private long avgAttribute(long rows[][], int z) {
             double sum = 0;
             double total = 0;
 
             for(int yy = 0; yy < factor; yy++) {
                 for(int xx = 0; xx < factor; xx++) {
                     for(int zz = 0; zz < factor; zz++) {
-                        long mat = dataConverter.get(grid.getAttribute(x + xx,y + yy,z + zz));
+                        long mat = dataConverter.get(rows[yy*factor + xx][z + zz]);
 
                         if (mat == 0) {
                             total += 1.0 - coeff;
@@ -17,6 +17,7 @@ import java.util.Arrays;
 import abfab3d.core.Bounds;
 import abfab3d.core.Vec;
 import abfab3d.core.Grid2D;
+import abfab3d.core.AttributeGrid;
 import abfab3d.core.GridDataDesc;
 import abfab3d.core.AttributePacker;
 import abfab3d.core.GridDataChannel;
@@ -27,12 +28,17 @@ import abfab3d.param.DoubleParameter;
 import abfab3d.param.Parameter;
 import abfab3d.param.BaseParameterizable;
 import abfab3d.grid.Operation2D;
+import abfab3d.grid.AttributeOperation;
 
 
 import static abfab3d.core.MathUtil.clamp;
 import static abfab3d.core.Units.MM;
 
-public class GaussianBlur extends BaseParameterizable  implements Operation2D {
+/**
+   gaussian blur of 2D and 3D grids
+   grids are blurred in parallel via SeparableConvolution
+ */
+public class GaussianBlur extends BaseParameterizable  implements Operation2D, AttributeOperation {
     
     
     DoubleParameter mp_blurWidth = new DoubleParameter("blurWidth", 0.1*MM);
@@ -44,15 +50,39 @@ public class GaussianBlur extends BaseParameterizable  implements Operation2D {
         mp_threshold
     };
 
+    int m_threadCount = 0;
+
     public GaussianBlur(double blurWidth){
         
         mp_blurWidth.setValue(blurWidth);
     }
+
+    /**
+       set count of threads used to blur grids 
+       count < 1 means use all available processors
+     */
+    public void setThreadCount(int count){
+        m_threadCount = count;
+    }
+
+    /**
+       blurs 3D grid in place 
+     */
+    public AttributeGrid execute(AttributeGrid grid) {
+
+        double blurWidthVoxels = mp_blurWidth.getValue()/grid.getVoxelSize();
+        double[] kernel = MathUtil.getGaussianKernel(blurWidthVoxels, mp_threshold.getValue());
+        SeparableConvolution conv = new SeparableConvolution(kernel);
+        if(m_threadCount != 0) 
+            conv.setThreadCount(m_threadCount);
+        return conv.execute(grid);
+    }
     
+    /**
+       blurs 2D grid in place 
+     */
     public Grid2D execute(Grid2D grid) {
         
-        GridDataChannel dataCannel = grid.getDataDesc().getChannel(0);
-        Bounds bounds = grid.getGridBounds();
         double blurWidthPixels = mp_blurWidth.getValue()/grid.getVoxelSize();
         double[] kernel = MathUtil.getGaussianKernel(blurWidthPixels, mp_threshold.getValue());
         
@@ -63,78 +93,18 @@ public class GaussianBlur extends BaseParameterizable  implements Operation2D {
         return grid;
     }
 
-    private int m_nx, m_ny;
-        
+    /**
+       convolutes 2D grid in place with kernel along x and y 
+       rows and columns are processed in parallel via SeparableConvolution
+     */
     public void convolute(Grid2D grid, GridDataChannel channel, double kernel[]){
         
-        m_nx = grid.getWidth();
-        m_ny = grid.getHeight();
-        int s = Math.max(m_nx, m_ny);
-        
-        double row[] = new double[s];
+        SeparableConvolution conv = new SeparableConvolution(kernel, kernel, null);
+        conv.setDataChannel(channel);
+        if(m_threadCount != 0) 
+            conv.setThreadCount(m_threadCount);
+        conv.execute(grid);
         
-        convoluteX(grid, channel, kernel, row);
-        convoluteY(grid, channel, kernel, row);
-        
-    }
-
-    void convoluteX(Grid2D grid, GridDataChannel channel, double kernel[], double row[]){
-                
-        int w = m_nx;
-        int h = m_ny;
-        
-        int ksize = kernel.length/2;
-        int w1 = w-1;
-
-        for(int y = 0; y < h; y++){
-            
-            // init accumulator array 
-            Arrays.fill(row, 0, w, 0.);
-            int offsety = y*w;
-
-            for(int x = 0; x < w; x++){
-                
-                for(int k = 0; k < kernel.length; k++){
-
-                    //int kx = x + k - ksize;
-                    int xx = x - (k-ksize); //offsety + x + k;
-
-                    xx = clamp(xx, 0, w1); // boundary conditions 
-                    row[x] += kernel[k] * channel.getValue(grid.getAttribute(xx,y)); 
-                }
-            }             
-            for(int x = 0; x < w; x++){
-                grid.setAttribute(x,y,channel.makeAtt(row[x]));
-            }                            
-        }
     }
-    
-    void convoluteY(Grid2D grid,  GridDataChannel channel, double kernel[], double row[]){
-
-        int w = m_nx;
-        int h = m_ny;
-        int ksize = kernel.length/2;
-        int h1 = h-1;
-
-        for(int x = 0; x < w; x++){
-            // init accumulator array 
-            Arrays.fill(row, 0, h, 0.);
-
-            for(int y = 0; y < h; y++){                
-                
-                for(int k = 0; k < kernel.length; k++){
-                    int yy = y - (k-ksize); 
-                    yy = clamp(yy, 0, h1); // boundary conditions 
-                    row[y] += kernel[k] * channel.getValue(grid.getAttribute(x,yy)); 
-                }
-            } 
-            
-            for(int y = 0; y < h; y++){
-                grid.setAttribute(x,y,channel.makeAtt(row[y]));
-            }                    
-        }
-    } // convolute y 
-
-
 
 }
\ No newline at end of file
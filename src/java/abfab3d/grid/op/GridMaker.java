@@ -12,6 +12,7 @@
 
 package abfab3d.grid.op;
 
+import java.util.Arrays;
 import java.util.Stack;
 
 
@@ -23,6 +24,10 @@ import abfab3d.core.VecTransform;
 import abfab3d.core.AttributePacker;
 import abfab3d.core.Grid;
 import abfab3d.core.AttributeGrid;
+import abfab3d.core.AttributeRowAccess;
+import abfab3d.core.BulkDataSource;
+import abfab3d.core.BulkVecTransform;
+import abfab3d.core.ResultCodes;
 import abfab3d.core.DataSource;
 import abfab3d.core.Bounds;
 import abfab3d.core.Vec;
@@ -34,6 +39,8 @@ import abfab3d.core.Output;
 import abfab3d.grid.Operation;
 import abfab3d.grid.AttributeOperation;
 import abfab3d.grid.AttributePackerDensity;
+import abfab3d.grid.VoxelBox;
+import abfab3d.grid.DirtyRegion;
 
 import abfab3d.grid.util.ExecutionStoppedException;
 
@@ -54,6 +61,10 @@ import static abfab3d.core.Output.fmt;
    This allows calculation of multi color and multimaterial grids with custom meaning and 
    resolutiuon of each AttributeChannel. 
 
+   If DataSource implements BulkDataSource, has single data channel and the transform implements BulkVecTransform 
+   values of each row of voxels along z-axis are calculated in single call. 
+   Rows where the transform fails or changes the scale factor and other data sources are calculated for each voxel. 
+
    @author Vladimir Bulatov
    
  */
@@ -74,6 +85,10 @@ public class GridMaker implements Operation, AttributeOperation {
 
     // margin around the grid boundary to be kept empty
     protected int m_margin = 0; 
+    // use bulk calculations of rows if data source supports it 
+    protected boolean m_useBulkCalculation = true;
+    // data source used for bulk calculations or null 
+    BulkDataSource m_bulkSource;
     // threads count to use 
     protected int m_threadCount = 0;
 
@@ -129,6 +144,13 @@ public class GridMaker implements Operation, AttributeOperation {
         m_threadCount = count;
     }
 
+    /**
+       if true (default) rows of voxels are calculated in single call when data source implements BulkDataSource 
+     */
+    public void setUseBulkCalculation(boolean value){
+        m_useBulkCalculation = value;
+    }
+
     /**
        set width of transitional surface area for shape calculations.
        it is obsolete and the value is ignored 
@@ -241,6 +263,69 @@ public class GridMaker implements Operation, AttributeOperation {
        perform the calculation of Grid voxel attributes 
      */
     public void makeGrid(AttributeGrid grid){
+
+        prepareGrid(grid);
+
+        long t0 = time();
+        VoxelBox region = new VoxelBox(grid);
+        region.expand(-m_margin);
+        if(m_threadCount > 1)
+            makeGridMT(region, false);
+        else 
+            makeGridST(region, false);
+        if(DEBUG) printf("GridMaker grid rendering: %d ms\n", (time() - t0));
+    } 
+
+    /**
+       recalculates voxel attributes of the grid inside of given region only. 
+       Voxels outside of the region are not touched. 
+       Voxels inside of region are overwritten, including voxels which became empty. 
+       The region is clamped to the grid and margin. 
+     */
+    public void makeGrid(AttributeGrid grid, VoxelBox region){
+
+        prepareGrid(grid);
+        makeRegion(region);
+
+    } 
+
+    /**
+       recalculates voxel attributes of the grid in all boxes of dirty region.
+       The dirty region is not cleared, it may be used for mesh update afterwards. 
+     */
+    public void updateGrid(AttributeGrid grid, DirtyRegion dirtyRegion){
+
+        if(dirtyRegion.isEmpty())
+            return;
+        prepareGrid(grid);
+        VoxelBox boxes[] = dirtyRegion.getBoxes();
+        for(int i = 0; i < boxes.length; i++){
+            makeRegion(boxes[i]);
+        }
+    }
+
+    protected void makeRegion(VoxelBox region){
+
+        VoxelBox box = new VoxelBox(m_grid);
+        box.expand(-m_margin);
+        box.intersect(region);
+        if(DEBUG)printf("GridMaker region: %s\n",box);
+        if(box.isEmpty())
+            return;
+
+        long t0 = time();
+        if(m_threadCount > 1 && box.ymax - box.ymin > m_slizeSize)
+            makeGridMT(box, true);
+        else 
+            makeGridST(box, true);
+        if(DEBUG) printf("GridMaker region rendering: %d ms\n", (time() - t0));
+    }
+
+    /**
+       initialization of grid, transform and data source before rendering 
+     */
+    protected void prepareGrid(AttributeGrid grid){
+
         if(m_dataSource == null) 
             throw new RuntimeException(fmt("DataSource is not set"));
 
@@ -292,6 +377,8 @@ public class GridMaker implements Operation, AttributeOperation {
         // top level sources don't know of dta dimension of lower level sources 
         //m_dataChannelsCount = m_dataSource.getChannelsCount();
         m_dataChannelsCount = MAX_DATA_CHANNELS_COUNT;
+        m_bulkSource = getBulkSource();
+        if(DEBUG)printf("GridMaker bulk source: %s\n",m_bulkSource);
 
         //printf("GridMaker m_dataChannelsCount: %d\n",m_dataChannelsCount);
         if(DEBUG) printf("GridMaker data initialization %d ms\n", (time() - t0));
@@ -301,24 +388,35 @@ public class GridMaker implements Operation, AttributeOperation {
         }
         if(DEBUG)printf("GridMaker uses %d threads\n",m_threadCount);
 
-        t0 = time();
-        if(m_threadCount > 1)
-            makeGridMT();
-        else 
-            makeGridST();
-        if(DEBUG) printf("GridMaker grid rendering: %d ms\n", (time() - t0));
-    } 
+    }
+
+    /**
+       @return data source to use for bulk calculation of rows or null if values have to be calculated for each voxel
+     */
+    BulkDataSource getBulkSource(){
+
+        if(!m_useBulkCalculation || !(m_dataSource instanceof BulkDataSource))
+            return null;
+        // bulk calculation gives the first data channel only 
+        if(m_dataSource.getChannelsCount() != 1)
+            return null;
+        if(!(m_transform instanceof BulkVecTransform))
+            return null;
+        return (BulkDataSource)m_dataSource;
+    }
 
     /**
        multi thread version of makeGrid()
+       @param region box of voxels to calculate 
+       @param overwrite if true empty voxels are written as well 
      */
-    void makeGridMT(){
+    void makeGridMT(VoxelBox region, boolean overwrite){
 
-        SliceSet slices = new SliceSet(m_margin, m_grid.getHeight()-m_margin, m_slizeSize);
+        SliceSet slices = new SliceSet(region.ymin, region.ymax, m_slizeSize);
 
         ExecutorService executor = Executors.newFixedThreadPool(m_threadCount);
         for(int i = 0; i < m_threadCount; i++){
-            executor.submit(new SliceMaker(slices));
+            executor.submit(new SliceMaker(slices, region, overwrite));
         }
         executor.shutdown();
 
@@ -332,33 +430,50 @@ public class GridMaker implements Operation, AttributeOperation {
 
     /**
        single thread version of makeGrid()
+       @param region box of voxels to calculate 
+       @param overwrite if true empty voxels are written as well 
      */
-    void makeGridST(){
+    void makeGridST(VoxelBox region, boolean overwrite){
         
         Vec
             pntGrid = new Vec(POINT_DIMENSION),
             pntWorld = new Vec(POINT_DIMENSION),            
             pntData = new Vec(POINT_DIMENSION),
             dataValue = new Vec(m_dataChannelsCount);
-        if(DEBUG) printf("GridMaker.makeGridST(%d x %d x %d)\n", m_nx, m_ny, m_nz );
-        int margin = m_margin; 
-        int nx = m_nx, ny = m_ny, nz = m_nz;
-        
-        int nx1 = nx-margin;
-        int ny1 = ny-margin;
-        int nz1 = nz-margin;
-
-        for(int iy = margin; iy < ny1; iy++){
-
-            for(int ix = margin; ix < nx1; ix++){
+        if(DEBUG) printf("GridMaker.makeGridST(%s)\n", region);
+
+        // rows are written in one call if grid supports it 
+        AttributeRowAccess rowGrid = (overwrite && m_grid instanceof AttributeRowAccess)? (AttributeRowAccess)m_grid: null;
+        long row[] = new long[region.zmax - region.zmin];
+        BulkRowMaker bulkMaker = (m_bulkSource != null)? new BulkRowMaker(row.length): null;
+
+        for(int iy = region.ymin; iy < region.ymax; iy++){
+
+            for(int ix = region.xmin; ix < region.xmax; ix++){
+
+                if(bulkMaker != null && bulkMaker.makeRow(ix, iy, region.zmin, region.zmax, row)){
+                    if(rowGrid != null) {
+                        rowGrid.setAttributes(ix, iy, region.zmin, region.zmax, row, 0);
+                    } else {
+                        for(int iz = region.zmax-1; iz >= region.zmin; iz--){
+                            long vd = row[iz - region.zmin];
+                            if(overwrite)
+                                m_grid.setAttribute(ix, iy, iz, vd);
+                            else if(vd != 0)
+                                m_grid.setData(ix, iy, iz, Grid.INSIDE, vd);
+                        }
+                    }
+                    continue;
+                }
 
-                for(int iz = nz1-1; iz >= margin; iz--){ // this z-order to speed up creation of GridIntervals
+                for(int iz = region.zmax-1; iz >= region.zmin; iz--){ // this z-order to speed up creation of GridIntervals
                     
                     pntGrid.set(ix, iy, iz);
                     transformToWorldSpace(pntGrid, pntWorld);
 
                     pntWorld.setVoxelSize(voxelSize);
 
+                    long vd = 0;
                     int res = m_transform.inverse_transform(pntWorld, pntData);
                     if(false){                        
                         double s = pntData.getScaleFactor();
@@ -367,16 +482,21 @@ public class GridMaker implements Operation, AttributeOperation {
                     }
                     //pntData.voxelSize = voxelSize;
 
-                    if(res != VecTransform.RESULT_OK)
-                        continue;
-                    res = m_dataSource.getDataValue(pntData, dataValue);
-                    if(res != VecTransform.RESULT_OK)
-                        continue;
-                    long vd = m_attributePacker.makeAttribute(dataValue);
-                    if(vd != 0)
-                    m_grid.setData(ix, iy, iz, Grid.INSIDE, vd);
+                    if(res == VecTransform.RESULT_OK){
+                        res = m_dataSource.getDataValue(pntData, dataValue);
+                        if(res == VecTransform.RESULT_OK)
+                            vd = m_attributePacker.makeAttribute(dataValue);
+                    }
+                    if(rowGrid != null)
+                        row[iz - region.zmin] = vd;
+                    else if(overwrite)
+                        m_grid.setAttribute(ix, iy, iz, vd);
+                    else if(vd != 0)
+                        m_grid.setData(ix, iy, iz, Grid.INSIDE, vd);
 
                 }
+                if(rowGrid != null)
+                    rowGrid.setAttributes(ix, iy, region.zmin, region.zmax, row, 0);
             }
 
             if (Thread.currentThread().isInterrupted()) {
@@ -393,16 +513,23 @@ public class GridMaker implements Operation, AttributeOperation {
     class SliceMaker implements Runnable{
         
         SliceSet slices;
+        VoxelBox region;
+        boolean overwrite;
 
         Vec // storage for calculations 
             pntGrid = new Vec(POINT_DIMENSION),
             pntWorld = new Vec(POINT_DIMENSION),            
             pntData = new Vec(POINT_DIMENSION),
             dataValue = new Vec(m_dataChannelsCount);
+        BulkRowMaker bulkMaker;
 
-        SliceMaker(SliceSet slices ){
+        SliceMaker(SliceSet slices, VoxelBox region, boolean overwrite){
 
             this.slices = slices; 
+            this.region = region;
+            this.overwrite = overwrite;
+            if(m_bulkSource != null)
+                bulkMaker = new BulkRowMaker(region.zmax - region.zmin);
 
         }
         
@@ -423,21 +550,33 @@ public class GridMaker implements Operation, AttributeOperation {
 
         void makeSlice(Slice slice){
             
-            int margin = m_margin; 
-            int nx = m_nx, ny = m_ny, nz = m_nz;
-            
-            int nx1 = nx-margin;
-            int ny1 = ny-margin;
-            int nz1 = nz-margin;
+            int xmin = region.xmin, xmax = region.xmax;
+            int zmin = region.zmin, zmax = region.zmax;
             int ymin = slice.ymin;
             int ymax = slice.ymax;
+            // rows are read and written in one call if grid supports it 
+            AttributeRowAccess rowGrid = (m_grid instanceof AttributeRowAccess)? (AttributeRowAccess)m_grid: null;
+            long row[] = new long[zmax - zmin];
 
             for(int iy = ymin; iy <= ymax; iy++){
                 
-                for(int ix = margin; ix < nx1; ix++){
+                for(int ix = xmin; ix < xmax; ix++){
                     
-                    for(int iz = nz1-1; iz >= margin; iz--){ // this z-order to speed up creation of GridIntervals
-                        //TODO make grid.setData() in one call 
+                    if(bulkMaker != null && bulkMaker.makeRow(ix, iy, zmin, zmax, row)){
+                        // all voxels of the row are calculated 
+                        if(rowGrid != null) {
+                            rowGrid.setAttributes(ix, iy, zmin, zmax, row, 0);
+                        } else {
+                            for(int iz = zmax-1; iz >= zmin; iz--)
+                                m_grid.setAttribute(ix, iy, iz, row[iz - zmin]);
+                        }
+                        continue;
+                    }
+
+                    if(rowGrid != null && !overwrite)
+                        rowGrid.getAttributes(ix, iy, zmin, zmax, row, 0);
+
+                    for(int iz = zmax-1; iz >= zmin; iz--){ // this z-order to speed up creation of GridIntervals
 
                         pntGrid.set(ix, iy, iz);
                         transformToWorldSpace(pntGrid, pntWorld);
@@ -451,22 +590,94 @@ public class GridMaker implements Operation, AttributeOperation {
                                 printf("scale: %10.5f\n", s);
                             }
                         }
-                        if(res != VecTransform.RESULT_OK)
-                            continue;                        
-                        res = m_dataSource.getDataValue(pntData, dataValue);
-
-                        if(res != VecTransform.RESULT_OK)
+                        if(res == VecTransform.RESULT_OK)
+                            res = m_dataSource.getDataValue(pntData, dataValue);
+
+                        long vd;
+                        if(res == VecTransform.RESULT_OK){
+                            vd = m_attributePacker.makeAttribute(dataValue);
+                        } else if(overwrite){
+                            // stale data inside of region have to be erased 
+                            vd = 0;
+                        } else {
                             continue;
+                        }
 
-                        long vd = m_attributePacker.makeAttribute(dataValue);
-                        m_grid.setAttribute(ix, iy, iz, vd);
+                        if(rowGrid != null) 
+                            row[iz - zmin] = vd;
+                        else 
+                            m_grid.setAttribute(ix, iy, iz, vd);
                     }
+                    if(rowGrid != null)
+                        rowGrid.setAttributes(ix, iy, zmin, zmax, row, 0);
                 }
             }              
         }
     }
 
 
+    /**
+       calculates attributes of rows of voxels along z-axis via single call to bulk transform and bulk data source 
+     */
+    class BulkRowMaker {
+
+        double coord[];
+        double voxelSizes[];
+        double values[];
+        double scale[];
+        int result[];
+        // transform of the grid or null for identity
+        BulkVecTransform transform;
+        Vec dataValue = new Vec(m_dataChannelsCount);
+
+        BulkRowMaker(int size){
+
+            coord = new double[POINT_DIMENSION*size];
+            voxelSizes = new double[size];
+            values = new double[size];
+            Arrays.fill(voxelSizes, voxelSize);
+            if(!(m_transform instanceof Identity)){
+                transform = (BulkVecTransform)m_transform;
+                scale = new double[size];
+                result = new int[size];
+            }
+        }
+
+        /**
+           calculates attributes of voxels (ix, iy, iz), zmin <= iz < zmax 
+           @param row attributes of voxels starting from index 0 
+           @return false if row has to be calculated for each voxel 
+         */
+        boolean makeRow(int ix, int iy, int zmin, int zmax, long row[]){
+
+            int count = zmax - zmin;
+            double x = ix*voxelX + offsetX;
+            double y = iy*voxelY + offsetY;
+            for(int i = 0; i < count; i++){
+                int k = POINT_DIMENSION*i;
+                coord[k] = x;
+                coord[k+1] = y;
+                coord[k+2] = (zmin + i)*voxelZ + offsetZ;
+            }
+            if(transform != null){
+                Arrays.fill(scale, 0, count, 1.);
+                Arrays.fill(result, 0, count, ResultCodes.RESULT_OK);
+                transform.inverse_transform(coord, scale, result, 0, count);
+                for(int i = 0; i < count; i++){
+                    // bulk data source has no scale factor and result of points 
+                    if(result[i] != ResultCodes.RESULT_OK || scale[i] != 1.)
+                        return false;
+                }
+            }
+            m_bulkSource.getDataValues(coord, voxelSizes, values, 0, count);
+            for(int i = 0; i < count; i++){
+                dataValue.v[0] = values[i];
+                row[i] = m_attributePacker.makeAttribute(dataValue);
+            }
+            return true;
+        }
+    }
+
     public void getTransform(Grid grid, double[] voxel, double[] offset) {
         voxel[0] = m_sizeX / grid.getWidth();
         voxel[1] = m_sizeY / grid.getHeight();
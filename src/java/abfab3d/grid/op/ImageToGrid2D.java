@@ -154,13 +154,11 @@ public class ImageToGrid2D extends BaseParameterizable implements Grid2DProducer
         grid.setGridBounds(new Bounds(0, w * pixelSize, 0, h * pixelSize, 0, pixelSize));
         grid.setDataDesc(GridDataDesc.getDefaultAttributeDesc(16));
         short data[] = getGray16Data(image);
+        short gridData[] = grid.getData();
         // Need to convert from image (0,0) upper left to grid (0,0) lower left
         for (int y = 0; y < h; y++) {
             int y1 = h - 1 - y;
-            for (int x = 0; x < w; x++) {
-                short d = data[x + y * w];
-                grid.setAttribute(x, y1, d);
-            }
+            System.arraycopy(data, y * w, gridData, y1 * w, w);
         }
         return grid;
     }
@@ -173,11 +171,10 @@ public class ImageToGrid2D extends BaseParameterizable implements Grid2DProducer
         int[] imageData = getImageData_INT_ARGB(image);
 
         Grid2DInt grid = new Grid2DInt(nx, ny, pixelSize);
+        int gridData[] = grid.getData();
         for (int y = 0; y < ny; y++) {
             int yoff = nx * (ny - 1 - y);
-            for (int x = 0; x < nx; x++) {
-                grid.setAttribute(x, y, imageData[x + yoff]);
-            }
+            System.arraycopy(imageData, yoff, gridData, y * nx, nx);
         }
         if (DEBUG) printf("ImageToGrid2D. color grid %d x %d\n", grid.getWidth(), grid.getHeight());
         return grid;
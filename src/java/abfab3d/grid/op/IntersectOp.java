@@ -16,6 +16,8 @@ package abfab3d.grid.op;
 
 import abfab3d.core.AttributeGrid;
 import abfab3d.grid.AttributeOperation;
+import abfab3d.grid.BitIntervals;
+import abfab3d.grid.GridBitIntervals;
 import abfab3d.core.Grid;
 import abfab3d.grid.Operation;
 
@@ -57,6 +59,13 @@ public class IntersectOp implements Operation, AttributeOperation {
     public Grid execute(Grid dest) {
         long t0 = time();
 
+        if (GridBitIntervals.canCombine(dest, src)) {
+            // merge rows of intervals directly
+            ((GridBitIntervals) dest).combine((GridBitIntervals) src, BitIntervals.INTERSECT, 1);
+            printf("intersect: %d ms\n", (time() - t0));
+            return dest;
+        }
+
         this.dest = dest;
 
         int width = dest.getWidth();
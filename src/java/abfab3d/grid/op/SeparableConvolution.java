@@ -0,0 +1,448 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid.op;
+
+import java.util.Arrays;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Grid2D;
+import abfab3d.core.GridDataChannel;
+import abfab3d.grid.AttributeOperation;
+import abfab3d.grid.Operation2D;
+import abfab3d.grid.util.GridUtil;
+
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.SliceManager;
+import abfab3d.util.Slice;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+   separable 3D convolution of grid data channel
+
+   the grid is convolved in place by 3 passes of 1D convolution along x, y and z axes.
+   Kernels may have arbitrary size, kernel center is at index kernel.length/2.
+   Axes with null kernel are not convolved.
+
+   x and z passes run in parallel over y-slices, y pass runs in parallel over x-slices.
+   Each thread reads a tile of parallel lines into work buffer, convolves all lines of the tile
+   and writes result back into the grid. Lines of the tile are adjacent along z axis,
+   which is fastest varying coordinate of array grids.
+   Each grid row along z is written by single thread, which makes it safe to use with grids storing data in rows.
+
+   2D grids are convolved by x and y kernels. x pass runs in parallel over rows, 
+   y pass runs in parallel over tiles of adjacent columns which are read and written as segments of rows.
+
+   @author Vladimir Bulatov
+ */
+public class SeparableConvolution implements AttributeOperation, Operation2D {
+
+    static final boolean DEBUG = false;
+
+    /** values outside of grid are equal to the value of the nearest grid voxel */
+    public static final int BOUNDARY_CLAMP = 0;
+    /** values outside of grid are equal to boundary value */
+    public static final int BOUNDARY_CONSTANT = 1;
+
+    static final int
+        PASS_X = 0,
+        PASS_Y = 1,
+        PASS_Z = 2;
+
+    // default count of lines processed together
+    static final int DEFAULT_TILE_SIZE = 64;
+
+    double m_kernel[][] = new double[3][];
+    int m_boundaryType = BOUNDARY_CLAMP;
+    double m_boundaryValue = 0.;
+    GridDataChannel m_dataChannel;
+    int m_threadCount = 0;
+    int m_sliceThickness = 1;
+    int m_tileSize = DEFAULT_TILE_SIZE;
+
+    int nx, ny, nz;
+    AttributeGrid m_grid;
+    Grid2D m_grid2D;
+    GridDataChannel m_channel;
+
+    /**
+       convolution with the same kernel along each axis
+       @param kernel convolution kernel
+     */
+    public SeparableConvolution(double kernel[]){
+        this(kernel, kernel, kernel);
+    }
+
+    /**
+       convolution with different kernels along each axis
+       @param kernelX kernel along x-axis or null
+       @param kernelY kernel along y-axis or null
+       @param kernelZ kernel along z-axis or null
+     */
+    public SeparableConvolution(double kernelX[], double kernelY[], double kernelZ[]){
+
+        m_kernel[PASS_X] = kernelX;
+        m_kernel[PASS_Y] = kernelY;
+        m_kernel[PASS_Z] = kernelZ;
+        m_threadCount = ThreadUtil.getMaxThreadCount();
+
+    }
+
+    /**
+       set count of threads to use.
+       count < 1 means use all available processors
+     */
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
+    /**
+       set thickness of slices processed by single thread
+     */
+    public void setSliceThickness(int thickness){
+        m_sliceThickness = max(1, thickness);
+    }
+
+    /**
+       set count of lines processed together
+     */
+    public void setTileSize(int size){
+        m_tileSize = max(1, size);
+    }
+
+    /**
+       set type of boundary condition
+       @param type BOUNDARY_CLAMP or BOUNDARY_CONSTANT
+     */
+    public void setBoundaryType(int type){
+        m_boundaryType = type;
+    }
+
+    /**
+       set value used outside of grid for BOUNDARY_CONSTANT boundary type
+       value is measured in units of data channel
+     */
+    public void setBoundaryValue(double value){
+        m_boundaryValue = value;
+    }
+
+    /**
+       set data channel to convolve. Default is channel 0 of grid data description
+     */
+    public void setDataChannel(GridDataChannel channel){
+        m_dataChannel = channel;
+    }
+
+    /**
+     * Execute an operation on a grid.  The grid is modified in place
+     *
+     * @param grid The grid to convolve
+     * @return The convolved grid
+     */
+    public AttributeGrid execute(AttributeGrid grid) {
+
+        long t0 = time();
+        m_grid = grid;
+        m_channel = (m_dataChannel != null)? m_dataChannel: grid.getDataDesc().getChannel(0);
+        nx = grid.getWidth();
+        ny = grid.getHeight();
+        nz = grid.getDepth();
+
+        for(int pass = PASS_X; pass <= PASS_Z; pass++){
+            if(m_kernel[pass] != null)
+                runPass(pass);
+            if(DEBUG)printf("pass %d: %d ms\n", pass, (time() - t0));
+        }
+        m_grid = null;
+        return grid;
+    }
+
+    /**
+     * Execute an operation on a 2D grid. The grid is modified in place
+     *
+     * @param grid The grid to convolve
+     * @return The convolved grid
+     */
+    public Grid2D execute(Grid2D grid) {
+
+        long t0 = time();
+        m_grid2D = grid;
+        m_channel = (m_dataChannel != null)? m_dataChannel: grid.getDataDesc().getChannel(0);
+        nx = grid.getWidth();
+        ny = grid.getHeight();
+        nz = 1;
+
+        for(int pass = PASS_X; pass <= PASS_Y; pass++){
+            if(m_kernel[pass] != null)
+                runPass(pass);
+            if(DEBUG)printf("2D pass %d: %d ms\n", pass, (time() - t0));
+        }
+        m_grid2D = null;
+        return grid;
+    }
+
+    /**
+       runs single pass in parallel
+     */
+    void runPass(int pass){
+
+        SliceManager slicer;
+        if(m_grid2D != null) {
+            // 2D y pass is parallel over tiles of columns 
+            slicer = (pass == PASS_Y)? new SliceManager(nx, m_tileSize): new SliceManager(ny, m_sliceThickness);
+        } else {
+            // y pass is parallel over x, other passes are parallel over y
+            int gridSize = (pass == PASS_Y)? nx: ny;
+            slicer = new SliceManager(gridSize, m_sliceThickness);
+        }
+        int threadCount = max(1, min(m_threadCount, slicer.getSliceCount()));
+
+        ThreadUtil.SliceTask processors[] = new ThreadUtil.SliceTask[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            processors[i] = makeProcessor(pass);
+        }
+        ThreadUtil.runSlices(slicer, processors);
+    }
+
+    ThreadUtil.SliceTask makeProcessor(int pass){
+        if(m_grid2D != null) 
+            return new SliceProcessor2D(pass);
+        else 
+            return new SliceProcessor(pass);
+    }
+
+    /**
+       convolves tile of lineCount lines of length n
+       data of line l are stored in buffer at l + i*lineCount
+     */
+    void convolve(double in[], double out[], int n, int lineCount, double kernel[]){
+
+        int ksize = kernel.length/2;
+        int n1 = n-1;
+        boolean clamp = (m_boundaryType == BOUNDARY_CLAMP);
+        Arrays.fill(out, 0, n*lineCount, 0.);
+
+        for(int i = 0; i < n; i++){
+            int offset = i*lineCount;
+            for(int k = 0; k < kernel.length; k++){
+                double kv = kernel[k];
+                int ii = i - (k - ksize);
+                if(ii < 0 || ii > n1){
+                    if(clamp) {
+                        ii = (ii < 0)? 0: n1;
+                    } else {
+                        double bv = kv*m_boundaryValue;
+                        for(int l = 0; l < lineCount; l++)
+                            out[offset + l] += bv;
+                        continue;
+                    }
+                }
+                int ioffset = ii*lineCount;
+                for(int l = 0; l < lineCount; l++){
+                    out[offset + l] += kv*in[ioffset + l];
+                }
+            }
+        }
+    }
+
+    /**
+       class to process slices of the grid for single pass
+    */
+    class SliceProcessor implements ThreadUtil.SliceTask {
+
+        int pass;
+        double kernel[];
+        int tileSize;
+        double in[];
+        double out[];
+
+        SliceProcessor(int pass){
+
+            this.pass = pass;
+            this.kernel = m_kernel[pass];
+            // tiles are made of lines adjacent along z, z pass uses tiles of lines adjacent along x
+            this.tileSize = (pass == PASS_Z)? min(m_tileSize, nx): min(m_tileSize, nz);
+            int n = (pass == PASS_X)? nx: ((pass == PASS_Y)? ny: nz);
+            in = new double[n*tileSize];
+            out = new double[n*tileSize];
+
+        }
+
+        public void processSlice(Slice slice){
+
+            for(int s = slice.smin; s < slice.smax; s++){
+                switch(pass){
+                default:
+                case PASS_X: passX(s); break;
+                case PASS_Y: passY(s); break;
+                case PASS_Z: passZ(s); break;
+                }
+            }
+        }
+
+        /**
+           convolves lines along x in y-slice
+         */
+        void passX(int y){
+
+            AttributeGrid grid = m_grid;
+            GridDataChannel channel = m_channel;
+            for(int z0 = 0; z0 < nz; z0 += tileSize){
+                int tz = min(tileSize, nz - z0);
+                for(int x = 0; x < nx; x++){
+                    int offset = x*tz - z0;
+                    for(int z = z0; z < z0 + tz; z++){
+                        in[offset + z] = channel.getValue(grid.getAttribute(x,y,z));
+                    }
+                }
+                convolve(in, out, nx, tz, kernel);
+                for(int x = 0; x < nx; x++){
+                    int offset = x*tz - z0;
+                    for(int z = z0; z < z0 + tz; z++){
+                        grid.setAttribute(x,y,z, channel.makeAtt(out[offset + z]));
+                    }
+                }
+            }
+        }
+
+        /**
+           convolves lines along y in x-slice
+         */
+        void passY(int x){
+
+            AttributeGrid grid = m_grid;
+            GridDataChannel channel = m_channel;
+            for(int z0 = 0; z0 < nz; z0 += tileSize){
+                int tz = min(tileSize, nz - z0);
+                for(int y = 0; y < ny; y++){
+                    int offset = y*tz - z0;
+                    for(int z = z0; z < z0 + tz; z++){
+                        in[offset + z] = channel.getValue(grid.getAttribute(x,y,z));
+                    }
+                }
+                convolve(in, out, ny, tz, kernel);
+                for(int y = 0; y < ny; y++){
+                    int offset = y*tz - z0;
+                    for(int z = z0; z < z0 + tz; z++){
+                        grid.setAttribute(x,y,z, channel.makeAtt(out[offset + z]));
+                    }
+                }
+            }
+        }
+
+        /**
+           convolves lines along z in y-slice
+         */
+        void passZ(int y){
+
+            AttributeGrid grid = m_grid;
+            GridDataChannel channel = m_channel;
+            for(int x0 = 0; x0 < nx; x0 += tileSize){
+                int tx = min(tileSize, nx - x0);
+                for(int x = x0; x < x0 + tx; x++){
+                    int l = x - x0;
+                    for(int z = 0; z < nz; z++){
+                        in[z*tx + l] = channel.getValue(grid.getAttribute(x,y,z));
+                    }
+                }
+                convolve(in, out, nz, tx, kernel);
+                for(int x = x0; x < x0 + tx; x++){
+                    int l = x - x0;
+                    for(int z = 0; z < nz; z++){
+                        grid.setAttribute(x,y,z, channel.makeAtt(out[z*tx + l]));
+                    }
+                }
+            }
+        }
+    } // class SliceProcessor
+
+    /**
+       class to process slices of 2D grid for single pass
+    */
+    class SliceProcessor2D implements ThreadUtil.SliceTask {
+
+        int pass;
+        double kernel[];
+        double in[];
+        double out[];
+        long att[];
+
+        SliceProcessor2D(int pass){
+
+            this.pass = pass;
+            this.kernel = m_kernel[pass];
+            int size = (pass == PASS_X)? nx: ny*min(m_tileSize, nx);
+            in = new double[size];
+            out = new double[size];
+            att = new long[nx];
+
+        }
+
+        public void processSlice(Slice slice){
+
+            if(pass == PASS_X){
+                for(int y = slice.smin; y < slice.smax; y++){
+                    passX(y);
+                }
+            } else {
+                passY(slice.smin, slice.smax);
+            }
+        }
+
+        /**
+           convolves single row
+         */
+        void passX(int y){
+
+            GridDataChannel channel = m_channel;
+            GridUtil.getRow(m_grid2D, y, 0, nx, att);
+            for(int x = 0; x < nx; x++){
+                in[x] = channel.getValue(att[x]);
+            }
+            convolve(in, out, nx, 1, kernel);
+            for(int x = 0; x < nx; x++){
+                att[x] = channel.makeAtt(out[x]);
+            }
+            GridUtil.setRow(m_grid2D, y, 0, nx, att);
+        }
+
+        /**
+           convolves tile of columns [x0, x1)
+         */
+        void passY(int x0, int x1){
+
+            GridDataChannel channel = m_channel;
+            int tx = x1 - x0;
+            for(int y = 0; y < ny; y++){
+                GridUtil.getRow(m_grid2D, y, x0, x1, att);
+                int offset = y*tx;
+                for(int l = 0; l < tx; l++){
+                    in[offset + l] = channel.getValue(att[l]);
+                }
+            }
+            convolve(in, out, ny, tx, kernel);
+            for(int y = 0; y < ny; y++){
+                int offset = y*tx;
+                for(int l = 0; l < tx; l++){
+                    att[l] = channel.makeAtt(out[offset + l]);
+                }
+                GridUtil.setRow(m_grid2D, y, x0, x1, att);
+            }
+        }
+    } // class SliceProcessor2D
+
+} // class SeparableConvolution
@@ -18,6 +18,7 @@ package abfab3d.grid.op;
 import abfab3d.core.AttributeGrid;
 import abfab3d.core.Grid;
 import abfab3d.grid.*;
+import abfab3d.util.ThreadUtil;
 
 /**
  * Determine the set difference between two grids.  The set difference between
@@ -42,6 +43,9 @@ public class SetDifference implements Operation {
     /** The material for the set difference voxels */
     private long material;
 
+    /** The number of threads to use */
+    private int threadCount = 1;
+
     /**
      * Constructor.
      *
@@ -92,6 +96,15 @@ public class SetDifference implements Operation {
         this.material = material;
     }
 
+    /**
+     * Set the number of threads used for grids stored as intervals.
+     *
+     * @param count The number of threads, values below 1 mean all available processors
+     */
+    public void setThreadCount(int count) {
+        threadCount = ThreadUtil.getThreadCount(count);
+    }
+
     /**
      * Execute an operation on a grid.  If the operation changes the grid
      * dimensions then a new one will be returned from the call.
@@ -114,6 +127,17 @@ public class SetDifference implements Operation {
             return null;
         }
 
+        if (GridBitIntervals.canCombine(inGrid, notInGrid) &&
+            (dest == null || GridBitIntervals.canCombine(dest, inGrid))) {
+            // merge rows of intervals directly
+            GridBitIntervals diff = (GridBitIntervals) inGrid.clone();
+            diff.combine((GridBitIntervals) notInGrid, BitIntervals.SUBTRACT, threadCount);
+            if (dest == null)
+                return diff;
+            ((GridBitIntervals) dest).combine(diff, BitIntervals.UNION, threadCount);
+            return dest;
+        }
+
         Grid diffGrid = null;
 
         if (dest != null) {
@@ -18,6 +18,7 @@ package abfab3d.grid.op;
 import abfab3d.core.AttributeGrid;
 import abfab3d.core.Grid;
 import abfab3d.grid.*;
+import abfab3d.util.ThreadUtil;
 
 /**
  * Determine the set union between an array of grids.  The first grid is the base grid.
@@ -36,6 +37,9 @@ public class SetUnion implements Operation {
     /** The material for the set difference voxels */
     private long material;
 
+    /** The number of threads to use */
+    private int threadCount = 1;
+
     /**
      * Constructor.
      *
@@ -66,6 +70,15 @@ public class SetUnion implements Operation {
         this.material = material;
     }
 
+    /**
+     * Set the number of threads used for grids stored as intervals.
+     *
+     * @param count The number of threads, values below 1 mean all available processors
+     */
+    public void setThreadCount(int count) {
+        threadCount = ThreadUtil.getThreadCount(count);
+    }
+
     /**
      * Execute an operation on a grid.  If the operation changes the grid
      * dimensions then a new one will be returned from the call.
@@ -98,6 +111,14 @@ public class SetUnion implements Operation {
                     grids[0].getSliceHeight());
         }
 
+        if (canCombine(finalGrid)) {
+            // merge rows of intervals directly
+            for (int i=0; i<grids.length; i++) {
+                ((GridBitIntervals) finalGrid).combine((GridBitIntervals) grids[i], BitIntervals.UNION, threadCount);
+            }
+            return finalGrid;
+        }
+
         for(int y=0; y < gridHeight; y++) {
             for(int x=0; x < gridWidth; x++) {
                 for(int z=0; z < gridDepth; z++) {
@@ -211,6 +232,21 @@ public class SetUnion implements Operation {
         return finalGrid;
     }
 
+    /**
+     * Checks that all grids store states as intervals and can be merged row by row.
+     *
+     * @param dest The dest grid
+     */
+    private boolean canCombine(Grid dest) {
+        for (int i=0; i<grids.length; i++) {
+            if (!GridBitIntervals.canCombine(dest, grids[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Verifies that the grids are the same size.
      *
@@ -74,9 +74,13 @@ public class SubtractOp implements Operation, ClassTraverser {
 
         this.dest = dest;
 
-        // TODO: Make sure the grids are the same size
-
-        src.find(VoxelClasses.INSIDE, this);
+        if (GridBitIntervals.canCombine(dest, src)) {
+            // merge rows of intervals directly
+            ((GridBitIntervals) dest).combine((GridBitIntervals) src, BitIntervals.SUBTRACT, 1);
+        } else {
+            // TODO: Make sure the grids are the same size
+            src.find(VoxelClasses.INSIDE, this);
+        }
 
         printf("subtract: %d ms\n", (time() - t0));
 
@@ -97,6 +97,13 @@ public class SubtractOpMT implements Operation {
     public Grid execute(Grid dest) {
         long t0 = time();
 
+        if (GridBitIntervals.canCombine(dest, src)) {
+            // merge rows of intervals directly
+            ((GridBitIntervals) dest).combine((GridBitIntervals) src, BitIntervals.SUBTRACT, threadCount);
+            printf("subtractMT: %d ms\n", (time() - t0));
+            return dest;
+        }
+
         this.dest = dest;
 
         nx = dest.getWidth();
@@ -140,6 +147,13 @@ public class SubtractOpMT implements Operation {
     public AttributeGrid execute(AttributeGrid dest) {
         long t0 = time();
 
+        if (GridBitIntervals.canCombine(dest, src)) {
+            // merge rows of intervals directly
+            ((GridBitIntervals) dest).combine((GridBitIntervals) src, BitIntervals.SUBTRACT, threadCount);
+            printf("subtract: %d ms\n", (time() - t0));
+            return dest;
+        }
+
         this.dest = dest;
 
         nx = dest.getWidth();
@@ -87,6 +87,12 @@ public class UnionOp implements Operation, AttributeOperation {
         }
         gridA = grid;
 
+        if (GridBitIntervals.canCombine(gridA, gridB)) {
+            // merge rows of intervals directly
+            ((GridBitIntervals) gridA).combine((GridBitIntervals) gridB, BitIntervals.UNION, 1);
+            return grid;
+        }
+
         // TODO: Make sure the grids are the same size
 
         gridB.find(VoxelClasses.INSIDE, new Handler(gridA));
@@ -107,6 +113,12 @@ public class UnionOp implements Operation, AttributeOperation {
         int height = grid.getHeight();
         gridA = grid;
 
+        if (GridBitIntervals.canCombine(gridA, gridBAtt)) {
+            // attribute of bit grid is the state
+            ((GridBitIntervals) gridA).combine((GridBitIntervals) gridBAtt, BitIntervals.UNION, 1);
+            return grid;
+        }
+
         // TODO: Make sure the grids are the same size
 
         gridBAtt.findAttribute(VoxelClasses.INSIDE, new AttributeHandler((AttributeGrid)gridA,material));
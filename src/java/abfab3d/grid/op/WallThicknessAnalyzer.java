@@ -0,0 +1,513 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid.op;
+
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.grid.ArrayAttributeGridByte;
+import abfab3d.grid.AttributeTesterValue;
+import abfab3d.grid.ComponentLabelerMT;
+import abfab3d.grid.GridShortIntervals;
+
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.SliceManager;
+import abfab3d.util.Slice;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.fmt;
+import static abfab3d.core.Output.time;
+
+import static java.lang.Math.max;
+
+/**
+   finds thin walls and narrow gaps of shape represented by density grid
+
+   a voxel of the shape is thick if it is covered by a ball of diameter minWallThickness which is completely inside of the shape.
+   Thick voxels are found via morphological opening made of two distance transforms:
+   1) the inside distance transform of the shape gives core voxels which are deeper than minWallThickness/2
+   2) the outside distance transform of core gives voxels which are closer than minWallThickness/2 to the core
+   Voxels of the shape which are not thick are thin.
+   Depth of core voxels is measured with half voxel tolerance, walls thinner than minWallThickness by less than a voxel may be reported as thick.
+   Gaps are found the same way in the exterior of the shape using minGapDistance.
+
+   Distance transforms and voxel classification run in parallel,
+   thin voxels are grouped into 6-connected regions via ComponentLabelerMT.
+   Thin slivers along convex edges of thick parts are not thin walls,
+   they are distinguished by boundary/interface ratio of the region: count of region faces adjacent to exterior
+   divided by count of region faces adjacent to thick voxels.
+   Slivers have ratio about 1, thin plates sticking out of thick parts have large ratio.
+
+   @author Vladimir Bulatov
+ */
+public class WallThicknessAnalyzer {
+
+    static final boolean DEBUG = false;
+    static final boolean DEBUG_TIMING = false;
+
+    /** voxel classes stored in classification grid */
+    public static final int
+        CLASS_OUTSIDE = 0, // exterior voxel
+        CLASS_THICK = 1,   // voxel of the shape covered by ball of diameter minWallThickness
+        CLASS_THIN = 2,    // voxel of thin wall
+        CLASS_GAP = 3;     // exterior voxel in narrow gap
+
+    // indices of counters of thin region faces
+    static final int
+        COUNTER_BOUNDARY = 0,
+        COUNTER_INTERFACE = 1;
+
+    // subvoxel resolution of distance transform of core
+    static final int CORE_RESOLUTION = 100;
+
+    double m_minWallThickness;
+    double m_minGapDistance = 0;
+    int m_subvoxelResolution;
+    int m_threadCount = 0;
+    int m_sliceThickness = 4;
+
+    /**
+       @param minWallThickness minimal thickness of walls (in meters)
+       @param subvoxelResolution max density value of the density grid
+     */
+    public WallThicknessAnalyzer(double minWallThickness, int subvoxelResolution){
+
+        m_minWallThickness = minWallThickness;
+        m_subvoxelResolution = subvoxelResolution;
+        m_threadCount = ThreadUtil.getMaxThreadCount();
+
+    }
+
+    /**
+       set minimal distance between walls (in meters). 0 means no gap analysis
+     */
+    public void setMinGapDistance(double value){
+        m_minGapDistance = value;
+    }
+
+    /**
+       set count of threads to use.
+       count < 1 means use all available processors
+     */
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
+    /**
+       analyzes density grid
+       @param densityGrid density grid of the shape
+       @return results of analysis
+     */
+    public Result analyze(AttributeGrid densityGrid){
+
+        long t0 = time();
+        int nx = densityGrid.getWidth();
+        int ny = densityGrid.getHeight();
+        int nz = densityGrid.getDepth();
+        AttributeGrid classGrid;
+        if((long)nx*ny*nz >= Integer.MAX_VALUE) {
+            classGrid = new GridShortIntervals(nx, ny, nz, densityGrid.getVoxelSize(), densityGrid.getSliceHeight());
+        } else {
+            classGrid = new ArrayAttributeGridByte(nx, ny, nz, densityGrid.getVoxelSize(), densityGrid.getSliceHeight());
+        }
+        classGrid.setGridBounds(densityGrid.getGridBounds());
+
+        Result result = new Result();
+        result.classGrid = classGrid;
+        result.voxelSize = densityGrid.getVoxelSize();
+
+        // inside
+        AttributeGrid thick = findCovered(densityGrid, false, m_minWallThickness);
+        runPass(new Classifier(densityGrid, thick, classGrid, false), ny);
+        thick = null;
+        if(DEBUG_TIMING)printf("walls classification: %d ms\n", (time() - t0));
+
+        if(m_minGapDistance > 0.){
+            AttributeGrid wide = findCovered(densityGrid, true, m_minGapDistance);
+            runPass(new Classifier(densityGrid, wide, classGrid, true), ny);
+            wide = null;
+            if(DEBUG_TIMING)printf("gaps classification: %d ms\n", (time() - t0));
+        }
+
+        ComponentLabelerMT labeler = new ComponentLabelerMT(new AttributeTesterValue(CLASS_THIN));
+        labeler.setThreadCount(m_threadCount);
+        labeler.setCounters(new ComponentLabelerMT.VoxelCounter[]{new FaceCounter(classGrid, false), new FaceCounter(classGrid, true)});
+        labeler.label(classGrid);
+        result.thinRegions = labeler.getComponents();
+
+        if(m_minGapDistance > 0.){
+            labeler = new ComponentLabelerMT(new AttributeTesterValue(CLASS_GAP));
+            labeler.setThreadCount(m_threadCount);
+            labeler.label(classGrid);
+            result.gapRegions = labeler.getComponents();
+        } else {
+            result.gapRegions = new Vector<ComponentLabelerMT.Component>();
+        }
+
+        Counter counter = new Counter(classGrid);
+        runPass(counter, ny);
+        result.shapeVoxels = counter.shape.get();
+        result.thinVoxels = counter.thin.get();
+        result.gapVoxels = counter.gap.get();
+        if(DEBUG)printf("WallThicknessAnalyzer: %s %d ms\n", result, (time() - t0));
+
+        return result;
+    }
+
+    /**
+       @return grid where voxels of the shape (or exterior if exterior == true) covered by ball of given diameter have positive values
+     */
+    AttributeGrid findCovered(AttributeGrid densityGrid, boolean exterior, double diameter){
+
+        long t0 = time();
+        double vs = densityGrid.getVoxelSize();
+        double radius = diameter/2;
+
+        // exterior core is made of voxels with large outside distance
+        DistanceTransformSeparable dt = new DistanceTransformSeparable(m_subvoxelResolution, (exterior)? vs: radius + vs, (exterior)? radius + vs: 0);
+        dt.setThreadCount(m_threadCount);
+        AttributeGrid dist = dt.execute(densityGrid);
+        if(DEBUG_TIMING)printf("distance transform: %d ms\n", (time() - t0));
+
+        int nx = densityGrid.getWidth();
+        int ny = densityGrid.getHeight();
+        int nz = densityGrid.getDepth();
+        // core is stored as density grid
+        AttributeGrid core;
+        if((long)nx*ny*nz >= Integer.MAX_VALUE) {
+            core = new GridShortIntervals(nx, ny, nz, vs, vs);
+        } else {
+            core = new ArrayAttributeGridByte(nx, ny, nz, vs, vs);
+        }
+        // half voxel tolerance accounts for discretization of the surface
+        runPass(new CoreMaker(dist, core, exterior, (int)((radius - vs/2)*m_subvoxelResolution/vs)), ny);
+        dist = null;
+
+        // distance from voxels to core surface is half voxel less than distance to centers of core voxels
+        DistanceTransformSeparable dtc = new DistanceTransformSeparable(CORE_RESOLUTION, vs, max(radius - vs/2, 0.));
+        dtc.setThreadCount(m_threadCount);
+        AttributeGrid coreDist = dtc.execute(core);
+        if(DEBUG_TIMING)printf("core distance transform: %d ms\n", (time() - t0));
+        runPass(new CoveredMaker(coreDist, core, (int)((radius - vs/2)*CORE_RESOLUTION/vs)), ny);
+
+        return core;
+    }
+
+    /**
+       runs processor in parallel over y-slices
+     */
+    void runPass(SliceProcessor processor, int ny){
+
+        ThreadUtil.runSlices(new SliceManager(ny, m_sliceThickness), processor, m_threadCount);
+    }
+
+    /**
+       results of wall thickness analysis
+     */
+    public static class Result {
+
+        double voxelSize;
+        long shapeVoxels;
+        long thinVoxels;
+        long gapVoxels;
+        Vector<ComponentLabelerMT.Component> thinRegions;
+        Vector<ComponentLabelerMT.Component> gapRegions;
+        AttributeGrid classGrid;
+
+        /**
+           @return grid with classes of voxels CLASS_OUTSIDE, CLASS_THICK, CLASS_THIN or CLASS_GAP
+         */
+        public AttributeGrid getClassificationGrid(){
+            return classGrid;
+        }
+
+        /**
+           @return count of voxels of the shape
+         */
+        public long getShapeVoxels(){
+            return shapeVoxels;
+        }
+
+        /**
+           @return count of voxels of thin walls
+         */
+        public long getThinVoxels(){
+            return thinVoxels;
+        }
+
+        /**
+           @return count of voxels in narrow gaps
+         */
+        public long getGapVoxels(){
+            return gapVoxels;
+        }
+
+        /**
+           @return ratio of thin voxels to thick voxels
+         */
+        public double getThinThickRatio(){
+            long thick = shapeVoxels - thinVoxels;
+            return (thick > 0)? ((double)thinVoxels/thick): Double.MAX_VALUE;
+        }
+
+        /**
+           @return connected regions of thin voxels
+         */
+        public Vector<ComponentLabelerMT.Component> getThinRegions(){
+            return thinRegions;
+        }
+
+        /**
+           @return connected regions of gap voxels
+         */
+        public Vector<ComponentLabelerMT.Component> getGapRegions(){
+            return gapRegions;
+        }
+
+        /**
+           @return count of thin regions with volume not less than minVolume (in m^3)
+         */
+        public int getThinRegionCount(double minVolume){
+            return getRegionCount(thinRegions, minVolume);
+        }
+
+        /**
+           @return count of thin regions with volume not less than minVolume (in m^3)
+           and boundary/interface ratio greater than minRatio
+         */
+        public int getThinRegionCount(double minVolume, double minRatio){
+            double voxelVolume = voxelSize*voxelSize*voxelSize;
+            int count = 0;
+            for(int i = 0; i < thinRegions.size(); i++){
+                ComponentLabelerMT.Component c = thinRegions.get(i);
+                if(c.volume*voxelVolume >= minVolume && getBoundaryInterfaceRatio(c) > minRatio)
+                    count++;
+            }
+            return count;
+        }
+
+        /**
+           @return ratio of count of faces of thin region adjacent to exterior to count of faces adjacent to thick voxels
+         */
+        public static double getBoundaryInterfaceRatio(ComponentLabelerMT.Component region){
+            long interfaceFaces = region.counts[COUNTER_INTERFACE];
+            if(interfaceFaces == 0)
+                return Double.MAX_VALUE;
+            return (double)region.counts[COUNTER_BOUNDARY]/interfaceFaces;
+        }
+
+        /**
+           @return count of gap regions with volume not less than minVolume (in m^3)
+         */
+        public int getGapRegionCount(double minVolume){
+            return getRegionCount(gapRegions, minVolume);
+        }
+
+        /**
+           @return volume of largest thin region (in m^3)
+         */
+        public double getMaxThinRegionVolume(){
+            long maxVoxels = 0;
+            for(int i = 0; i < thinRegions.size(); i++){
+                maxVoxels = max(maxVoxels, thinRegions.get(i).volume);
+            }
+            return maxVoxels*voxelSize*voxelSize*voxelSize;
+        }
+
+        int getRegionCount(Vector<ComponentLabelerMT.Component> regions, double minVolume){
+            double voxelVolume = voxelSize*voxelSize*voxelSize;
+            int count = 0;
+            for(int i = 0; i < regions.size(); i++){
+                if(regions.get(i).volume*voxelVolume >= minVolume)
+                    count++;
+            }
+            return count;
+        }
+
+        public String toString(){
+            return fmt("WallThicknessAnalyzer.Result(shape: %d thin: %d gap: %d thinRegions: %d gapRegions: %d)",
+                       shapeVoxels, thinVoxels, gapVoxels, thinRegions.size(), gapRegions.size());
+        }
+    }
+
+    /**
+       base class to process slices of the grid
+     */
+    static abstract class SliceProcessor implements ThreadUtil.SliceTask {
+
+        public void processSlice(Slice slice){
+            for(int y = slice.smin; y < slice.smax; y++){
+                processSlice(y);
+            }
+        }
+
+        abstract void processSlice(int y);
+    }
+
+    /**
+       marks voxels deeper than the radius as core
+     */
+    class CoreMaker extends SliceProcessor {
+
+        AttributeGrid dist, core;
+        boolean exterior;
+        int minDepth;
+
+        CoreMaker(AttributeGrid dist, AttributeGrid core, boolean exterior, int minDepth){
+            this.dist = dist;
+            this.core = core;
+            this.exterior = exterior;
+            this.minDepth = minDepth;
+        }
+
+        void processSlice(int y){
+            int nx = dist.getWidth(), nz = dist.getDepth();
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    int d = (short)dist.getAttribute(x,y,z);
+                    if(exterior) d = -d;
+                    if(d <= -minDepth)
+                        core.setAttribute(x,y,z,CORE_RESOLUTION);
+                }
+            }
+        }
+    }
+
+    /**
+       marks voxels closer than radius to core
+     */
+    class CoveredMaker extends SliceProcessor {
+
+        AttributeGrid coreDist, covered;
+        int maxDist;
+
+        CoveredMaker(AttributeGrid coreDist, AttributeGrid covered, int maxDist){
+            this.coreDist = coreDist;
+            this.covered = covered;
+            this.maxDist = maxDist;
+        }
+
+        void processSlice(int y){
+            int nx = coreDist.getWidth(), nz = coreDist.getDepth();
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    int d = (short)coreDist.getAttribute(x,y,z);
+                    if(d >= 0 && d <= maxDist)
+                        covered.setAttribute(x,y,z,CORE_RESOLUTION);
+                }
+            }
+        }
+    }
+
+    /**
+       writes classes of voxels of the shape (or exterior) into classification grid
+     */
+    class Classifier extends SliceProcessor {
+
+        AttributeGrid density, covered, classGrid;
+        boolean exterior;
+        int surfaceValue;
+
+        Classifier(AttributeGrid density, AttributeGrid covered, AttributeGrid classGrid, boolean exterior){
+            this.density = density;
+            this.covered = covered;
+            this.classGrid = classGrid;
+            this.exterior = exterior;
+            this.surfaceValue = m_subvoxelResolution/2;
+        }
+
+        void processSlice(int y){
+            int nx = density.getWidth(), nz = density.getDepth();
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    boolean inside = (density.getAttribute(x,y,z) > surfaceValue);
+                    if(inside == exterior)
+                        continue;
+                    if(exterior){
+                        if(covered.getAttribute(x,y,z) == 0)
+                            classGrid.setAttribute(x,y,z,CLASS_GAP);
+                    } else {
+                        classGrid.setAttribute(x,y,z,(covered.getAttribute(x,y,z) != 0)? CLASS_THICK: CLASS_THIN);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+       counts faces of voxel adjacent to exterior or to thick voxels
+     */
+    static class FaceCounter implements ComponentLabelerMT.VoxelCounter {
+
+        AttributeGrid classGrid;
+        boolean thick;
+        int nx1, ny1, nz1;
+
+        FaceCounter(AttributeGrid classGrid, boolean thick){
+            this.classGrid = classGrid;
+            this.thick = thick;
+            nx1 = classGrid.getWidth()-1;
+            ny1 = classGrid.getHeight()-1;
+            nz1 = classGrid.getDepth()-1;
+        }
+
+        public long count(int x, int y, int z){
+            return
+                countFace(x > 0, x-1, y, z) + countFace(x < nx1, x+1, y, z) +
+                countFace(y > 0, x, y-1, z) + countFace(y < ny1, x, y+1, z) +
+                countFace(z > 0, x, y, z-1) + countFace(z < nz1, x, y, z+1);
+        }
+
+        final int countFace(boolean inGrid, int x, int y, int z){
+            if(!inGrid)
+                return (thick)? 0: 1;
+            int c = (int)classGrid.getAttribute(x,y,z);
+            if(thick)
+                return (c == CLASS_THICK)? 1: 0;
+            else
+                return (c == CLASS_OUTSIDE || c == CLASS_GAP)? 1: 0;
+        }
+    }
+
+    /**
+       counts voxels of each class
+     */
+    static class Counter extends SliceProcessor {
+
+        AttributeGrid classGrid;
+        AtomicLong shape = new AtomicLong(), thin = new AtomicLong(), gap = new AtomicLong();
+
+        Counter(AttributeGrid classGrid){
+            this.classGrid = classGrid;
+        }
+
+        void processSlice(int y){
+            int nx = classGrid.getWidth(), nz = classGrid.getDepth();
+            long cshape = 0, cthin = 0, cgap = 0;
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    switch((int)classGrid.getAttribute(x,y,z)){
+                    case CLASS_THICK: cshape++; break;
+                    case CLASS_THIN: cshape++; cthin++; break;
+                    case CLASS_GAP: cgap++; break;
+                    }
+                }
+            }
+            shape.addAndGet(cshape);
+            thin.addAndGet(cthin);
+            gap.addAndGet(cgap);
+        }
+    }
+
+} // class WallThicknessAnalyzer
@@ -21,6 +21,7 @@ import abfab3d.core.AttributeGrid;
 //import abfab3d.io.input.*;
 import abfab3d.util.AbFab3DGlobals;
 import abfab3d.core.Bounds;
+import abfab3d.grid.OccupancyPyramid;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -103,6 +104,28 @@ public class BoundsCalculatorMT {
         return bounds;
     }
 
+    /**
+     * Calculate bounds from occupancy pyramid of the grid without scanning the voxels.
+     * Bounds are the same as the ones calculated from grid voxels by the pyramid's channel and threshold.
+     *
+     * @param pyramid The pyramid of the grid
+     */
+    public Bounds execute(OccupancyPyramid pyramid) {
+        int[] imin = new int[3];
+        int[] imax = new int[3];
+
+        if (!pyramid.getOccupiedBounds(imin, imax)) {
+            return new Bounds(Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE);
+        }
+
+        double[] min = new double[3];
+        double[] max = new double[3];
+        pyramid.getGrid().getWorldCoords(imin[0], imin[1], imin[2], min);
+        pyramid.getGrid().getWorldCoords(imax[0], imax[1], imax[2], max);
+
+        return new Bounds(min[0],max[0],min[1],max[1],min[2],max[2]);
+    }
+
     public Bounds execute(AttributeGrid grid,  GridDataChannel channel, int sign) {
         return null;
     }
@@ -19,6 +19,7 @@ package abfab3d.grid.query;
 import abfab3d.core.ClassTraverser;
 import abfab3d.core.Grid;
 import abfab3d.core.VoxelClasses;
+import abfab3d.grid.OccupancyPyramid;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -44,9 +45,30 @@ public class CountStates implements ClassTraverser {
         grid.find(VoxelClasses.INSIDE, this);
 
         Map<Byte,Long> ret_val = new HashMap<Byte, Long>();
-        ret_val.put(new Byte(Grid.INSIDE), inside);
+        ret_val.put(Byte.valueOf(Grid.INSIDE), inside);
         long tot_voxels = (long) grid.getWidth() * grid.getHeight() * grid.getDepth();
-        ret_val.put(new Byte(Grid.OUTSIDE), tot_voxels - inside);
+        ret_val.put(Byte.valueOf(Grid.OUTSIDE), tot_voxels - inside);
+
+        return ret_val;
+    }
+
+    /**
+     * Counts the number of voxels of each state from occupancy pyramid of voxel states.
+     *
+     * @param pyramid The pyramid of the grid
+     * @return State counts
+     * @throws IllegalArgumentException if the pyramid is built from data channel
+     */
+    public Map<Byte,Long> execute(OccupancyPyramid pyramid) {
+        if(!pyramid.isStateBased())
+            throw new IllegalArgumentException("pyramid of data channel can not be used to count states");
+        Grid grid = pyramid.getGrid();
+        inside = pyramid.getCount();
+
+        Map<Byte,Long> ret_val = new HashMap<Byte, Long>();
+        ret_val.put(Byte.valueOf(Grid.INSIDE), inside);
+        long tot_voxels = (long) grid.getWidth() * grid.getHeight() * grid.getDepth();
+        ret_val.put(Byte.valueOf(Grid.OUTSIDE), tot_voxels - inside);
 
         return ret_val;
     }
@@ -16,6 +16,7 @@
 import javax.vecmath.Vector3d;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import java.io.File;
 import javax.imageio.ImageIO;
@@ -27,8 +28,12 @@ import java.awt.image.DataBufferInt;
 import abfab3d.util.ColorMapper;
 
 import abfab3d.core.AttributeGrid;
+import abfab3d.core.AttributeRowAccess;
 import abfab3d.core.GridDataChannel;
 import abfab3d.core.Grid2D;
+import abfab3d.grid.Grid2DByte;
+import abfab3d.grid.Grid2DShort;
+import abfab3d.grid.Grid2DInt;
 
 
 import static abfab3d.core.MathUtil.lerp2;
@@ -40,6 +45,16 @@ public class GridUtil  {
 
      public static void fill(Grid2D grid, long attribute){
          
+         if(grid instanceof Grid2DShort){
+             Arrays.fill(((Grid2DShort)grid).getData(), (short)attribute);
+             return;
+         } else if(grid instanceof Grid2DInt){
+             Arrays.fill(((Grid2DInt)grid).getData(), (int)attribute);
+             return;
+         } else if(grid instanceof Grid2DByte){
+             Arrays.fill(((Grid2DByte)grid).getData(), (byte)attribute);
+             return;
+         }
          int nx = grid.getWidth();
          int ny = grid.getHeight();
          for(int y = 0; y < ny; y++){
@@ -49,16 +64,127 @@ public class GridUtil  {
          }         
      }
 
+     /**
+        reads segment [xmin, xmax) of grid row into array, attribute of pixel x is stored at row[x-xmin]. 
+        Backing arrays of Grid2DByte, Grid2DShort and Grid2DInt are read directly 
+      */
+     public static void getRow(Grid2D grid, int y, int xmin, int xmax, long row[]){
+
+         int offset = y*grid.getWidth() + xmin;
+         int nx = xmax - xmin;
+         if(grid instanceof Grid2DShort){
+             short data[] = ((Grid2DShort)grid).getData();
+             for(int x = 0; x < nx; x++) row[x] = data[offset + x] & 0xFFFF;
+         } else if(grid instanceof Grid2DInt){
+             int data[] = ((Grid2DInt)grid).getData();
+             for(int x = 0; x < nx; x++) row[x] = data[offset + x] & 0xFFFFFFFFL;
+         } else if(grid instanceof Grid2DByte){
+             byte data[] = ((Grid2DByte)grid).getData();
+             for(int x = 0; x < nx; x++) row[x] = data[offset + x] & 0xFF;
+         } else {
+             for(int x = 0; x < nx; x++) row[x] = grid.getAttribute(xmin + x, y);
+         }
+     }
+
+     /**
+        writes segment [xmin, xmax) of grid row, attribute of pixel x is taken from row[x-xmin]
+      */
+     public static void setRow(Grid2D grid, int y, int xmin, int xmax, long row[]){
+
+         int offset = y*grid.getWidth() + xmin;
+         int nx = xmax - xmin;
+         if(grid instanceof Grid2DShort){
+             short data[] = ((Grid2DShort)grid).getData();
+             for(int x = 0; x < nx; x++) data[offset + x] = (short)row[x];
+         } else if(grid instanceof Grid2DInt){
+             int data[] = ((Grid2DInt)grid).getData();
+             for(int x = 0; x < nx; x++) data[offset + x] = (int)row[x];
+         } else if(grid instanceof Grid2DByte){
+             byte data[] = ((Grid2DByte)grid).getData();
+             for(int x = 0; x < nx; x++) data[offset + x] = (byte)row[x];
+         } else {
+             for(int x = 0; x < nx; x++) grid.setAttribute(xmin + x, y, row[x]);
+         }
+     }
+
+     /**
+        reads column of grid attributes into array
+      */
+     public static void getColumn(Grid2D grid, int x, long column[]){
+
+         int nx = grid.getWidth();
+         int ny = grid.getHeight();
+         if(grid instanceof Grid2DShort){
+             short data[] = ((Grid2DShort)grid).getData();
+             for(int y = 0, i = x; y < ny; y++, i += nx) column[y] = data[i] & 0xFFFF;
+         } else if(grid instanceof Grid2DInt){
+             int data[] = ((Grid2DInt)grid).getData();
+             for(int y = 0, i = x; y < ny; y++, i += nx) column[y] = data[i] & 0xFFFFFFFFL;
+         } else if(grid instanceof Grid2DByte){
+             byte data[] = ((Grid2DByte)grid).getData();
+             for(int y = 0, i = x; y < ny; y++, i += nx) column[y] = data[i] & 0xFF;
+         } else {
+             for(int y = 0; y < ny; y++) column[y] = grid.getAttribute(x, y);
+         }
+     }
+
+     /**
+        writes column of attributes into grid 
+      */
+     public static void setColumn(Grid2D grid, int x, long column[]){
+
+         int nx = grid.getWidth();
+         int ny = grid.getHeight();
+         if(grid instanceof Grid2DShort){
+             short data[] = ((Grid2DShort)grid).getData();
+             for(int y = 0, i = x; y < ny; y++, i += nx) data[i] = (short)column[y];
+         } else if(grid instanceof Grid2DInt){
+             int data[] = ((Grid2DInt)grid).getData();
+             for(int y = 0, i = x; y < ny; y++, i += nx) data[i] = (int)column[y];
+         } else if(grid instanceof Grid2DByte){
+             byte data[] = ((Grid2DByte)grid).getData();
+             for(int y = 0, i = x; y < ny; y++, i += nx) data[i] = (byte)column[y];
+         } else {
+             for(int y = 0; y < ny; y++) grid.setAttribute(x, y, column[y]);
+         }
+     }
+
+     /**
+        reads attributes of row of voxels (x,y,zmin) ... (x,y,zmax-1) into attributes[offset] ... 
+        uses AttributeRowAccess if grid supports it 
+      */
+     public static void getAttributes(AttributeGrid grid, int x, int y, int zmin, int zmax, long attributes[], int offset){
+
+         if(grid instanceof AttributeRowAccess){
+             ((AttributeRowAccess)grid).getAttributes(x, y, zmin, zmax, attributes, offset);
+         } else {
+             for(int z = zmin, i = offset; z < zmax; z++, i++) attributes[i] = grid.getAttribute(x, y, z);
+         }
+     }
+
+     /**
+        writes attributes of row of voxels (x,y,zmin) ... (x,y,zmax-1) from attributes[offset] ... 
+        uses AttributeRowAccess if grid supports it 
+      */
+     public static void setAttributes(AttributeGrid grid, int x, int y, int zmin, int zmax, long attributes[], int offset){
+
+         if(grid instanceof AttributeRowAccess){
+             ((AttributeRowAccess)grid).setAttributes(x, y, zmin, zmax, attributes, offset);
+         } else {
+             for(int z = zmin, i = offset; z < zmax; z++, i++) grid.setAttribute(x, y, z, attributes[i]);
+         }
+     }
+
      public static void fill(AttributeGrid grid, long attribute){
          
          int nx = grid.getWidth();
          int ny = grid.getHeight();
          int nz = grid.getDepth();
+         long row[] = new long[nz];
+         Arrays.fill(row, attribute);
          for(int y = 0; y < ny; y++){
              for(int x = 0; x < nx; x++){
-                 for(int z= 0; z < nz; z++){
-                     grid.setAttribute(x,y,z,attribute);
-                 }
+                 setAttributes(grid, x, y, 0, nz, row, 0);
              }
          }         
      }
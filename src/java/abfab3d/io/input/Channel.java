@@ -0,0 +1,61 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2014
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.io.input;
+
+/**
+ * Data channel of SVX file.
+ *
+ * @author Alan Hudson
+ */
+class Channel {
+    /** Definition of channel types */
+    public enum Type {
+        DISTANCE(0), RED(1), GREEN(2), BLUE(3), DENSITY(4),
+            DISTANCE_COLOR(5);
+        /*
+        DENSITY(0), COLOR(1),(1), 
+            NORMAL(2), CUSTOM(3),
+            MATERIAL_ID_1(4), MATERIAL_DENSITY_1(5), MATERIAL_ID_2(6), MATERIAL_DENSITY_2(7),
+            MATERIAL_ID_3(8), MATERIAL_DENSITY_3(9), MATERIAL_ID_4(10), MATERIAL_DENSITY_4(11), 
+            DISTANCE(12);
+        */
+        private final int id;
+
+        private Type(final int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+    };
+
+    /** The type of information in the channel */
+    private Type type;
+
+    /** The naming pattern for the image slices, can include the directory */
+    private String slicesPath;
+
+    Channel(Type type, String slicesPath) {
+        this.type = type;
+        this.slicesPath = slicesPath;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getSlicesPath() {
+        return slicesPath;
+    }
+}
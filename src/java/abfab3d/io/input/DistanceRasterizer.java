@@ -13,10 +13,18 @@
 package abfab3d.io.input;
 
 
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import javax.vecmath.Vector3d;
 
 import abfab3d.core.ResultCodes;
 import abfab3d.core.TriangleCollector;
+import abfab3d.core.BulkTriangleCollector;
 import abfab3d.core.TriangleProducer;
 import abfab3d.core.Bounds;
 import abfab3d.core.DataSource;
@@ -30,8 +38,10 @@ import abfab3d.grid.op.ClosestPointIndexer;
 import abfab3d.grid.op.ClosestPointIndexerMT;
 
 import abfab3d.grid.util.GridUtil;
+import abfab3d.grid.util.ExecutionStoppedException;
 
 import abfab3d.util.MeshRasterizer;
+import abfab3d.util.TriangleBlockBuffer;
 
 import abfab3d.geom.TriangleMeshShellBuilder;
 
@@ -39,6 +49,8 @@ import abfab3d.geom.TriangleMeshShellBuilder;
 import static abfab3d.core.Units.MM;
 import static abfab3d.core.Output.printf;
 import static abfab3d.core.Output.time;
+import static abfab3d.core.Output.fmt;
+import static java.lang.System.nanoTime;
 import static abfab3d.core.MathUtil.step10;
 
 
@@ -47,8 +59,24 @@ import static abfab3d.core.MathUtil.step10;
    
    distance is calculated in thin shell around the mesh 
 
+   in pipelined mode reading of triangles, rasterization and shell points generation run concurrently 
+   and interior of the mesh is filled concurrently with closest point indexing 
+
  */
-public class DistanceRasterizer implements TriangleCollector {
+public class DistanceRasterizer implements TriangleCollector, BulkTriangleCollector {
+
+    static final boolean DEBUG_TIMING = false;
+
+    // stages of calculations for timings 
+    public static final int 
+        STAGE_TRIANGLES = 0, // wall time of reading and processing of triangles
+        STAGE_RASTERIZE = 1, // rasterization of triangles 
+        STAGE_SHELL = 2,     // generation of shell points 
+        STAGE_INTERIOR = 3,  // filling of interior 
+        STAGE_INDEX = 4,     // closest point indexing 
+        STAGE_DISTANCE = 5,  // distance grid calculation 
+        STAGE_TOTAL = 6;     // wall time of whole calculation 
+    static final String STAGE_NAMES[] = {"triangles","rasterize","shell","interior","index","distance","total"};
 
     // this is used purely for precision of distance calculations on distance grid    
     long m_subvoxelResolution=100;
@@ -64,12 +92,21 @@ public class DistanceRasterizer implements TriangleCollector {
     double m_maxDistance;
     protected int m_threadCount = 1;
     int m_estimatedPoints;
+    // count of triangles passed from TriangleProducer in one block 
+    int m_blockSize = TriangleBlockBuffer.DEFAULT_BLOCK_SIZE;
 
     int m_triCount = 0;
 
     // half thickness of initial shell around the mesh (in voxels )
     double m_shellHalfThickness = 1.0;
 
+    // pipelined processing of triangles 
+    boolean m_pipelined = false;
+    // count of triangle blocks waiting for processing in pipelined mode  
+    int m_queueSize = TriangleBlockPipeline.DEFAULT_QUEUE_SIZE;
+    // time of stages in ns 
+    long m_stageTime[] = new long[STAGE_NAMES.length];
+
     public DistanceRasterizer(Bounds bounds, int gridX, int gridY, int gridZ){
         
         this.gridX = gridX;
@@ -106,6 +143,49 @@ public class DistanceRasterizer implements TriangleCollector {
         m_estimatedPoints = val;
     }
 
+    /**
+       set count of triangles transferred from TriangleProducer in one block 
+     */
+    public void setBlockSize(int blockSize){
+        m_blockSize = blockSize;
+    }
+
+    /**
+       if true reading of triangles, rasterization and shell building run concurrently 
+       and interior of the mesh is filled concurrently with closest point indexing. 
+       The result is the same as in sequential mode.
+     */
+    public void setPipelined(boolean value){
+        m_pipelined = value;
+    }
+
+    /**
+       set max count of triangle blocks waiting for processing in pipelined mode 
+     */
+    public void setQueueSize(int queueSize){
+        m_queueSize = queueSize;
+    }
+
+    /**
+       @return time of given stage of last calculation in ms 
+       in sequential mode STAGE_RASTERIZE and STAGE_SHELL include only triangles passed in blocks 
+     */
+    public double getStageTime(int stage){
+        return m_stageTime[stage]*1.e-6;
+    }
+
+    /**
+       @return printable timings of all stages of last calculation 
+     */
+    public String getStageTimings(){
+
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < STAGE_NAMES.length; i++){
+            sb.append(fmt("%s: %.1f ms ", STAGE_NAMES[i], getStageTime(i)));
+        }
+        return sb.toString();
+    }
+
     //public void setSubvoxelResolution(long value){        
         //m_subvoxelResolution = value;
     //}
@@ -145,24 +225,88 @@ public class DistanceRasterizer implements TriangleCollector {
         return true;
     }
 
+    /**
+       interface of bulk triangle consumer 
+     */
+    public boolean addTriangles(double coord[], int offset, int triCount){
+
+        long t0 = nanoTime();
+        m_rasterizer.addTriangles(coord, offset, triCount);
+        long t1 = nanoTime();
+        m_shellBuilder.addTriangles(coord, offset, triCount);
+        m_stageTime[STAGE_RASTERIZE] += t1 - t0;
+        m_stageTime[STAGE_SHELL] += nanoTime() - t1;
+        m_triCount += triCount;
+        return true;
+    }
+
+    /**
+       feeds all triangles from producer into rasterizer and shell builder 
+     */
+    protected void readTriangles(TriangleProducer triProducer){
+
+        long t0 = nanoTime();
+        if(m_pipelined){
+            TriangleBlockPipeline pipeline = new TriangleBlockPipeline(new BulkTriangleCollector[]{m_rasterizer, m_shellBuilder});
+            pipeline.setBlockSize(m_blockSize);
+            pipeline.setQueueSize(m_queueSize);
+            pipeline.getTriangles(triProducer);
+            m_triCount += pipeline.getTriCount();
+            m_stageTime[STAGE_RASTERIZE] = (long)(pipeline.getConsumerTime(0)*1.e6);
+            m_stageTime[STAGE_SHELL] = (long)(pipeline.getConsumerTime(1)*1.e6);
+        } else {
+            TriangleBlockBuffer.getTriangles(triProducer, this, m_blockSize);
+        }
+        m_stageTime[STAGE_TRIANGLES] = nanoTime() - t0;
+
+    }
+
+    /**
+       fills interior of the mesh 
+     */
+    protected AttributeGrid makeInterior(){
+
+        long t0 = nanoTime();
+        AttributeGrid interiorGrid = new GridMask(gridX,gridY,gridZ);
+        m_rasterizer.getRaster(interiorGrid);
+        m_stageTime[STAGE_INTERIOR] = nanoTime() - t0;
+        return interiorGrid;
+
+    }
+
     public void getDistances(TriangleProducer triProducer, AttributeGrid distanceGrid){
 
         printf("DistanceRasterizer.getDistances(grid)\n");
         long t0 = time();
+        long tstart = nanoTime();
+        Arrays.fill(m_stageTime, 0);
         initialize();
-        triProducer.getTriangles(this);
+        readTriangles(triProducer);
         printf("triProducer.getTriangles(this) time: %d ms\n", (time() - t0));
 
-        AttributeGrid interiorGrid = new GridMask(gridX,gridY,gridZ);
-        
-        t0 = time();
-        m_rasterizer.getRaster(interiorGrid);
-        printf("m_rasterizer.getRaster(interiorGrid) time: %d ms\n", (time() - t0));
+        AttributeGrid interiorGrid = null;
+        ExecutorService executor = null;
+        Future<AttributeGrid> interiorFuture = null;
+        if(m_pipelined){
+            // interior is filled while closest points are indexed 
+            executor = Executors.newSingleThreadExecutor();
+            interiorFuture = executor.submit(new Callable<AttributeGrid>(){
+                    public AttributeGrid call(){
+                        return makeInterior();
+                    }
+                });
+            executor.shutdown();
+        } else {
+            t0 = time();
+            interiorGrid = makeInterior();
+            printf("m_rasterizer.getRaster(interiorGrid) time: %d ms\n", (time() - t0));
+        }
 
         int pcount = m_shellBuilder.getPointCount();
         printf("generated points count: %d\n", pcount);
 
         t0 = time();
+        long tindex = nanoTime();
 
         double pntx[] = new double[pcount];
         double pnty[] = new double[pcount];
@@ -186,8 +330,21 @@ public class DistanceRasterizer implements TriangleCollector {
         // transform points into world units
         ClosestPointIndexer.getPointsInWorldUnits(m_indexGrid, pntx, pnty, pntz);
         printf("ClosestPointIndexer.getPointsInWorldUnits(): %d ms\n", (time() - t0));
-        
+        m_stageTime[STAGE_INDEX] = nanoTime() - tindex;
+
+        if(interiorFuture != null){
+            try {
+                interiorGrid = interiorFuture.get();
+            } catch(InterruptedException e){
+                executor.shutdownNow();
+                throw new ExecutionStoppedException();
+            } catch(ExecutionException e){
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
         t0 = time();
+        long tdist = nanoTime();
         if(m_threadCount <= 1) {
             ClosestPointIndexer.makeDistanceGrid(m_indexGrid, pntx, pnty, pntz, interiorGrid, -m_maxInDistance, m_maxOutDistance, distanceGrid);
             //printf("ClosestPointIndexer.makeDistanceGrid() time: %d ms\n", (time() - t0));
@@ -195,6 +352,9 @@ public class DistanceRasterizer implements TriangleCollector {
             ClosestPointIndexerMT.makeDistanceGrid_MT(m_indexGrid, pntx, pnty, pntz, interiorGrid, -m_maxInDistance, m_maxOutDistance, m_threadCount,distanceGrid);
             printf("ClosestPointIndexerMT.makeDistanceGrid_MT() time: %d ms\n", (time() - t0));
         }
+        m_stageTime[STAGE_DISTANCE] = nanoTime() - tdist;
+        m_stageTime[STAGE_TOTAL] = nanoTime() - tstart;
+        if(DEBUG_TIMING)printf("DistanceRasterizer stages: %s\n", getStageTimings());
        
     }
 
@@ -209,7 +369,8 @@ public class DistanceRasterizer implements TriangleCollector {
         printf("DistanceRasterizer  initialize() %d ms\n", (time() - t1));
         t1 = time();
         t0 = t1;
-        triProducer.getTriangles(this);
+        Arrays.fill(m_stageTime, 0);
+        readTriangles(triProducer);
         //triProducer.getTriangles(m_rasterizer);
         //printf("triProducer.getTriangles(m_rasterizer) %d ms\n", (time() - t1));
         //t1 = time();
@@ -227,9 +388,7 @@ public class DistanceRasterizer implements TriangleCollector {
         printf("m_shellBuilder.getPoints() %d ms\n", (time() - t0));
         t0 = time();
         
-        AttributeGrid interiorGrid = new GridMask(gridX,gridY,gridZ);
-
-        m_rasterizer.getRaster(interiorGrid);
+        AttributeGrid interiorGrid = makeInterior();
         printf("m_rasterizer.getRaster(interiorGrid) %d ms\n", (time() - t0));
         //makeDensityFromDistance(m_shellBuilder.getDistanceGrid(), interiorGrid, densityGrid );
         t0 = time();
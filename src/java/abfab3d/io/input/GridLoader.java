@@ -315,6 +315,8 @@ public class GridLoader {
                 rasterizer.setMaxOutDistance(m_maxOutDistance);                
                 rasterizer.setShellHalfThickness(m_shellHalfThickness);
                 rasterizer.setThreadCount(m_threadCount);
+                // overlap reading with rasterization if we have threads to spare
+                rasterizer.setPipelined(m_threadCount > 1);
                 // run rasterization
                 int estimatedPoints = (int) (ac.getArea() / (voxelSize * voxelSize) * m_shellHalfThickness * 2 * 1.4);  // 40% overage to avoid allocations
                 if(DEBUG)printf("Estimated points: %d\n",estimatedPoints);
@@ -13,9 +13,12 @@
 package abfab3d.io.input;
 
 import abfab3d.core.TriangleCollector;
+import abfab3d.core.BulkTriangleCollector;
+import abfab3d.core.BulkTriangleProducer;
 import abfab3d.core.TriangleProducer;
 import abfab3d.core.VecTransform;
 import abfab3d.core.Transformer;
+import abfab3d.util.TriangleBlockBuffer;
 import org.apache.commons.io.FilenameUtils;
 import static abfab3d.core.Output.printf;
 
@@ -29,7 +32,7 @@ import java.io.InputStream;
  * @author Vladimir Bulatov
  * @author Alan Hudson
  */
-public class MeshReader extends BaseMeshReader implements TriangleProducer, Transformer {
+public class MeshReader extends BaseMeshReader implements TriangleProducer, BulkTriangleProducer, Transformer {
     private static final boolean DEBUG = false;
 
     private String m_path;
@@ -101,6 +104,24 @@ public class MeshReader extends BaseMeshReader implements TriangleProducer, Tran
         return m_producer.getTriangles(out);
          
     }
+
+    /**
+     * interface BulkTriangleProducer
+     */
+    public boolean getTriangles(BulkTriangleCollector out, int blockSize) {
+        
+        if(m_producer == null){
+            m_producer = createReader();
+        }
+        if(m_producer != null && m_producer instanceof Transformer){
+
+            ((Transformer)m_producer).setTransform(m_transform); 
+            
+        }
+        
+        return TriangleBlockBuffer.getTriangles(m_producer, out, blockSize);
+         
+    }
     
     protected TriangleProducer createReader() {
         if (DEBUG) printf("Creating mesh reader.  format: %s\n",m_format);
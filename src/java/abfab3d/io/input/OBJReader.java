@@ -16,12 +16,15 @@ import java.util.Vector;
 import javax.vecmath.Vector3d;
 
 import abfab3d.core.TriangleCollector;
+import abfab3d.core.BulkTriangleCollector;
+import abfab3d.core.BulkTriangleProducer;
 import abfab3d.core.AttributedTriangleCollector;
 import abfab3d.core.TriangleProducer;
 import abfab3d.core.AttributedTriangleProducer;
 import abfab3d.core.Vec;
 import abfab3d.core.VecTransform;
 import abfab3d.core.Transformer;
+import abfab3d.util.TriangleBlockBuffer;
 
 import org.j3d.loaders.InvalidFormatException;
 import org.j3d.loaders.stl.STLFileReader;
@@ -49,7 +52,7 @@ import static abfab3d.core.Output.time;
  *
  * @author Vladimir Bulatov
  */
-public class OBJReader implements TriangleProducer, AttributedTriangleProducer, Transformer {
+public class OBJReader implements TriangleProducer, BulkTriangleProducer, AttributedTriangleProducer, Transformer {
 
     static final boolean DEBUG = false;
 
@@ -141,6 +144,18 @@ public class OBJReader implements TriangleProducer, AttributedTriangleProducer,
         }
     }
 
+    /**
+     * interface BulkTriangleProducer
+     * faces are packed into blocks of coordinates as they are parsed
+     */
+    public boolean getTriangles(BulkTriangleCollector out, int blockSize) {
+        
+        TriangleBlockBuffer buffer = new TriangleBlockBuffer(out, blockSize);
+        getTriangles(buffer);
+        return buffer.flush();
+
+    }
+
     /**
      * interface TriangleProducer
      */
@@ -13,6 +13,8 @@
 package abfab3d.io.input;
 
 import abfab3d.core.TriangleCollector;
+import abfab3d.core.BulkTriangleCollector;
+import abfab3d.core.BulkTriangleProducer;
 import abfab3d.core.AttributedTriangleCollector;
 import abfab3d.core.TriangleProducer;
 import abfab3d.core.AttributedTriangleProducer;
@@ -27,6 +29,8 @@ import org.web3d.vrml.lang.VRMLException;
 import javax.vecmath.Vector3d;
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.zip.GZIPInputStream;
 
 import static abfab3d.core.Output.fmt;
@@ -45,9 +49,11 @@ import static java.lang.System.currentTimeMillis;
  *
  * @author Vladimir Bulatov
  */
-public class STLReader implements TriangleProducer, AttributedTriangleProducer, Transformer {
+public class STLReader implements TriangleProducer, BulkTriangleProducer, AttributedTriangleProducer, Transformer {
 
     static final boolean DEBUG = false;
+    // size of triangle record in binary STL file 
+    static final int BINARY_RECORD_SIZE = 50;
 
     public double scale = 1. / 1000.; //to convert form STL standard millimeters into meters
 
@@ -190,6 +196,28 @@ public class STLReader implements TriangleProducer, AttributedTriangleProducer,
         }
     }
 
+    /**
+     * interface BulkTriangleProducer
+     */
+    public boolean getTriangles(BulkTriangleCollector out, int blockSize) {
+        try {
+           
+            if (m_is != null) {
+
+                readBinary(m_is, out, blockSize);
+
+            } else {
+                
+                readBinary(makeInputStream(m_path), out, blockSize);
+            }
+
+            return true;
+
+        } catch (Exception e) {
+            throw new RuntimeException(fmt("Exception while reading STL file:%s\n", m_path), e);
+        }
+    }
+
     /**
      * interface TriangleProducer
      */
@@ -360,6 +388,94 @@ public class STLReader implements TriangleProducer, AttributedTriangleProducer,
 
     }
 
+    /**
+     * Read in a file in blocks of triangles and apply the specified transform.
+     *
+     * @param bis File to read
+     * @param out  Destination
+     * @param blockSize max count of triangles in one block 
+     * @throws IOException
+     */
+    private void readBinary(InputStream bis, BulkTriangleCollector out, int blockSize) throws IOException {
+        long t0;
+
+        if (DEBUG) {
+            printf("STLReader.read(%s, %s, %d)\n", bis, out, blockSize);
+            t0 = currentTimeMillis();
+        }
+
+        DataInputStream data = new DataInputStream(bis);
+
+        data.skip(80);
+
+        int fcount = readInt(data);
+        if (DEBUG)
+            printf("fcount: %d\n", fcount);
+        int faces = 0;
+
+        byte buffer[] = new byte[BINARY_RECORD_SIZE*blockSize];
+        ByteBuffer bb = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        double coord[] = new double[9*blockSize];
+        double unit_scale = scale;
+        Vec v = new Vec(3);
+
+        try {
+            while (true) {
+                int len = readBlock(data, buffer);
+                int count = len / BINARY_RECORD_SIZE;
+                if(count == 0) 
+                    break;
+
+                for(int t = 0, k = 0; t < count; t++){
+                    // skip normal 
+                    int offset = t*BINARY_RECORD_SIZE + 3*4;
+                    for(int i = 0; i < 9; i++, k++){
+                        coord[k] = bb.getFloat(offset + 4*i) * unit_scale;
+                    }
+                }
+
+                if(transform != null){
+                    for(int k = 0; k < 9*count; k += 3){
+                        v.set(coord[k], coord[k+1], coord[k+2]);
+                        transform.transform(v, v);
+                        coord[k] = v.v[0];
+                        coord[k+1] = v.v[1];
+                        coord[k+2] = v.v[2];
+                    }
+                }
+
+                out.addTriangles(coord, 0, count);
+                faces += count;
+
+                if(len < buffer.length) 
+                    break;
+            }
+        } finally {
+            data.close();
+        }
+
+        if (DEBUG){
+            printf("faces read: %d\n", faces);
+            printf("STLReader.read() done in %d ms\n", (currentTimeMillis() - t0));
+        }
+    }
+
+    /**
+       reads data until buffer is full or end of stream is reached 
+       @return count of bytes read 
+     */
+    private static int readBlock(InputStream is, byte buffer[]) throws IOException {
+
+        int len = 0;
+        while(len < buffer.length){
+            int n = is.read(buffer, len, buffer.length - len);
+            if(n < 0) 
+                break;
+            len += n;
+        }
+        return len;
+    }
+
     /**
      * Read in a file and apply the specified transform.
      *
@@ -0,0 +1,277 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.io.input;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Bounds;
+import abfab3d.core.Grid;
+import abfab3d.core.Output;
+import abfab3d.core.VoxelData;
+import abfab3d.grid.ArrayAttributeGridByte;
+import abfab3d.grid.BaseAttributeGrid;
+import abfab3d.grid.VoxelDataByte;
+import abfab3d.grid.util.ExecutionStoppedException;
+import abfab3d.util.ThreadUtil;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.fmt;
+
+/**
+   read only grid which decodes slices of SVX file on demand
+
+   slices are orthogonal to y-axis (the same as read by SVXReader.load()).
+   Each slice is decoded on first access and stored in a cache.
+   Least recently used slices are removed from cache when cache size exceeds maxCachedSlices.
+   Grid is safe to read from multiple threads.
+   Slices are decoded outside of the grid lock, threads reading the same slice wait for single decoding of it
+   while different slices are decoded concurrently.
+
+   Zip file stays open until close() is called
+
+   @author Vladimir Bulatov
+ */
+public class SVXLazyGrid extends BaseAttributeGrid {
+
+    static final long serialVersionUID = 1L;
+
+    static final boolean DEBUG = false;
+    static final int DEFAULT_MAX_CACHED_SLICES = 64;
+
+    ZipFile m_zip;
+    // printf style template of slice file names
+    String m_slicesPath;
+    int m_maxCachedSlices;
+
+    // cache of decoded slices
+    LinkedHashMap<Integer, FutureTask<byte[]>> m_cache;
+    // last used slice to avoid synchronization in most cases
+    volatile CachedSlice m_lastSlice;
+    // count of decoded slices
+    int m_decodedCount = 0;
+
+    /**
+       @param zip zip file to read slices from
+       @param slicesPath printf style template of slice file names
+       @param nx grid width
+       @param ny grid height (count of slices)
+       @param nz grid depth
+       @param bounds grid bounds
+       @param voxelSize size of voxel
+       @param maxCachedSlices max count of slices kept in memory
+     */
+    public SVXLazyGrid(ZipFile zip, String slicesPath, int nx, int ny, int nz, Bounds bounds, double voxelSize, int maxCachedSlices){
+
+        super(nx, ny, nz, voxelSize, voxelSize, null);
+        setGridBounds(bounds);
+
+        m_zip = zip;
+        m_slicesPath = slicesPath;
+        m_maxCachedSlices = Math.max(1, maxCachedSlices);
+        m_cache = new LinkedHashMap<Integer, FutureTask<byte[]>>(16, 0.75f, true){
+            protected boolean removeEldestEntry(Map.Entry<Integer, FutureTask<byte[]>> eldest) {
+                return size() > m_maxCachedSlices;
+            }
+        };
+    }
+
+    /**
+       @return count of slices decoded so far
+     */
+    public synchronized int getDecodedSliceCount(){
+        return m_decodedCount;
+    }
+
+    /**
+       @return count of slices currently in cache
+     */
+    public synchronized int getCachedSliceCount(){
+        return m_cache.size();
+    }
+
+    /**
+       closes underlying zip file
+     */
+    public void close() throws IOException {
+        synchronized(this){
+            m_cache.clear();
+            m_lastSlice = null;
+        }
+        m_zip.close();
+    }
+
+    /**
+       @return decoded data of slice y stored as data[x + z*width]
+     */
+    public byte[] getSlice(int y){
+
+        CachedSlice last = m_lastSlice;
+        if(last != null && last.y == y)
+            return last.data;
+        byte data[] = getCachedSlice(y);
+        m_lastSlice = new CachedSlice(y, data);
+        return data;
+    }
+
+    byte[] getCachedSlice(final int y){
+
+        FutureTask<byte[]> task;
+        boolean decode = false;
+        synchronized(this){
+            task = m_cache.get(y);
+            if(task == null){
+                task = new FutureTask<byte[]>(new Callable<byte[]>(){
+                        public byte[] call(){
+                            return decodeSlice(y);
+                        }
+                    });
+                m_cache.put(y, task);
+                decode = true;
+            }
+        }
+        if(decode)
+            task.run();
+
+        try {
+            return task.get();
+        } catch(InterruptedException e){
+            throw new ExecutionStoppedException();
+        } catch(ExecutionException e){
+            synchronized(this){
+                // failed slice may be decoded again on next access
+                if(m_cache.get(y) == task)
+                    m_cache.remove(y);
+            }
+            ThreadUtil.throwUnchecked(e.getCause());
+            return null;
+        }
+    }
+
+    byte[] decodeSlice(int y){
+
+        byte data[];
+        String fname = Output.fmt(m_slicesPath, y);
+        if(DEBUG) printf("decoding: %s\n", fname);
+        try {
+            ZipEntry entry = m_zip.getEntry(fname);
+            if (entry == null)
+                throw new IOException(fmt("Cannot find slice file: %s", fname));
+            InputStream is = m_zip.getInputStream(entry);
+            try {
+                data = SlicesReader.readSliceData(is, width, depth);
+            } finally {
+                is.close();
+            }
+        } catch(IOException e){
+            throw new RuntimeException(fmt("Exception while reading slice: %s", fname), e);
+        }
+        synchronized(this){
+            m_decodedCount++;
+        }
+        return data;
+    }
+
+    /**
+       copies region of this grid into new grid
+       only slices intersecting the region are decoded
+       @return grid of size (xmax - xmin, ymax - ymin, zmax - zmin) with bounds of the region
+     */
+    public AttributeGrid getRegion(int xmin, int xmax, int ymin, int ymax, int zmin, int zmax){
+
+        if(xmin < 0 || ymin < 0 || zmin < 0 || xmax > width || ymax > height || zmax > depth || xmin >= xmax || ymin >= ymax || zmin >= zmax)
+            throw new IllegalArgumentException(fmt("invalid region: [%d,%d; %d,%d; %d,%d] of grid [%d x %d x %d]",
+                                                   xmin, xmax, ymin, ymax, zmin, zmax, width, height, depth));
+        int
+            nx = xmax - xmin,
+            ny = ymax - ymin,
+            nz = zmax - zmin;
+        double vs = pixelSize;
+        AttributeGrid grid = new ArrayAttributeGridByte(nx, ny, nz, vs, vs);
+        grid.setGridBounds(new Bounds(xorig + xmin*vs, xorig + xmax*vs,
+                                      yorig + ymin*vs, yorig + ymax*vs,
+                                      zorig + zmin*vs, zorig + zmax*vs));
+        grid.setDataDesc(getDataDesc());
+        for(int y = 0; y < ny; y++){
+            byte data[] = getSlice(y + ymin);
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    grid.setAttribute(x, y, z, data[(x + xmin) + (z + zmin)*width] & 0xFF);
+                }
+            }
+        }
+        return grid;
+    }
+
+    public long getAttribute(int x, int y, int z) {
+        return ioFunc.getAttribute(getSlice(y)[x + z*width] & 0xFF);
+    }
+
+    public byte getState(int x, int y, int z) {
+        return ioFunc.getState(getSlice(y)[x + z*width] & 0xFF);
+    }
+
+    public void getData(int x, int y, int z, VoxelData vd) {
+        long encoded = getSlice(y)[x + z*width] & 0xFF;
+        vd.setData(ioFunc.getState(encoded), ioFunc.getAttribute(encoded));
+    }
+
+    public VoxelData getVoxelData() {
+        return new VoxelDataByte();
+    }
+
+    public void setAttribute(int x, int y, int z, long attribute) {
+        throw new UnsupportedOperationException(fmt("setAttribute() is not supported in read only %s", this));
+    }
+
+    public void setData(int x, int y, int z, byte state, long material) {
+        throw new UnsupportedOperationException(fmt("setData() is not supported in read only %s", this));
+    }
+
+    public void setState(int x, int y, int z, byte state) {
+        throw new UnsupportedOperationException(fmt("setState() is not supported in read only %s", this));
+    }
+
+    /**
+       creates empty writable grid of the same type as decoded grid
+     */
+    public Grid createEmpty(int w, int h, int d, double pixel, double sheight) {
+        return new ArrayAttributeGridByte(w, h, d, pixel, sheight, ioFunc);
+    }
+
+    /**
+       grid is read only, the clone shares zip file and decodes slices independently
+     */
+    public Object clone() {
+        SVXLazyGrid grid = new SVXLazyGrid(m_zip, m_slicesPath, width, height, depth, getGridBounds(), pixelSize, m_maxCachedSlices);
+        grid.setDataDesc(getDataDesc());
+        return grid;
+    }
+
+    static class CachedSlice {
+        final int y;
+        final byte data[];
+        CachedSlice(int y, byte data[]){
+            this.y = y;
+            this.data = data;
+        }
+    }
+}
@@ -58,17 +58,8 @@ public class SVXReader {
         try {
             zip = new ZipFile(file);
 
-            ZipEntry entry = zip.getEntry("manifest.xml");
-            if (entry == null) {
-                throw new IOException("Cannot find manifest.xml in top level");
-            }
-
-            InputStream is = zip.getInputStream(entry);
-            mf = parseManifest(is);
+            readManifest(zip);
 
-            if (mf == null) {
-                throw new IOException("Could not parse manifest file");
-            }
             int nx = mf.getGridSizeX();
             int ny = mf.getGridSizeY();
             int nz = mf.getGridSizeZ();
@@ -77,26 +68,12 @@ public class SVXReader {
             AttributeGrid grid = new ArrayAttributeGridByte(nx, ny, nz,vs, vs);
             //AttributeGrid grid = new ArrayAttributeGridInt(nx, ny, nz,vs, vs);
 
-            double 
-                xmin = mf.getOriginX(),
-                ymin = mf.getOriginY(),
-                zmin = mf.getOriginZ();
-            double 
-                xmax = xmin + nx*vs,
-                ymax = ymin + ny*vs,
-                zmax = zmin + nz*vs;
-                
-            grid.setGridBounds(new Bounds(xmin, xmax, ymin, ymax,zmin, zmax));
+            grid.setGridBounds(getGridBounds(mf));
 
             List<Channel> channels = mf.getChannels();
             //TODO - implement this properly 
             for(Channel chan : channels) {
-                if (chan.getType().getId() == Channel.Type.DENSITY.getId() ||                    
-                    chan.getType().getId() == Channel.Type.DISTANCE.getId()||
-                    chan.getType().getId() == Channel.Type.RED.getId()||
-                    chan.getType().getId() == Channel.Type.GREEN.getId()||
-                    chan.getType().getId() == Channel.Type.BLUE.getId() ||
-                    chan.getType().getId() == Channel.Type.DISTANCE_COLOR.getId()) {
+                if (isSupportedChannel(chan)) {
                     SlicesReader sr = new SlicesReader();
                     sr.readSlices(grid,zip,chan.getSlicesPath(),0,0,mf.getGridSizeY());
                 }
@@ -107,6 +84,118 @@ public class SVXReader {
         }
     }
 
+    /**
+     * Opens SVX file as read only grid which decodes slices on first access.
+     * The grid has the same data as grid returned by load().
+     * The grid keeps the zip file open until SVXLazyGrid.close() is called.
+     *
+     * @param file The zip file
+     * @param maxCachedSlices max count of decoded slices kept in memory
+     * @return lazy grid
+     * @throws IOException
+     */
+    public SVXLazyGrid loadLazy(String file, int maxCachedSlices) throws IOException {
+
+        ZipFile zip = new ZipFile(file);
+        try {
+            readManifest(zip);
+            Channel chan = getDataChannel(mf);
+            if (chan == null) {
+                throw new IOException("Cannot find supported channel in manifest");
+            }
+            return new SVXLazyGrid(zip, chan.getSlicesPath(), mf.getGridSizeX(), mf.getGridSizeY(), mf.getGridSizeZ(),
+                                   getGridBounds(mf), mf.getVoxelSize(), maxCachedSlices);
+        } catch(IOException e){
+            zip.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens SVX file as read only grid with default count of cached slices
+     */
+    public SVXLazyGrid loadLazy(String file) throws IOException {
+        return loadLazy(file, SVXLazyGrid.DEFAULT_MAX_CACHED_SLICES);
+    }
+
+    /**
+     * Load a region of SVX file into a grid. Only slices intersecting the region are decoded.
+     * Region is given in voxels of the stored grid, min values are inclusive, max values are exclusive.
+     *
+     * @param file The zip file
+     * @return grid of region size with bounds of the region
+     * @throws IOException
+     */
+    public AttributeGrid loadRegion(String file, int xmin, int xmax, int ymin, int ymax, int zmin, int zmax) throws IOException {
+
+        // each slice is used once 
+        SVXLazyGrid lazyGrid = loadLazy(file, 1);
+        try {
+            return lazyGrid.getRegion(xmin, xmax, ymin, ymax, zmin, zmax);
+        } finally {
+            lazyGrid.close();
+        }
+    }
+
+    /**
+     * reads manifest from zip file
+     */
+    private void readManifest(ZipFile zip) throws IOException {
+
+        ZipEntry entry = zip.getEntry("manifest.xml");
+        if (entry == null) {
+            throw new IOException("Cannot find manifest.xml in top level");
+        }
+
+        InputStream is = zip.getInputStream(entry);
+        mf = parseManifest(is);
+
+        if (mf == null) {
+            throw new IOException("Could not parse manifest file");
+        }
+    }
+
+    private static Bounds getGridBounds(SVXManifest mf){
+
+        int nx = mf.getGridSizeX();
+        int ny = mf.getGridSizeY();
+        int nz = mf.getGridSizeZ();
+        double vs = mf.getVoxelSize();
+        double 
+            xmin = mf.getOriginX(),
+            ymin = mf.getOriginY(),
+            zmin = mf.getOriginZ();
+        double 
+            xmax = xmin + nx*vs,
+            ymax = ymin + ny*vs,
+            zmax = zmin + nz*vs;
+        return new Bounds(xmin, xmax, ymin, ymax,zmin, zmax);
+    }
+
+    private static boolean isSupportedChannel(Channel chan){
+
+        int id = chan.getType().getId();
+        return (id == Channel.Type.DENSITY.getId() ||                    
+                id == Channel.Type.DISTANCE.getId()||
+                id == Channel.Type.RED.getId()||
+                id == Channel.Type.GREEN.getId()||
+                id == Channel.Type.BLUE.getId() ||
+                id == Channel.Type.DISTANCE_COLOR.getId());
+    }
+
+    /**
+     * @return channel which data end up in grid returned by load() (the last supported channel)
+     */
+    private static Channel getDataChannel(SVXManifest mf){
+
+        Channel dataChannel = null;
+        for(Channel chan : mf.getChannels()) {
+            if (isSupportedChannel(chan)) 
+                dataChannel = chan;
+        }
+        return dataChannel;
+    }
+
     public SVXManifest getManifest() {
         return mf;
     }
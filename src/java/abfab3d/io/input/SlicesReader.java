@@ -161,6 +161,43 @@ public class SlicesReader {
         int imgWidth = image.getWidth();
         int imgHeight = image.getHeight();
 
+        byte componentData[] = getComponentData(image);
+
+        int coord[] = new int[3];
+
+        for(int x = 0; x < imgWidth; x++){
+            for(int y = 0; y < imgHeight; y++){
+                getVoxelCoord(slice, x,y, coord, orientation);
+                grid.setAttribute(coord[0],coord[1],coord[2],componentData[x + y*imgWidth]);
+            }
+        }
+    }
+
+    /**
+       read single slice image from input stream into array of bytes 
+       @param is stream to read image from 
+       @param width expected width of image
+       @param height expected height of image
+       @return image data stored as data[x + y*width]
+     */
+    public static byte[] readSliceData(InputStream is, int width, int height) throws IOException{
+
+        BufferedImage image = ImageIO.read(is);
+        if(image == null)throw new IOException("unsupported image file format");
+        if(image.getWidth() != width || image.getHeight() != height)
+            throw new IOException(fmt("unexpected slice size: [%d x %d] instead of [%d x %d]", image.getWidth(), image.getHeight(), width, height));
+        return getComponentData(image);
+
+    }
+
+    /**
+       @return single component data of the image 
+     */
+    static byte[] getComponentData(BufferedImage image) throws IOException {
+
+        int imgWidth = image.getWidth();
+        int imgHeight = image.getHeight();
+
         if(DEBUG){
 
             printf("image type: %s\n",ImageUtil.getImageTypeName(image.getType()));
@@ -197,15 +234,7 @@ public class SlicesReader {
         default:
             throw new IOException(fmt("unsupported image data format: %s", ImageUtil.getImageTypeName(image.getType())));
         }
-
-        int coord[] = new int[3];
-
-        for(int x = 0; x < imgWidth; x++){
-            for(int y = 0; y < imgHeight; y++){
-                getVoxelCoord(slice, x,y, coord, orientation);
-                grid.setAttribute(coord[0],coord[1],coord[2],componentData[x + y*imgWidth]);
-            }
-        }
+        return componentData;
     }
 
     static final void getVoxelCoord(int slice, int i, int j, int coord[], int orientation){
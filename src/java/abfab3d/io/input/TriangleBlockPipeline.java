@@ -0,0 +1,275 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.io.input;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import abfab3d.core.BulkTriangleCollector;
+import abfab3d.core.TriangleProducer;
+
+import abfab3d.grid.util.ExecutionStoppedException;
+
+import abfab3d.util.TriangleBlockBuffer;
+
+import static java.lang.System.nanoTime;
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.fmt;
+
+/**
+   passes triangles from TriangleProducer to several BulkTriangleCollectors running concurrently
+
+   triangles are read in the calling thread and passed in blocks via bounded queues to consumers.
+   Each consumer runs in its own thread and receives all blocks in the original order.
+   Reading of the next blocks overlaps with processing of previous blocks by all consumers.
+   Consumers do not need to be thread safe, each is called from single thread only.
+
+   @author Vladimir Bulatov
+ */
+public class TriangleBlockPipeline implements BulkTriangleCollector {
+
+    static final boolean DEBUG = false;
+    static public final int DEFAULT_QUEUE_SIZE = 16;
+
+    // marker of the end of triangles stream
+    static final Block END = new Block(0);
+
+    BulkTriangleCollector m_consumers[];
+    int m_blockSize = TriangleBlockBuffer.DEFAULT_BLOCK_SIZE;
+    int m_queueSize = DEFAULT_QUEUE_SIZE;
+
+    List<ArrayBlockingQueue<Block>> m_queues;
+    // blocks released by all consumers
+    ConcurrentLinkedQueue<Block> m_freeBlocks = new ConcurrentLinkedQueue<Block>();
+
+    volatile Throwable m_error;
+    volatile boolean m_result;
+    int m_triCount;
+
+    // timings in nanoseconds
+    long m_readTime;
+    long m_totalTime;
+    long m_consumerTime[];
+
+    /**
+       @param consumers collectors to receive all triangles
+     */
+    public TriangleBlockPipeline(BulkTriangleCollector consumers[]){
+
+        m_consumers = consumers.clone();
+
+    }
+
+    /**
+       set max count of triangles in one block
+     */
+    public void setBlockSize(int blockSize){
+
+        if(blockSize < 1)
+            throw new IllegalArgumentException("TriangleBlockPipeline: illegal block size: " + blockSize);
+        m_blockSize = blockSize;
+
+    }
+
+    /**
+       set max count of blocks waiting for each consumer.
+       Reading is paused when the queue of any consumer is full
+     */
+    public void setQueueSize(int queueSize){
+
+        m_queueSize = Math.max(1, queueSize);
+
+    }
+
+    /**
+       reads all triangles from producer and passes them to consumers.
+       Returns when all consumers processed all triangles.
+
+       @return true if producer and all consumers succeeded
+     */
+    public boolean getTriangles(TriangleProducer producer){
+
+        int n = m_consumers.length;
+        long t0 = nanoTime();
+        m_error = null;
+        m_result = true;
+        m_triCount = 0;
+        m_consumerTime = new long[n];
+        m_queues = new ArrayList<ArrayBlockingQueue<Block>>(n);
+        for(int i = 0; i < n; i++){
+            m_queues.add(new ArrayBlockingQueue<Block>(m_queueSize));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(n);
+        for(int i = 0; i < n; i++){
+            executor.submit(new Consumer(i));
+        }
+
+        boolean res = false;
+        try {
+            res = TriangleBlockBuffer.getTriangles(producer, this, m_blockSize);
+        } finally {
+            m_readTime = nanoTime() - t0;
+            for(int i = 0; i < n; i++){
+                put(m_queues.get(i), END);
+            }
+            executor.shutdown();
+        }
+
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw new ExecutionStoppedException();
+        }
+        m_totalTime = nanoTime() - t0;
+        m_freeBlocks.clear();
+
+        if(m_error != null)
+            throw new RuntimeException(m_error);
+        if(DEBUG) printf("TriangleBlockPipeline: %s\n", getTimings());
+        return res && m_result;
+
+    }
+
+    /**
+       interface of bulk triangle consumer, called by producer
+     */
+    public boolean addTriangles(double coord[], int offset, int triCount){
+
+        int n = m_consumers.length;
+        Block block = m_freeBlocks.poll();
+        if(block == null || block.coord.length < 9*triCount)
+            block = new Block(9*Math.max(triCount, m_blockSize));
+
+        System.arraycopy(coord, offset, block.coord, 0, 9*triCount);
+        block.count = triCount;
+        block.users.set(n);
+        for(int i = 0; i < n; i++){
+            put(m_queues.get(i), block);
+        }
+        m_triCount += triCount;
+        return (m_error == null);
+
+    }
+
+    static void put(ArrayBlockingQueue<Block> queue, Block block){
+        try {
+            queue.put(block);
+        } catch(InterruptedException e){
+            throw new ExecutionStoppedException();
+        }
+    }
+
+    /**
+       @return count of triangles passed via pipeline
+     */
+    public int getTriCount(){
+        return m_triCount;
+    }
+
+    /**
+       @return time of reading in ms. It includes time spent waiting for consumers
+     */
+    public double getReadTime(){
+        return m_readTime*1.e-6;
+    }
+
+    /**
+       @return time spent by consumer in processing of triangles in ms
+     */
+    public double getConsumerTime(int index){
+        return m_consumerTime[index]*1.e-6;
+    }
+
+    /**
+       @return time from start of reading until all consumers finished in ms
+     */
+    public double getTotalTime(){
+        return m_totalTime*1.e-6;
+    }
+
+    public String getTimings(){
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(fmt("read: %.1f ms", getReadTime()));
+        for(int i = 0; i < m_consumers.length; i++){
+            sb.append(fmt(" consumer[%d]: %.1f ms", i, getConsumerTime(i)));
+        }
+        sb.append(fmt(" total: %.1f ms", getTotalTime()));
+        return sb.toString();
+    }
+
+    /**
+       runs one consumer
+     */
+    class Consumer implements Runnable {
+
+        int index;
+
+        Consumer(int index){
+            this.index = index;
+        }
+
+        public void run(){
+
+            BulkTriangleCollector consumer = m_consumers[index];
+            ArrayBlockingQueue<Block> queue = m_queues.get(index);
+            long time = 0;
+            try {
+                while(true){
+                    Block block = queue.take();
+                    if(block == END)
+                        break;
+                    // after failure keep draining the queue to not block the reader
+                    if(m_error == null){
+                        try {
+                            long t0 = nanoTime();
+                            if(!consumer.addTriangles(block.coord, 0, block.count))
+                                m_result = false;
+                            time += nanoTime() - t0;
+                        } catch(Throwable e){
+                            m_error = e;
+                        }
+                    }
+                    if(block.users.decrementAndGet() == 0)
+                        m_freeBlocks.add(block);
+                }
+            } catch(InterruptedException e){
+                m_error = new ExecutionStoppedException();
+            }
+            m_consumerTime[index] = time;
+        }
+    }
+
+    /**
+       block of triangles shared by consumers
+     */
+    static class Block {
+
+        double coord[];
+        int count;
+        // count of consumers which did not process the block yet
+        AtomicInteger users = new AtomicInteger();
+
+        Block(int size){
+            coord = new double[size];
+        }
+    }
+}
@@ -13,6 +13,8 @@
 package abfab3d.io.input;
 
 import abfab3d.core.TriangleCollector;
+import abfab3d.core.BulkTriangleCollector;
+import abfab3d.core.BulkTriangleProducer;
 import abfab3d.core.TriangleProducer;
 import abfab3d.core.Vec;
 import abfab3d.core.VecTransform;
@@ -37,7 +39,7 @@ import static abfab3d.core.Output.printf;
  *
  * @author Vladimir Bulatov
  */
-public class X3DReader implements TriangleProducer, Transformer {
+public class X3DReader implements TriangleProducer, BulkTriangleProducer, Transformer {
 
     static final boolean DEBUG = false;
 
@@ -75,6 +77,36 @@ public class X3DReader implements TriangleProducer, Transformer {
      */
     private void read(TriangleCollector out) throws IOException {
 
+        Iterator<CommonEncodable> itr = getShapes().iterator();
+
+        while(itr.hasNext()) {
+
+            CommonEncodable its = (CommonEncodable) itr.next().getValue("geometry");
+            addTriangles(getCoord(its),getCoordIndex(its), out);
+            
+        }
+        
+    }
+
+    /**
+       reads XML file and passes triangles to BulkTriangleCollector
+     */
+    private void read(BulkTriangleCollector out, int blockSize) throws IOException {
+
+        Iterator<CommonEncodable> itr = getShapes().iterator();
+        double block[] = new double[9*blockSize];
+
+        while(itr.hasNext()) {
+
+            CommonEncodable its = (CommonEncodable) itr.next().getValue("geometry");
+            addTriangles(getCoord(its),getCoordIndex(its), out, block);
+            
+        }
+        
+    }
+
+    private List<CommonEncodable> getShapes() throws IOException {
+
         if(m_fileLoader == null){
             m_fileLoader = new X3DFileLoader(new SysErrorReporter(SysErrorReporter.PRINT_ERRORS));
 
@@ -85,22 +117,20 @@ public class X3DReader implements TriangleProducer, Transformer {
             }
         }
                 
-        List<CommonEncodable> shapes = m_fileLoader.getShapes();
+        return m_fileLoader.getShapes();
+    }
 
-        Iterator<CommonEncodable> itr = shapes.iterator();
+    private static float[] getCoord(CommonEncodable geometry){
 
-        while(itr.hasNext()) {
+        CommonEncodable coordNode = (CommonEncodable) geometry.getValue("coord");
+        return (float[]) ((ArrayData)coordNode.getValue("point")).data;
 
-            CommonEncodable shape = itr.next();
-            CommonEncodable its = (CommonEncodable) shape.getValue("geometry");
-            CommonEncodable coordNode = (CommonEncodable) its.getValue("coord");
-            float[] coord = (float[]) ((ArrayData)coordNode.getValue("point")).data;
-            int[] coordIndex = (int[]) ((ArrayData)its.getValue("index")).data;
+    }
+
+    private static int[] getCoordIndex(CommonEncodable geometry){
+
+        return (int[]) ((ArrayData)geometry.getValue("index")).data;
 
-            addTriangles(coord,coordIndex, out);
-            
-        }
-        
     }
     
     /**
@@ -140,6 +170,33 @@ public class X3DReader implements TriangleProducer, Transformer {
         
     }    
     
+    /**
+       send tiangles stored as indices to BulkTriangleCollector in blocks 
+     */
+    private void addTriangles(float coord[],int coordIndex[], BulkTriangleCollector out, double block[]){
+
+        // count of triangles 
+        int len = coordIndex.length / 3;
+        int blockSize = block.length / 9;
+        
+        for(int i = 0, idx = 0; i < len; ) {
+            
+            int count = Math.min(blockSize, len - i);
+            int k = 0;
+            for(int t = 0; t < count; t++){
+                for(int v = 0; v < 3; v++){
+                    int off = coordIndex[idx++] * 3;
+                    block[k++] = coord[off];
+                    block[k++] = coord[off+1];
+                    block[k++] = coord[off+2];
+                }
+            }
+            makeTransform(block, count);
+            out.addTriangles(block, 0, count);
+            i += count;
+        }
+    }    
+
     // work vectors used for transformations
     Vec vv0 = new Vec(3), 
         vv1 = new Vec(3),
@@ -164,6 +221,19 @@ public class X3DReader implements TriangleProducer, Transformer {
 
     }
 
+    final void makeTransform(double coord[], int triCount){
+        
+        if(m_transform == null)
+            return;
+        for(int k = 0; k < 9*triCount; k += 3){
+            vv0.set(coord[k], coord[k+1], coord[k+2]);
+            m_transform.transform(vv0, vv0);
+            coord[k]   = vv0.v[0];
+            coord[k+1] = vv0.v[1];
+            coord[k+2] = vv0.v[2];
+        }
+    }
+
     
     /**
      * interface TriangleProducer
@@ -179,5 +249,19 @@ public class X3DReader implements TriangleProducer, Transformer {
         }
     }
 
+    /**
+     * interface BulkTriangleProducer
+     */
+    public boolean getTriangles(BulkTriangleCollector out, int blockSize) {
+        try {
+
+            read(out, blockSize);
+            return true;
+
+        } catch (Exception e) {
+            throw new RuntimeException(fmt("Exception while reading file:%s\n", m_path), e);
+        }
+    }
+
 }
 
@@ -0,0 +1,452 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.io.output;
+
+import java.util.Arrays;
+
+import javax.vecmath.Vector2d;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.LongConverter;
+
+import abfab3d.mesh.VertexWelder;
+import abfab3d.mesh.WingedEdgeTriangleMesh;
+
+import abfab3d.util.SkylinePacking;
+
+import static java.lang.Math.sqrt;
+import static java.lang.Math.abs;
+import static java.lang.Math.cos;
+import static java.lang.Math.ceil;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.PI;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+
+/**
+   makes texture atlas of mesh charts
+
+   the mesh is split into connected charts of faces with normals close to the normal of the chart seed face.
+   Each chart is parameterized by orthogonal projection onto plane orthogonal to the seed normal.
+   Because all chart faces are inclined less than 90 degrees to that plane the projected triangles are not flipped.
+   In addition, face is added to the chart only if its projected area is positive, 
+   which rejects faces flipped or collapsed by round off errors. 
+   Bounding rectangles of charts are packed by SkylinePacking.
+
+   Unlike TrianglePacker the triangles inside of chart share texture vertices and need no gaps between them,
+   which makes much smaller textures for smooth meshes.
+
+   The texture size can be limited by the texel budget. If the packed texture exceeds the budget
+   the texture pixel size is increased and charts are packed again.
+
+   @author Vladimir Bulatov
+ */
+public class ChartPacker {
+
+    static final boolean DEBUG = false;
+
+    static public final double DEFAULT_MAX_CHART_ANGLE = PI/4;
+    static public final int DEFAULT_MAX_CHART_SIZE = 10000;
+    // max count of repacking to satisfy texel budget
+    static final int MAX_REPACK_COUNT = 10;
+
+    // texture pixel size in physical units
+    double m_pixelSize = 1;
+    // gap between charts in pixels
+    double m_gap = 2;
+    double m_maxChartAngle = DEFAULT_MAX_CHART_ANGLE;
+    int m_maxChartSize = DEFAULT_MAX_CHART_SIZE;
+    // max count of texture pixels, 0 - not limited
+    long m_maxTexelCount = 0;
+    int m_threadCount = 1;
+
+    // mesh
+    double m_coord[];
+    int m_faces[];
+    int m_faceCount;
+
+    // charts
+    int m_chartCount;
+    // chart of each face
+    int m_faceChart[];
+    // faces sorted by charts
+    int m_chartFaces[];
+    // start of chart faces in m_chartFaces
+    int m_chartStart[];
+    // projection axes of charts (6 per chart)
+    double m_chartAxes[];
+
+    // results
+    double m_texCoord[];
+    int m_texCoordIndex[];
+    Vector2d m_packedSize;
+
+    public ChartPacker(){
+    }
+
+    /**
+       @param pixelSize size of texture pixel in physical units
+     */
+    public void setTexturePixelSize(double pixelSize){
+        m_pixelSize = pixelSize;
+    }
+
+    /**
+       @return texture pixel size used for the packing. It may be larger than requested if texel budget is set
+     */
+    public double getTexturePixelSize(){
+        return m_pixelSize;
+    }
+
+    /**
+       @param gap size of safety band around charts in pixel units
+     */
+    public void setGap(double gap){
+        m_gap = gap;
+    }
+
+    /**
+       @param angle max angle between normals of chart faces and normal of chart seed face (in radians)
+     */
+    public void setMaxChartAngle(double angle){
+        m_maxChartAngle = min(angle, 0.49*PI);
+    }
+
+    /**
+       @param count max count of faces in one chart
+     */
+    public void setMaxChartSize(int count){
+        m_maxChartSize = max(1, count);
+    }
+
+    /**
+       @param count max count of pixels in packed texture, 0 means no limit
+     */
+    public void setMaxTexelCount(long count){
+        m_maxTexelCount = count;
+    }
+
+    /**
+       set count of threads used for search of face neighbors
+     */
+    public void setThreadCount(int count){
+        m_threadCount = count;
+    }
+
+    /**
+       makes charts of the mesh and packs them
+     */
+    public void packMesh(WingedEdgeTriangleMesh mesh){
+
+        // mesh arrays are used directly, the mesh is already welded
+        int faces[] = mesh.getFaceVertexIndexes();
+        packMesh(mesh.getVertexCoord(), faces, faces.length/3);
+
+    }
+
+    /**
+       makes charts of indexed triangle set and packs them
+       @param coord coordinates of vertices
+       @param faces indices of triangles vertices
+       @param faceCount count of triangles
+     */
+    public void packMesh(double coord[], int faces[], int faceCount){
+
+        long t0 = time();
+        m_coord = coord;
+        m_faces = faces;
+        m_faceCount = faceCount;
+        makeCharts();
+        if(DEBUG)printf("ChartPacker: faces: %d charts: %d  %d ms\n", faceCount, m_chartCount, (time() - t0));
+        pack();
+        for(int k = 0; k < MAX_REPACK_COUNT && m_maxTexelCount > 0; k++){
+            double area = (m_packedSize.x + 2*m_gap)*(m_packedSize.y + 2*m_gap);
+            if(area <= m_maxTexelCount)
+                break;
+            m_pixelSize *= sqrt(area/m_maxTexelCount)*1.02;
+            pack();
+        }
+        if(DEBUG)printf("ChartPacker: packed: [%7.1f x %7.1f] pixelSize: %7.5f  %d ms\n", m_packedSize.x, m_packedSize.y, m_pixelSize, (time() - t0));
+    }
+
+    /**
+       grows charts from seed faces
+     */
+    void makeCharts(){
+
+        int fcount = m_faceCount;
+        double normals[] = new double[3*fcount];
+        for(int f = 0; f < fcount; f++){
+            getNormal(f, normals);
+        }
+        int twins[] = VertexWelder.getTwins(m_faces, fcount, m_threadCount);
+
+        double cosMax = cos(m_maxChartAngle);
+        m_faceChart = new int[fcount];
+        Arrays.fill(m_faceChart, -1);
+        m_chartFaces = new int[fcount];
+        int chartStart[] = new int[fcount+1];
+        double axes[] = new double[6*16];
+        int chartCount = 0;
+        int ffcount = 0;
+
+        for(int seed = 0; seed < fcount; seed++){
+
+            if(m_faceChart[seed] != -1)
+                continue;
+            int chart = chartCount++;
+            chartStart[chart] = ffcount;
+            double nx = normals[3*seed], ny = normals[3*seed+1], nz = normals[3*seed+2];
+
+            // faces of the chart are used as queue of breadth first search
+            int head = ffcount;
+            m_faceChart[seed] = chart;
+            m_chartFaces[ffcount++] = seed;
+            boolean flat = (nx != 0 || ny != 0 || nz != 0);
+            int maxEnd = chartStart[chart] + m_maxChartSize;
+            if(6*chartCount > axes.length)
+                axes = Arrays.copyOf(axes, 2*axes.length);
+            makeAxes(nx, ny, nz, axes, 6*chart);
+            while(head < ffcount && flat){
+                int f = m_chartFaces[head++];
+                for(int k = 0; k < 3 && ffcount < maxEnd; k++){
+                    int t = twins[3*f + k];
+                    if(t < 0) continue;
+                    int nf = t/3;
+                    if(m_faceChart[nf] != -1) continue;
+                    double d = normals[3*nf]*nx + normals[3*nf+1]*ny + normals[3*nf+2]*nz;
+                    if(d < cosMax) continue;
+                    if(getProjectedArea(nf, axes, 6*chart) <= 0) continue;
+                    m_faceChart[nf] = chart;
+                    m_chartFaces[ffcount++] = nf;
+                }
+            }
+        }
+        chartStart[chartCount] = ffcount;
+        m_chartCount = chartCount;
+        m_chartStart = Arrays.copyOf(chartStart, chartCount+1);
+        m_chartAxes = axes;
+    }
+
+    /**
+       projects charts and packs their bounding rectangles
+     */
+    void pack(){
+
+        int fcount = m_faceCount;
+        double scale = 1./m_pixelSize;
+        // texture vertex of each face corner
+        m_texCoordIndex = new int[3*fcount];
+        // texture vertex index of mesh vertex in current chart
+        int vertexTex[] = new int[m_coord.length/3];
+        int vertexChart[] = new int[m_coord.length/3];
+        Arrays.fill(vertexChart, -1);
+        double tex[] = new double[6*fcount];
+        int tcount = 0;
+        // bounds of charts
+        double bounds[] = new double[4*m_chartCount];
+        // texture vertices are numbered chart after chart
+        int chartTex[] = new int[m_chartCount+1];
+
+        for(int c = 0; c < m_chartCount; c++){
+            chartTex[c] = tcount;
+            int a = 6*c;
+            double
+                ux = m_chartAxes[a],   uy = m_chartAxes[a+1], uz = m_chartAxes[a+2],
+                vx = m_chartAxes[a+3], vy = m_chartAxes[a+4], vz = m_chartAxes[a+5];
+            double umin = Double.MAX_VALUE, umax = -Double.MAX_VALUE, vmin = Double.MAX_VALUE, vmax = -Double.MAX_VALUE;
+            for(int i = m_chartStart[c]; i < m_chartStart[c+1]; i++){
+                int f = m_chartFaces[i];
+                for(int k = 0; k < 3; k++){
+                    int vert = m_faces[3*f + k];
+                    if(vertexChart[vert] != c){
+                        vertexChart[vert] = c;
+                        vertexTex[vert] = tcount;
+                        double x = m_coord[3*vert], y = m_coord[3*vert+1], z = m_coord[3*vert+2];
+                        double u = scale*(x*ux + y*uy + z*uz);
+                        double v = scale*(x*vx + y*vy + z*vz);
+                        tex[2*tcount] = u;
+                        tex[2*tcount+1] = v;
+                        tcount++;
+                        if(u < umin) umin = u;
+                        if(u > umax) umax = u;
+                        if(v < vmin) vmin = v;
+                        if(v > vmax) vmax = v;
+                    }
+                    m_texCoordIndex[3*f + k] = vertexTex[vert];
+                }
+            }
+            bounds[4*c] = umin;
+            bounds[4*c+1] = umax;
+            bounds[4*c+2] = vmin;
+            bounds[4*c+3] = vmax;
+        }
+
+        SkylinePacking packer = new SkylinePacking();
+        for(int c = 0; c < m_chartCount; c++){
+            packer.addRect(bounds[4*c+1] - bounds[4*c] + 2*m_gap, bounds[4*c+3] - bounds[4*c+2] + 2*m_gap);
+        }
+        packer.pack();
+        m_packedSize = packer.getPackedSize();
+
+        // move charts to packed locations
+        chartTex[m_chartCount] = tcount;
+        Vector2d origin = new Vector2d();
+        for(int c = 0; c < m_chartCount; c++){
+            packer.getRectOrigin(c, origin);
+            double du = origin.x + m_gap - bounds[4*c], dv = origin.y + m_gap - bounds[4*c+2];
+            for(int t = chartTex[c]; t < chartTex[c+1]; t++){
+                tex[2*t] += du;
+                tex[2*t+1] += dv;
+            }
+        }
+        m_texCoord = Arrays.copyOf(tex, 2*tcount);
+
+    }
+
+    /**
+       calculates unit normal of the face, zero for degenerate faces
+     */
+    void getNormal(int f, double normals[]){
+
+        int i0 = 3*m_faces[3*f], i1 = 3*m_faces[3*f+1], i2 = 3*m_faces[3*f+2];
+        double c[] = m_coord;
+        double
+            ax = c[i1] - c[i0], ay = c[i1+1] - c[i0+1], az = c[i1+2] - c[i0+2],
+            bx = c[i2] - c[i0], by = c[i2+1] - c[i0+1], bz = c[i2+2] - c[i0+2];
+        double
+            nx = ay*bz - az*by,
+            ny = az*bx - ax*bz,
+            nz = ax*by - ay*bx;
+        double len = sqrt(nx*nx + ny*ny + nz*nz);
+        if(len > 0){
+            nx /= len; ny /= len; nz /= len;
+        }
+        normals[3*f] = nx;
+        normals[3*f+1] = ny;
+        normals[3*f+2] = nz;
+    }
+
+    /**
+       @return signed area of the face projected onto chart axes (u,v), it is positive for not flipped faces
+     */
+    double getProjectedArea(int f, double axes[], int offset){
+
+        int i0 = 3*m_faces[3*f], i1 = 3*m_faces[3*f+1], i2 = 3*m_faces[3*f+2];
+        double c[] = m_coord;
+        double
+            ux = axes[offset],   uy = axes[offset+1], uz = axes[offset+2],
+            vx = axes[offset+3], vy = axes[offset+4], vz = axes[offset+5];
+        double
+            ax = c[i1] - c[i0], ay = c[i1+1] - c[i0+1], az = c[i1+2] - c[i0+2],
+            bx = c[i2] - c[i0], by = c[i2+1] - c[i0+1], bz = c[i2+2] - c[i0+2];
+        double
+            au = ax*ux + ay*uy + az*uz, av = ax*vx + ay*vy + az*vz,
+            bu = bx*ux + by*uy + bz*uz, bv = bx*vx + by*vy + bz*vz;
+        return 0.5*(au*bv - av*bu);
+    }
+
+    /**
+       makes axes (u,v) orthogonal to normal n with u x v = n
+     */
+    static void makeAxes(double nx, double ny, double nz, double axes[], int offset){
+
+        if(nx == 0 && ny == 0 && nz == 0)
+            nz = 1;
+        // u is orthogonal to n and to the coordinate axis least aligned with n
+        double ux, uy, uz;
+        if(abs(nx) <= abs(ny) && abs(nx) <= abs(nz)){
+            ux = 0; uy = nz; uz = -ny;
+        } else if(abs(ny) <= abs(nz)){
+            ux = -nz; uy = 0; uz = nx;
+        } else {
+            ux = ny; uy = -nx; uz = 0;
+        }
+        double len = sqrt(ux*ux + uy*uy + uz*uz);
+        ux /= len; uy /= len; uz /= len;
+        axes[offset]   = ux;
+        axes[offset+1] = uy;
+        axes[offset+2] = uz;
+        // v = n x u
+        axes[offset+3] = ny*uz - nz*uy;
+        axes[offset+4] = nz*ux - nx*uz;
+        axes[offset+5] = nx*uy - ny*ux;
+    }
+
+    public int getChartCount(){
+        return m_chartCount;
+    }
+
+    /**
+       @return chart index of each face
+     */
+    public int[] getFaceCharts(){
+        return m_faceChart;
+    }
+
+    /**
+       @return size of packed charts in pixels
+     */
+    public Vector2d getPackedSize(){
+        return m_packedSize;
+    }
+
+    /**
+       @return coordinates of texture vertices in pixel units
+     */
+    public double[] getTexCoord(){
+        return m_texCoord;
+    }
+
+    public int[] getTexCoordIndex(){
+        return m_texCoordIndex;
+    }
+
+    public double[] getCoord(){
+        return m_coord;
+    }
+
+    public int[] getCoordIndex(){
+        if(m_faces.length == 3*m_faceCount)
+            return m_faces;
+        return Arrays.copyOf(m_faces, 3*m_faceCount);
+    }
+
+    /**
+       renders charts into texture
+       @param dataGrid 3D grid used to make colors
+       @param texGrid 2D grid (3D grid with single y-slice) to accept the texture
+       @param gutterWidth count of dilation passes around charts
+       @param threadCount count of threads to use
+     */
+    public void renderTexturedTriangles(AttributeGrid dataGrid, LongConverter colorMaker, AttributeGrid texGrid,
+                                        int gutterWidth, int threadCount){
+
+        int fcount = m_faceCount;
+        double triCoord[] = new double[9*fcount];
+        double triTex[] = new double[6*fcount];
+        for(int k = 0; k < 3*fcount; k++){
+            int v = 3*m_faces[k], t = 2*m_texCoordIndex[k];
+            triCoord[3*k]   = m_coord[v];
+            triCoord[3*k+1] = m_coord[v+1];
+            triCoord[3*k+2] = m_coord[v+2];
+            triTex[2*k]   = m_texCoord[t];
+            triTex[2*k+1] = m_texCoord[t+1];
+        }
+        TextureBaker baker = new TextureBaker(dataGrid, colorMaker);
+        baker.setThreadCount(threadCount);
+        baker.setGutterWidth(gutterWidth);
+        baker.bake(triCoord, triTex, fcount, 0., texGrid);
+    }
+}
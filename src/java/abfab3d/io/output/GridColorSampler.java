@@ -0,0 +1,174 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.io.output;
+
+import java.util.Arrays;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Bounds;
+import abfab3d.core.LongConverter;
+
+/**
+   samples colors of 3D grid at arbitrary points via trilinear interpolation of voxel colors
+
+   color of voxel is made by LongConverter from voxel attribute.
+   The bytes of converted color (lowest first) are interpreted as (r,g,b).
+   Sampled color is returned as 0xRRGGBB.
+   Sampling is the same as used by TextureRenderer.
+
+   Colors of recently used voxels are cached. The sampler is not thread safe,
+   each thread has to use its own instance.
+
+   @author Vladimir Bulatov
+ */
+public class GridColorSampler {
+
+    // size of voxel colors cache (power of 2)
+    static final int CACHE_SIZE = 1 << 12;
+
+    AttributeGrid m_dataGrid;
+    LongConverter m_colorMaker;
+    // dimensions of data grid
+    int m_nx, m_ny, m_nz;
+    double m_scaleFactor;
+    double m_xmin, m_ymin, m_zmin;
+
+    double color[][] = new double[8][3];
+    double icolor[] = new double[3];
+    double colorChannel[] = new double[8];
+
+    // cache of voxel colors
+    long cacheKey[] = new long[CACHE_SIZE];
+    long cacheColor[] = new long[CACHE_SIZE];
+
+    /**
+       @param dataGrid grid which contains source data
+       @param colorMaker converter from dataGrid attribute into RGB value
+     */
+    public GridColorSampler(AttributeGrid dataGrid, LongConverter colorMaker){
+
+        m_dataGrid = dataGrid;
+        m_colorMaker = colorMaker;
+        m_nx = dataGrid.getWidth();
+        m_ny = dataGrid.getHeight();
+        m_nz = dataGrid.getDepth();
+        m_scaleFactor = 1./dataGrid.getVoxelSize();
+        Bounds bounds = dataGrid.getGridBounds();
+        m_xmin = bounds.xmin;
+        m_ymin = bounds.ymin;
+        m_zmin = bounds.zmin;
+        Arrays.fill(cacheKey, -1);
+
+    }
+
+    /**
+       @return color at the point given in physical units as 0xRRGGBB
+     */
+    public final int getColor(double px, double py, double pz){
+
+        // do half voxel shift to the center of voxels
+        double
+            x = m_scaleFactor*(px-m_xmin)-0.5,
+            y = m_scaleFactor*(py-m_ymin)-0.5,
+            z = m_scaleFactor*(pz-m_zmin)-0.5;
+        int
+            ix = (int)(x),
+            iy = (int)(y),
+            iz = (int)(z);
+
+        getColorComponents(getVoxelColor(ix,   iy,   iz),   color[0]);
+        getColorComponents(getVoxelColor(ix+1, iy,   iz),   color[1]);
+        getColorComponents(getVoxelColor(ix,   iy+1, iz),   color[2]);
+        getColorComponents(getVoxelColor(ix+1, iy+1, iz),   color[3]);
+        getColorComponents(getVoxelColor(ix,   iy,   iz+1), color[4]);
+        getColorComponents(getVoxelColor(ix+1, iy,   iz+1), color[5]);
+        getColorComponents(getVoxelColor(ix,   iy+1, iz+1), color[6]);
+        getColorComponents(getVoxelColor(ix+1, iy+1, iz+1), color[7]);
+
+        interpolateColors(x - ix, y - iy, z - iz, color, icolor);
+        return makeColor(icolor);
+    }
+
+    /**
+       samples colors of points in batch
+       @param coord coordinates of points (3 per point)
+       @param colors output colors
+       @param start index of first point
+       @param end index after the last point
+     */
+    public void getColors(double coord[], int colors[], int start, int end){
+
+        for(int i = start; i < end; i++){
+            colors[i] = getColor(coord[3*i], coord[3*i+1], coord[3*i+2]);
+        }
+    }
+
+    // get color of the given voxel, coordinates outside of grid are reflected
+    final long getVoxelColor(int x, int y, int z){
+
+        if(x < 0) x = -x;
+        if(y < 0) y = -y;
+        if(z < 0) z = -z;
+        if(x >= m_nx) x = x % m_nx;
+        if(y >= m_ny) y = y % m_ny;
+        if(z >= m_nz) z = z % m_nz;
+        long key = ((long)x*m_ny + y)*m_nz + z;
+        int ci = (int)((key ^ (key >>> 12) ^ (key >>> 24)) & (CACHE_SIZE-1));
+        if(cacheKey[ci] != key){
+            cacheKey[ci] = key;
+            cacheColor[ci] = m_colorMaker.get(m_dataGrid.getAttribute(x,y,z));
+        }
+        return cacheColor[ci];
+    }
+
+    final void getColorComponents(long c, double color[]){
+
+        color[0] = ((c      ) & 0xFF)/255.;
+        color[1] = ((c >>  8) & 0xFF)/255.;
+        color[2] = ((c >> 16) & 0xFF)/255.;
+
+    }
+
+    //
+    // interpolate colors between vertices of a cube
+    //
+    final void interpolateColors(double x, double y, double z, double c[][], double ic[]){
+
+        double
+            x1 = 1-x,
+            y1 = 1-y,
+            z1 = 1-z;
+        for(int n = 0; n < 3; n++){
+            for(int k = 0; k < 8; k++){
+                colorChannel[k] = c[k][n];
+            }
+            double cc[] = colorChannel;
+            ic[n] = x1 *(y1 * (z1 * cc[0] + z  * cc[4]) +  y*(z1 * cc[2] + z * cc[6])) +
+                x  *(y1 * (z1 * cc[1] + z  * cc[5]) +  y*(z1 * cc[3] + z * cc[7]));
+        }
+    }
+
+    static final int makeColor(double c[]){
+        return (((int)(c[2]*255))& 0xFF) | ((((int)(c[1]*255))&0xFF)<<8) | ((((int)(c[0]*255))&0xFF)<<16);
+    }
+
+    /**
+       @return max difference of color components of two 0xRRGGBB colors
+     */
+    public static int getColorDifference(int c1, int c2){
+
+        int dr = Math.abs(((c1 >> 16) & 0xFF) - ((c2 >> 16) & 0xFF));
+        int dg = Math.abs(((c1 >> 8) & 0xFF) - ((c2 >> 8) & 0xFF));
+        int db = Math.abs((c1 & 0xFF) - (c2 & 0xFF));
+        return Math.max(dr, Math.max(dg, db));
+    }
+}
@@ -25,6 +25,7 @@ import org.web3d.util.ErrorReporter;
 
 
 import abfab3d.core.AttributeGrid;
+import abfab3d.util.ThreadUtil;
 import abfab3d.core.GridDataDesc;
 import abfab3d.core.Grid;
 import abfab3d.core.GridDataChannel;
@@ -110,12 +111,28 @@ public class GridSaver {
     double m_texTriExt = 1.5; 
     // gap between packed triangles
     double m_texTriGap = 1.5;
+    // count of dilation passes around textured triangles 
+    int m_texGutterWidth = 0;
+    // pack texture as charts of faces instead of individual triangles 
+    boolean m_texUseCharts = false;
+    // max count of texture pixels for charts packing, 0 - unlimited 
+    long m_texMaxTexelCount = 0;
+    // write mesh with colors of vertices sampled from grid 
+    boolean m_writeVertexColors = false;
+    // write plain mesh files via parallel chunked IndexedMeshWriter 
+    boolean m_useMeshWriter = true;
+    // max color difference of edge vertices for subdivision of vertex colored mesh 
+    int m_vertexColorDifference = 32;
+    // max count of subdivision passes of vertex colored mesh, 0 - no subdivision
+    int m_vertexColorPasses = 0;
 
     public static final String EXT_X3DB = ".x3db";// binary
     public static final String EXT_X3DV = ".x3dv";  // classic
     public static final String EXT_X3D = ".x3d"; // XML
     public static final String EXT_STL = ".stl"; // STL
     public static final String EXT_SVX = ".svx"; // SVX
+    public static final String EXT_PLY = ".ply"; // PLY
+    public static final String EXT_OBJ = ".obj"; // OBJ
 
     public static final int TYPE_UNDEFINED = -1;
     public static final int TYPE_UNKNOWN = 0;
@@ -124,6 +141,8 @@ public class GridSaver {
     public static final int TYPE_X3DB = 3;
     public static final int TYPE_X3DV = 4;
     public static final int TYPE_SVX = 5;
+    public static final int TYPE_PLY = 6;
+    public static final int TYPE_OBJ = 7;
 
 
     float m_avatarSize[] = new float[]{0.01f, 1.6f, 0.75f};// size of avatar for x3d output
@@ -168,6 +187,57 @@ public class GridSaver {
         m_texTriGap = value;
     }
 
+    /**
+       set count of dilation passes which fill empty texture pixels around triangles 
+     */
+    public void setTexGutterWidth(int value) {
+        m_texGutterWidth = value;
+    }
+
+    /**
+       if true texture is made of charts of adjacent faces with similar normals (see ChartPacker), 
+       otherwise each triangle is packed individually. Default value is false
+     */
+    public void setTexUseCharts(boolean value) {
+        m_texUseCharts = value;
+    }
+
+    /**
+       set max count of texture pixels for charts packing. 
+       Texture pixel size is increased if needed. Default value 0 means no limit 
+     */
+    public void setTexMaxTexelCount(long value) {
+        m_texMaxTexelCount = value;
+    }
+
+
+    /**
+       force writer to save mesh with colors of vertices (X3D, X3DB, X3DV, PLY, OBJ or STL with VisCAM face colors). 
+       Vertex colors take precedence over texture 
+     */
+    public void setWriteVertexColors(boolean value){
+        m_writeVertexColors = value;
+    }
+
+    /**
+       use parallel chunked IndexedMeshWriter for plain STL, X3D, X3DV and X3DB output 
+       instead of STLWriter and MeshExporter. Default is true. 
+       X3D written to stream always uses MeshExporter, which makes markup for HTML embedding 
+     */
+    public void setUseMeshWriter(boolean value){
+        m_useMeshWriter = value;
+    }
+
+    /**
+       set subdivision of vertex colored mesh. Edges with difference of vertex color components (0-255) 
+       larger than maxColorDifference are split. Default is no subdivision
+       @param maxColorDifference max color difference of edge vertices 
+       @param maxPasses max count of subdivision passes, 0 - no subdivision 
+     */
+    public void setVertexColorSubdivision(int maxColorDifference, int maxPasses){
+        m_vertexColorDifference = maxColorDifference;
+        m_vertexColorPasses = maxPasses;
+    }
 
     /**
        force writer to save textured mesh (if supported by format (X3D, X3DB or X3DV)
@@ -213,6 +283,8 @@ public class GridSaver {
         if (fname.endsWith(EXT_X3D)) return TYPE_X3D;
         if (fname.endsWith(EXT_X3DV)) return TYPE_X3DV;
         if (fname.endsWith(EXT_X3DB)) return TYPE_X3DB;
+        if (fname.endsWith(EXT_PLY)) return TYPE_PLY;
+        if (fname.endsWith(EXT_OBJ)) return TYPE_OBJ;
         return TYPE_UNKNOWN;
     }
 
@@ -231,6 +303,8 @@ public class GridSaver {
         case TYPE_X3D:
         case TYPE_X3DV:
         case TYPE_X3DB: 
+        case TYPE_PLY:
+        case TYPE_OBJ:
             writeAsMesh(grid, outFile);
             break;
         case TYPE_SVX: 
@@ -250,18 +324,33 @@ public class GridSaver {
                 throw new RuntimeException(fmt("unknow output file type: '%s'", outFile));
             case TYPE_STL: {
                 mesh = getMesh(grid);
-                STLWriter stl = new STLWriter(outFile);
-                mesh.getTriangles(stl);
-                stl.close();
+                if(m_writeVertexColors){
+                    writeVertexColoredMesh(mesh, grid, makeDefaultColorMaker(grid), outFile);
+                } else if(m_useMeshWriter){
+                    makeMeshWriter(mesh).write(outFile);
+                } else {
+                    STLWriter stl = new STLWriter(outFile);
+                    mesh.getTriangles(stl);
+                    stl.close();
+                }
             }
             break;
+            case TYPE_PLY:
+            case TYPE_OBJ:
+                mesh = getMesh(grid);
+                writeVertexColoredMesh(mesh, grid, makeDefaultColorMaker(grid), outFile);
+                break;
             case TYPE_X3D:
             case TYPE_X3DV:
             case TYPE_X3DB: 
                 {
                     mesh = getMesh(grid);
-                    if(m_writeTexturedMesh)
+                    if(m_writeVertexColors)
+                        writeVertexColoredMesh(mesh, grid, makeDefaultColorMaker(grid), outFile);
+                    else if(m_writeTexturedMesh)
                         writeTexturedMesh(mesh, grid, makeDefaultColorMaker(grid),outFile);
+                    else if(m_useMeshWriter)
+                        makeMeshWriter(mesh).write(outFile);
                     else 
                         writeMesh(mesh, outFile);
                 }
@@ -287,6 +376,15 @@ public class GridSaver {
         //    if (DEBUG) printf("maxShells: %d minVol: %4.2f shells removed: %d\n", m_maxShellsCount, m_minShellVolume, regions_removed);
         //}
     
+        if(m_writeVertexColors || type == TYPE_PLY || type == TYPE_OBJ){
+            makeVertexColoredMesh(mesh, grid, makeDefaultColorMaker(grid)).write(os, type);
+            return;
+        }
+        if(m_useMeshWriter && !m_writeTexturedMesh && type != TYPE_X3D){
+            // X3D stream is written by MeshExporter as markup for HTML embedding 
+            makeMeshWriter(mesh).write(os, type);
+            return;
+        }
         switch (type) {
             case TYPE_STL:
                 STLWriter stl = new STLWriter(os, mesh.getTriangleCount());
@@ -317,6 +415,46 @@ public class GridSaver {
     }
 
 
+    /**
+       makes writer of indexed mesh, which uses thread count of this GridSaver 
+     */
+    IndexedMeshWriter makeMeshWriter(WingedEdgeTriangleMesh mesh){
+
+        IndexedMeshWriter writer = new IndexedMeshWriter(mesh);
+        writer.setThreadCount(getThreadCount());
+        return writer;
+
+    }
+
+    /**
+       writes mesh with colors of vertices sampled from grid, format is chosen by file extension.
+       PLY and OBJ files are written without colors if vertex colors are not enabled 
+     */
+    public void writeVertexColoredMesh(WingedEdgeTriangleMesh mesh, AttributeGrid grid, LongConverter colorMaker, String outFile) throws IOException{
+
+        makeVertexColoredMesh(mesh, grid, colorMaker).write(outFile);
+
+    }
+
+    /**
+       makes indexed mesh with colors of vertices sampled from grid (if vertex colors are enabled) 
+       and subdivided if needed
+     */
+    public VertexColoredMesh makeVertexColoredMesh(WingedEdgeTriangleMesh mesh, AttributeGrid grid, LongConverter colorMaker){
+
+        long t0 = time();
+        VertexColoredMesh vcm = new VertexColoredMesh(mesh);
+        vcm.setThreadCount(getThreadCount());
+        if(m_writeVertexColors){
+            vcm.sampleColors(grid, colorMaker);
+            if(m_vertexColorPasses > 0)
+                vcm.subdivide(grid, colorMaker, m_vertexColorDifference, 0.5*grid.getVoxelSize(), m_vertexColorPasses);
+        }
+        if(DEBUG)printf("vertex colored mesh vertices: %d faces: %d time: %d ms\n", vcm.getVertexCount(), vcm.getFaceCount(), (time() - t0));
+        return vcm;
+
+    }
+
     /**
        extracts mesh from grid and writes into 3d file with texture
      */
@@ -332,8 +470,6 @@ public class GridSaver {
 
         if(DEBUG)printf("writeTexturedMesh()\n");
         
-        double vs = grid.getVoxelSize();
-
         String baseDir = FileUtil.getFileDir(outFile);
         String fileName = FileUtil.getFileName(outFile);        
         String texFileName = fileName + "." + m_texType;
@@ -344,47 +480,14 @@ public class GridSaver {
             printf("texFileName:%s\n",texFileName);
             printf("texFilePath:%s\n",texFilePath);
         }
-        // TriangleProducer mesh = getMesh(grid);
-               
-        TrianglePacker tp = new TrianglePacker();
-        tp.setGap(m_texTriGap);
-        tp.setTexturePixelSize(vs*m_texPixelSize);
-
-        mesh.getTriangles(tp);
-   
-        int rc = tp.getTriCount();
-        if(DEBUG)printf("tripacker count: %d\n", tp.getTriCount());        
-        tp.packTriangles();
-        
-        Vector2d area = tp.getPackedSize();
-
-        if(DEBUG)printf("texture packedSize: [%7.2f x %7.2f] \n", area.x, area.y); 
-               
-        int imgWidth = (int)(area.x+2*m_texTriGap);
-        int imgHeight = (int)(area.y+2*m_texTriGap);
-                
-        Bounds texBounds = new Bounds(0, imgWidth, 0, 1, 0, imgHeight);
-        AttributeGrid texGrid = new ArrayAttributeGridInt(texBounds, 1., 1.);
-        texGrid.setGridBounds(texBounds);
-        texGrid.setDataDesc(new GridDataDesc(new GridDataChannel(GridDataChannel.COLOR, "color", 24, 0)));
-        
-        tp.renderTexturedTriangles(grid, colorMaker, texGrid, m_texTriExt);
+        TextureData td = makeTexture(mesh, grid, colorMaker);
 
         // write single slice 
         SlicesWriter sw = new SlicesWriter();
         sw.setImageFileType(m_texType);
-        sw.writeSlices(texGrid, texFilePath, 0, 0, 1, SlicesWriter.AXIS_Y, 24, new DefaultLongConverter());
+        sw.writeSlices(td.texGrid, texFilePath, 0, 0, 1, SlicesWriter.AXIS_Y, 24, new DefaultLongConverter());
 
-        double coord[] = tp.getCoord();
-        int coordIndex[] = tp.getCoordIndex();
-        double texCoord[] = tp.getTexCoord();
-        int texCoordIndex[] = tp.getTexCoordIndex();
-        for(int k = 0; k < texCoord.length; k += 2){
-            texCoord[k] /= imgWidth;
-            texCoord[k+1] = (imgHeight - texCoord[k+1])/imgHeight;
-        }
-        
-        writeTexturedX3D(coord, coordIndex, texCoord, texCoordIndex, outFile, texFileName);
+        writeTexturedX3D(td.coord, td.coordIndex, td.texCoord, td.texCoordIndex, outFile, texFileName);
         
     }  //writeTexturedMesh()
 
@@ -395,8 +498,6 @@ public class GridSaver {
 
         if(DEBUG)printf("writeTexturedMesh()\n");
 
-        double vs = grid.getVoxelSize();
-
         String fileName = "texture0";
         String texFileName = fileName + "." + m_texType;
         String texFilePath = texFileName;
@@ -406,46 +507,107 @@ public class GridSaver {
             printf("texFilePath:%s\n",texFilePath);
         }
 
-        TrianglePacker tp = new TrianglePacker();
-        tp.setGap(m_texTriGap);
-        tp.setTexturePixelSize(vs*m_texPixelSize);
+        TextureData td = makeTexture(mesh, grid, colorMaker);
 
-        mesh.getTriangles(tp);
+        // write single slice
+        SlicesWriter sw = new SlicesWriter();
+        String template ="texture%d." + m_texType;
+        sw.writeSlices(td.texGrid, zos, template, 0, 0, 1, SlicesWriter.AXIS_Y, 24, new DefaultLongConverter());
 
-        int rc = tp.getTriCount();
-        if(DEBUG)printf("tripacker count: %d\n", tp.getTriCount());
-        tp.packTriangles();
+        writeTexturedX3D(td.coord, td.coordIndex, td.texCoord, td.texCoordIndex, zos, "main." + encoding ,texFileName);
 
-        Vector2d area = tp.getPackedSize();
+    }
 
-        if(DEBUG)printf("texture packedSize: [%7.2f x %7.2f] \n", area.x, area.y);
+    /**
+       packs mesh triangles into texture and renders the texture from grid colors 
+     */
+    protected TextureData makeTexture(WingedEdgeTriangleMesh mesh, AttributeGrid grid, LongConverter colorMaker){
 
-        int imgWidth = (int)(area.x+2*m_texTriGap);
-        int imgHeight = (int)(area.y+2*m_texTriGap);
+        double vs = grid.getVoxelSize();
+        int threadCount = getThreadCount();
+        TextureData td = new TextureData();
+        AttributeGrid texGrid;
+        int imgWidth, imgHeight;
+
+        if(m_texUseCharts){
+
+            ChartPacker cp = new ChartPacker();
+            cp.setGap(m_texTriGap);
+            cp.setTexturePixelSize(vs*m_texPixelSize);
+            cp.setMaxTexelCount(m_texMaxTexelCount);
+            cp.setThreadCount(threadCount);
+            cp.packMesh(mesh);
+            if(DEBUG)printf("texture charts count: %d\n", cp.getChartCount());        
+
+            Vector2d area = cp.getPackedSize();
+            imgWidth = (int)Math.ceil(area.x) + 1;
+            imgHeight = (int)Math.ceil(area.y) + 1;
+            texGrid = makeTextureGrid(imgWidth, imgHeight);
+            // extension of triangles is replaced by dilation of charts 
+            int gutter = Math.max(m_texGutterWidth, (int)Math.ceil(m_texTriExt));
+            cp.renderTexturedTriangles(grid, colorMaker, texGrid, gutter, threadCount);
+
+            td.coord = cp.getCoord();
+            td.coordIndex = cp.getCoordIndex();
+            td.texCoord = cp.getTexCoord();
+            td.texCoordIndex = cp.getTexCoordIndex();
 
-        Bounds texBounds = new Bounds(0, imgWidth, 0, 1, 0, imgHeight);
-        AttributeGrid texGrid = new ArrayAttributeGridInt(texBounds, 1., 1.);
-        texGrid.setGridBounds(texBounds);
-        texGrid.setDataDesc(new GridDataDesc(new GridDataChannel(GridDataChannel.COLOR, "color", 24, 0)));
+        } else {
 
-        tp.renderTexturedTriangles(grid, colorMaker, texGrid, m_texTriExt);
+            TrianglePacker tp = new TrianglePacker();
+            tp.setGap(m_texTriGap);
+            tp.setTexturePixelSize(vs*m_texPixelSize);
 
-        // write single slice
-        SlicesWriter sw = new SlicesWriter();
-        String template ="texture%d." + m_texType;
-        sw.writeSlices(texGrid, zos, template, 0, 0, 1, SlicesWriter.AXIS_Y, 24, new DefaultLongConverter());
+            mesh.getTriangles(tp);
+
+            if(DEBUG)printf("tripacker count: %d\n", tp.getTriCount());
+            tp.packTriangles();
+
+            Vector2d area = tp.getPackedSize();
+
+            if(DEBUG)printf("texture packedSize: [%7.2f x %7.2f] \n", area.x, area.y);
 
-        double coord[] = tp.getCoord();
-        int coordIndex[] = tp.getCoordIndex();
-        double texCoord[] = tp.getTexCoord();
-        int texCoordIndex[] = tp.getTexCoordIndex();
+            imgWidth = (int)(area.x+2*m_texTriGap);
+            imgHeight = (int)(area.y+2*m_texTriGap);
+            texGrid = makeTextureGrid(imgWidth, imgHeight);
+
+            tp.renderTexturedTriangles(grid, colorMaker, texGrid, m_texTriExt, m_texGutterWidth, threadCount);
+
+            td.coord = tp.getCoord();
+            td.coordIndex = tp.getCoordIndex();
+            td.texCoord = tp.getTexCoord();
+            td.texCoordIndex = tp.getTexCoordIndex();
+        }
+
+        double texCoord[] = td.texCoord;
         for(int k = 0; k < texCoord.length; k += 2){
             texCoord[k] /= imgWidth;
             texCoord[k+1] = (imgHeight - texCoord[k+1])/imgHeight;
         }
+        td.texGrid = texGrid;
+        return td;
+
+    }
 
-        writeTexturedX3D(coord, coordIndex, texCoord, texCoordIndex, zos, "main." + encoding ,texFileName);
+    static AttributeGrid makeTextureGrid(int width, int height){
 
+        Bounds texBounds = new Bounds(0, width, 0, 1, 0, height);
+        AttributeGrid texGrid = new ArrayAttributeGridInt(texBounds, 1., 1.);
+        texGrid.setGridBounds(texBounds);
+        texGrid.setDataDesc(new GridDataDesc(new GridDataChannel(GridDataChannel.COLOR, "color", 24, 0)));
+        return texGrid;
+    }
+
+    /**
+       texture and textured triangles 
+     */
+    static class TextureData {
+        AttributeGrid texGrid;
+        double coord[];
+        int coordIndex[];
+        // normalized texture coordinates 
+        double texCoord[];
+        int texCoordIndex[];
     }
 
     /**
@@ -614,6 +776,15 @@ public class GridSaver {
         */
     } // writeTexturedX3D
 
+    /**
+       @return count of threads to use, available processors if max threads is not set 
+     */
+    protected int getThreadCount(){
+
+        return ThreadUtil.getThreadCount(m_maxThreads);
+
+    }
+
     /**
        makes decimated mesh as isosurface
      */
@@ -625,7 +796,8 @@ public class GridSaver {
         double maxDecimationError = m_meshErrorFactor * voxelSize * voxelSize;
 
         MeshMakerMT meshmaker = new MeshMakerMT();
-        meshmaker.setThreadCount(m_maxThreads);
+        int threadCount = getThreadCount();
+        meshmaker.setThreadCount(threadCount);
         meshmaker.setSmoothingWidth(m_meshSmoothingWidth);
         meshmaker.setMaxDecimationError(maxDecimationError);
         meshmaker.setMaxDecimationCount(m_maxDecimationCount);               
@@ -633,11 +805,12 @@ public class GridSaver {
         meshmaker.setMaxTriangles(m_maxTrianglesCount);
         if(false)printSlice(grid);
         IndexedTriangleSetBuilder its = new IndexedTriangleSetBuilder(160000);
+        its.setThreadCount(threadCount);
         meshmaker.makeMesh(grid, its);
 
         if (DEBUG) printf("decimated mesh vertices: %d faces: %d\n", its.getVertexCount(), its.getFaceCount());
 
-        WingedEdgeTriangleMesh mesh = new WingedEdgeTriangleMesh(its.getVertices(), its.getFaces());
+        WingedEdgeTriangleMesh mesh = new WingedEdgeTriangleMesh(its.getVertices(), its.getVertexCount(), its.getFaces(), its.getFaceCount(), threadCount);
 
         if (m_minShellVolume != VOLUME_UNDEFINED || m_maxShellsCount != SHELLS_COUNT_UNDEFINED) {
             ShellResults sr = GridSaver.getLargestShells(mesh, m_maxShellsCount, m_minShellVolume, m_minShellCount);
@@ -0,0 +1,473 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.io.output;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import java.util.ArrayDeque;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.web3d.vrml.export.PlainTextErrorReporter;
+import org.web3d.vrml.export.X3DBinaryRetainedDirectExporter;
+import org.web3d.vrml.export.X3DBinarySerializer;
+import org.web3d.vrml.sav.BinaryContentHandler;
+
+import abfab3d.grid.util.ExecutionStoppedException;
+
+import abfab3d.mesh.WingedEdgeTriangleMesh;
+
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.Slice;
+import abfab3d.util.SliceManager;
+
+import static java.lang.Math.min;
+import static abfab3d.core.Output.fmt;
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+
+
+/**
+   writes indexed triangle mesh into binary STL or X3D file
+
+   mesh arrays are serialized directly in chunks of faces (or vertices)
+   chunks are encoded in parallel into byte buffers.
+   STL chunks are written to the file channel at their own position.
+   X3D (and STL written to stream) chunks are written in order as soon as they are ready.
+   No intermediate copies of mesh arrays are made, except for X3DB, which is encoded by Xj3D.
+   Xj3D takes each field as a single array, so X3DB needs float coordinates and indices terminated by -1.
+
+   STL output is the same as output of STLWriter.
+
+   @author Vladimir Bulatov
+ */
+public class IndexedMeshWriter {
+
+    static final boolean DEBUG = false;
+
+    // count of faces or vertices encoded in one chunk
+    static final int CHUNK_SIZE = 10000;
+
+    static final int STL_HEADER_LENGTH = 84;
+    static final int STL_RECORD_LENGTH = 50;
+
+    static final String X3DV_HEADER =
+        "#X3D V3.0 utf8\n"+
+        "PROFILE Immersive\n"+
+        "NavigationInfo {\n"+
+        "  avatarSize [ 0.01 1.6 0.75 ]\n"+
+        "}\n"+
+        "Shape {\n"+
+        "  appearance Appearance {\n"+
+        "    material Material {\n"+
+        "      specularColor 0.5 0.5 0.5\n"+
+        "    }\n"+
+        "  }\n"+
+        "  geometry IndexedFaceSet {\n"+
+        "    coord Coordinate {\n"+
+        "      point [\n";
+    static final String X3DV_COORD_END =
+        "      ]\n"+
+        "    }\n"+
+        "    coordIndex [\n";
+    static final String X3DV_END =
+        "    ]\n"+
+        "  }\n"+
+        "}\n";
+
+    static final String X3D_HEADER =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"+
+        "<X3D profile='Immersive' version='3.0'>\n"+
+        "<Scene>\n"+
+        "<NavigationInfo avatarSize='0.01 1.6 0.75'/>\n"+
+        "<Shape>\n"+
+        "<Appearance>\n"+
+        "<Material specularColor='0.5 0.5 0.5'/>\n"+
+        "</Appearance>\n"+
+        "<IndexedFaceSet coordIndex='\n";
+    static final String X3D_INDEX_END =
+        "'>\n"+
+        "<Coordinate point='\n";
+    static final String X3D_END =
+        "'/>\n"+
+        "</IndexedFaceSet>\n"+
+        "</Shape>\n"+
+        "</Scene>\n"+
+        "</X3D>\n";
+
+    double m_coord[];
+    int m_vertexCount;
+    int m_faces[];
+    int m_faceCount;
+
+    int m_threadCount = 1;
+    int m_chunkSize = CHUNK_SIZE;
+
+    /**
+       @param coord coordinates of vertices (3 per vertex)
+       @param vertexCount count of vertices
+       @param faces indices of triangles vertices (3 per face)
+       @param faceCount count of faces
+     */
+    public IndexedMeshWriter(double coord[], int vertexCount, int faces[], int faceCount){
+
+        m_coord = coord;
+        m_vertexCount = vertexCount;
+        m_faces = faces;
+        m_faceCount = faceCount;
+
+    }
+
+    /**
+       mesh arrays are read directly from the mesh in order of its vertices and faces
+     */
+    public IndexedMeshWriter(WingedEdgeTriangleMesh mesh){
+
+        m_faces = mesh.getFaceVertexIndexes();
+        m_faceCount = m_faces.length/3;
+        m_coord = mesh.getVertexCoord();
+        m_vertexCount = m_coord.length/3;
+
+    }
+
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
+    /**
+       @param size count of faces (or vertices) encoded in one chunk
+     */
+    public void setChunkSize(int size){
+        m_chunkSize = Math.max(1, size);
+    }
+
+    /**
+       writes mesh to file, format is chosen by file extension (.stl, .x3d, .x3dv, .x3db)
+     */
+    public void write(String path) throws IOException {
+
+        long t0 = time();
+        int type = GridSaver.getOutputType(path);
+        FileOutputStream fos = new FileOutputStream(path);
+        try {
+            FileChannel channel = fos.getChannel();
+            if(type == GridSaver.TYPE_STL)
+                writeSTL(channel);
+            else
+                write(channel, type);
+        } finally {
+            fos.close();
+        }
+        if(DEBUG)printf("IndexedMeshWriter: %s faces: %d threads: %d time: %d ms\n", path, m_faceCount, m_threadCount, (time() - t0));
+    }
+
+    /**
+       writes mesh to stream in format of given GridSaver type. The stream is not closed
+     */
+    public void write(OutputStream os, int type) throws IOException {
+
+        write(Channels.newChannel(os), type);
+        os.flush();
+
+    }
+
+    /**
+       writes mesh to channel in format of given GridSaver type
+     */
+    public void write(WritableByteChannel channel, int type) throws IOException {
+
+        switch(type){
+        default:
+            throw new IllegalArgumentException(fmt("unsupported output type: %d", type));
+        case GridSaver.TYPE_STL:
+            writeFully(channel, makeSTLHeader());
+            writeChunks(channel, new STLEncoder(), m_faceCount);
+            break;
+        case GridSaver.TYPE_X3DV:
+            writeFully(channel, makeText(X3DV_HEADER));
+            writeChunks(channel, new CoordEncoder(), m_vertexCount);
+            writeFully(channel, makeText(X3DV_COORD_END));
+            writeChunks(channel, new IndexEncoder(), m_faceCount);
+            writeFully(channel, makeText(X3DV_END));
+            break;
+        case GridSaver.TYPE_X3D:
+            writeFully(channel, makeText(X3D_HEADER));
+            writeChunks(channel, new IndexEncoder(), m_faceCount);
+            writeFully(channel, makeText(X3D_INDEX_END));
+            writeChunks(channel, new CoordEncoder(), m_vertexCount);
+            writeFully(channel, makeText(X3D_END));
+            break;
+        case GridSaver.TYPE_X3DB:
+            writeX3DB(channel);
+            break;
+        }
+    }
+
+    /**
+       writes binary STL into file channel.
+       Chunks of faces are encoded and written by several threads at their own position in the file.
+     */
+    public void writeSTL(FileChannel channel) throws IOException {
+
+        long start = channel.position();
+        writeFully(channel, makeSTLHeader(), start);
+        start += STL_HEADER_LENGTH;
+
+        SliceManager slicer = new SliceManager(m_faceCount, m_chunkSize);
+        STLSliceWriter writers[] = new STLSliceWriter[m_threadCount];
+        for(int i = 0; i < m_threadCount; i++){
+            writers[i] = new STLSliceWriter(slicer, channel, start);
+        }
+        if(m_threadCount == 1){
+            writers[0].call();
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(m_threadCount);
+            Future<?> futures[] = new Future<?>[m_threadCount];
+            for(int i = 0; i < m_threadCount; i++){
+                futures[i] = executor.submit(writers[i]);
+            }
+            executor.shutdown();
+            try {
+                for(int i = 0; i < m_threadCount; i++){
+                    getResult(futures[i]);
+                }
+            } finally {
+                // remaining writers stop after current slice
+                for(int i = 0; i < m_threadCount; i++){
+                    writers[i].stopped = true;
+                }
+            }
+        }
+        channel.position(start + (long)STL_RECORD_LENGTH*m_faceCount);
+    }
+
+    /**
+       X3DB is encoded by Xj3D, which needs whole arrays of each field. 
+       The only copies are float coordinates and indices terminated by -1 
+     */
+    void writeX3DB(WritableByteChannel channel) throws IOException {
+
+        float fcoord[] = new float[3*m_vertexCount];
+        for(int i = 0; i < fcoord.length; i++){
+            fcoord[i] = (float)m_coord[i];
+        }
+        int coordIndex[] = X3DWriter.insertMinusOne(m_faces, m_faceCount);
+
+        BufferedOutputStream os = new BufferedOutputStream(Channels.newOutputStream(channel));
+        BinaryContentHandler writer = new X3DBinaryRetainedDirectExporter(os, 3, 0, new PlainTextErrorReporter(),
+                                                                         X3DBinarySerializer.METHOD_FASTEST_PARSING,
+                                                                         0.001f, true);
+        writer.startDocument("", "", "utf8", "#X3D", "V3.0", "");
+        writer.profileDecl("Immersive");
+        writer.startNode("NavigationInfo", null);
+        writer.startField("avatarSize");
+        writer.fieldValue(new float[]{0.01f, 1.6f, 0.75f}, 3);
+        writer.endNode(); // NavigationInfo
+        X3DWriter.writeFaceSetX3D(fcoord, coordIndex, writer);
+        os.flush();
+
+    }
+
+    /**
+       encodes chunks of items and writes them to the channel in order
+       at most 2 chunks per thread are held in memory
+     */
+    void writeChunks(WritableByteChannel channel, final ChunkEncoder encoder, int count) throws IOException {
+
+        int chunkCount = (count + m_chunkSize - 1)/m_chunkSize;
+        if(m_threadCount == 1 || chunkCount <= 1){
+            for(int i = 0; i < chunkCount; i++){
+                int start = i*m_chunkSize;
+                writeFully(channel, encoder.encode(start, min(count, start + m_chunkSize)));
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(m_threadCount);
+        ArrayDeque<Future<ByteBuffer>> chunks = new ArrayDeque<Future<ByteBuffer>>();
+        try {
+            for(int i = 0; i < chunkCount; i++){
+                final int start = i*m_chunkSize;
+                final int end = min(count, start + m_chunkSize);
+                chunks.add(executor.submit(new Callable<ByteBuffer>(){
+                        public ByteBuffer call(){
+                            return encoder.encode(start, end);
+                        }
+                    }));
+                if(chunks.size() >= 2*m_threadCount)
+                    writeFully(channel, getResult(chunks.poll()));
+            }
+            while(!chunks.isEmpty()){
+                writeFully(channel, getResult(chunks.poll()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+       @return result of the task, exception of the task is rethrown as is
+     */
+    static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch(InterruptedException e){
+            throw new ExecutionStoppedException();
+        } catch(ExecutionException e){
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) throw (IOException)cause;
+            if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if(cause instanceof Error) throw (Error)cause;
+            throw new IOException("failed to write mesh", cause);
+        }
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer bb) throws IOException {
+        while(bb.hasRemaining()){
+            channel.write(bb);
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+        while(bb.hasRemaining()){
+            position += channel.write(bb, position);
+        }
+    }
+
+    ByteBuffer makeSTLHeader(){
+
+        ByteBuffer bb = ByteBuffer.allocate(STL_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        bb.position(STL_HEADER_LENGTH - 4);
+        bb.putInt(m_faceCount);
+        bb.flip();
+        return bb;
+    }
+
+    static ByteBuffer makeText(String text){
+        try {
+            return ByteBuffer.wrap(text.getBytes("US-ASCII"));
+        } catch(java.io.UnsupportedEncodingException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+       encodes items [start, end) into byte buffer ready to be written
+     */
+    interface ChunkEncoder {
+        public ByteBuffer encode(int start, int end);
+    }
+
+    /**
+       binary STL records of faces with zero normals, coordinates in MM
+     */
+    class STLEncoder implements ChunkEncoder {
+
+        public ByteBuffer encode(int start, int end){
+
+            ByteBuffer bb = ByteBuffer.allocate(STL_RECORD_LENGTH*(end - start)).order(ByteOrder.LITTLE_ENDIAN);
+            double coord[] = m_coord;
+            for(int f = start; f < end; f++){
+                // normals are not written, as in STLWriter
+                bb.putFloat(0.f);
+                bb.putFloat(0.f);
+                bb.putFloat(0.f);
+                for(int k = 0; k < 3; k++){
+                    int v = 3*m_faces[3*f + k];
+                    bb.putFloat((float)(coord[v]*STLWriter.SCALE));
+                    bb.putFloat((float)(coord[v+1]*STLWriter.SCALE));
+                    bb.putFloat((float)(coord[v+2]*STLWriter.SCALE));
+                }
+                bb.putShort((short)0); // attribute byte count 0
+            }
+            bb.flip();
+            return bb;
+        }
+    }
+
+    /**
+       text of vertices coordinates, one vertex per line
+     */
+    class CoordEncoder implements ChunkEncoder {
+
+        public ByteBuffer encode(int start, int end){
+
+            StringBuilder sb = new StringBuilder(40*(end - start));
+            double coord[] = m_coord;
+            for(int v = 3*start; v < 3*end; v += 3){
+                sb.append((float)coord[v]).append(' ');
+                sb.append((float)coord[v+1]).append(' ');
+                sb.append((float)coord[v+2]).append('\n');
+            }
+            return makeText(sb.toString());
+        }
+    }
+
+    /**
+       text of faces indices, one face per line terminated by -1
+     */
+    class IndexEncoder implements ChunkEncoder {
+
+        public ByteBuffer encode(int start, int end){
+
+            StringBuilder sb = new StringBuilder(24*(end - start));
+            int faces[] = m_faces;
+            for(int f = 3*start; f < 3*end; f += 3){
+                sb.append(faces[f]).append(' ');
+                sb.append(faces[f+1]).append(' ');
+                sb.append(faces[f+2]).append(" -1\n");
+            }
+            return makeText(sb.toString());
+        }
+    }
+
+    /**
+       encodes slices of faces and writes them into the file at their own position
+     */
+    class STLSliceWriter implements Callable<Object> {
+
+        SliceManager slicer;
+        FileChannel channel;
+        long start;
+        STLEncoder encoder = new STLEncoder();
+        volatile boolean stopped = false;
+
+        STLSliceWriter(SliceManager slicer, FileChannel channel, long start){
+            this.slicer = slicer;
+            this.channel = channel;
+            this.start = start;
+        }
+
+        public Object call() throws IOException {
+            while(!stopped){
+                Slice slice = slicer.getNextSlice();
+                if(slice == null)
+                    break;
+                writeFully(channel, encoder.encode(slice.smin, slice.smax), start + (long)STL_RECORD_LENGTH*slice.smin);
+            }
+            return null;
+        }
+    }
+}
@@ -19,6 +19,7 @@ import abfab3d.core.AttributeGrid;
 import abfab3d.core.Grid;
 import abfab3d.grid.DensityMaker;
 import abfab3d.grid.DensityMakerSubvoxel;
+import abfab3d.grid.util.GridUtil;
 
 import abfab3d.core.TriangleCollector;
 
@@ -1167,6 +1168,7 @@ public class IsosurfaceMaker {
         
         double blockData[]; // data of the block 
         double rowData[];// data for one row for convolution 
+        long attRow[]; // attributes of one z row of grid 
 
         // bondary of 3D block of grid 
         // it is larger than actual block of data due to increase by size of the kernel
@@ -1269,7 +1271,13 @@ public class IsosurfaceMaker {
             if(rowData == null || rowData.length < maxSize)
                 rowData = new double[maxSize];
             
+            if(attRow == null || attRow.length < bsizez)
+                attRow = new long[bsizez];
+
             boolean hasPlus = false, hasMinus = false;
+            // part of z row inside of the grid 
+            int z0 = Math.max(0, -bzmin);
+            int z1 = Math.min(bsizez, gnz - bzmin);
             
             // fill block with data from grid 
             for(int y = 0; y < bsizey; y++){
@@ -1279,10 +1287,22 @@ public class IsosurfaceMaker {
                 for(int x = 0; x < bsizex; x++){
                     int x0 = x + bxmin;
                     int zoffset  = xoffset + x*bsizez;
+                    
+                    if(x0 < 0 || y0 < 0 || x0 >= gnx || y0 >= gny || z1 <= z0){
+                        // whole row is outside 
+                        Arrays.fill(blockData, zoffset, zoffset + bsizez, 1.);
+                        hasPlus = true;
+                        continue;
+                    }
+                    // z row is read in one call 
+                    GridUtil.getAttributes(agrid, x0, y0, z0 + bzmin, z1 + bzmin, attRow, z0);
 
                     for(int z = 0; z < bsizez; z++){
-                        // TODO get data for z row in one call 
-                        double v = getGridData(x0, y0, z + bzmin);
+                        double v = 1.; // outside
+                        if(z >= z0 && z < z1){
+                            // normalize output to interval (-1, 1) 
+                            v = 1-2*m_densityMaker.makeDensity(attRow[z]);
+                        }
                         if(v > 0.)
                             hasPlus = true;
                         else if(v < 0.)
@@ -23,9 +23,15 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 
 import abfab3d.core.Grid;
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.GridDataChannel;
 import abfab3d.core.ResultCodes;
+import abfab3d.grid.ArrayAttributeGridShort;
 import abfab3d.grid.DensityMaker;
 import abfab3d.grid.DensityMakerSubvoxel;
+import abfab3d.grid.DirtyRegion;
+import abfab3d.grid.VoxelBox;
+import abfab3d.grid.op.SeparableConvolution;
 
 import abfab3d.mesh.EdgeTester;
 import abfab3d.mesh.IndexedTriangleSetBuilder;
@@ -33,6 +39,9 @@ import abfab3d.mesh.MeshDecimator;
 import abfab3d.mesh.WingedEdgeTriangleMesh;
 
 import abfab3d.util.AbFab3DGlobals;
+import abfab3d.util.Slice;
+import abfab3d.util.SliceManager;
+import abfab3d.util.ThreadUtil;
 import abfab3d.core.MathUtil;
 import abfab3d.core.TriangleCollector;
 
@@ -60,6 +69,8 @@ public class MeshMakerMT {
     private static final boolean STATS = false;
 
     static final double MM = 0.001;
+    // max density value of presmoothed grid (16 bits)
+    static final int PRESMOOTH_MAX_DENSITY = 0xFFFF;
 
     public static final int RESULT_OK = 0;
 
@@ -79,6 +90,8 @@ public class MeshMakerMT {
     protected int m_interpolationAlgorithm = IsosurfaceMaker.INTERPOLATION_LINEAR;
 
     protected double m_smoothingWidth = 1.;
+    // smooth whole grid before meshing instead of smoothing each block 
+    protected boolean m_presmoothGrid = false;
     
     // converter from grid attribute into density 
     protected DensityMaker m_densityMaker = new DensityMakerSubvoxel(255); 
@@ -90,6 +103,10 @@ public class MeshMakerMT {
     protected int m_maxTriangles = Integer.MAX_VALUE;
     protected EdgeTester m_edgeTester;
 
+    // blocks of the last mesh made by updateMesh() 
+    protected GridBlockSet m_meshBlocks;
+    protected int m_meshNx, m_meshNy, m_meshNz;
+
     public MeshMakerMT() {
         m_threadCount = ((Number)AbFab3DGlobals.get(AbFab3DGlobals.MAX_PROCESSOR_COUNT_KEY)).intValue();
     }
@@ -140,6 +157,19 @@ public class MeshMakerMT {
     }
 
 
+    /**
+       if true and grid is AttributeGrid the density of the grid is smoothed once in parallel before meshing 
+       instead of smoothing each block with overlapping halo.
+       Attributes are converted into density by DensityMaker before smoothing, as in block smoothing, 
+       therefore non linear density makers give the same result. 
+       It requires memory for 16 bit density grid of the same size 
+     */
+    public void setPresmoothGrid(boolean value) {
+
+        m_presmoothGrid = value;
+
+    }
+
     public void setBlockSize(int size) {
         m_blockSize = size;
     }
@@ -198,30 +228,18 @@ public class MeshMakerMT {
                 
         //blocks.dump();
 
-        ExecutorService executor = Executors.newFixedThreadPool(m_threadCount);
-
-        BlockProcessor threads[] = new BlockProcessor[m_threadCount];
         double smoothKernel[] = null;
+        DensityMaker densityMaker = m_densityMaker;
         if (m_smoothingWidth > 0.) {
-            smoothKernel = MathUtil.getGaussianKernel(m_smoothingWidth);
-        }
-
-        for (int i = 0; i < m_threadCount; i++) {
-            threads[i] = new BlockProcessor(grid, blocks, smoothKernel);
-            if (m_edgeTester != null) {
-                threads[i].setEdgeTester((EdgeTester) (m_edgeTester.clone()));
+            if (m_presmoothGrid && grid instanceof AttributeGrid) {
+                grid = presmoothGrid((AttributeGrid)grid);
+                densityMaker = new DensityMakerSubvoxel(PRESMOOTH_MAX_DENSITY);
+            } else {
+                smoothKernel = MathUtil.getGaussianKernel(m_smoothingWidth);
             }
-            executor.submit(threads[i]);
-
         }
 
-        executor.shutdown();
-
-        try {
-            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        BlockProcessor threads[] = processBlocks(grid, blocks, smoothKernel, densityMaker);
 
         printf("MESH_EXTRACTION_TIME: %d ms\n", (time() - t0));
 
@@ -238,25 +256,28 @@ public class MeshMakerMT {
     }
 
     /**
-       uses array for block
+       runs block processors on all blocks of the set 
+       @return processors used 
      */
-    public int makeMesh_v1(Grid grid, TriangleCollector tc) {
+    protected BlockProcessor[] processBlocks(Grid grid, GridBlockSet blocks, double smoothKernel[]){
 
-        long t0 = time();
+        return processBlocks(grid, blocks, smoothKernel, m_densityMaker);
 
-        GridBlockSet blocks = makeBlocks(grid.getWidth() - 1, grid.getHeight() - 1, grid.getDepth() - 1, m_blockSize);
+    }
 
+    /**
+       runs block processors on all blocks of the set 
+       @param densityMaker converter of grid attributes into density 
+       @return processors used 
+     */
+    protected BlockProcessor[] processBlocks(Grid grid, GridBlockSet blocks, double smoothKernel[], DensityMaker densityMaker){
 
         ExecutorService executor = Executors.newFixedThreadPool(m_threadCount);
 
         BlockProcessor threads[] = new BlockProcessor[m_threadCount];
-        double smoothKernel[] = null;
-        if (m_smoothingWidth > 0.) {
-            smoothKernel = MathUtil.getGaussianKernel(m_smoothingWidth);
-        }
 
         for (int i = 0; i < m_threadCount; i++) {
-            threads[i] = new BlockProcessor(grid, blocks, smoothKernel);
+            threads[i] = new BlockProcessor(grid, blocks, smoothKernel, densityMaker);
             if (m_edgeTester != null) {
                 threads[i].setEdgeTester((EdgeTester) (m_edgeTester.clone()));
             }
@@ -271,6 +292,151 @@ public class MeshMakerMT {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return threads;
+    }
+
+    /**
+       creates mesh of the grid and keeps mesh of each block for subsequent updates. 
+       If mesh of this grid size was made already, only blocks which depend on voxels 
+       of the dirty region are rebuilt and the result is combined with the stored meshes of the other blocks. 
+       The whole mesh is fed into triangle collector. 
+
+       Blocks are meshed and decimated independently and presmoothing of the grid is not used. 
+       Triangle count is not adjusted to max triangles count. 
+       
+       @param grid grid to mesh 
+       @param dirtyRegion voxels which were changed since previous call, may be null if the whole mesh has to be made
+       @param tc collector of resulting mesh 
+     */
+    public int updateMesh(Grid grid, DirtyRegion dirtyRegion, TriangleCollector tc) {
+
+        status = StatusType.SUCCESS;
+        long t0 = time();
+        int nx = grid.getWidth(), ny = grid.getHeight(), nz = grid.getDepth();
+
+        double smoothKernel[] = null;
+        int kernelSize = 0;
+        if (m_smoothingWidth > 0.) {
+            smoothKernel = MathUtil.getGaussianKernel(m_smoothingWidth);
+            // same halo as used in BlockSmoothingSlices 
+            kernelSize = (smoothKernel.length+1)/2;
+        }
+
+        GridBlockSet dirtyBlocks;
+        if(m_meshBlocks == null || dirtyRegion == null || nx != m_meshNx || ny != m_meshNy || nz != m_meshNz){
+            m_meshBlocks = makeBlocks(nx - 1, ny - 1, nz - 1, m_blockSize);
+            m_meshNx = nx;
+            m_meshNy = ny;
+            m_meshNz = nz;
+            dirtyBlocks = m_meshBlocks;
+        } else {
+            dirtyBlocks = new GridBlockSet();
+            dirtyBlocks.faceCounts = new AtomicInteger[]{new AtomicInteger(0)};
+            VoxelBox box = new VoxelBox();
+            for(int i = 0; i < m_meshBlocks.size(); i++){
+                GridBlock block = m_meshBlocks.get(i);
+                // voxels used by the block (block bounds are inclusive)
+                box.set(block.xmin - kernelSize, block.xmax + kernelSize + 1, 
+                        block.ymin - kernelSize, block.ymax + kernelSize + 1, 
+                        block.zmin - kernelSize, block.zmax + kernelSize + 1);
+                if(dirtyRegion.intersects(box)){
+                    block.reset();
+                    dirtyBlocks.add(block);
+                }
+            }
+        }
+        if(DEBUG) printf("updateMesh() rebuilding %d blocks of %d\n", dirtyBlocks.size(), m_meshBlocks.size());
+
+        processBlocks(grid, dirtyBlocks, smoothKernel);
+
+        if(DEBUG) printf("updateMesh() time: %d ms\n", (time() - t0));
+
+        for(int i = 0; i < m_meshBlocks.size(); i++){
+            m_meshBlocks.get(i).writeTriangles(tc);
+        }
+        return (status == StatusType.SUCCESS)? ResultCodes.RESULT_OK: ResultCodes.RESULT_ERROR;
+    }
+
+    /**
+       updates mesh made by updateMesh(Grid, DirtyRegion, TriangleCollector) after change of voxels in the given box 
+     */
+    public int updateMesh(Grid grid, VoxelBox region, TriangleCollector tc) {
+
+        DirtyRegion dirtyRegion = new DirtyRegion();
+        dirtyRegion.add(region);
+        return updateMesh(grid, dirtyRegion, tc);
+
+    }
+
+    /**
+       releases meshes of blocks stored by updateMesh()
+     */
+    public void clearMeshBlocks(){
+
+        m_meshBlocks = null;
+
+    }
+
+    /**
+       @return density of the grid smoothed with gaussian kernel 
+       density is stored as integer in the range [0, PRESMOOTH_MAX_DENSITY]
+       density outside of the grid is 0 as in block smoothing
+     */
+    protected AttributeGrid presmoothGrid(final AttributeGrid grid){
+
+        long t0 = time();
+        final int nx = grid.getWidth(), ny = grid.getHeight(), nz = grid.getDepth();
+        final AttributeGrid sgrid = new ArrayAttributeGridShort(nx, ny, nz, grid.getVoxelSize(), grid.getSliceHeight());
+        sgrid.setGridBounds(grid.getGridBounds());
+        final GridDataChannel channel = new GridDataChannel(GridDataChannel.DENSITY, "density", 16, 0);
+        final DensityMaker densityMaker = m_densityMaker;
+
+        // convert attributes into density
+        ThreadUtil.runSlices(new SliceManager(ny, 1), new ThreadUtil.SliceTask(){
+                public void processSlice(Slice slice){
+                    for(int y = slice.smin; y < slice.smax; y++){
+                        for(int x = 0; x < nx; x++){
+                            for(int z = 0; z < nz; z++){
+                                sgrid.setAttribute(x,y,z, channel.makeAtt(densityMaker.makeDensity(grid.getAttribute(x,y,z))));
+                            }
+                        }
+                    }
+                }
+            }, m_threadCount);
+
+        SeparableConvolution conv = new SeparableConvolution(MathUtil.getGaussianKernel(m_smoothingWidth));
+        conv.setThreadCount(m_threadCount);
+        conv.setDataChannel(channel);
+        conv.setBoundaryType(SeparableConvolution.BOUNDARY_CONSTANT);
+        conv.setBoundaryValue(0.);
+        conv.execute(sgrid);
+        if(DEBUG) printf("grid presmoothing: %d ms\n", (time() - t0));
+        return sgrid;
+
+    }
+
+    /**
+       uses array for block
+     */
+    public int makeMesh_v1(Grid grid, TriangleCollector tc) {
+
+        long t0 = time();
+
+        GridBlockSet blocks = makeBlocks(grid.getWidth() - 1, grid.getHeight() - 1, grid.getDepth() - 1, m_blockSize);
+
+
+        double smoothKernel[] = null;
+        DensityMaker densityMaker = m_densityMaker;
+        if (m_smoothingWidth > 0.) {
+            if (m_presmoothGrid && grid instanceof AttributeGrid) {
+                grid = presmoothGrid((AttributeGrid)grid);
+                densityMaker = new DensityMakerSubvoxel(PRESMOOTH_MAX_DENSITY);
+            } else {
+                smoothKernel = MathUtil.getGaussianKernel(m_smoothingWidth);
+            }
+        }
+
+        BlockProcessor threads[] = processBlocks(grid, blocks, smoothKernel, densityMaker);
 
         long num_tris = 0;
         for(int i=0; i < threads.length;i++) {
@@ -308,7 +474,7 @@ public class MeshMakerMT {
             m_maxDecimationError *= 10;
             System.out.println("Count is above max triangle limit: " + finalFaceCount + " new decimationError: " + m_maxDecimationError);
 
-            executor = Executors.newFixedThreadPool(m_threadCount);
+            ExecutorService executor = Executors.newFixedThreadPool(m_threadCount);
 
             BlockDecimator[] workers = new BlockDecimator[m_threadCount];
             for (int i = 0; i < m_threadCount; i++) {
@@ -417,6 +583,9 @@ public class MeshMakerMT {
             iy = iy1;
         }
 
+        // all blocks are on the same level 
+        blocks.faceCounts = new AtomicInteger[]{new AtomicInteger(0)};
+
         System.out.println("***Total blocks made: " + blocks.gridBlocks.size() + " min tris is: " + (blocks.gridBlocks.size() * 100));
         return blocks;
 
@@ -514,6 +683,17 @@ public class MeshMakerMT {
             parent = block;
         }
 
+        /**
+           releases mesh of the block before rebuilding 
+         */
+        void reset(){
+            its = null;
+            faces = null;
+            vertices = null;
+            origFaceCount = 0;
+            finalFaceCount = 0;
+        }
+
         void setBlock(int x0, int x1, int y0, int y1, int z0, int z1) {
 
             xmin = x0;
@@ -817,7 +997,8 @@ public class MeshMakerMT {
 
         BlockProcessor(Grid grid,
                        GridBlockSet blocks,
-                       double smoothKernel[]
+                       double smoothKernel[],
+                       DensityMaker densityMaker
         ) {
 
             this.grid = grid;
@@ -836,7 +1017,7 @@ public class MeshMakerMT {
             gdz = (gridBounds[5] - gridBounds[4]) / gnz;
 
             slicer = new IsosurfaceMaker.BlockSmoothingSlices(grid);
-            slicer.setDensityMaker(m_densityMaker);
+            slicer.setDensityMaker(densityMaker);
 
             this.smoothKernel = smoothKernel;
             
@@ -17,8 +17,11 @@ import java.io.BufferedOutputStream;
 import java.io.OutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import abfab3d.core.TriangleCollector;
+import abfab3d.core.BulkTriangleCollector;
 
 import javax.vecmath.Vector3f;
 import javax.vecmath.Vector3d;
@@ -37,10 +40,11 @@ import static abfab3d.core.Output.printf;
 
    @author Vladimir Bulatov
  */
-public class STLWriter implements TriangleCollector {
+public class STLWriter implements TriangleCollector, BulkTriangleCollector {
 
     static byte buffer[] = new byte[4];
     static final int STL_HEADER_LENGTH = 80;
+    static final int STL_RECORD_LENGTH = 50;
 
     static final double SCALE = 1000; // to convert to MM standard for STL 
 
@@ -50,6 +54,8 @@ public class STLWriter implements TriangleCollector {
     Vector3d defaultNormal = new Vector3d(0.,0.,0.);
     OutputStream m_output; 
     int m_triCount = 0;
+    // buffer used to write blocks of triangles 
+    ByteBuffer m_block;
     FileOutputStream m_fileStream;
     String m_path; // file path to write to 
 
@@ -230,5 +236,38 @@ public class STLWriter implements TriangleCollector {
             throw new IllegalArgumentException("IOError: " + e.getMessage());
         }
     }
+    /**
+       method of interface BulkTriangleCollector
+       block of triangles is written to output in single call 
+     */
+    public boolean addTriangles(double coord[], int offset, int triCount){
+
+        int size = STL_RECORD_LENGTH*triCount;
+        if(m_block == null || m_block.capacity() < size){
+            m_block = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer bb = m_block;
+        bb.clear();
+        int end = offset + 9*triCount;
+        for(int k = offset; k < end; k += 9){
+            // default normal 
+            bb.putFloat((float)(defaultNormal.x*SCALE));
+            bb.putFloat((float)(defaultNormal.y*SCALE));
+            bb.putFloat((float)(defaultNormal.z*SCALE));
+            for(int i = 0; i < 9; i++){
+                bb.putFloat((float)(coord[k+i]*SCALE));
+            }
+            bb.putShort((short)0); // attribute byte count 0
+        }
+        try {
+            m_output.write(bb.array(), 0, size);
+            m_triCount += triCount;
+            return true;
+        } catch(IOException e){
+            e.printStackTrace();
+            throw new IllegalArgumentException("IOError: " + e.getMessage());
+        }
+    }
+
 } // class STLWriter
  
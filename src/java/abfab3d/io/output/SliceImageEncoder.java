@@ -0,0 +1,183 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.io.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+
+/**
+   encodes gray slice images into PNG and BMP files directly from packed pixel rows.
+
+   Pixel rows are packed as in BufferedImage of type TYPE_BYTE_GRAY (8 bits) or
+   TYPE_BYTE_BINARY (1, 2 or 4 bits) with gray palette, row starts at byte boundary.
+   Gray levels are spread evenly between black and white.
+
+   The encoder does not use ImageIO, it writes rows with no filtering
+   and uses configurable deflate level for PNG.
+
+   @author Vladimir Bulatov
+ */
+public class SliceImageEncoder {
+
+    static final byte PNG_SIGNATURE[] = new byte[]{(byte)137, 80, 78, 71, 13, 10, 26, 10};
+
+    static final int BMP_HEADER_SIZE = 14 + 40;
+
+    /**
+       @return true if image of given format and bit count can be encoded
+     */
+    public static boolean canEncode(String format, int bitCount){
+
+        if(format.equalsIgnoreCase("png"))
+            return bitCount == 1 || bitCount == 2 || bitCount == 4 || bitCount == 8;
+        else if(format.equalsIgnoreCase("bmp"))
+            return bitCount == 1 || bitCount == 4 || bitCount == 8;
+        else
+            return false;
+    }
+
+    /**
+       @return length of packed pixel row in bytes
+     */
+    public static int getRowLength(int width, int bitCount){
+        return (width*bitCount + 7)/8;
+    }
+
+    /**
+       encodes image in given format
+
+       @param data packed pixel rows
+       @param width image width
+       @param height image height
+       @param bitCount count of bits per pixel
+       @param format "png" or "bmp"
+       @param compressionLevel deflate level for PNG (0 - 9)
+     */
+    public static byte[] encode(byte data[], int width, int height, int bitCount, String format, int compressionLevel) throws IOException {
+
+        if(!canEncode(format, bitCount))
+            throw new IllegalArgumentException("unsupported image format: " + format + " bits: " + bitCount);
+
+        if(format.equalsIgnoreCase("png"))
+            return encodePNG(data, width, height, bitCount, compressionLevel);
+        else
+            return encodeBMP(data, width, height, bitCount);
+    }
+
+    /**
+       encodes gray PNG with no row filtering
+     */
+    public static byte[] encodePNG(byte data[], int width, int height, int bitCount, int compressionLevel) throws IOException {
+
+        int rowLength = getRowLength(width, bitCount);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rowLength*height/4 + 1024);
+        out.write(PNG_SIGNATURE);
+
+        byte header[] = new byte[13];
+        putIntBE(header, 0, width);
+        putIntBE(header, 4, height);
+        header[8] = (byte)bitCount;
+        header[9] = 0;  // gray
+        header[10] = 0; // deflate
+        header[11] = 0; // adaptive filtering
+        header[12] = 0; // no interlace
+        writeChunk(out, "IHDR", header, header.length);
+
+        ByteArrayOutputStream idat = new ByteArrayOutputStream(rowLength*height/4 + 1024);
+        Deflater deflater = new Deflater(compressionLevel);
+        DeflaterOutputStream dos = new DeflaterOutputStream(idat, deflater, 0x10000);
+        for(int y = 0; y < height; y++){
+            dos.write(0); // filter type none
+            dos.write(data, y*rowLength, rowLength);
+        }
+        dos.finish();
+        deflater.end();
+        writeChunk(out, "IDAT", idat.toByteArray(), idat.size());
+        writeChunk(out, "IEND", new byte[0], 0);
+
+        return out.toByteArray();
+    }
+
+    /**
+       encodes BMP with gray palette, rows are written bottom to top
+     */
+    public static byte[] encodeBMP(byte data[], int width, int height, int bitCount){
+
+        int rowLength = getRowLength(width, bitCount);
+        int paddedLength = (rowLength + 3) & ~3;
+        int paletteSize = 1 << bitCount;
+        int dataOffset = BMP_HEADER_SIZE + 4*paletteSize;
+        int fileSize = dataOffset + paddedLength*height;
+
+        byte bmp[] = new byte[fileSize];
+        // file header
+        bmp[0] = 'B';
+        bmp[1] = 'M';
+        putIntLE(bmp, 2, fileSize);
+        putIntLE(bmp, 10, dataOffset);
+        // info header
+        putIntLE(bmp, 14, 40);
+        putIntLE(bmp, 18, width);
+        putIntLE(bmp, 22, height);
+        bmp[26] = 1; // planes
+        bmp[28] = (byte)bitCount;
+        putIntLE(bmp, 34, paddedLength*height);
+        putIntLE(bmp, 46, paletteSize);
+        // gray palette
+        for(int k = 0; k < paletteSize; k++){
+            byte gray = (byte)(k*255/(paletteSize-1));
+            int p = BMP_HEADER_SIZE + 4*k;
+            bmp[p] = bmp[p+1] = bmp[p+2] = gray;
+        }
+
+        for(int y = 0; y < height; y++){
+            System.arraycopy(data, y*rowLength, bmp, dataOffset + (height - 1 - y)*paddedLength, rowLength);
+        }
+        return bmp;
+    }
+
+    static void writeChunk(ByteArrayOutputStream out, String type, byte data[], int length) throws IOException {
+
+        byte buf[] = new byte[4];
+        putIntBE(buf, 0, length);
+        out.write(buf);
+
+        byte btype[] = type.getBytes("US-ASCII");
+        out.write(btype);
+        out.write(data, 0, length);
+
+        CRC32 crc = new CRC32();
+        crc.update(btype);
+        crc.update(data, 0, length);
+        putIntBE(buf, 0, (int)crc.getValue());
+        out.write(buf);
+    }
+
+    static final void putIntBE(byte buf[], int offset, int value){
+        buf[offset]   = (byte)(value >> 24);
+        buf[offset+1] = (byte)(value >> 16);
+        buf[offset+2] = (byte)(value >> 8);
+        buf[offset+3] = (byte)value;
+    }
+
+    static final void putIntLE(byte buf[], int offset, int value){
+        buf[offset]   = (byte)value;
+        buf[offset+1] = (byte)(value >> 8);
+        buf[offset+2] = (byte)(value >> 16);
+        buf[offset+3] = (byte)(value >> 24);
+    }
+}
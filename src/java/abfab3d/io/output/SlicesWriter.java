@@ -11,8 +11,10 @@
  ****************************************************************************/
 package abfab3d.io.output;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.File;
+import java.io.FileOutputStream;
 
 import java.awt.Color;
 import java.awt.BasicStroke;
@@ -20,7 +22,6 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferInt;
 import java.awt.image.DataBufferByte;
 import java.awt.image.IndexColorModel;
@@ -30,13 +31,33 @@ import java.io.OutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.util.zip.Deflater;
+
 import javax.imageio.ImageIO;
 
 import abfab3d.core.AttributeGrid;
+import abfab3d.core.AttributePacker;
+import abfab3d.core.Bounds;
+import abfab3d.core.DataSource;
 import abfab3d.core.Grid;
+import abfab3d.core.GridDataChannel;
+import abfab3d.core.GridDataDesc;
+import abfab3d.core.Initializable;
 import abfab3d.core.LongConverter;
+import abfab3d.core.Vec;
+import abfab3d.core.VecTransform;
+import abfab3d.grid.util.ExecutionStoppedException;
+import abfab3d.grid.util.GridUtil;
+import abfab3d.util.ThreadUtil;
 import abfab3d.util.DefaultLongConverter;
 
 
@@ -47,6 +68,10 @@ import static abfab3d.core.Output.printf;
 
 /**
  * Export grid into set of slice files in PNG format 
+ *
+ * Slices of grid or data source are rendered and encoded in parallel and written in order 
+ * into zip stream or into separate files. Gray PNG and BMP slices are encoded by SliceImageEncoder, 
+ * other formats are encoded by ImageIO. 
  *  
  * @author Vladimir Bulatov
  */
@@ -71,6 +96,9 @@ public class SlicesWriter {
     static final IndexColorModel PALETTE4 = new IndexColorModel(4,16,GL4,GL4,GL4);
     static final IndexColorModel PALETTES[] = new IndexColorModel[]{PALETTE1, PALETTE2, PALETTE4 };
 
+    // count of pixels rendered in one band of slice rows 
+    static final int BAND_SIZE = 1 << 18;
+
 
     String m_imageFileType = "png";
     String m_filePattern = "slice_%04d." + m_imageFileType;
@@ -98,6 +126,10 @@ public class SlicesWriter {
     /** Skip if the slice % modSkip == 0 and modeSkip != 0 */
     int m_modSkip;
 
+    int m_threadCount = 1;
+    int m_compressionLevel = Deflater.BEST_SPEED;
+    double m_voxelScale = Math.sqrt(3) / 2.0;
+
     public void setBounds(int xmin, int xmax, int ymin, int ymax, int zmin, int zmax){
 
         this.xmin = xmin;
@@ -173,6 +205,27 @@ public class SlicesWriter {
 
     }
 
+    /**
+       set count of threads used to render and encode slices, values below 1 mean all available processors 
+     */
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
+    /**
+       set deflate level (0 - 9) of PNG slices encoded by SliceImageEncoder 
+     */
+    public void setCompressionLevel(int level){
+        m_compressionLevel = clamp(level, 0, 9);
+    }
+
+    /**
+       set ratio of voxel size passed to data source to pixel size, the same as in GridMaker 
+     */
+    public void setVoxelScale(double scale){
+        m_voxelScale = scale;
+    }
+
     /**
 
      */
@@ -207,28 +260,8 @@ public class SlicesWriter {
         
         if(DEBUG) printf("SlicesWriter.writeSlices(%s)\n",fileTemplate);
         int imgSize[] = getSliceSize(grid, orientation);
-        int voxelByteCount = getVoxelByteCount(voxelBitCount);
-        int dataBitCount = getDataBitCount(voxelBitCount);
-        BufferedImage outImage = makeImage(imgSize[0], imgSize[1], voxelBitCount);
-        if(DEBUG) printf("outImage: %s\n", outImage);        
-        // images are created with byte buffer 
-        DataBufferByte dataBuffer = (DataBufferByte)(outImage.getRaster().getDataBuffer());
-
-        if(DEBUG) printf("DataBuffer: %s\n", dataBuffer);
-
-        byte[] sliceData = dataBuffer.getData();
-        if(DEBUG) printf("sliceData: %d\n", sliceData.length);
-        
-        
-        for(int i = 0; i < sliceCount; i++){
-
-            int slice = i + firstSlice; 
-            int findex = i + firstFile;
-            String fname = fmt(fileTemplate, findex);
-            makeSliceData(imgSize[0], imgSize[1], slice, orientation, grid, voxelBitCount, voxelDataConverter, sliceData, dataBitCount);
-
-            ImageIO.write(outImage, m_imageFileType, new File(fname));
-        }        
+        writeSlices(new GridSliceSource(grid, imgSize[0], orientation), imgSize[0], imgSize[1], 
+                    firstSlice, firstFile, sliceCount, voxelBitCount, voxelDataConverter, null, fileTemplate);
     }
 
     
@@ -246,31 +279,141 @@ public class SlicesWriter {
         if(DEBUG) printf("SlicesWriter.writeSlices(%s)\n",fileTemplate);
 
         int imgSize[] = getSliceSize(grid, orientation);
-        int voxelByteCount = getVoxelByteCount(voxelBitCount);
-        int dataBitCount = getDataBitCount(voxelBitCount);
-        BufferedImage outImage = makeImage(imgSize[0], imgSize[1], voxelBitCount);
+        writeSlices(new GridSliceSource(grid, imgSize[0], orientation), imgSize[0], imgSize[1], 
+                    firstSlice, firstFile, sliceCount, voxelBitCount, voxelDataConverter, os, fileTemplate);
+    }
 
-        DataBuffer db = outImage.getRaster().getDataBuffer();
-        if(DEBUG) printf("DataBuffer: %s\n", db);
-        
-        DataBufferByte dbi = (DataBufferByte)(db);
-        byte[] sliceData = dbi.getData();
+    /**
+       writes slices of data source without making a grid. 
+       The data source is sampled at centers of cells of nx x ny x nz grid filling the bounds, 
+       slices have the same orientation and size as slices of such grid. 
+       Pixels have the values of channel of the attribute which GridMaker would write into voxel of the grid 
+
+       @param source data source to sample 
+       @param bounds bounds of the sampling grid 
+       @param nx count of cells in x direction 
+       @param ny count of cells in y direction 
+       @param nz count of cells in z direction 
+       @param orientation axis orthogonal to the slices (AXIS_X, AXIS_Y, AXIS_Z)
+       @param dataDesc description of attributes made from data values 
+       @param channelIndex index of the channel of attribute to write 
+       @param os stream to write slices to (each slice is separate entry in ZipOutputStream) or null to write slices into separate files 
+       @param fileTemplate C style template used to make file or zip entry name of individual slices (for example "/tmp/slice%03d.png")
+       @param firstFile index of fist file 
+     */
+    public void writeSlices(DataSource source, Bounds bounds, int nx, int ny, int nz, int orientation, 
+                            GridDataDesc dataDesc, int channelIndex, 
+                            OutputStream os, String fileTemplate, int firstFile) throws IOException {
+
+        if(DEBUG) printf("SlicesWriter.writeSlices(%s, %s)\n",source, fileTemplate);
+
+        if(source instanceof Initializable){
+            ((Initializable)source).initialize();
+        }
+        int imgSize[] = getSliceSize(nx, ny, nz, orientation);
+        int sliceCount = getSliceCount(nx, ny, nz, orientation);
+        GridDataChannel channel = dataDesc.getChannel(channelIndex);
         
-        for(int i = 0; i < sliceCount; i++){
-            
-            int slice = i + firstSlice; 
-            int findex = i + firstFile;
-            String fname = fmt(fileTemplate, findex);
-            makeSliceData(imgSize[0], imgSize[1], slice, orientation, grid, voxelBitCount, voxelDataConverter, sliceData, dataBitCount);
-            if (os instanceof ZipOutputStream) {
-                ZipEntry ze = new ZipEntry(fname);
-                ((ZipOutputStream)os).putNextEntry(ze);
+        writeSlices(new DataSourceSliceSource(source, bounds, nx, ny, nz, orientation, dataDesc.getAttributePacker(), imgSize[0]), 
+                    imgSize[0], imgSize[1], 0, firstFile, sliceCount, channel.getBitCount(), channel, os, fileTemplate);
+    }
+
+    /**
+       renders and encodes slices in parallel and writes them in order. 
+       At most 2 slices per thread are held in memory 
+
+       @param os stream to write to or null to write separate files 
+     */
+    void writeSlices(SliceSource source, final int width, final int height, 
+                     int firstSlice, int firstFile, int sliceCount, 
+                     final int voxelBitCount, LongConverter voxelDataConverter, 
+                     OutputStream os, String fileTemplate) throws IOException {
+
+        final ThreadLocal<SliceBuffer> buffers = new ThreadLocal<SliceBuffer>(){
+            protected SliceBuffer initialValue(){
+                return new SliceBuffer(width, height, voxelBitCount);
+            }
+        };
+
+        ExecutorService executor = null;
+        if(m_threadCount > 1 && sliceCount > 1) 
+            executor = Executors.newFixedThreadPool(m_threadCount);
+        ArrayDeque<Future<byte[]>> images = new ArrayDeque<Future<byte[]>>();
+        ArrayDeque<String> names = new ArrayDeque<String>();
+
+        try {
+            for(int i = 0; i < sliceCount; i++){
+                
+                String fname = fmt(fileTemplate, i + firstFile);
+                SliceJob job = new SliceJob(source, i + firstSlice, buffers, voxelBitCount, voxelDataConverter, 
+                                            (os == null)? fname: null);
+
+                if(executor == null){
+                    writeSlice(os, fname, job.call());
+                } else {
+                    images.add(executor.submit(job));
+                    names.add(fname);
+                    if(images.size() >= 2*m_threadCount)
+                        writeSlice(os, names.poll(), getSlice(images.poll()));
+                }
             }
-            ImageIO.write(outImage, m_imageFileType, os);
-            if (os instanceof ZipOutputStream) {
-                ((ZipOutputStream)os).closeEntry();
+            while(!images.isEmpty()){
+                writeSlice(os, names.poll(), getSlice(images.poll()));
             }
-        }        
+        } finally {
+            if(executor != null)
+                executor.shutdownNow();
+        }
+    }
+
+    /**
+       renders slice into buffer and encodes it 
+     */
+    byte[] renderSlice(SliceSource source, int slice, SliceBuffer buffer, int voxelBitCount, LongConverter voxelDataConverter) throws IOException {
+
+        int width = buffer.width;
+        int height = buffer.height;
+        int dataBitCount = getDataBitCount(voxelBitCount);
+        int bandHeight = buffer.atts.length / width;
+
+        for(int y = 0; y < height; y += bandHeight){
+            int y1 = Math.min(y + bandHeight, height);
+            source.getAttributes(slice, y, y1, buffer.atts);
+            packSliceData(width, y, y1, buffer.atts, voxelBitCount, voxelDataConverter, buffer.data, dataBitCount);
+        }
+
+        if(SliceImageEncoder.canEncode(m_imageFileType, voxelBitCount))
+            return SliceImageEncoder.encode(buffer.data, width, height, voxelBitCount, m_imageFileType, m_compressionLevel);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        if(!ImageIO.write(buffer.image, m_imageFileType, bos))
+            throw new IOException(fmt("no image writer for %s", m_imageFileType));
+        return bos.toByteArray();
+    }
+
+    static void writeSlice(OutputStream os, String fname, byte image[]) throws IOException {
+
+        if(image == null) // written to file 
+            return;
+
+        if (os instanceof ZipOutputStream) {
+            ZipEntry ze = new ZipEntry(fname);
+            ((ZipOutputStream)os).putNextEntry(ze);
+        }
+        os.write(image);
+        if (os instanceof ZipOutputStream) {
+            ((ZipOutputStream)os).closeEntry();
+        }
+    }
+
+    static byte[] getSlice(Future<byte[]> slice) throws IOException {
+        try {
+            return slice.get();
+        } catch(InterruptedException e){
+            throw new ExecutionStoppedException();
+        } catch(ExecutionException e){
+            throw new IOException("failed to write slice", e.getCause());
+        }
     }
    
     /**
@@ -281,7 +424,18 @@ public class SlicesWriter {
                        AttributeGrid grid, int voxelBitCount, LongConverter voxelDataConverter, 
                        byte[] sliceData, int sliceBitCount) {
         
-        int coord[] = new int[3];
+        long atts[] = new long[width*height];
+        getSliceAttributes(width, height, slice, orientation, grid, atts);
+        packSliceData(width, 0, height, atts, voxelBitCount, voxelDataConverter, sliceData, sliceBitCount);
+    }
+
+    /**
+       converts attributes of slice rows from ymin to ymax into slice image data 
+       
+       @param atts attributes of rows atts[x + (y-ymin)*width]
+     */
+    static void packSliceData(int width, int ymin, int ymax, long atts[], int voxelBitCount, LongConverter voxelDataConverter, 
+                              byte[] sliceData, int sliceBitCount) {
 
         int bytesPerVoxel = getVoxelByteCount(voxelBitCount);
      
@@ -297,7 +451,7 @@ public class SlicesWriter {
             }
         }
         
-        for(int y = 0; y < height; y++){
+        for(int y = ymin; y < ymax; y++){
 
             int pos = y * widthBytes;
             // used if dataBits < 8
@@ -305,10 +459,8 @@ public class SlicesWriter {
             int currentByte = 0;
             for(int x = 0; x < width; x++ ){
 
-                // coordinates of voxel in the grid depend on orientation 
-                getVoxelCoord(slice, x,y, coord, orientation);
                 // voxel data converted to format to be written 
-                long vdata = voxelDataConverter.get(grid.getAttribute(coord[0],coord[1],coord[2])); 
+                long vdata = voxelDataConverter.get(atts[x + (y-ymin)*width]); 
 
                 if(sliceBitCount < 8) {
                     currentByte |= (byte)(vdata << (shift));
@@ -363,9 +515,11 @@ public class SlicesWriter {
      */
     static final int[] getSliceSize(AttributeGrid grid, int orientation){
 
-        int nx = grid.getWidth();
-        int ny = grid.getHeight();
-        int nz = grid.getDepth();
+        return getSliceSize(grid.getWidth(), grid.getHeight(), grid.getDepth(), orientation);
+    }
+
+    static final int[] getSliceSize(int nx, int ny, int nz, int orientation){
+
         switch(orientation){
         default:
         case 0: return new int[]{ny,nz};
@@ -374,6 +528,19 @@ public class SlicesWriter {
         }
     }
 
+    /**
+       @return count of slices in given orientation 
+     */
+    static final int getSliceCount(int nx, int ny, int nz, int orientation){
+
+        switch(orientation){
+        default:
+        case 0: return nx;
+        case 1: return ny;
+        case 2: return nz;
+        }
+    }
+
     /**
      *
      *  makes image to held appropriate number of data bits 
@@ -469,6 +636,46 @@ public class SlicesWriter {
     }
 
 
+    /**
+       reads grid attributes of single slice into atts[x + y*width]
+       image y axis is grid z axis for X and Y slices and grid z rows are read in one call 
+     */
+    static void getSliceAttributes(int  width, int height, int slice, int orientation, AttributeGrid grid, long atts[]){
+
+        getSliceAttributes(width, 0, height, slice, orientation, grid, atts);
+    }
+
+    /**
+       reads grid attributes of slice rows from ymin to ymax into atts[x + (y-ymin)*width]
+     */
+    static void getSliceAttributes(int  width, int ymin, int ymax, int slice, int orientation, AttributeGrid grid, long atts[]){
+        
+        switch(orientation){
+        default:
+        case AXIS_Z: 
+            for(int y = ymin; y < ymax; y++){
+                for(int x = 0; x < width; x++ ){
+                    atts[x + (y-ymin)*width] = grid.getAttribute(x, y, slice);
+                }
+            }
+            break;
+        case AXIS_X: 
+        case AXIS_Y: 
+            int height = ymax - ymin;
+            long row[] = new long[height];
+            for(int x = 0; x < width; x++ ){
+                if(orientation == AXIS_X) 
+                    GridUtil.getAttributes(grid, slice, x, ymin, ymax, row, 0);
+                else 
+                    GridUtil.getAttributes(grid, x, slice, ymin, ymax, row, 0);
+                for(int y = 0; y < height; y++){
+                    atts[x + y*width] = row[y];
+                }
+            }
+            break;
+        }
+    }
+
     /**
        convert imafge coordinates nto voxel coordinates according to orientation 
      */
@@ -722,6 +929,151 @@ public class SlicesWriter {
 
     }
 
+    /**
+       source of attributes of slice rows. It is called from several threads 
+     */
+    interface SliceSource {
+
+        /**
+           reads attributes of slice rows from ymin to ymax into atts[x + (y-ymin)*width]
+         */
+        void getAttributes(int slice, int ymin, int ymax, long atts[]);
+    }
+
+    /**
+       slices of grid 
+     */
+    static class GridSliceSource implements SliceSource {
+
+        AttributeGrid grid;
+        int width;
+        int orientation;
+
+        GridSliceSource(AttributeGrid grid, int width, int orientation){
+            this.grid = grid;
+            this.width = width;
+            this.orientation = orientation;
+        }
+
+        public void getAttributes(int slice, int ymin, int ymax, long atts[]){
+            getSliceAttributes(width, ymin, ymax, slice, orientation, grid, atts);
+        }
+    }
+
+    /**
+       slices of data source sampled at centers of grid cells 
+     */
+    class DataSourceSliceSource implements SliceSource {
+
+        DataSource source;
+        AttributePacker packer;
+        int width;
+        int orientation;
+        // cell size and center of first cell 
+        double cell[] = new double[3];
+        double offset[] = new double[3];
+        double voxelSize;
+
+        DataSourceSliceSource(DataSource source, Bounds bounds, int nx, int ny, int nz, int orientation, AttributePacker packer, int width){
+
+            this.source = source;
+            this.packer = packer;
+            this.width = width;
+            this.orientation = orientation;
+
+            double size[] = new double[]{bounds.getSizeX(), bounds.getSizeY(), bounds.getSizeZ()};
+            double center[] = new double[]{bounds.getCenterX(), bounds.getCenterY(), bounds.getCenterZ()};
+            int n[] = new int[]{nx, ny, nz};
+            for(int i = 0; i < 3; i++){
+                cell[i] = size[i] / n[i];
+                offset[i] = center[i] - size[i]/2 + cell[i]/2;
+            }
+            voxelSize = cell[0]*m_voxelScale;
+        }
+
+        public void getAttributes(int slice, int ymin, int ymax, long atts[]){
+
+            Vec pnt = new Vec(3);
+            Vec value = new Vec(4);
+            int coord[] = new int[3];
+
+            for(int y = ymin; y < ymax; y++){
+                for(int x = 0; x < width; x++ ){
+                    getVoxelCoord(slice, x, y, coord, orientation);
+                    pnt.set(coord[0]*cell[0] + offset[0], coord[1]*cell[1] + offset[1], coord[2]*cell[2] + offset[2]);
+                    pnt.setVoxelSize(voxelSize);
+                    long att = 0;
+                    if(source.getDataValue(pnt, value) == VecTransform.RESULT_OK)
+                        att = packer.makeAttribute(value);
+                    atts[x + (y-ymin)*width] = att;
+                }
+            }
+        }
+    }
+
+    /**
+       renders and encodes single slice, writes it into file if file name is given 
+     */
+    class SliceJob implements Callable<byte[]> {
+
+        SliceSource source;
+        int slice;
+        ThreadLocal<SliceBuffer> buffers;
+        int voxelBitCount;
+        LongConverter voxelDataConverter;
+        String fileName;
+
+        SliceJob(SliceSource source, int slice, ThreadLocal<SliceBuffer> buffers, int voxelBitCount, LongConverter voxelDataConverter, String fileName){
+            this.source = source;
+            this.slice = slice;
+            this.buffers = buffers;
+            this.voxelBitCount = voxelBitCount;
+            this.voxelDataConverter = voxelDataConverter;
+            this.fileName = fileName;
+        }
+
+        /**
+           @return encoded image or null if it was written to file 
+         */
+        public byte[] call() throws IOException {
+
+            byte image[] = renderSlice(source, slice, buffers.get(), voxelBitCount, voxelDataConverter);
+            if(fileName == null)
+                return image;
+
+            FileOutputStream fos = new FileOutputStream(fileName);
+            try {
+                fos.write(image);
+            } finally {
+                fos.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+       per thread buffers for slice rendering 
+     */
+    static class SliceBuffer {
+
+        int width;
+        int height;
+        BufferedImage image;
+        byte data[];
+        long atts[];
+
+        SliceBuffer(int width, int height, int voxelBitCount){
+
+            this.width = width;
+            this.height = height;
+            image = makeImage(width, height, voxelBitCount);
+            // images are created with byte buffer 
+            data = ((DataBufferByte)(image.getRaster().getDataBuffer())).getData();
+            int bandHeight = clamp(BAND_SIZE / width, 1, height);
+            atts = new long[width*bandHeight];
+        }
+    }
+
     class DefaultColorMaker  implements LongConverter {
 
         public final long get(long a){
@@ -0,0 +1,495 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.io.output;
+
+import java.util.Arrays;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.LongConverter;
+
+
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.Slice;
+import abfab3d.util.SliceManager;
+import abfab3d.util.TriangleRenderer;
+
+import static java.lang.Math.min;
+import static java.lang.Math.max;
+import static java.lang.Math.floor;
+import static java.lang.Math.ceil;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+import static abfab3d.core.MathUtil.extendTriangle;
+
+/**
+   bakes colors of 3D grid into 2D texture of packed triangles in parallel
+
+   the texture is split into square tiles. Triangles are binned into tiles they overlap
+   and each tile is rendered by single thread into primitive int raster.
+   Triangles of a tile are rendered in the original order, so the result is the same as
+   rendering of all triangles sequentially by TextureRenderer.
+   Colors are sampled from the data grid in batches of pixels by GridColorSampler.
+
+   Optional gutter dilation pass fills empty pixels around rendered triangles
+   with average of neighbor pixels.
+
+   @author Vladimir Bulatov
+ */
+public class TextureBaker {
+
+    static final boolean DEBUG = false;
+
+    static public final int DEFAULT_TILE_SIZE = 128;
+    // value of raster pixels not covered by triangles
+    static public final int EMPTY = -1;
+
+    // size of pixels batch for color sampling
+    static final int BATCH_SIZE = 1024;
+    // rows per slice for row based passes
+    static final int ROWS_PER_SLICE = 16;
+
+    AttributeGrid m_dataGrid;
+    LongConverter m_colorMaker;
+    int m_threadCount = 1;
+    int m_tileSize = DEFAULT_TILE_SIZE;
+    int m_gutterWidth = 0;
+
+    // current baking data
+    double m_triCoord[];
+    double m_texCoord[];
+    // coordinates of rendered (possibly extended) texture triangles
+    double m_renderCoord[];
+    int m_triCount;
+    // raster dimensions
+    int m_width, m_height;
+    int m_raster[];
+    // tiles
+    int m_tilesX, m_tilesY;
+    // start of triangles list for each tile
+    int m_tileStart[];
+    // triangles of all tiles
+    int m_tileTri[];
+
+    /**
+       @param dataGrid grid which contains source data for rendering
+       @param colorMaker converter from dataGrid attribute into RGB value
+     */
+    public TextureBaker(AttributeGrid dataGrid, LongConverter colorMaker){
+
+        m_dataGrid = dataGrid;
+        m_colorMaker = colorMaker;
+
+    }
+
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
+    /**
+       set size of square tiles in pixels
+     */
+    public void setTileSize(int size){
+        m_tileSize = max(8, size);
+    }
+
+    /**
+       set count of dilation passes to fill empty pixels around triangles
+     */
+    public void setGutterWidth(int width){
+        m_gutterWidth = max(0, width);
+    }
+
+    /**
+       renders triangles into new raster
+
+       @param triCoord coordinates of 3D triangles (9 per triangle)
+       @param texCoord coordinates of 2D texture triangles in pixel units (6 per triangle)
+       @param triCount count of triangles
+       @param extWidth width of extension of rendered triangles
+       @param width width of texture
+       @param height height of texture
+       @return raster of RGB colors, pixel (u,v) is stored at raster[u + v*width]. Not covered pixels are EMPTY.
+     */
+    public int[] bake(double triCoord[], double texCoord[], int triCount, double extWidth, int width, int height){
+
+        long t0 = time();
+        m_triCoord = triCoord;
+        m_texCoord = texCoord;
+        m_triCount = triCount;
+        m_width = width;
+        m_height = height;
+        m_raster = new int[width*height];
+        Arrays.fill(m_raster, EMPTY);
+
+        m_renderCoord = texCoord;
+        if(extWidth != 0.0){
+            m_renderCoord = new double[6*triCount];
+            run(new SliceManager(triCount, max(1000, triCount/(4*m_threadCount)+1)), new Extender(extWidth));
+        }
+        makeTiles();
+        if(DEBUG)printf("TextureBaker: tiles [%d x %d] entries: %d %d ms\n", m_tilesX, m_tilesY, m_tileTri.length, (time() - t0));
+        run(new SliceManager(m_tilesX*m_tilesY, 1), new TileRenderer());
+        if(DEBUG)printf("TextureBaker: rendered %d ms\n", (time() - t0));
+        if(m_gutterWidth > 0){
+            int buffer[] = new int[m_raster.length];
+            for(int k = 0; k < m_gutterWidth; k++){
+                run(new SliceManager(height, ROWS_PER_SLICE), new Dilator(m_raster, buffer));
+                int t[] = m_raster;
+                m_raster = buffer;
+                buffer = t;
+            }
+            if(DEBUG)printf("TextureBaker: dilated %d ms\n", (time() - t0));
+        }
+        int raster[] = m_raster;
+        m_raster = null;
+        m_tileTri = null;
+        m_renderCoord = null;
+        return raster;
+    }
+
+    /**
+       renders triangles into texture grid. The 2D texture is stored at single y-slice in the texture grid
+     */
+    public void bake(double triCoord[], double texCoord[], int triCount, double extWidth, AttributeGrid texGrid){
+
+        int raster[] = bake(triCoord, texCoord, triCount, extWidth, texGrid.getWidth(), texGrid.getDepth());
+        run(new SliceManager(m_height, ROWS_PER_SLICE), new RasterWriter(raster, texGrid));
+
+    }
+
+    /**
+       bins triangles into tiles they overlap
+     */
+    void makeTiles(){
+
+        int ts = m_tileSize;
+        m_tilesX = (m_width + ts - 1)/ts;
+        m_tilesY = (m_height + ts - 1)/ts;
+        int tileCount = m_tilesX*m_tilesY;
+        int range[] = new int[4];
+        int counts[] = new int[tileCount+1];
+        for(int t = 0; t < m_triCount; t++){
+            if(!getTileRange(t, range)) continue;
+            for(int ty = range[2]; ty <= range[3]; ty++){
+                for(int tx = range[0]; tx <= range[1]; tx++){
+                    counts[tx + ty*m_tilesX + 1]++;
+                }
+            }
+        }
+        for(int i = 0; i < tileCount; i++){
+            counts[i+1] += counts[i];
+        }
+        m_tileStart = counts.clone();
+        m_tileTri = new int[counts[tileCount]];
+        for(int t = 0; t < m_triCount; t++){
+            if(!getTileRange(t, range)) continue;
+            for(int ty = range[2]; ty <= range[3]; ty++){
+                for(int tx = range[0]; tx <= range[1]; tx++){
+                    m_tileTri[counts[tx + ty*m_tilesX]++] = t;
+                }
+            }
+        }
+    }
+
+    /**
+       @return range of tiles covered by bounds of rendered triangle (txmin, txmax, tymin, tymax)
+     */
+    boolean getTileRange(int t, int range[]){
+
+        double c[] = m_renderCoord;
+        int k = 6*t;
+        double
+            umin = min(min(c[k], c[k+2]), c[k+4]),
+            umax = max(max(c[k], c[k+2]), c[k+4]),
+            vmin = min(min(c[k+1], c[k+3]), c[k+5]),
+            vmax = max(max(c[k+1], c[k+3]), c[k+5]);
+        // NaN coordinates of degenerate extended triangles fail the test
+        if(!(umax >= 0 && vmax >= 0 && umin < m_width && vmin < m_height))
+            return false;
+        int ts = m_tileSize;
+        range[0] = (int)max(0, floor(umin))/ts;
+        range[1] = (int)min(m_width-1, ceil(umax))/ts;
+        range[2] = (int)max(0, floor(vmin))/ts;
+        range[3] = (int)min(m_height-1, ceil(vmax))/ts;
+        return true;
+
+    }
+
+    /**
+       runs work in parallel or in the calling thread
+     */
+    void run(SliceManager slicer, SliceWorker worker){
+
+        int threadCount = max(1, min(m_threadCount, slicer.getSliceCount()));
+
+        SliceRunner runners[] = new SliceRunner[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            runners[i] = new SliceRunner(worker);
+        }
+        ThreadUtil.runSlices(slicer, runners);
+    }
+
+    /**
+       processes range of slice items. Implementations have to be thread safe,
+       thread local data are created by makeLocal()
+     */
+    interface SliceWorker {
+
+        Object makeLocal();
+
+        void process(int smin, int smax, Object local);
+    }
+
+    /**
+       passes slices to the worker with thread local data
+     */
+    static class SliceRunner implements ThreadUtil.SliceTask {
+
+        SliceWorker worker;
+        Object local;
+
+        SliceRunner(SliceWorker worker){
+            this.worker = worker;
+            this.local = worker.makeLocal();
+        }
+
+        public void processSlice(Slice slice){
+            worker.process(slice.smin, slice.smax, local);
+        }
+    }
+
+    /**
+       calculates extended texture triangles
+     */
+    class Extender implements SliceWorker {
+
+        double extWidth;
+
+        Extender(double extWidth){
+            this.extWidth = extWidth;
+        }
+
+        public Object makeLocal(){
+            return new double[][][]{new double[3][2], new double[3][2], new double[3][3]};
+        }
+
+        public void process(int smin, int smax, Object local){
+
+            double w[][][] = (double[][][])local;
+            double tex[][] = w[0], ext[][] = w[1], lines[][] = w[2];
+            for(int t = smin; t < smax; t++){
+                int k = 6*t;
+                for(int i = 0; i < 3; i++){
+                    tex[i][0] = m_texCoord[k + 2*i];
+                    tex[i][1] = m_texCoord[k + 2*i + 1];
+                }
+                extendTriangle(tex, extWidth, lines, ext);
+                for(int i = 0; i < 3; i++){
+                    m_renderCoord[k + 2*i] = ext[i][0];
+                    m_renderCoord[k + 2*i + 1] = ext[i][1];
+                }
+            }
+        }
+    }
+
+    /**
+       renders triangles of tiles
+     */
+    class TileRenderer implements SliceWorker {
+
+        public Object makeLocal(){
+            return new TilePixelRenderer();
+        }
+
+        public void process(int smin, int smax, Object local){
+
+            TilePixelRenderer pr = (TilePixelRenderer)local;
+            for(int tile = smin; tile < smax; tile++){
+                int tx = tile % m_tilesX, ty = tile / m_tilesX;
+                pr.setTile(tx*m_tileSize, ty*m_tileSize, min(m_width, (tx+1)*m_tileSize), min(m_height, (ty+1)*m_tileSize));
+                for(int i = m_tileStart[tile]; i < m_tileStart[tile+1]; i++){
+                    pr.renderTriangle(m_tileTri[i]);
+                }
+            }
+        }
+    }
+
+    /**
+       collects pixels of triangles inside of tile and samples their colors in batches
+     */
+    class TilePixelRenderer implements TriangleRenderer.PixelRenderer {
+
+        TriangleRenderer triRenderer = new TriangleRenderer();
+        TriangleInterpolator interpolator = new TriangleInterpolator();
+        double tri[][] = new double[3][3];
+        double tex[][] = new double[3][2];
+        // tile bounds
+        int umin, vmin, umax, vmax;
+
+        // batch of pixels
+        int pu[] = new int[BATCH_SIZE];
+        int pv[] = new int[BATCH_SIZE];
+        int count = 0;
+
+        double pnt[] = new double[3];
+        GridColorSampler sampler = new GridColorSampler(m_dataGrid, m_colorMaker);
+
+        void setTile(int umin, int vmin, int umax, int vmax){
+            this.umin = umin;
+            this.vmin = vmin;
+            this.umax = umax;
+            this.vmax = vmax;
+        }
+
+        void renderTriangle(int t){
+
+            int k = 6*t, k3 = 9*t;
+            for(int i = 0; i < 3; i++){
+                tex[i][0] = m_texCoord[k + 2*i];
+                tex[i][1] = m_texCoord[k + 2*i + 1];
+                tri[i][0] = m_triCoord[k3 + 3*i];
+                tri[i][1] = m_triCoord[k3 + 3*i + 1];
+                tri[i][2] = m_triCoord[k3 + 3*i + 2];
+            }
+            if(isDegenerate(tex))
+                return;
+            interpolator.init(tex, tri);
+            double c[] = m_renderCoord;
+            triRenderer.fillTriangle(this, c[k], c[k+1], c[k+2], c[k+3], c[k+4], c[k+5]);
+            flush();
+        }
+
+        /**
+           @override
+        */
+        public void setPixel(int u, int v){
+
+            if(u < umin || u >= umax || v < vmin || v >= vmax)
+                return;
+            pu[count] = u;
+            pv[count] = v;
+            count++;
+            if(count == BATCH_SIZE)
+                flush();
+        }
+
+        /**
+           samples colors of collected pixels
+         */
+        void flush(){
+
+            int raster[] = m_raster;
+            int width = m_width;
+            for(int i = 0; i < count; i++){
+
+                int u = pu[i], v = pv[i];
+                interpolator.interpolate(u+0.5, v+0.5, pnt);
+                raster[u + v*width] = sampler.getColor(pnt[0], pnt[1], pnt[2]);
+            }
+            count = 0;
+        }
+
+    } // class TilePixelRenderer
+
+    static boolean isDegenerate(double t[][]){
+        double det =
+            (t[0][0]*t[1][1] - t[1][0]*t[0][1]) +
+            (t[1][0]*t[2][1] - t[2][0]*t[1][1]) +
+            (t[2][0]*t[0][1] - t[0][0]*t[2][1]);
+        return (det == 0.);
+    }
+
+    /**
+       one pass of gutter dilation. Empty pixels with non empty neighbors
+       get average color of these neighbors
+     */
+    class Dilator implements SliceWorker {
+
+        int src[], dest[];
+
+        Dilator(int src[], int dest[]){
+            this.src = src;
+            this.dest = dest;
+        }
+
+        public Object makeLocal(){
+            return null;
+        }
+
+        public void process(int vmin, int vmax, Object local){
+
+            int w = m_width, h = m_height;
+            for(int v = vmin; v < vmax; v++){
+                for(int u = 0; u < w; u++){
+                    int ind = u + v*w;
+                    int c = src[ind];
+                    if(c != EMPTY){
+                        dest[ind] = c;
+                        continue;
+                    }
+                    int cnt = 0, r = 0, g = 0, b = 0;
+                    for(int dv = -1; dv <= 1; dv++){
+                        int vv = v + dv;
+                        if(vv < 0 || vv >= h) continue;
+                        for(int du = -1; du <= 1; du++){
+                            int uu = u + du;
+                            if(uu < 0 || uu >= w) continue;
+                            int n = src[uu + vv*w];
+                            if(n == EMPTY) continue;
+                            r += (n >> 16) & 0xFF;
+                            g += (n >> 8) & 0xFF;
+                            b += n & 0xFF;
+                            cnt++;
+                        }
+                    }
+                    if(cnt == 0) {
+                        dest[ind] = EMPTY;
+                    } else {
+                        int h2 = cnt/2;
+                        dest[ind] = (((r + h2)/cnt) << 16) | (((g + h2)/cnt) << 8) | ((b + h2)/cnt);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+       writes non empty raster pixels into y-slice of texture grid
+     */
+    class RasterWriter implements SliceWorker {
+
+        int raster[];
+        AttributeGrid texGrid;
+
+        RasterWriter(int raster[], AttributeGrid texGrid){
+            this.raster = raster;
+            this.texGrid = texGrid;
+        }
+
+        public Object makeLocal(){
+            return null;
+        }
+
+        public void process(int vmin, int vmax, Object local){
+
+            int w = m_width;
+            for(int v = vmin; v < vmax; v++){
+                for(int u = 0; u < w; u++){
+                    int c = raster[u + v*w];
+                    if(c != EMPTY)
+                        texGrid.setAttribute(u, 0, v, c);
+                }
+            }
+        }
+    }
+}
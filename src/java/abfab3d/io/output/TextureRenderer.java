@@ -205,7 +205,7 @@ public class TextureRenderer {
             if(z < 0) z = -z;
             if(x >= m_nx) x = x % m_nx;
             if(y >= m_ny) y = y % m_ny;
-            if(z >= m_nz) z = z % m_ny;
+            if(z >= m_nz) z = z % m_nz;
             getColorComponents(m_colorMaker.get(m_dataGrid.getAttribute(x,y,z)), color); 
             
         }
@@ -317,7 +317,32 @@ public class TrianglePacker implements TriangleCollector, TriangleProducer {
                 tr.renderTriangleExtended(tri, tex, extWidth, extTri, triLines);
         }
     }
-    
+
+    /**
+       renders textured triangles in parallel using TextureBaker. 
+       The result is the same as of sequential rendering 
+       
+       @param dataGrid 3D grid used to make colors
+       @param texGrid 2D grid (3D grid with single y-slice) to accept the texture 
+       @param extendWidth width of extension of rendered triangles
+       @param gutterWidth count of dilation passes around rendered triangles 
+       @param threadCount count of threads to use 
+     */
+    public void renderTexturedTriangles(AttributeGrid dataGrid, LongConverter colorMaker, AttributeGrid texGrid, double extWidth, 
+                                        int gutterWidth, int threadCount){
+        
+        double triCoord[] = new double[9*m_triCount];
+        for(int k = 0; k < 3*m_triCount; k++){
+            Vector3d v = m_tri.get(k);
+            triCoord[3*k] = v.x;
+            triCoord[3*k+1] = v.y;
+            triCoord[3*k+2] = v.z;
+        }
+        TextureBaker baker = new TextureBaker(dataGrid, colorMaker);
+        baker.setThreadCount(threadCount);
+        baker.setGutterWidth(gutterWidth);
+        baker.bake(triCoord, m_texCoord, m_triCount, extWidth, texGrid);
+    }
     
     /**
        draw all triangles into given graphics 
@@ -0,0 +1,526 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.io.output;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+import org.web3d.vrml.sav.BinaryContentHandler;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.LongConverter;
+
+import abfab3d.mesh.WingedEdgeTriangleMesh;
+
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.Slice;
+import abfab3d.util.SliceManager;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.sqrt;
+import static abfab3d.core.Output.fmt;
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+
+
+/**
+   indexed triangle mesh with colors of vertices sampled from grid
+
+   It is fast alternative to textured mesh. No texture packing and rendering is needed,
+   the grid is sampled once per vertex. Sampling is done in parallel.
+   Color resolution is limited by size of triangles, optional subdivision splits edges
+   with large color difference between vertices.
+
+   Mesh can be written as X3D (per vertex colors), PLY (per vertex colors),
+   OBJ (per vertex colors extension "v x y z r g b") or binary STL (per face colors).
+
+   STL colors use VisCAM/SolidView convention: bit 15 of the face attribute is set for valid color, 
+   red is stored in bits 10-14, green in bits 5-9 and blue in bits 0-4. 
+   The header does not start with "COLOR=", which would make readers use the Materialise convention 
+   (bit 15 cleared for face color and red in the low bits).
+
+   @author Vladimir Bulatov
+ */
+public class VertexColoredMesh {
+
+    static final boolean DEBUG = false;
+
+    // count of vertices sampled in one slice
+    static final int SLICE_SIZE = 1000;
+    // VisCAM color valid bit of STL face attribute
+    static final int STL_COLOR_VALID = 0x8000;
+
+    double m_coord[];
+    int m_vertexCount;
+    int m_faces[];
+    int m_faceCount;
+    // vertex colors 0xRRGGBB
+    int m_colors[];
+
+    int m_threadCount = 1;
+
+    /**
+       @param coord coordinates of vertices (3 per vertex)
+       @param vertexCount count of vertices
+       @param faces indices of triangles vertices (3 per face)
+       @param faceCount count of faces
+     */
+    public VertexColoredMesh(double coord[], int vertexCount, int faces[], int faceCount){
+
+        m_coord = coord;
+        m_vertexCount = vertexCount;
+        m_faces = faces;
+        m_faceCount = faceCount;
+
+    }
+
+    public VertexColoredMesh(WingedEdgeTriangleMesh mesh){
+
+        // mesh arrays are used directly, the mesh is already welded
+        m_faces = mesh.getFaceVertexIndexes();
+        m_faceCount = m_faces.length/3;
+        m_coord = mesh.getVertexCoord();
+        m_vertexCount = m_coord.length/3;
+
+    }
+
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
+    public int getVertexCount(){
+        return m_vertexCount;
+    }
+
+    public int getFaceCount(){
+        return m_faceCount;
+    }
+
+    public double[] getCoord(){
+        return m_coord;
+    }
+
+    public int[] getFaces(){
+        return m_faces;
+    }
+
+    /**
+       @return colors of vertices as 0xRRGGBB or null if colors were not sampled
+     */
+    public int[] getColors(){
+        return m_colors;
+    }
+
+    /**
+       samples colors of all vertices from the grid
+       @param grid grid which contains color data
+       @param colorMaker converter from grid attribute into RGB value
+     */
+    public void sampleColors(AttributeGrid grid, LongConverter colorMaker){
+
+        long t0 = time();
+        m_colors = new int[m_vertexCount];
+        sampleColors(grid, colorMaker, 0, m_vertexCount);
+        if(DEBUG)printf("VertexColoredMesh: sampled %d vertices in %d ms\n", m_vertexCount, (time() - t0));
+
+    }
+
+    /**
+       samples colors of vertices [start, end) in parallel
+     */
+    void sampleColors(AttributeGrid grid, LongConverter colorMaker, int start, int end){
+
+        int count = end - start;
+        if(count <= 0)
+            return;
+        SliceManager slicer = new SliceManager(count, max(SLICE_SIZE, count/(4*m_threadCount)+1));
+        int threadCount = max(1, min(m_threadCount, slicer.getSliceCount()));
+
+        ColorSampler samplers[] = new ColorSampler[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            samplers[i] = new ColorSampler(grid, colorMaker, start);
+        }
+        ThreadUtil.runSlices(slicer, samplers);
+    }
+
+    /**
+       splits edges with large color difference between vertices and samples colors of new vertices.
+       Triangles with one split edge are split in 2, triangles with 2 or 3 split edges are split in 4.
+       Mesh stays manifold, midpoint of edge is shared by both adjacent triangles.
+
+       @param grid grid which contains color data
+       @param colorMaker converter from grid attribute into RGB value
+       @param maxColorDifference max difference of color components (0-255) of edge vertices which does not cause split
+       @param minEdgeLength edges shorter than this are never split
+       @param maxPasses max count of subdivision passes
+       @return count of added vertices
+     */
+    public int subdivide(AttributeGrid grid, LongConverter colorMaker, int maxColorDifference, double minEdgeLength, int maxPasses){
+
+        if(m_colors == null)
+            sampleColors(grid, colorMaker);
+
+        int startCount = m_vertexCount;
+        for(int pass = 0; pass < maxPasses; pass++){
+
+            long t0 = time();
+            // marked edges, value is index of midpoint vertex
+            HashMap<Long, Integer> edges = new HashMap<Long, Integer>();
+            int faceEdges[] = new int[m_faceCount];
+
+            for(int f = 0; f < m_faceCount; f++){
+                for(int k = 0; k < 3; k++){
+                    int v0 = m_faces[3*f + k], v1 = m_faces[3*f + (k+1)%3];
+                    if(GridColorSampler.getColorDifference(m_colors[v0], m_colors[v1]) > maxColorDifference &&
+                       getEdgeLength(v0, v1) > minEdgeLength){
+                        edges.put(edgeKey(v0, v1), -1);
+                    }
+                }
+            }
+            if(edges.size() == 0)
+                break;
+
+            // triangles with 2 split edges get all edges split
+            boolean changed = true;
+            while(changed){
+                changed = false;
+                for(int f = 0; f < m_faceCount; f++){
+                    int mask = getEdgeMask(f, edges);
+                    if(mask == 3 || mask == 5 || mask == 6){
+                        for(int k = 0; k < 3; k++){
+                            edges.put(edgeKey(m_faces[3*f + k], m_faces[3*f + (k+1)%3]), -1);
+                        }
+                        changed = true;
+                    }
+                    faceEdges[f] = mask;
+                }
+            }
+
+            // add midpoints in order of faces
+            int oldVertexCount = m_vertexCount;
+            int vertexCount = m_vertexCount;
+            int newVertexCount = vertexCount + edges.size();
+            m_coord = ensureCapacity(m_coord, 3*newVertexCount);
+            m_colors = Arrays.copyOf(m_colors, newVertexCount);
+            int newFaceCount = 0;
+            for(int f = 0; f < m_faceCount; f++){
+                int mask = faceEdges[f];
+                newFaceCount += (mask == 0)? 1: ((mask == 7)? 4: 2);
+                if(mask == 0)
+                    continue;
+                for(int k = 0; k < 3; k++){
+                    int v0 = m_faces[3*f + k], v1 = m_faces[3*f + (k+1)%3];
+                    Long key = edgeKey(v0, v1);
+                    Integer mid = edges.get(key);
+                    if(mid != null && mid.intValue() < 0){
+                        for(int i = 0; i < 3; i++){
+                            m_coord[3*vertexCount + i] = 0.5*(m_coord[3*v0 + i] + m_coord[3*v1 + i]);
+                        }
+                        edges.put(key, vertexCount++);
+                    }
+                }
+            }
+            m_vertexCount = vertexCount;
+            sampleColors(grid, colorMaker, oldVertexCount, newVertexCount);
+
+            int faces[] = new int[3*newFaceCount];
+            int fc = 0;
+            for(int f = 0; f < m_faceCount; f++){
+                int mask = faceEdges[f];
+                int v0 = m_faces[3*f], v1 = m_faces[3*f+1], v2 = m_faces[3*f+2];
+                switch(mask){
+                case 0:
+                    fc = addFace(faces, fc, v0, v1, v2);
+                    break;
+                case 7:
+                    {
+                        int m01 = edges.get(edgeKey(v0, v1));
+                        int m12 = edges.get(edgeKey(v1, v2));
+                        int m20 = edges.get(edgeKey(v2, v0));
+                        fc = addFace(faces, fc, v0, m01, m20);
+                        fc = addFace(faces, fc, m01, v1, m12);
+                        fc = addFace(faces, fc, m20, m12, v2);
+                        fc = addFace(faces, fc, m01, m12, m20);
+                    }
+                    break;
+                default:
+                    {
+                        // single split edge (k, k+1)
+                        int k = (mask == 1)? 0: ((mask == 2)? 1: 2);
+                        int a = m_faces[3*f + k], b = m_faces[3*f + (k+1)%3], c = m_faces[3*f + (k+2)%3];
+                        int m = edges.get(edgeKey(a, b));
+                        fc = addFace(faces, fc, a, m, c);
+                        fc = addFace(faces, fc, m, b, c);
+                    }
+                    break;
+                }
+            }
+            m_faces = faces;
+            m_faceCount = newFaceCount;
+            if(DEBUG)printf("VertexColoredMesh: subdivision pass %d split edges: %d faces: %d time: %d ms\n",
+                            pass, edges.size(), m_faceCount, (time() - t0));
+        }
+        return m_vertexCount - startCount;
+    }
+
+    /**
+       writes mesh to file, format is chosen by file extension (.x3d, .x3dv, .x3db, .ply, .obj, .stl)
+     */
+    public void write(String path) throws IOException {
+
+        int type = GridSaver.getOutputType(path);
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(path));
+        try {
+            write(os, type);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+       writes mesh to stream in format of given GridSaver type
+     */
+    public void write(OutputStream os, int type) throws IOException {
+
+        switch(type){
+        default:
+            throw new IllegalArgumentException(fmt("unsupported output type: %d", type));
+        case GridSaver.TYPE_X3D:
+            writeX3D(os, "x3d");
+            break;
+        case GridSaver.TYPE_X3DV:
+            writeX3D(os, "x3dv");
+            break;
+        case GridSaver.TYPE_X3DB:
+            writeX3D(os, "x3db");
+            break;
+        case GridSaver.TYPE_PLY:
+            writePLY(os);
+            break;
+        case GridSaver.TYPE_OBJ:
+            writeOBJ(os);
+            break;
+        case GridSaver.TYPE_STL:
+            writeSTL(os);
+            break;
+        }
+    }
+
+    /**
+       writes X3D with Color node and colorPerVertex
+       @param encoding x3d, x3dv or x3db
+     */
+    public void writeX3D(OutputStream os, String encoding) throws IOException {
+
+        float fcoord[] = new float[3*m_vertexCount];
+        for(int i = 0; i < fcoord.length; i++){
+            fcoord[i] = (float)m_coord[i];
+        }
+        float fcolor[] = new float[3*m_vertexCount];
+        int colors[] = getColorsOrDefault();
+        for(int i = 0; i < m_vertexCount; i++){
+            int c = colors[i];
+            fcolor[3*i]   = ((c >> 16) & 0xFF)/255.f;
+            fcolor[3*i+1] = ((c >> 8) & 0xFF)/255.f;
+            fcolor[3*i+2] = (c & 0xFF)/255.f;
+        }
+        BinaryContentHandler writer = X3DWriter.createX3DWriter(encoding, os);
+        X3DWriter.writeColoredMeshX3D(fcoord, Arrays.copyOf(m_faces, 3*m_faceCount), fcolor, writer);
+
+    }
+
+    /**
+       writes binary little endian PLY with float coordinates (in MM) and uchar colors of vertices
+     */
+    public void writePLY(OutputStream os) throws IOException {
+
+        String header =
+            "ply\n"+
+            "format binary_little_endian 1.0\n"+
+            fmt("element vertex %d\n", m_vertexCount)+
+            "property float x\n"+
+            "property float y\n"+
+            "property float z\n"+
+            "property uchar red\n"+
+            "property uchar green\n"+
+            "property uchar blue\n"+
+            fmt("element face %d\n", m_faceCount)+
+            "property list uchar int vertex_indices\n"+
+            "end_header\n";
+        os.write(header.getBytes("US-ASCII"));
+
+        int colors[] = getColorsOrDefault();
+        ByteBuffer bb = ByteBuffer.allocate(15*SLICE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < m_vertexCount; i++){
+            if(bb.remaining() < 15)
+                flush(bb, os);
+            bb.putFloat((float)(m_coord[3*i]*STLWriter.SCALE));
+            bb.putFloat((float)(m_coord[3*i+1]*STLWriter.SCALE));
+            bb.putFloat((float)(m_coord[3*i+2]*STLWriter.SCALE));
+            int c = colors[i];
+            bb.put((byte)(c >> 16));
+            bb.put((byte)(c >> 8));
+            bb.put((byte)c);
+        }
+        for(int f = 0; f < m_faceCount; f++){
+            if(bb.remaining() < 13)
+                flush(bb, os);
+            bb.put((byte)3);
+            bb.putInt(m_faces[3*f]);
+            bb.putInt(m_faces[3*f+1]);
+            bb.putInt(m_faces[3*f+2]);
+        }
+        flush(bb, os);
+        os.flush();
+    }
+
+    /**
+       writes OBJ with coordinates (in MM) and colors of vertices as "v x y z r g b"
+     */
+    public void writeOBJ(OutputStream os) throws IOException {
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(os), false, "US-ASCII");
+        int colors[] = getColorsOrDefault();
+        for(int i = 0; i < m_vertexCount; i++){
+            int c = colors[i];
+            out.printf(Locale.US, "v %.6g %.6g %.6g %.4f %.4f %.4f\n",
+                       m_coord[3*i]*STLWriter.SCALE, m_coord[3*i+1]*STLWriter.SCALE, m_coord[3*i+2]*STLWriter.SCALE,
+                       ((c >> 16) & 0xFF)/255., ((c >> 8) & 0xFF)/255., (c & 0xFF)/255.);
+        }
+        for(int f = 0; f < m_faceCount; f++){
+            out.printf("f %d %d %d\n", m_faces[3*f]+1, m_faces[3*f+1]+1, m_faces[3*f+2]+1);
+        }
+        out.flush();
+    }
+
+    /**
+       writes binary STL with VisCAM face colors (average of vertex colors) in attribute bytes
+     */
+    public void writeSTL(OutputStream os) throws IOException {
+
+        // header is empty, "COLOR=" would mean Materialise colors 
+        os.write(new byte[80]);
+
+        ByteBuffer bb = ByteBuffer.allocate(50*SLICE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(m_faceCount);
+        int colors[] = getColorsOrDefault();
+        for(int f = 0; f < m_faceCount; f++){
+            if(bb.remaining() < 50)
+                flush(bb, os);
+            // normals are not written, as in STLWriter
+            bb.putFloat(0.f);
+            bb.putFloat(0.f);
+            bb.putFloat(0.f);
+            int r = 0, g = 0, b = 0;
+            for(int k = 0; k < 3; k++){
+                int v = m_faces[3*f + k];
+                bb.putFloat((float)(m_coord[3*v]*STLWriter.SCALE));
+                bb.putFloat((float)(m_coord[3*v+1]*STLWriter.SCALE));
+                bb.putFloat((float)(m_coord[3*v+2]*STLWriter.SCALE));
+                int c = colors[v];
+                r += (c >> 16) & 0xFF;
+                g += (c >> 8) & 0xFF;
+                b += c & 0xFF;
+            }
+            bb.putShort((short)makeSTLColor(r/3, g/3, b/3));
+        }
+        flush(bb, os);
+        os.flush();
+    }
+
+    /**
+       @return VisCAM 15 bit color (red in high bits) with valid bit set
+     */
+    static int makeSTLColor(int r, int g, int b){
+        return STL_COLOR_VALID | ((r >> 3) << 10) | ((g >> 3) << 5) | (b >> 3);
+    }
+
+    static void flush(ByteBuffer bb, OutputStream os) throws IOException {
+        os.write(bb.array(), 0, bb.position());
+        bb.clear();
+    }
+
+    int[] getColorsOrDefault(){
+        if(m_colors != null)
+            return m_colors;
+        int colors[] = new int[m_vertexCount];
+        Arrays.fill(colors, 0xFFFFFF);
+        return colors;
+    }
+
+    double getEdgeLength(int v0, int v1){
+        double
+            dx = m_coord[3*v0] - m_coord[3*v1],
+            dy = m_coord[3*v0+1] - m_coord[3*v1+1],
+            dz = m_coord[3*v0+2] - m_coord[3*v1+2];
+        return sqrt(dx*dx + dy*dy + dz*dz);
+    }
+
+    // bit k is set if edge (k, k+1) of face is marked
+    int getEdgeMask(int f, HashMap<Long, Integer> edges){
+        int mask = 0;
+        for(int k = 0; k < 3; k++){
+            if(edges.containsKey(edgeKey(m_faces[3*f + k], m_faces[3*f + (k+1)%3])))
+                mask |= (1 << k);
+        }
+        return mask;
+    }
+
+    static Long edgeKey(int v0, int v1){
+        if(v0 > v1){
+            int t = v0; v0 = v1; v1 = t;
+        }
+        return Long.valueOf(((long)v0 << 32) | v1);
+    }
+
+    static int addFace(int faces[], int fc, int v0, int v1, int v2){
+        faces[3*fc] = v0;
+        faces[3*fc+1] = v1;
+        faces[3*fc+2] = v2;
+        return fc + 1;
+    }
+
+    static double[] ensureCapacity(double array[], int length){
+        if(array.length >= length)
+            return array;
+        return Arrays.copyOf(array, max(length, array.length + array.length/2));
+    }
+
+    /**
+       samples colors of slices of vertices, each thread has its own GridColorSampler
+     */
+    class ColorSampler implements ThreadUtil.SliceTask {
+
+        GridColorSampler sampler;
+        int offset;
+
+        ColorSampler(AttributeGrid grid, LongConverter colorMaker, int offset){
+            this.sampler = new GridColorSampler(grid, colorMaker);
+            this.offset = offset;
+        }
+
+        public void processSlice(Slice slice){
+            sampler.getColors(m_coord, m_colors, offset + slice.smin, offset + slice.smax);
+        }
+    }
+}
@@ -191,7 +191,53 @@ public class X3DWriter implements TriangleCollector, AttributedTriangleCollector
         
     }
 
-    public void writeMeshX3D(float fcoord[], int coordIndex[], BinaryContentHandler writer) throws IOException {
+    public static void writeMeshX3D(float fcoord[], int coordIndex[], BinaryContentHandler writer) throws IOException {
+        
+        writeFaceSetX3D(fcoord, insertMinusOne(coordIndex), writer);
+
+    }
+
+    /**
+       writes triangles into a X3D file
+       @param coordIndex indices of triangles vertices, each triangle is terminated by -1 
+     */
+    public static void writeFaceSetX3D(float fcoord[], int coordIndex[], BinaryContentHandler writer) throws IOException {
+
+        writer.startNode("Shape", null);
+
+        writer.startField("geometry");
+        writer.startNode("IndexedFaceSet", null);
+        writer.startField("coordIndex");        
+        writer.fieldValue(coordIndex, coordIndex.length);
+
+        writer.startField("coord");
+        writer.startNode("Coordinate", null);
+        writer.startField("point");
+        writer.fieldValue(fcoord, fcoord.length);
+        writer.endNode();   // Coord
+
+        writer.endNode();   // IndexedFaceSet
+
+        writer.startField("appearance");
+        writer.startNode("Appearance", null);
+        writer.startField("material");
+        writer.startNode("Material",null);
+        writer.startField("specularColor");
+        writer.fieldValue(m_color, 3);
+        writer.endNode();   // Material
+        
+        writer.endNode();   // Appearance
+        
+        writer.endNode();   // Shape
+        
+        writer.endDocument();
+    } // writeFaceSetX3D
+
+    /**
+       writes triangles with per vertex colors into a X3D file.
+       @param fcolor rgb colors of vertices (3 per vertex)
+    */
+    public static void writeColoredMeshX3D(float fcoord[], int coordIndex[], float fcolor[], BinaryContentHandler writer) throws IOException {
         
         coordIndex = insertMinusOne(coordIndex);
 
@@ -199,6 +245,8 @@ public class X3DWriter implements TriangleCollector, AttributedTriangleCollector
 
         writer.startField("geometry");
         writer.startNode("IndexedFaceSet", null);
+        writer.startField("colorPerVertex");
+        writer.fieldValue(true);
         writer.startField("coordIndex");        
         writer.fieldValue(coordIndex, coordIndex.length);
 
@@ -208,6 +256,12 @@ public class X3DWriter implements TriangleCollector, AttributedTriangleCollector
         writer.fieldValue(fcoord, fcoord.length);
         writer.endNode();   // Coord
 
+        writer.startField("color");
+        writer.startNode("Color", null);
+        writer.startField("color");
+        writer.fieldValue(fcolor, fcolor.length);
+        writer.endNode();   // Color
+
         writer.endNode();   // IndexedFaceSet
 
         writer.startField("appearance");
@@ -223,7 +277,7 @@ public class X3DWriter implements TriangleCollector, AttributedTriangleCollector
         writer.endNode();   // Shape
         
         writer.endDocument();
-    } // writeMeshX3D
+    } // writeColoredMeshX3D
 
     /**
        writes textured triangles into a X3D file.
@@ -280,7 +334,7 @@ public class X3DWriter implements TriangleCollector, AttributedTriangleCollector
     } // writeTexturedMeshX3D
 
 
-    private BinaryContentHandler createX3DWriter(String format, OutputStream os) {
+    static BinaryContentHandler createX3DWriter(String format, OutputStream os) {
 
         BinaryContentHandler x3dWriter = null;
 
@@ -325,7 +379,14 @@ public class X3DWriter implements TriangleCollector, AttributedTriangleCollector
      */
     public static int[] insertMinusOne(int ind[]){
 
-        int count = ind.length/3;
+        return insertMinusOne(ind, ind.length/3);
+    }
+
+    /**
+       @return indices of first count triangles with each triangle terminated by -1 
+     */
+    public static int[] insertMinusOne(int ind[], int count){
+
         int ind4[] = new int[4*count];
 
         for(int i = 0, j=0, k = 0; i < count; i++){
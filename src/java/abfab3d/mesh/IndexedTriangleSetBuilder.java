@@ -35,6 +35,12 @@ public class IndexedTriangleSetBuilder implements TriangleCollector, TrianglePro
     StructMixedData faces = null;
     PointSet ps;
 
+    // parallel welding mode, triangles are collected as soup and welded on request 
+    int m_threadCount = 1;
+    double m_soup[];
+    int m_soupCount;
+    VertexWelder m_welder;
+
 
     public IndexedTriangleSetBuilder(){
         faces = new StructMixedData(FaceList.DEFINITION, INITIAL_SIZE);
@@ -59,6 +65,40 @@ public class IndexedTriangleSetBuilder implements TriangleCollector, TrianglePro
 
         if(ps != null)
             ps.clear();
+
+        m_soupCount = 0;
+        m_welder = null;
+    }
+
+    /**
+       if thread count is more than 1, triangles are collected without welding and welded 
+       in parallel by VertexWelder when result is requested. 
+       Vertices are welded if they are in the same cell of size TOLERANCE and 
+       addTri() does not report degenerate faces, they are removed during welding. 
+       It has to be called before first triangle is added. 
+     */
+    public void setThreadCount(int count){
+
+        m_threadCount = count;
+        if(m_threadCount > 1 && m_soup == null)
+            m_soup = new double[9*Math.max(FaceList.getCount(faces), INITIAL_SIZE)];
+
+    }
+
+    /**
+       welds collected soup in parallel mode 
+       @return welder or null if parallel mode is not used 
+     */
+    protected VertexWelder getWelder(){
+
+        if(m_threadCount <= 1) 
+            return null;
+        if(m_welder == null){
+            m_welder = new VertexWelder(TOLERANCE);
+            m_welder.setThreadCount(m_threadCount);
+            m_welder.weld(m_soup, m_soupCount);
+        }
+        return m_welder;
     }
 
     /**
@@ -68,6 +108,9 @@ public class IndexedTriangleSetBuilder implements TriangleCollector, TrianglePro
      */
     public double[] getVertices(){
 
+        VertexWelder welder = getWelder();
+        if(welder != null)
+            return welder.getVertices();
         return ps.getPoints();
 
     }
@@ -77,6 +120,9 @@ public class IndexedTriangleSetBuilder implements TriangleCollector, TrianglePro
      */
     public double[] getVertices(double vert[]){
 
+        VertexWelder welder = getWelder();
+        if(welder != null)
+            return copy(welder.getVertices(), vert);
         return ps.getPoints(vert);
 
     }
@@ -86,6 +132,9 @@ public class IndexedTriangleSetBuilder implements TriangleCollector, TrianglePro
      */
     public int getVertexCount(){
 
+        VertexWelder welder = getWelder();
+        if(welder != null)
+            return welder.getVertexCount();
         return ps.getPointCount();
 
     }
@@ -95,11 +144,22 @@ public class IndexedTriangleSetBuilder implements TriangleCollector, TrianglePro
        
      */
     public int[] getFaces(){
+        VertexWelder welder = getWelder();
+        if(welder != null)
+            return welder.getFaces();
         return FaceList.toArray(faces);
     }
 
     public int[] getFaces(int farray[]){
 
+        VertexWelder welder = getWelder();
+        if(welder != null){
+            int f[] = welder.getFaces();
+            if(farray == null || farray.length < f.length)
+                farray = new int[f.length];
+            System.arraycopy(f, 0, farray, 0, f.length);
+            return farray;
+        }
         return FaceList.toArray(faces, farray);
 
     }
@@ -109,6 +169,9 @@ public class IndexedTriangleSetBuilder implements TriangleCollector, TrianglePro
      */
     public int getFaceCount(){
 
+        VertexWelder welder = getWelder();
+        if(welder != null)
+            return welder.getFaceCount();
         return FaceList.getCount(faces);
 
     }
@@ -118,6 +181,10 @@ public class IndexedTriangleSetBuilder implements TriangleCollector, TrianglePro
      */
     public boolean getTriangles(TriangleCollector tcollector){
         
+        VertexWelder welder = getWelder();
+        if(welder != null)
+            return welder.getTriangles(tcollector);
+
         Vector3d 
             v0 = new Vector3d(), 
             v1 = new Vector3d(), 
@@ -157,6 +224,10 @@ public class IndexedTriangleSetBuilder implements TriangleCollector, TrianglePro
        
      */
     public boolean addTri(Vector3d v0,Vector3d v1,Vector3d v2){
+        if(m_threadCount > 1){
+            addToSoup(v0, v1, v2);
+            return true;
+        }
         if(DEBUG){
             Vector3d p1 = new Vector3d();
             Vector3d p2 = new Vector3d();
@@ -198,5 +269,30 @@ public class IndexedTriangleSetBuilder implements TriangleCollector, TrianglePro
         return ps.add(t.x,t.y,t.z);
     }
 
+    protected void addToSoup(Vector3d v0,Vector3d v1,Vector3d v2){
+
+        int k = 9*m_soupCount;
+        if(k + 9 > m_soup.length){
+            double s[] = new double[2*m_soup.length];
+            System.arraycopy(m_soup, 0, s, 0, k);
+            m_soup = s;
+        }
+        double s[] = m_soup;
+        s[k]   = v0.x; s[k+1] = v0.y; s[k+2] = v0.z;
+        s[k+3] = v1.x; s[k+4] = v1.y; s[k+5] = v1.z;
+        s[k+6] = v2.x; s[k+7] = v2.y; s[k+8] = v2.z;
+        m_soupCount++;
+        // result has to be welded again 
+        m_welder = null;
+    }
+
+    static double[] copy(double src[], double dest[]){
+
+        if(dest == null || dest.length < src.length)
+            dest = new double[src.length];
+        System.arraycopy(src, 0, dest, 0, src.length);
+        return dest;
+    }
+
 }
 
@@ -0,0 +1,603 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.mesh;
+
+
+import abfab3d.core.Bounds;
+import abfab3d.core.BulkTriangleCollector;
+import abfab3d.core.TriangleProducer;
+import abfab3d.param.ParamCache;
+import abfab3d.util.PointToTriangleDistance;
+import abfab3d.util.Slice;
+import abfab3d.util.SliceManager;
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.TriangleBlockBuffer;
+
+import static java.lang.Math.sqrt;
+import static java.lang.Math.atan2;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.PI;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.fmt;
+import static abfab3d.core.Output.time;
+
+
+/**
+   bounding volume hierarchy over triangles of a mesh
+
+   answers exact euclidean distance from arbitrary point to the mesh surface.
+   The closest triangle is found by branch and bound traversal of the hierarchy.
+   The sign of distance is taken from generalized winding number of the mesh around the point,
+   point is inside if winding number is above 1/2. Winding number is robust for meshes with small holes and self intersections.
+   Far clusters of triangles contribute to winding number via dipole approximation
+   (sum of area weighted normals placed at cluster center).
+
+   Triangles are expected to be oriented counter clockwise when viewed from outside.
+   Degenerate triangles are ignored.
+
+   The hierarchy is immutable after construction and can be queried from several threads.
+
+   @author Vladimir Bulatov
+ */
+public class TriangleBVH {
+
+    static final boolean DEBUG = false;
+
+    // max count of triangles in the leaf
+    static final int LEAF_SIZE = 4;
+    // default ratio of distance to cluster radius when dipole approximation is used
+    static final double DEFAULT_WINDING_ACCURACY = 2.5;
+    // max depth of traversal stack
+    static final int STACK_SIZE = 128;
+    // count of points processed by thread at once
+    static final int DISTANCE_CHUNK_SIZE = 1024;
+    static final double INV4PI = 1./(4*PI);
+    static final String CACHE_PREFIX = "TriangleBVH:";
+
+    // triangle coordinates in the order of leaves (9 doubles per triangle)
+    double m_tri[];
+    int m_triCount;
+    // count of nodes
+    int m_nodeCount;
+    // nodes bounding boxes (xmin,ymin,zmin,xmax,ymax,zmax)
+    double m_box[];
+    // index of children of internal nodes, -1 for leaves
+    int m_left[];
+    int m_right[];
+    // triangles range of the node
+    int m_start[];
+    int m_count[];
+    // sum of area weighted normals of the node triangles
+    double m_normal[];
+    // area weighted center of the node triangles
+    double m_center[];
+    // radius of the node around center
+    double m_radius[];
+
+    double m_windingAccuracy = DEFAULT_WINDING_ACCURACY;
+    long m_meshHash;
+
+    // traversal stacks of single point queries 
+    ThreadLocal<int[]> m_stack = new ThreadLocal<int[]>(){
+        protected int[] initialValue(){
+            return new int[STACK_SIZE];
+        }
+    };
+
+    /**
+       builds hierarchy over triangles
+       @param coord triangles coordinates, 9 doubles per triangle
+       @param triCount count of triangles
+     */
+    public TriangleBVH(double coord[], int triCount){
+
+        long t0 = time();
+        m_meshHash = getMeshHash(coord, triCount);
+        // remove degenerate triangles
+        double tri[] = new double[9*triCount];
+        int count = 0;
+        for(int t = 0; t < triCount; t++){
+            if(!isDegenerate(coord, 9*t)){
+                System.arraycopy(coord, 9*t, tri, 9*count, 9);
+                count++;
+            }
+        }
+        m_triCount = count;
+        build(tri);
+        if(DEBUG) printf("TriangleBVH(%d tri, %d nodes) %d ms\n", m_triCount, m_nodeCount, (time() - t0));
+    }
+
+    /**
+       set ratio of distance to cluster radius when cluster contribution into winding number is approximated
+       larger values give more precise winding number and slower calculation
+     */
+    public void setWindingAccuracy(double value){
+        m_windingAccuracy = value;
+    }
+
+    /**
+       @return count of non degenerate triangles in the hierarchy
+     */
+    public int getTriangleCount(){
+        return m_triCount;
+    }
+
+    /**
+       @return hash of the mesh coordinates used to build the hierarchy
+     */
+    public long getMeshHash(){
+        return m_meshHash;
+    }
+
+    /**
+       @return bounds of the mesh
+     */
+    public Bounds getBounds(){
+
+        if(m_triCount == 0)
+            return new Bounds();
+        double b[] = m_box;
+        return new Bounds(b[0], b[3], b[1], b[4], b[2], b[5]);
+    }
+
+    /**
+       @return unsigned distance from the point to the mesh or maxDistance if mesh is farther than maxDistance
+     */
+    public double getDistance(double x, double y, double z, double maxDistance){
+
+        return sqrt(getDistance2(x, y, z, maxDistance*maxDistance, m_stack.get()));
+
+    }
+
+    /**
+       @return signed distance from the point to the mesh, negative inside.
+       distance is clamped to (-maxDistance, maxDistance)
+     */
+    public double getSignedDistance(double x, double y, double z, double maxDistance){
+
+        int stack[] = m_stack.get();
+        double dist = sqrt(getDistance2(x, y, z, maxDistance*maxDistance, stack));
+        return (getWindingNumber(x, y, z, stack) > 0.5)? -dist: dist;
+
+    }
+
+    /**
+       @return generalized winding number of the mesh around the point
+       it is close to 1 inside of closed mesh and close to 0 outside
+     */
+    public double getWindingNumber(double x, double y, double z){
+
+        return getWindingNumber(x, y, z, m_stack.get());
+
+    }
+
+    /**
+       calculates distances for block of points
+       @param coord points coordinates (x,y,z) triples
+       @param dist calculated distances
+       @param offset index of the first point
+       @param count count of points to calculate
+       @param maxDistance max distance to calculate
+       @param signed if true distance is signed, otherwise unsigned
+     */
+    public void getDistances(double coord[], double dist[], int offset, int count, double maxDistance, boolean signed){
+
+        int stack[] = new int[STACK_SIZE];
+        double maxDist2 = maxDistance*maxDistance;
+        int end = offset + count;
+        for(int i = offset; i < end; i++){
+            int k = 3*i;
+            double x = coord[k], y = coord[k+1], z = coord[k+2];
+            double d = sqrt(getDistance2(x, y, z, maxDist2, stack));
+            if(signed && getWindingNumber(x, y, z, stack) > 0.5)
+                d = -d;
+            dist[i] = d;
+        }
+    }
+
+    /**
+       calculates distances for block of points using several threads
+       @param threadCount count of threads to use, count < 1 means use all available processors
+       @see #getDistances(double[], double[], int, int, double, boolean)
+       failure of any thread is rethrown, interruption throws ExecutionStoppedException
+     */
+    public void getDistances(final double coord[], final double dist[], final int offset, int count,
+                             final double maxDistance, final boolean signed, int threadCount){
+
+        ThreadUtil.runSlices(new SliceManager(count, DISTANCE_CHUNK_SIZE), new ThreadUtil.SliceTask(){
+                public void processSlice(Slice slice){
+                    getDistances(coord, dist, offset + slice.smin, slice.smax - slice.smin, maxDistance, signed);
+                }
+            }, ThreadUtil.getThreadCount(threadCount));
+    }
+
+    /**
+       returns hierarchy for triangles of given producer.
+       Hierarchies are cached in ParamCache with the key calculated from the mesh coordinates,
+       so identical meshes share the same hierarchy.
+     */
+    public static TriangleBVH getCachedBVH(TriangleProducer producer){
+
+        TriangleArray ta = new TriangleArray();
+        TriangleBlockBuffer.getTriangles(producer, ta);
+        return getCachedBVH(ta.coord, ta.count);
+    }
+
+    /**
+       returns cached hierarchy for given triangles
+       @see #getCachedBVH(TriangleProducer)
+     */
+    public static TriangleBVH getCachedBVH(double coord[], int triCount){
+
+        long hash = getMeshHash(coord, triCount);
+        String key = fmt("%s%d:%016x", CACHE_PREFIX, triCount, hash);
+        TriangleBVH bvh = (TriangleBVH)ParamCache.getInstance().get(key);
+        if(bvh == null){
+            bvh = new TriangleBVH(coord, triCount);
+            ParamCache.getInstance().put(key, bvh);
+        }
+        return bvh;
+    }
+
+    /**
+       @return 64 bit hash of triangles coordinates
+     */
+    public static long getMeshHash(double coord[], int triCount){
+        // FNV-1a over coordinates bits
+        long hash = 0xcbf29ce484222325L;
+        int len = 9*triCount;
+        for(int i = 0; i < len; i++){
+            long bits = Double.doubleToLongBits(coord[i]);
+            hash ^= bits;
+            hash *= 0x100000001b3L;
+            hash ^= (hash >>> 29);
+        }
+        return hash;
+    }
+
+    /**
+       returns squared distance to the closest triangle or maxDist2 if there is no closer triangle
+     */
+    final double getDistance2(double x, double y, double z, double maxDist2, int stack[]){
+
+        if(m_triCount == 0)
+            return maxDist2;
+
+        double best = maxDist2;
+        double box[] = m_box;
+        double tri[] = m_tri;
+        int sp = 0;
+        stack[sp++] = 0;
+
+        while(sp > 0){
+            int node = stack[--sp];
+            if(boxDistance2(box, node, x, y, z) >= best)
+                continue;
+            int left = m_left[node];
+            if(left < 0){
+                int end = m_start[node] + m_count[node];
+                for(int t = m_start[node]; t < end; t++){
+                    int k = 9*t;
+                    double d2 = PointToTriangleDistance.getSquared(x, y, z,
+                                                                   tri[k],  tri[k+1],tri[k+2],
+                                                                   tri[k+3],tri[k+4],tri[k+5],
+                                                                   tri[k+6],tri[k+7],tri[k+8], null);
+                    if(d2 < best)
+                        best = d2;
+                }
+            } else {
+                int right = m_right[node];
+                // visit closer child first
+                double dl = boxDistance2(box, left, x, y, z);
+                double dr = boxDistance2(box, right, x, y, z);
+                if(dl < dr){
+                    if(dr < best) stack[sp++] = right;
+                    if(dl < best) stack[sp++] = left;
+                } else {
+                    if(dl < best) stack[sp++] = left;
+                    if(dr < best) stack[sp++] = right;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+       winding number of the mesh around the point
+     */
+    final double getWindingNumber(double x, double y, double z, int stack[]){
+
+        if(m_triCount == 0)
+            return 0;
+
+        double beta2 = m_windingAccuracy*m_windingAccuracy;
+        double center[] = m_center;
+        double normal[] = m_normal;
+        double tri[] = m_tri;
+        double w = 0;
+        int sp = 0;
+        stack[sp++] = 0;
+
+        while(sp > 0){
+            int node = stack[--sp];
+            int k = 3*node;
+            double
+                dx = center[k] - x,
+                dy = center[k+1] - y,
+                dz = center[k+2] - z;
+            double d2 = dx*dx + dy*dy + dz*dz;
+            double r = m_radius[node];
+            if(d2 > beta2*r*r){
+                // far cluster, dipole approximation
+                double d = sqrt(d2);
+                w += (normal[k]*dx + normal[k+1]*dy + normal[k+2]*dz)/(d2*d);
+                continue;
+            }
+            int left = m_left[node];
+            if(left < 0){
+                int end = m_start[node] + m_count[node];
+                for(int t = m_start[node]; t < end; t++){
+                    w += getSolidAngle(tri, 9*t, x, y, z);
+                }
+            } else {
+                stack[sp++] = left;
+                stack[sp++] = m_right[node];
+            }
+        }
+        return w*INV4PI;
+    }
+
+    /**
+       solid angle of triangle viewed from the point (Van Oosterom and Strackee formula)
+       positive if point is behind the triangle
+     */
+    static final double getSolidAngle(double tri[], int k, double x, double y, double z){
+
+        double
+            ax = tri[k]  - x, ay = tri[k+1] - y, az = tri[k+2] - z,
+            bx = tri[k+3]- x, by = tri[k+4] - y, bz = tri[k+5] - z,
+            cx = tri[k+6]- x, cy = tri[k+7] - y, cz = tri[k+8] - z;
+        double
+            la = sqrt(ax*ax + ay*ay + az*az),
+            lb = sqrt(bx*bx + by*by + bz*bz),
+            lc = sqrt(cx*cx + cy*cy + cz*cz);
+        double det = ax*(by*cz - bz*cy) + ay*(bz*cx - bx*cz) + az*(bx*cy - by*cx);
+        double den = la*lb*lc + (ax*bx + ay*by + az*bz)*lc + (ax*cx + ay*cy + az*cz)*lb + (bx*cx + by*cy + bz*cz)*la;
+        return 2*atan2(det, den);
+    }
+
+    static final double boxDistance2(double box[], int node, double x, double y, double z){
+
+        int k = 6*node;
+        double dx = max(0, max(box[k]   - x, x - box[k+3]));
+        double dy = max(0, max(box[k+1] - y, y - box[k+4]));
+        double dz = max(0, max(box[k+2] - z, z - box[k+5]));
+        return dx*dx + dy*dy + dz*dz;
+    }
+
+    /**
+       same test for degeneracy as used in PointToTriangleDistance
+     */
+    static boolean isDegenerate(double c[], int k){
+
+        double
+            e0x = c[k+3] - c[k],   e0y = c[k+4] - c[k+1], e0z = c[k+5] - c[k+2],
+            e1x = c[k+6] - c[k],   e1y = c[k+7] - c[k+1], e1z = c[k+8] - c[k+2];
+        double
+            a00 = e0x*e0x + e0y*e0y + e0z*e0z,
+            a11 = e1x*e1x + e1y*e1y + e1z*e1z,
+            a01 = e0x*e1x + e0y*e1y + e0z*e1z;
+        return (a00*a11 - a01*a01) == 0.;
+    }
+
+    /**
+       builds the hierarchy by median split along largest dimension of centroids bounds
+     */
+    void build(double tri[]){
+
+        int n = m_triCount;
+        double centroid[] = new double[3*n];
+        int index[] = new int[n];
+        for(int t = 0; t < n; t++){
+            int k = 9*t;
+            centroid[3*t]   = (tri[k]   + tri[k+3] + tri[k+6])/3;
+            centroid[3*t+1] = (tri[k+1] + tri[k+4] + tri[k+7])/3;
+            centroid[3*t+2] = (tri[k+2] + tri[k+5] + tri[k+8])/3;
+            index[t] = t;
+        }
+        int maxNodes = max(1, 2*((n + LEAF_SIZE - 1)/LEAF_SIZE) + 1);
+        // median split may produce more nodes than full binary tree of minimal leaves
+        maxNodes = max(maxNodes, 2*n + 1);
+        m_box = new double[6*maxNodes];
+        m_left = new int[maxNodes];
+        m_right = new int[maxNodes];
+        m_start = new int[maxNodes];
+        m_count = new int[maxNodes];
+        m_nodeCount = 0;
+
+        if(n > 0)
+            buildNode(tri, centroid, index, 0, n);
+
+        // copy triangles in leaves order
+        m_tri = new double[9*n];
+        for(int t = 0; t < n; t++){
+            System.arraycopy(tri, 9*index[t], m_tri, 9*t, 9);
+        }
+        // trim node arrays
+        int nc = m_nodeCount;
+        m_box = copyOf(m_box, 6*nc);
+        m_left = copyOf(m_left, nc);
+        m_right = copyOf(m_right, nc);
+        m_start = copyOf(m_start, nc);
+        m_count = copyOf(m_count, nc);
+        m_normal = new double[3*nc];
+        m_center = new double[3*nc];
+        m_radius = new double[nc];
+        if(n > 0)
+            calculateMoments(0);
+    }
+
+    /**
+       builds node for triangles index[start..end)
+       @return index of the node
+     */
+    int buildNode(double tri[], double centroid[], int index[], int start, int end){
+
+        int node = m_nodeCount++;
+        m_start[node] = start;
+        m_count[node] = end - start;
+        // triangles bounds
+        double b[] = m_box;
+        int kb = 6*node;
+        b[kb] = b[kb+1] = b[kb+2] = Double.MAX_VALUE;
+        b[kb+3] = b[kb+4] = b[kb+5] = -Double.MAX_VALUE;
+        double cmin[] = new double[]{Double.MAX_VALUE,Double.MAX_VALUE,Double.MAX_VALUE};
+        double cmax[] = new double[]{-Double.MAX_VALUE,-Double.MAX_VALUE,-Double.MAX_VALUE};
+        for(int i = start; i < end; i++){
+            int t = index[i];
+            for(int v = 0; v < 3; v++){
+                for(int c = 0; c < 3; c++){
+                    double x = tri[9*t + 3*v + c];
+                    if(x < b[kb+c]) b[kb+c] = x;
+                    if(x > b[kb+3+c]) b[kb+3+c] = x;
+                }
+            }
+            for(int c = 0; c < 3; c++){
+                double x = centroid[3*t+c];
+                if(x < cmin[c]) cmin[c] = x;
+                if(x > cmax[c]) cmax[c] = x;
+            }
+        }
+        int count = end - start;
+        int axis = 0;
+        for(int c = 1; c < 3; c++){
+            if(cmax[c] - cmin[c] > cmax[axis] - cmin[axis]) axis = c;
+        }
+        if(count <= LEAF_SIZE || cmax[axis] == cmin[axis]){
+            m_left[node] = -1;
+            m_right[node] = -1;
+            return node;
+        }
+        int mid = (start + end)/2;
+        select(centroid, axis, index, start, end - 1, mid);
+        m_left[node] = buildNode(tri, centroid, index, start, mid);
+        m_right[node] = buildNode(tri, centroid, index, mid, end);
+        return node;
+    }
+
+    /**
+       calculates area weighted normals, centers and radii of node and its children
+     */
+    void calculateMoments(int node){
+
+        int k = 3*node;
+        double nx = 0, ny = 0, nz = 0, cx = 0, cy = 0, cz = 0, area = 0;
+        int end = m_start[node] + m_count[node];
+        double tri[] = m_tri;
+        for(int t = m_start[node]; t < end; t++){
+            int i = 9*t;
+            double
+                e0x = tri[i+3] - tri[i],   e0y = tri[i+4] - tri[i+1], e0z = tri[i+5] - tri[i+2],
+                e1x = tri[i+6] - tri[i],   e1y = tri[i+7] - tri[i+1], e1z = tri[i+8] - tri[i+2];
+            double
+                ax = 0.5*(e0y*e1z - e0z*e1y),
+                ay = 0.5*(e0z*e1x - e0x*e1z),
+                az = 0.5*(e0x*e1y - e0y*e1x);
+            double a = sqrt(ax*ax + ay*ay + az*az);
+            nx += ax; ny += ay; nz += az;
+            area += a;
+            cx += a*(tri[i]   + tri[i+3] + tri[i+6])/3;
+            cy += a*(tri[i+1] + tri[i+4] + tri[i+7])/3;
+            cz += a*(tri[i+2] + tri[i+5] + tri[i+8])/3;
+        }
+        if(area > 0){
+            cx /= area; cy /= area; cz /= area;
+        } else {
+            int kb = 6*node;
+            cx = (m_box[kb] + m_box[kb+3])/2;
+            cy = (m_box[kb+1] + m_box[kb+4])/2;
+            cz = (m_box[kb+2] + m_box[kb+5])/2;
+        }
+        double r2 = 0;
+        for(int i = 9*m_start[node]; i < 9*end; i += 3){
+            double
+                dx = tri[i] - cx, dy = tri[i+1] - cy, dz = tri[i+2] - cz;
+            r2 = max(r2, dx*dx + dy*dy + dz*dz);
+        }
+        m_normal[k] = nx; m_normal[k+1] = ny; m_normal[k+2] = nz;
+        m_center[k] = cx; m_center[k+1] = cy; m_center[k+2] = cz;
+        m_radius[node] = sqrt(r2);
+
+        if(m_left[node] >= 0){
+            calculateMoments(m_left[node]);
+            calculateMoments(m_right[node]);
+        }
+    }
+
+    /**
+       partially sorts index[left..right] so the element at position nth has centroid coordinate in sorted position
+     */
+    static void select(double centroid[], int axis, int index[], int left, int right, int nth){
+
+        while(right > left){
+            double pivot = centroid[3*index[(left + right) >>> 1] + axis];
+            int i = left, j = right;
+            while(i <= j){
+                while(centroid[3*index[i] + axis] < pivot) i++;
+                while(centroid[3*index[j] + axis] > pivot) j--;
+                if(i <= j){
+                    int t = index[i]; index[i] = index[j]; index[j] = t;
+                    i++; j--;
+                }
+            }
+            if(nth <= j) right = j;
+            else if(nth >= i) left = i;
+            else return;
+        }
+    }
+
+    static double[] copyOf(double a[], int len){
+        double b[] = new double[len];
+        System.arraycopy(a, 0, b, 0, len);
+        return b;
+    }
+
+    static int[] copyOf(int a[], int len){
+        int b[] = new int[len];
+        System.arraycopy(a, 0, b, 0, len);
+        return b;
+    }
+
+    /**
+       collects triangles into growing array
+     */
+    static class TriangleArray implements BulkTriangleCollector {
+
+        double coord[] = new double[9*1024];
+        int count = 0;
+
+        public boolean addTriangles(double c[], int offset, int triCount){
+            int len = 9*triCount;
+            if(9*count + len > coord.length){
+                double nc[] = new double[max(2*coord.length, 9*count + len)];
+                System.arraycopy(coord, 0, nc, 0, 9*count);
+                coord = nc;
+            }
+            System.arraycopy(c, offset, coord, 9*count, len);
+            count += triCount;
+            return true;
+        }
+    } // class TriangleArray
+
+} // class TriangleBVH
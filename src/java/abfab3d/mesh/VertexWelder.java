@@ -0,0 +1,560 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.mesh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import abfab3d.core.TriangleCollector;
+
+import abfab3d.grid.util.ExecutionStoppedException;
+
+import abfab3d.util.ThreadUtil;
+import abfab3d.util.Slice;
+import abfab3d.util.SliceManager;
+
+import javax.vecmath.Vector3d;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+
+/**
+   parallel welding of vertices of triangle soup into indexed triangle set
+
+   coordinates of vertices are quantized with given tolerance into triplets of long keys.
+   Vertices with equal keys are welded into one vertex.
+   Vertices are distributed between shards by hash of the key, each shard is welded by single thread
+   using open addressing table of vertex indices.
+
+   Result is deterministic and does not depend on count of threads.
+   Vertices are numbered in order of first occurrence in the soup, as in PointSet.
+   Faces with coincident vertices are removed.
+
+   Similar sharding is used for search of twin half edges of indexed triangle set.
+
+   @author Vladimir Bulatov
+ */
+public class VertexWelder {
+
+    static final boolean DEBUG = false;
+    static public final double DEFAULT_TOLERANCE = 1.e-8;
+    // min count of items processed by one task
+    static final int MIN_CHUNK_SIZE = 10000;
+    // count of shards and chunks per thread
+    static final int SPLIT_FACTOR = 4;
+
+    static final long
+        H1 = 0x9E3779B97F4A7C15L,
+        H2 = 0xC2B2AE3D27D4EB4FL,
+        H3 = 0x165667B19E3779F9L;
+
+    protected double m_tolerance;
+    protected int m_threadCount = 1;
+
+    // results of welding
+    protected double m_vertices[];
+    protected int m_vertexCount;
+    protected int m_faces[];
+    protected int m_faceCount;
+
+    public VertexWelder(){
+        this(DEFAULT_TOLERANCE);
+    }
+
+    /**
+       @param tolerance size of quantization cell
+     */
+    public VertexWelder(double tolerance){
+        m_tolerance = tolerance;
+    }
+
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
+    /**
+       welds vertices of triangle soup
+
+       @param coord coordinates of triangles, 9 values per triangle
+       @param triCount count of triangles
+     */
+    public void weld(final double coord[], int triCount){
+
+        long t0 = time();
+        final int vcount = 3*triCount;
+        final double scale = 1./m_tolerance;
+
+        final int shardBits = getShardBits(m_threadCount);
+        final int shardCount = 1 << shardBits;
+        int chunkSize = getChunkSize(vcount, m_threadCount);
+        final int chunkCount = (vcount + chunkSize - 1)/chunkSize;
+
+        // shard of vertex, later replaced by index of the first equal vertex
+        final int first[] = new int[vcount];
+        // vertices ordered by shards, later replaced by final vertex index
+        final int order[] = new int[vcount];
+        final int offsets[] = new int[chunkCount*shardCount];
+
+        // count vertices of each chunk in each shard
+        runChunks(vcount, chunkSize, m_threadCount, new ChunkTask(){
+                public void run(int chunk, int start, int end){
+                    int base = chunk*shardCount;
+                    for(int v = start; v < end; v++){
+                        int s = getShard(getHash(coord, 3*v, scale), shardBits);
+                        first[v] = s;
+                        offsets[base + s]++;
+                    }
+                }
+            });
+
+        final int shardStart[] = new int[shardCount+1];
+        makeOffsets(offsets, chunkCount, shardCount, shardStart);
+
+        // distribute vertices to shards preserving order
+        runChunks(vcount, chunkSize, m_threadCount, new ChunkTask(){
+                public void run(int chunk, int start, int end){
+                    int base = chunk*shardCount;
+                    for(int v = start; v < end; v++){
+                        order[offsets[base + first[v]]++] = v;
+                    }
+                }
+            });
+
+        // weld each shard
+        runChunks(shardCount, 1, m_threadCount, new ChunkTask(){
+                public void run(int chunk, int start, int end){
+                    for(int s = start; s < end; s++){
+                        weldShard(coord, scale, order, shardStart[s], shardStart[s+1], first);
+                    }
+                }
+            });
+
+        // number vertices in order of first occurrence
+        final int newCount[] = new int[chunkCount+1];
+        runChunks(vcount, chunkSize, m_threadCount, new ChunkTask(){
+                public void run(int chunk, int start, int end){
+                    int cnt = 0;
+                    for(int v = start; v < end; v++){
+                        if(first[v] == v) cnt++;
+                    }
+                    newCount[chunk+1] = cnt;
+                }
+            });
+        for(int i = 0; i < chunkCount; i++){
+            newCount[i+1] += newCount[i];
+        }
+        m_vertexCount = newCount[chunkCount];
+        final double vert[] = new double[3*m_vertexCount];
+        final int vindex[] = order;
+
+        runChunks(vcount, chunkSize, m_threadCount, new ChunkTask(){
+                public void run(int chunk, int start, int end){
+                    int id = newCount[chunk];
+                    for(int v = start; v < end; v++){
+                        if(first[v] == v) {
+                            vindex[v] = id;
+                            System.arraycopy(coord, 3*v, vert, 3*id, 3);
+                            id++;
+                        }
+                    }
+                }
+            });
+        runChunks(vcount, chunkSize, m_threadCount, new ChunkTask(){
+                public void run(int chunk, int start, int end){
+                    for(int v = start; v < end; v++){
+                        int f = first[v];
+                        if(f != v) vindex[v] = vindex[f];
+                    }
+                }
+            });
+
+        m_vertices = vert;
+        m_faces = removeDegenerateFaces(vindex, triCount, m_threadCount);
+        m_faceCount = m_faces.length/3;
+
+        if(DEBUG) printf("VertexWelder.weld(%d tri) vertices: %d faces: %d threads: %d %d ms\n",
+                         triCount, m_vertexCount, m_faceCount, m_threadCount, (time() - t0));
+    }
+
+    /**
+       @return vertices of the welded mesh (x,y,z per vertex)
+     */
+    public double[] getVertices(){
+        return m_vertices;
+    }
+
+    public int getVertexCount(){
+        return m_vertexCount;
+    }
+
+    /**
+       @return faces of the welded mesh (3 indices per face)
+     */
+    public int[] getFaces(){
+        return m_faces;
+    }
+
+    public int getFaceCount(){
+        return m_faceCount;
+    }
+
+    /**
+       feeds welded triangles to TriangleCollector interface
+     */
+    public boolean getTriangles(TriangleCollector tc){
+
+        Vector3d v0 = new Vector3d(), v1 = new Vector3d(), v2 = new Vector3d();
+        double v[] = m_vertices;
+        int f[] = m_faces;
+        for(int i = 0; i < 3*m_faceCount; i += 3){
+            int i0 = 3*f[i], i1 = 3*f[i+1], i2 = 3*f[i+2];
+            v0.set(v[i0], v[i0 + 1], v[i0 + 2]);
+            v1.set(v[i1], v[i1 + 1], v[i1 + 2]);
+            v2.set(v[i2], v[i2 + 1], v[i2 + 2]);
+            tc.addTri(v0, v1, v2);
+        }
+        return true;
+    }
+
+    /**
+       finds twin of each half edge of indexed triangle set.
+       Half edge 3*f+j goes from vertex faces[3*f+j] to vertex faces[3*f+(j+1)%3].
+       Twin of half edge is the first half edge with the opposite direction.
+       On non-manifold edges several half edges may get the same twin.
+
+       @return array of twin half edge indices, -1 for half edges without twin
+     */
+    public static int[] getTwins(final int faces[], int faceCount, int threadCount){
+
+        final int hcount = 3*faceCount;
+        final int shardBits = getShardBits(threadCount);
+        final int shardCount = 1 << shardBits;
+        int chunkSize = getChunkSize(hcount, threadCount);
+        final int chunkCount = (hcount + chunkSize - 1)/chunkSize;
+
+        // shard of the half edge, later replaced by twin
+        final int twin[] = new int[hcount];
+        final int order[] = new int[hcount];
+        final int offsets[] = new int[chunkCount*shardCount];
+
+        runChunks(hcount, chunkSize, threadCount, new ChunkTask(){
+                public void run(int chunk, int start, int end){
+                    int base = chunk*shardCount;
+                    for(int h = start; h < end; h++){
+                        int a = faces[h], b = faces[next(h)];
+                        // both directions have to be in the same shard
+                        int s = getShard(mix(min(a,b)*H1 + max(a,b)*H2), shardBits);
+                        twin[h] = s;
+                        offsets[base + s]++;
+                    }
+                }
+            });
+
+        final int shardStart[] = new int[shardCount+1];
+        makeOffsets(offsets, chunkCount, shardCount, shardStart);
+
+        runChunks(hcount, chunkSize, threadCount, new ChunkTask(){
+                public void run(int chunk, int start, int end){
+                    int base = chunk*shardCount;
+                    for(int h = start; h < end; h++){
+                        order[offsets[base + twin[h]]++] = h;
+                    }
+                }
+            });
+
+        runChunks(shardCount, 1, threadCount, new ChunkTask(){
+                public void run(int chunk, int start, int end){
+                    for(int s = start; s < end; s++){
+                        pairShard(faces, order, shardStart[s], shardStart[s+1], twin);
+                    }
+                }
+            });
+
+        return twin;
+    }
+
+    /**
+       welds vertices of single shard
+       @param order vertex indices of shards
+       @param start start of the shard in order
+       @param end end of the shard in order
+       @param first index of the first vertex equal to given
+     */
+    static void weldShard(double coord[], double scale, int order[], int start, int end, int first[]){
+
+        int size = end - start;
+        if(size == 0) return;
+        int mask = getTableSize(size) - 1;
+        int table[] = new int[mask + 1];
+        Arrays.fill(table, -1);
+
+        for(int i = start; i < end; i++){
+            int v = order[i];
+            int k = 3*v;
+            long qx = quantize(coord[k], scale), qy = quantize(coord[k+1], scale), qz = quantize(coord[k+2], scale);
+            int slot = (int)getHash(qx, qy, qz) & mask;
+            while(true){
+                int w = table[slot];
+                if(w == -1){
+                    table[slot] = v;
+                    first[v] = v;
+                    break;
+                }
+                int kw = 3*w;
+                if(quantize(coord[kw], scale) == qx && quantize(coord[kw+1], scale) == qy && quantize(coord[kw+2], scale) == qz){
+                    first[v] = w;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+    /**
+       finds twins of half edges of single shard
+     */
+    static void pairShard(int faces[], int order[], int start, int end, int twin[]){
+
+        int size = end - start;
+        if(size == 0) return;
+        int mask = getTableSize(size) - 1;
+        int table[] = new int[mask + 1];
+        Arrays.fill(table, -1);
+        // store the first half edge of each direction
+        for(int i = start; i < end; i++){
+            int h = order[i];
+            int a = faces[h], b = faces[next(h)];
+            int slot = (int)mix(a*H1 + b*H2) & mask;
+            while(true){
+                int g = table[slot];
+                if(g == -1){
+                    table[slot] = h;
+                    break;
+                }
+                if(faces[g] == a && faces[next(g)] == b)
+                    break;
+                slot = (slot + 1) & mask;
+            }
+        }
+        // find opposite half edges
+        for(int i = start; i < end; i++){
+            int h = order[i];
+            int a = faces[next(h)], b = faces[h];
+            int slot = (int)mix(a*H1 + b*H2) & mask;
+            int t = -1;
+            while(true){
+                int g = table[slot];
+                if(g == -1)
+                    break;
+                if(faces[g] == a && faces[next(g)] == b){
+                    t = g;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            twin[h] = t;
+        }
+    }
+
+    /**
+       @return faces without coincident vertices
+     */
+    static int[] removeDegenerateFaces(final int vindex[], int triCount, int threadCount){
+
+        int chunkSize = getChunkSize(triCount, threadCount);
+        int chunkCount = (triCount + chunkSize - 1)/chunkSize;
+        final int goodCount[] = new int[chunkCount+1];
+        runChunks(triCount, chunkSize, threadCount, new ChunkTask(){
+                public void run(int chunk, int start, int end){
+                    int cnt = 0;
+                    for(int t = start; t < end; t++){
+                        if(!isDegenerate(vindex, 3*t)) cnt++;
+                    }
+                    goodCount[chunk+1] = cnt;
+                }
+            });
+        for(int i = 0; i < chunkCount; i++){
+            goodCount[i+1] += goodCount[i];
+        }
+        if(goodCount[chunkCount] == triCount){
+            // no bad faces
+            if(vindex.length == 3*triCount)
+                return vindex;
+            return Arrays.copyOf(vindex, 3*triCount);
+        }
+        final int faces[] = new int[3*goodCount[chunkCount]];
+        runChunks(triCount, chunkSize, threadCount, new ChunkTask(){
+                public void run(int chunk, int start, int end){
+                    int k = 3*goodCount[chunk];
+                    for(int t = start; t < end; t++){
+                        int i = 3*t;
+                        if(!isDegenerate(vindex, i)){
+                            faces[k++] = vindex[i];
+                            faces[k++] = vindex[i+1];
+                            faces[k++] = vindex[i+2];
+                        }
+                    }
+                }
+            });
+        return faces;
+    }
+
+    static final boolean isDegenerate(int f[], int i){
+        return (f[i] == f[i+1] || f[i+1] == f[i+2] || f[i+2] == f[i]);
+    }
+
+    /**
+       @return next half edge of the same face
+     */
+    static final int next(int h){
+        return (h % 3 == 2)? h - 2: h + 1;
+    }
+
+    /**
+       converts counts of items of each chunk in each shard into start positions of items
+     */
+    static void makeOffsets(int offsets[], int chunkCount, int shardCount, int shardStart[]){
+
+        int pos = 0;
+        for(int s = 0; s < shardCount; s++){
+            shardStart[s] = pos;
+            for(int c = 0; c < chunkCount; c++){
+                int i = c*shardCount + s;
+                int cnt = offsets[i];
+                offsets[i] = pos;
+                pos += cnt;
+            }
+        }
+        shardStart[shardCount] = pos;
+    }
+
+    static final long quantize(double x, double scale){
+        return Math.round(x*scale);
+    }
+
+    static final long getHash(double coord[], int k, double scale){
+        return getHash(quantize(coord[k], scale), quantize(coord[k+1], scale), quantize(coord[k+2], scale));
+    }
+
+    static final long getHash(long qx, long qy, long qz){
+        return mix(qx*H1 + qy*H2 + qz*H3);
+    }
+
+    static final long mix(long h){
+        h ^= (h >>> 33);
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+    static final int getShard(long hash, int shardBits){
+        if(shardBits == 0) return 0;
+        // high bits are used for shards, low bits for table slots
+        return (int)(hash >>> (64 - shardBits));
+    }
+
+    static int getShardBits(int threadCount){
+        if(threadCount <= 1) return 0;
+        return 32 - Integer.numberOfLeadingZeros(SPLIT_FACTOR*threadCount - 1);
+    }
+
+    static int getChunkSize(int count, int threadCount){
+        return max(MIN_CHUNK_SIZE, (count + SPLIT_FACTOR*threadCount - 1)/(SPLIT_FACTOR*threadCount));
+    }
+
+    /**
+       @return power of 2 table size with load factor below 0.5
+     */
+    static int getTableSize(int count){
+        int size = 4;
+        while(size < 2*count) size <<= 1;
+        return size;
+    }
+
+    /**
+       task to process range of items
+     */
+    interface ChunkTask {
+        /**
+           @param chunk index of the chunk
+           @param start first item of the chunk
+           @param end item after the last item of the chunk
+         */
+        void run(int chunk, int start, int end);
+    }
+
+    /**
+       runs task on all chunks of items.
+       Exception thrown by the task is rethrown to the caller.
+     */
+    static void runChunks(int count, final int chunkSize, int threadCount, final ChunkTask task){
+
+        if(count == 0)
+            return;
+        final SliceManager slicer = new SliceManager(count, chunkSize);
+        threadCount = max(1, min(threadCount, slicer.getSliceCount()));
+
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        Runnable runner = new Runnable(){
+                public void run(){
+                    while(!failed.get()){
+                        Slice slice = slicer.getNextSlice();
+                        if(slice == null)
+                            break;
+                        try {
+                            task.run(slice.smin/chunkSize, slice.smin, slice.smax);
+                        } catch(RuntimeException e){
+                            // other tasks stop after current chunk
+                            failed.set(true);
+                            throw e;
+                        }
+                    }
+                }
+            };
+
+        if(threadCount == 1){
+            runner.run();
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<Future<?>>(threadCount);
+        for(int i = 0; i < threadCount; i++){
+            futures.add(executor.submit(runner));
+        }
+        executor.shutdown();
+
+        try {
+            for(Future<?> future: futures){
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw new ExecutionStoppedException();
+        } catch (ExecutionException e) {
+            failed.set(true);
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if(cause instanceof Error) throw (Error)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+}
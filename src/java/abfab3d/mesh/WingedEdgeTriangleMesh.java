@@ -166,6 +166,13 @@ public class WingedEdgeTriangleMesh implements TriangleMesh {
     }
 
     public WingedEdgeTriangleMesh(double[] vertCoord, int vertCount, int[] findex, int faceCount) {
+        this(vertCoord, vertCount, findex, faceCount, 1);
+    }
+
+    /**
+       @param threadCount count of threads used to find twin half edges 
+     */
+    public WingedEdgeTriangleMesh(double[] vertCoord, int vertCount, int[] findex, int faceCount, int threadCount) {
         //printf("Creating new WE mesh from new code\n");
         
         int len = vertCount;
@@ -187,7 +194,7 @@ public class WingedEdgeTriangleMesh implements TriangleMesh {
         
         faces = new StructMixedData(Face.DEFINITION, faceCount);
         
-        setFaces(vertCoord, vertCount, findex, faceCount);
+        setFaces(vertCoord, vertCount, findex, faceCount, threadCount);
     }
 
     public void clear(){
@@ -219,6 +226,18 @@ public class WingedEdgeTriangleMesh implements TriangleMesh {
 
      */
     public void setFaces( double[] vertCoord, int vertCount, int[] findex, int faceCount){
+        setFaces(vertCoord, vertCount, findex, faceCount, 1);
+    }
+
+    /**
+
+       sets face data for this mesh. 
+       if threadCount is more than 1 twin half edges are found in parallel by VertexWelder 
+       instead of the edge map. The resulting mesh is the same for manifold meshes, 
+       half edges of non-manifold edges may be paired differently. 
+
+     */
+    public void setFaces( double[] vertCoord, int vertCount, int[] findex, int faceCount, int threadCount){
         int len = vertCount;
         int idx = 0;
 
@@ -227,6 +246,11 @@ public class WingedEdgeTriangleMesh implements TriangleMesh {
             addVertex(v);
         }
 
+        // twin of each half edge 
+        int twins[] = null;
+        if(threadCount > 1) 
+            twins = VertexWelder.getTwins(findex, faceCount, threadCount);
+
         int[] eface = new int[3];
 
         int[] ahedges = new int[faceCount*3];
@@ -251,7 +275,8 @@ public class WingedEdgeTriangleMesh implements TriangleMesh {
 
                 int he = buildHalfEdge(v1, v2);
 
-                edgeMap.put(he, he);
+                if(twins == null) 
+                    edgeMap.put(he, he);
                 ahedges[ahedges_idx++] = he;
                 eface[j] = he;
             }
@@ -273,11 +298,15 @@ public class WingedEdgeTriangleMesh implements TriangleMesh {
             int twin = HalfEdge.getTwin(hedges, he1);
             if (twin == -1) {
                 // get halfedge of _opposite_ direction
-
-                HalfEdge.setStart(HalfEdge.getEnd(hedges, he1), hedges, key);
-                HalfEdge.setEnd(HalfEdge.getStart(hedges, he1), hedges, key);
-
-                int he2 = edgeMap.get(key);
+                int he2;
+                if(twins != null) {
+                    he2 = (twins[i] == -1)? -1: ahedges[twins[i]];
+                } else {
+                    HalfEdge.setStart(HalfEdge.getEnd(hedges, he1), hedges, key);
+                    HalfEdge.setEnd(HalfEdge.getStart(hedges, he1), hedges, key);
+                    
+                    he2 = edgeMap.get(key);
+                }
 
                 if (he2 != -1) {
                     betwin(he1, he2);
@@ -411,6 +440,37 @@ public class WingedEdgeTriangleMesh implements TriangleMesh {
 
     }
 
+    /**
+     * Get the indices of vertices for each face. Vertices are indexed in the order of getVertexCoord().
+     * @return Flat array of triangle indices
+     */
+    public int[] getFaceVertexIndexes() {
+
+        int[] findex = getFaceIndexes();
+        for (int i = 0; i < findex.length; i++) {
+            findex[i] = Vertex.getID(vertices, findex[i]);
+        }
+        return findex;
+    }
+
+    /**
+     * Get the coordinates of vertices in the order of the vertex list.
+     * @return Flat array of vertex coordinates
+     */
+    public double[] getVertexCoord() {
+
+        double[] coord = new double[3*vertexCount];
+        double[] pnt = new double[3];
+        int k = 0;
+        for (int v = startVertex; v != -1; v = Vertex.getNext(vertices, v)) {
+            Vertex.getPoint(vertices, v, pnt);
+            coord[k++] = pnt[0];
+            coord[k++] = pnt[1];
+            coord[k++] = pnt[2];
+        }
+        return coord;
+    }
+
     /**
      * Get the count of vertices in this mesh.  Local variable kept during upkeep so it's a fast operation.
      *
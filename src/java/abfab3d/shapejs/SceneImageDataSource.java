@@ -10,36 +10,223 @@
  ****************************************************************************/
 package abfab3d.shapejs;
 
+import java.util.List;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector3f;
+
+import abfab3d.core.Bounds;
+import abfab3d.core.Color;
 import abfab3d.core.DataSource;
+import abfab3d.core.Material;
+import abfab3d.core.MaterialShader;
 import abfab3d.core.ResultCodes;
 import abfab3d.core.Vec;
+import abfab3d.param.SNode;
+import abfab3d.param.Shape;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.tan;
+
+import static abfab3d.core.MathUtil.clamp;
 
 /**
  *  Take (x,y) point on physical screen and return (r,g,b) color for that point
  *
+ *  The color is calculated on CPU by sphere tracing of the scene rendering source along the ray from camera.
+ *  Screen is the xy rectangle of scene bounds, the same as used by ImageMaker, it is mapped to the camera view.
+ *  Camera view matrix transforms view coordinates into playbox coordinates,
+ *  playbox [-1,1]^3 is mapped into the largest cube centered at scene bounds.
+ *  Lights positions are given in view coordinates unless light has fixed position.
+ *  Hit points are shaded with Phong model using PhongParams of shape material,
+ *  shapes which do not have PhongParams get parameters of DefaultMaterial.
+ *  Background images are not supported, background is made from ground and sky colors.
+ *
+ *  The class is thread safe, SceneRenderer calls it in parallel to render whole image.
+ *  Each calling thread gets its own Tracer with work arrays.
+ *
  *  @author Alan Hudson
  */
 public class SceneImageDataSource implements DataSource {
+
+    static final boolean DEBUG = false;
+
+    // max count of steps along single ray
+    static final int MAX_STEPS = 1000;
+    // softness of shadows
+    static final double SHADOW_SHARPNESS = 16;
+    static final double SHININESS_FACTOR = 128;
+
     private Scene m_scene;
     private ImageSetup m_setup;
     private Camera m_camera;
     private DataSource m_root;
 
+    // shapes of rendering source with their shading params
+    private DataSource m_shapes[];
+    // Phong colors and params of shapes
+    private double m_diffuse[][];
+    private double m_emissive[][];
+    private double m_specular[][];
+    private double m_shininess[];
+    private double m_ambient[];
+
+    // lights in world coordinates
+    private double m_lightPos[][];
+    private double m_lightColor[][];
+    private double m_lightAmbient[];
+    private boolean m_lightShadows[];
+
+    private double m_groundColor[];
+    private double m_skyColor[];
+    private double m_smoothStart, m_smoothEnd;
+
+    private Matrix4f m_view = new Matrix4f();
+    // eye position in world coordinates
+    private double m_eye[] = new double[3];
+    // tangent of half of camera angle
+    private double m_tanAngle;
+
+    // playbox to world transformation
+    private double m_center[] = new double[3];
+    private double m_scale;
+    private double m_bounds[] = new double[6];
+
+    private double m_precision;
+    private double m_stepFactor;
+    private double m_gradientStep;
+    private int m_samples = 1;
+    private boolean m_shadows;
+
+    // tracers of calling threads
+    private ThreadLocal<Tracer> m_tracers = new ThreadLocal<Tracer>(){
+            protected Tracer initialValue(){
+                return new Tracer();
+            }
+        };
+
     public SceneImageDataSource(Scene scene, ImageSetup setup, Camera camera) {
         m_scene = scene;
         m_camera = camera;
         m_setup = setup;
 
         m_root = (DataSource) m_scene.getRenderingSource(!m_setup.bumpMaps);
+        initRendering();
+    }
+
+    /**
+       prepares everything which does not depend on the ray
+     */
+    protected void initRendering(){
+
+        Bounds bounds = m_scene.getBounds();
+        m_bounds = bounds.getArray();
+        m_center[0] = bounds.getCenterX();
+        m_center[1] = bounds.getCenterY();
+        m_center[2] = bounds.getCenterZ();
+        m_scale = bounds.getSizeMax()/2;
+
+        m_camera.getViewMatrix(m_view);
+        Point3f eye = new Point3f(0,0,0);
+        m_view.transform(eye);
+        toWorld(eye.x, eye.y, eye.z, m_eye);
+        m_tanAngle = tan(m_camera.getCameraAngle());
+
+        // tracing precision is relative to playbox size
+        List<TracingParams> tparams = m_scene.getTracingParams();
+        TracingParams tp = (tparams != null && tparams.size() > 0)? tparams.get(0): new TracingParams();
+        m_precision = tp.getPrecision()*m_scale;
+        m_stepFactor = tp.getFactor();
+        m_gradientStep = max(m_scene.getGradientStep(), m_precision);
+        m_samples = max(1, m_setup.aa);
+        m_shadows = (m_setup.shadowQuality > 0);
+
+        initShapes();
+        initLights();
+
+        Background bg = m_scene.getBackground();
+        if(bg == null) bg = new Background();
+        m_groundColor = getColor(bg.getGroundColor());
+        m_skyColor = getColor(bg.getSkyColor());
+        m_smoothStart = bg.getSmoothStart();
+        m_smoothEnd = bg.getSmoothEnd();
+    }
+
+    protected void initShapes(){
+
+        SNode children[] = ((SNode)m_root).getChildren();
+        int count = children.length;
+        m_shapes = new DataSource[count];
+        m_diffuse = new double[count][];
+        m_emissive = new double[count][];
+        m_specular = new double[count][];
+        m_shininess = new double[count];
+        m_ambient = new double[count];
+        PhongParams defaultParams = getPhongParams(DefaultMaterial.getInstance(), null);
+        for(int i = 0; i < count; i++){
+            Shape shape = (Shape)children[i];
+            m_shapes[i] = shape.getSource();
+            PhongParams params = getPhongParams(shape.getMaterial(), defaultParams);
+            m_diffuse[i] = getColor(params.getDiffuseColor());
+            m_emissive[i] = getColor(params.getEmissiveColor());
+            m_specular[i] = getColor(params.getSpecularColor());
+            m_shininess[i] = params.getShininess()*SHININESS_FACTOR;
+            m_ambient[i] = params.getAmbientIntensity();
+        }
+    }
+
+    static PhongParams getPhongParams(Material material, PhongParams defaultParams){
+
+        if(material == null)
+            return defaultParams;
+        MaterialShader shader = material.getShader();
+        if(shader != null && shader.getShaderParams() instanceof PhongParams)
+            return (PhongParams)shader.getShaderParams();
+        return defaultParams;
+    }
+
+    protected void initLights(){
+
+        List<Light> lights = m_scene.getLights();
+        int count = (lights == null)? 0: lights.size();
+        m_lightPos = new double[count][3];
+        m_lightColor = new double[count][];
+        m_lightAmbient = new double[count];
+        m_lightShadows = new boolean[count];
+        for(int i = 0; i < count; i++){
+            Light light = lights.get(i);
+            Point3f pos = new Point3f(light.getPosition());
+            if(!light.getFixedPosition())
+                m_view.transform(pos);
+            toWorld(pos.x, pos.y, pos.z, m_lightPos[i]);
+            m_lightColor[i] = getColor(light.getColor());
+            for(int c = 0; c < 3; c++)
+                m_lightColor[i][c] *= light.getIntensity();
+            m_lightAmbient[i] = light.getAmbientIntensity();
+            m_lightShadows[i] = light.getCastShadows();
+        }
     }
 
+    /**
+       @param pnt point on screen in physical units
+       @param dataValue (r,g,b,a) color of the point
+     */
     @Override
     public int getDataValue(Vec pnt, Vec dataValue) {
-        // TODO: Need real value, just return point for now
-        dataValue.v[0] = pnt.v[0];
-        dataValue.v[1] = pnt.v[1];
-        dataValue.v[2] = pnt.v[2];
-        dataValue.v[3] = 1;
+
+        Tracer tracer = getTracer();
+        double color[] = tracer.color;
+        // screen is xy rectangle of scene bounds, as used by ImageMaker
+        double sx = 2*(pnt.v[0] - m_bounds[0])/(m_bounds[1] - m_bounds[0]) - 1;
+        double sy = 2*(pnt.v[1] - m_bounds[2])/(m_bounds[3] - m_bounds[2]) - 1;
+        getScreenColor(tracer, sx, sy, 2./m_setup.width, 2./m_setup.height, color, m_samples);
+        for(int i = 0; i < 4; i++)
+            dataValue.v[i] = color[i];
         return ResultCodes.RESULT_OK;
     }
 
@@ -47,4 +234,325 @@ public class SceneImageDataSource implements DataSource {
     public int getChannelsCount() {
         return 4;
     }
+
+    /**
+       calculates color of the pixel averaged over samples x samples subpixels
+
+       @param tracer tracer of the calling thread
+       @param sx x-coordinate of pixel center in normalized screen coordinates [-1,1], pointing right
+       @param sy y-coordinate of pixel center in normalized screen coordinates [-1,1], pointing up
+       @param pw pixel width in normalized screen coordinates
+       @param ph pixel height in normalized screen coordinates
+       @param color output (r,g,b,a) color
+       @param samples count of subpixel samples along each axis
+     */
+    void getScreenColor(Tracer tracer, double sx, double sy, double pw, double ph, double color[], int samples){
+
+        if(samples == 1){
+            tracer.traceScreenPoint(sx, sy, color);
+            return;
+        }
+        double sum[] = tracer.sum;
+        sum[0] = sum[1] = sum[2] = sum[3] = 0;
+        double ds = 1./samples;
+        for(int iy = 0; iy < samples; iy++){
+            for(int ix = 0; ix < samples; ix++){
+                // subpixel samples are centered around the pixel center
+                tracer.traceScreenPoint(sx + pw*((ix + 0.5)*ds - 0.5), sy + ph*((iy + 0.5)*ds - 0.5), color);
+                for(int c = 0; c < 4; c++)
+                    sum[c] += color[c];
+            }
+        }
+        double norm = 1./(samples*samples);
+        for(int c = 0; c < 4; c++)
+            color[c] = sum[c]*norm;
+    }
+
+    /**
+       @return count of subpixel samples along each axis set in ImageSetup
+     */
+    public int getSamples(){
+        return m_samples;
+    }
+
+    public ImageSetup getImageSetup(){
+        return m_setup;
+    }
+
+    /**
+       @return tracer of the calling thread
+     */
+    Tracer getTracer(){
+        return m_tracers.get();
+    }
+
+    final void toWorld(double x, double y, double z, double world[]){
+        world[0] = m_center[0] + m_scale*x;
+        world[1] = m_center[1] + m_scale*y;
+        world[2] = m_center[2] + m_scale*z;
+    }
+
+    static double[] getColor(Color c){
+        return new double[]{c.getr(), c.getg(), c.getb()};
+    }
+
+    /**
+       traces single rays, holds work variables of one thread
+     */
+    class Tracer {
+
+        Vec pnt = new Vec(3);
+        Vec data = new Vec(4);
+        Vector3f vdir = new Vector3f();
+        double dir[] = new double[3];
+        double hit[] = new double[3];
+        double normal[] = new double[3];
+        double tmp[] = new double[3];
+        double range[] = new double[2];
+        // scratch arrays of shading
+        double color[] = new double[4];
+        double sum[] = new double[4];
+        double light[] = new double[3];
+        double reflected[] = new double[3];
+        double above[] = new double[3];
+        double shadowPnt[] = new double[3];
+
+        /**
+           traces ray via point on screen given in normalized screen coordinates
+         */
+        void traceScreenPoint(double sx, double sy, double color[]){
+
+            if(m_setup.flipImage)
+                sy = -sy;
+            double aspect = (double)m_setup.width/m_setup.height;
+            vdir.x = (float)(sx*m_tanAngle*aspect);
+            vdir.y = (float)(sy*m_tanAngle);
+            vdir.z = -1;
+            m_view.transform(vdir);
+            vdir.normalize();
+            dir[0] = vdir.x;
+            dir[1] = vdir.y;
+            dir[2] = vdir.z;
+            traceRay(m_eye, dir, color);
+        }
+
+        /**
+           traces ray from start in given direction and calculates its color
+         */
+        void traceRay(double start[], double dir[], double color[]){
+
+            double t = intersect(start, dir);
+            if(t >= 0){
+                int shape = getShape(hit);
+                getNormal(hit, normal);
+                shade(hit, normal, dir, shape, color);
+            } else {
+                getBackground(dir, color);
+            }
+            color[3] = 1;
+        }
+
+        /**
+           sphere tracing of the ray inside of scene bounds
+           @return distance to hit point or -1 if ray misses the shape, hit point is stored in hit[]
+         */
+        double intersect(double start[], double dir[]){
+
+            if(!intersectBounds(start, dir, range))
+                return -1;
+            double t = range[0];
+            double tmax = range[1];
+            double eps = m_precision;
+            for(int step = 0; step < MAX_STEPS && t <= tmax; step++){
+                for(int i = 0; i < 3; i++)
+                    hit[i] = start[i] + t*dir[i];
+                double d = getDistance(hit);
+                if(d < eps)
+                    return t;
+                t += m_stepFactor*d;
+            }
+            return -1;
+        }
+
+        /**
+           @return true if ray intersects scene bounds, range[] is parametric interval of the intersection
+         */
+        boolean intersectBounds(double start[], double dir[], double range[]){
+
+            double t0 = 0, t1 = Double.MAX_VALUE;
+            for(int i = 0; i < 3; i++){
+                double bmin = m_bounds[2*i], bmax = m_bounds[2*i+1];
+                if(abs(dir[i]) < 1.e-12){
+                    if(start[i] < bmin || start[i] > bmax)
+                        return false;
+                    continue;
+                }
+                double ta = (bmin - start[i])/dir[i];
+                double tb = (bmax - start[i])/dir[i];
+                t0 = max(t0, min(ta, tb));
+                t1 = min(t1, max(ta, tb));
+            }
+            range[0] = t0;
+            range[1] = t1;
+            return (t0 <= t1);
+        }
+
+        final double getDistance(double p[]){
+            pnt.v[0] = p[0];
+            pnt.v[1] = p[1];
+            pnt.v[2] = p[2];
+            m_root.getDataValue(pnt, data);
+            return data.v[0];
+        }
+
+        final double getShapeDistance(DataSource shape, double p[]){
+            pnt.v[0] = p[0];
+            pnt.v[1] = p[1];
+            pnt.v[2] = p[2];
+            shape.getDataValue(pnt, data);
+            return data.v[0];
+        }
+
+        /**
+           @return index of shape closest to the point
+         */
+        int getShape(double p[]){
+
+            int shape = 0;
+            if(m_shapes.length > 1){
+                double dmin = Double.MAX_VALUE;
+                for(int i = 0; i < m_shapes.length; i++){
+                    double d = getShapeDistance(m_shapes[i], p);
+                    if(d < dmin){
+                        dmin = d;
+                        shape = i;
+                    }
+                }
+            }
+            return shape;
+        }
+
+        /**
+           normal as central difference gradient of distance
+         */
+        void getNormal(double p[], double normal[]){
+
+            double h = m_gradientStep;
+            for(int i = 0; i < 3; i++){
+                tmp[0] = p[0]; tmp[1] = p[1]; tmp[2] = p[2];
+                tmp[i] = p[i] + h;
+                double d1 = getDistance(tmp);
+                tmp[i] = p[i] - h;
+                double d0 = getDistance(tmp);
+                normal[i] = d1 - d0;
+            }
+            normalize(normal);
+        }
+
+        /**
+           Phong shading of the surface point
+         */
+        void shade(double p[], double n[], double dir[], int shape, double color[]){
+
+            double diffuse[] = m_diffuse[shape];
+            double emissive[] = m_emissive[shape];
+            double specular[] = m_specular[shape];
+            double shininess = m_shininess[shape];
+            double ambient = m_ambient[shape];
+
+            for(int c = 0; c < 3; c++)
+                color[c] = emissive[c] + ambient*diffuse[c];
+
+            double l[] = light;
+            double r[] = reflected;
+            // surface point slightly above the surface to avoid self shadowing
+            double p1[] = above;
+            for(int i = 0; i < 3; i++)
+                p1[i] = p[i] + 2*m_precision*n[i];
+
+            for(int k = 0; k < m_lightPos.length; k++){
+
+                double lightColor[] = m_lightColor[k];
+                for(int c = 0; c < 3; c++)
+                    color[c] += m_lightAmbient[k]*diffuse[c]*lightColor[c];
+
+                for(int i = 0; i < 3; i++)
+                    l[i] = m_lightPos[k][i] - p[i];
+                double lightDist = sqrt(dot(l,l));
+                normalize(l);
+                double ndotl = dot(n, l);
+                if(ndotl <= 0)
+                    continue;
+                double shadow = 1;
+                if(m_shadows && m_lightShadows[k])
+                    shadow = getShadow(p1, l, lightDist);
+                if(shadow <= 0)
+                    continue;
+                // reflected light direction
+                for(int i = 0; i < 3; i++)
+                    r[i] = 2*ndotl*n[i] - l[i];
+                double rdotv = -dot(r, dir);
+                double spec = (rdotv > 0 && shininess > 0)? pow(rdotv, shininess): 0;
+                for(int c = 0; c < 3; c++)
+                    color[c] += shadow*lightColor[c]*(diffuse[c]*ndotl + specular[c]*spec);
+            }
+            for(int c = 0; c < 3; c++)
+                color[c] = clamp(color[c], 0., 1.);
+        }
+
+        /**
+           soft shadow factor from sphere tracing toward the light
+           @return 0 for full shadow, 1 for no shadow
+         */
+        double getShadow(double start[], double l[], double lightDist){
+
+            double p[] = shadowPnt;
+            if(!intersectBounds(start, l, range))
+                return 1;
+            double t = max(range[0], m_precision);
+            double tmax = min(range[1], lightDist);
+            double res = 1;
+            for(int step = 0; step < MAX_STEPS && t < tmax; step++){
+                for(int i = 0; i < 3; i++)
+                    p[i] = start[i] + t*l[i];
+                double d = getDistance(p);
+                if(d < m_precision)
+                    return 0;
+                res = min(res, SHADOW_SHARPNESS*d/t);
+                t += m_stepFactor*d;
+            }
+            return res;
+        }
+
+        /**
+           background is blend of ground and sky colors depending on vertical direction of the ray
+         */
+        void getBackground(double dir[], double color[]){
+
+            double y = 0.5*(dir[1] + 1);
+            double s = smoothStep(m_smoothStart, m_smoothEnd, y);
+            for(int c = 0; c < 3; c++)
+                color[c] = m_groundColor[c]*(1-s) + m_skyColor[c]*s;
+        }
+    } // class Tracer
+
+    static final double smoothStep(double x0, double x1, double x){
+        if(x1 <= x0)
+            return (x < x0)? 0: 1;
+        double t = clamp((x - x0)/(x1 - x0), 0., 1.);
+        return t*t*(3 - 2*t);
+    }
+
+    static final double dot(double a[], double b[]){
+        return a[0]*b[0] + a[1]*b[1] + a[2]*b[2];
+    }
+
+    static final void normalize(double a[]){
+        double len = sqrt(dot(a,a));
+        if(len > 0){
+            a[0] /= len;
+            a[1] /= len;
+            a[2] /= len;
+        }
+    }
 }
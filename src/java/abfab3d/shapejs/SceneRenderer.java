@@ -0,0 +1,226 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.shapejs;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import abfab3d.grid.util.ExecutionStoppedException;
+import abfab3d.util.ThreadUtil;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * CPU renderer of Scene images.
+ *
+ * Pixels are sphere traced via SceneImageDataSource. Image is split into tiles which are rendered in parallel
+ * on fork/join pool. Rendering is progressive: first pass traces every initialStep-th pixel in each direction
+ * and fills whole blocks with its color, each next pass halves the step and traces only pixels which were not traced before.
+ * The last pass traces all pixels with antialiasing samples of ImageSetup.
+ * ProgressListener is notified after each pass and may show the partially refined image.
+ *
+ * @author Vladimir Bulatov
+ */
+public class SceneRenderer {
+
+    static final boolean DEBUG = false;
+
+    static final int DEFAULT_TILE_SIZE = 32;
+    static final int DEFAULT_INITIAL_STEP = 8;
+
+    /**
+       receives image after each refinement pass
+     */
+    public interface ProgressListener {
+        /**
+           @param pixels image in ARGB format
+           @param step step between traced pixels of the pass, 1 means final image
+         */
+        public void imageUpdated(int pixels[], int width, int height, int step);
+    }
+
+    protected SceneImageDataSource m_source;
+    protected int m_width;
+    protected int m_height;
+    protected int m_threadCount;
+    protected int m_tileSize = DEFAULT_TILE_SIZE;
+    protected int m_initialStep = DEFAULT_INITIAL_STEP;
+    protected ProgressListener m_listener;
+
+    public SceneRenderer(Scene scene, ImageSetup setup, Camera camera){
+        this(new SceneImageDataSource(scene, setup, camera));
+    }
+
+    public SceneRenderer(SceneImageDataSource source){
+
+        m_source = source;
+        m_width = source.getImageSetup().width;
+        m_height = source.getImageSetup().height;
+        m_threadCount = ThreadUtil.getMaxThreadCount();
+    }
+
+    /**
+       set count of threads to use.
+       count < 1 means use all available processors
+     */
+    public void setThreadCount(int count){
+        m_threadCount = ThreadUtil.getThreadCount(count);
+    }
+
+    /**
+       set size of tile rendered by single task
+     */
+    public void setTileSize(int size){
+        m_tileSize = max(1, size);
+    }
+
+    /**
+       set step between pixels traced in the first pass.
+       Step is rounded down to power of 2, step 1 means no progressive refinement
+     */
+    public void setInitialStep(int step){
+        m_initialStep = Integer.highestOneBit(max(1, step));
+    }
+
+    public void setProgressListener(ProgressListener listener){
+        m_listener = listener;
+    }
+
+    /**
+       renders the scene into new image
+     */
+    public BufferedImage render(){
+
+        int pixels[] = new int[m_width*m_height];
+        render(pixels);
+        BufferedImage image = new BufferedImage(m_width, m_height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, m_width, m_height, pixels, 0, m_width);
+        return image;
+    }
+
+    /**
+       renders the scene into array of pixels in ARGB format
+       @param pixels array of size width*height, row by row, top row first
+     */
+    public void render(int pixels[]){
+
+        long t0 = time();
+        ForkJoinPool pool = new ForkJoinPool(max(1, m_threadCount));
+        try {
+            for(int step = m_initialStep; step >= 1; step /= 2){
+                pool.invoke(new TileTask(pixels, step, 0, 0, m_width, m_height));
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new ExecutionStoppedException();
+                }
+                if(DEBUG)printf("SceneRenderer pass step: %d  %d ms\n", step, (time() - t0));
+                if(m_listener != null)
+                    m_listener.imageUpdated(pixels, m_width, m_height, step);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+       renders rectangle of pixels in single pass, splits itself into subtasks until rectangle is smaller than tile
+     */
+    class TileTask extends RecursiveAction {
+
+        static final long serialVersionUID = 1L;
+
+        int pixels[];
+        int step;
+        int x0, y0, x1, y1;
+
+        TileTask(int pixels[], int step, int x0, int y0, int x1, int y1){
+            this.pixels = pixels;
+            this.step = step;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+
+        protected void compute(){
+
+            int w = x1 - x0, h = y1 - y0;
+            if(w > m_tileSize || h > m_tileSize){
+                // split along longer side, split points are aligned with initial step to keep blocks of coarse passes whole
+                int align = m_initialStep;
+                if(w >= h){
+                    int xm = x0 + ((w/2 + align - 1)/align)*align;
+                    if(xm < x1){
+                        invokeAll(new TileTask(pixels, step, x0, y0, xm, y1), new TileTask(pixels, step, xm, y0, x1, y1));
+                        return;
+                    }
+                } else {
+                    int ym = y0 + ((h/2 + align - 1)/align)*align;
+                    if(ym < y1){
+                        invokeAll(new TileTask(pixels, step, x0, y0, x1, ym), new TileTask(pixels, step, x0, ym, x1, y1));
+                        return;
+                    }
+                }
+            }
+            renderTile();
+        }
+
+        void renderTile(){
+
+            SceneImageDataSource.Tracer tracer = m_source.getTracer();
+            double color[] = tracer.color;
+            double pw = 2./m_width, ph = 2./m_height;
+            int samples = (step == 1)? m_source.getSamples(): 1;
+            // pixels traced in previous passes are at multiples of 2*step
+            int prevStep = 2*step;
+            boolean firstPass = (step == m_initialStep);
+            boolean retrace = (step == 1 && samples > 1);
+
+            for(int y = y0; y < y1; y += step){
+                for(int x = x0; x < x1; x += step){
+                    if(!firstPass && !retrace && (x % prevStep) == 0 && (y % prevStep) == 0)
+                        continue;
+                    m_source.getScreenColor(tracer, (x + 0.5)*pw - 1, 1 - (y + 0.5)*ph, pw, ph, color, samples);
+                    fillBlock(pixels, x, y, min(x + step, x1), min(y + step, y1), toARGB(color));
+                }
+            }
+        }
+    } // class TileTask
+
+    final void fillBlock(int pixels[], int x0, int y0, int x1, int y1, int argb){
+        for(int y = y0; y < y1; y++){
+            int offset = y*m_width;
+            for(int x = x0; x < x1; x++){
+                pixels[offset + x] = argb;
+            }
+        }
+    }
+
+    /**
+       converts color into ARGB, background pixels are opaque
+     */
+    static int toARGB(double color[]){
+
+        int r = toByte(color[0]);
+        int g = toByte(color[1]);
+        int b = toByte(color[2]);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    static final int toByte(double v){
+        return max(0, min(255, (int)(v*255 + 0.5)));
+    }
+}
@@ -0,0 +1,337 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.symmetry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.vecmath.Matrix4d;
+
+import abfab3d.core.Bounds;
+import abfab3d.core.Vec;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.fmt;
+
+/**
+   lazy lookup table to accelerate transformation of points into fundamental domain of euclidean symmetry group
+
+   the table is a regular grid of cells over given bounds.
+   Each cell stores index of group element which moves center of the cell into fundamental domain.
+   The element is calculated on first access to the cell by tracking composition of pairing transforms
+   used in the iterative reduction.
+   Point inside of the cell is transformed by the cell's element and the result is refined by usual iterations,
+   which usually takes 0 or 1 step.
+   Points outside of the table bounds are transformed by usual iterations.
+   Axes which are not changed by the group (like z-axis of wallpaper groups) are collapsed to single cell.
+
+   Distinct group elements are stored once as affine matrices.
+   The table is safe to use from multiple threads.
+
+   @author Vladimir Bulatov
+ */
+public class FDLookupTable {
+
+    static final boolean DEBUG = false;
+
+    static final int UNDEFINED = -1; // cell was not calculated yet
+    static final int OUTSIDE = -2;   // center of cell can't be moved into FD in maxIterations
+
+    // tolerance used to compare matrices of group elements
+    static final double MATRIX_EPS = 1.e-9;
+
+    SymmetryGroup m_group;
+    // planes of fundamental domain
+    FDPlane m_planes[];
+    // matrices of pairing transforms
+    Matrix4d m_pairing[];
+
+    double xmin, ymin, zmin;
+    double m_cellSize;
+    int nx, ny, nz;
+    // 1 for axes used in cell index, 0 for collapsed axes
+    int ux, uy, uz;
+
+    // index of group element for each cell
+    AtomicIntegerArray m_cells;
+    // affine matrices of group elements (12 coefficients each)
+    volatile double m_elements[][] = new double[16][];
+    int m_elementCount = 0;
+    HashMap<ElementKey, Integer> m_elementIndex = new HashMap<ElementKey, Integer>();
+
+    /**
+       @param group euclidean symmetry group
+       @param bounds bounds of the table
+       @param cellSize size of table cell
+       @throws IllegalArgumentException if group is not euclidean
+     */
+    public FDLookupTable(SymmetryGroup group, Bounds bounds, double cellSize){
+
+        if(!isSupported(group))
+            throw new IllegalArgumentException(fmt("FDLookupTable: unsupported symmetry group: %s", group));
+        if(cellSize <= 0.)
+            throw new IllegalArgumentException(fmt("FDLookupTable: illegal cell size: %g", cellSize));
+
+        m_group = group;
+        m_planes = group.m_splanes;
+        m_pairing = getPairingMatrices(group);
+        m_cellSize = cellSize;
+
+        xmin = bounds.xmin;
+        ymin = bounds.ymin;
+        zmin = bounds.zmin;
+        ux = isInvariantAxis(0)? 0: 1;
+        uy = isInvariantAxis(1)? 0: 1;
+        uz = isInvariantAxis(2)? 0: 1;
+        nx = (ux == 0)? 1: Math.max(1, (int)Math.ceil((bounds.xmax - bounds.xmin)/cellSize));
+        ny = (uy == 0)? 1: Math.max(1, (int)Math.ceil((bounds.ymax - bounds.ymin)/cellSize));
+        nz = (uz == 0)? 1: Math.max(1, (int)Math.ceil((bounds.zmax - bounds.zmin)/cellSize));
+
+        long cellCount = (long)nx*ny*nz;
+        if(cellCount >= Integer.MAX_VALUE)
+            throw new IllegalArgumentException(fmt("FDLookupTable: too many cells: %d", cellCount));
+
+        m_cells = new AtomicIntegerArray((int)cellCount);
+        for(int i = 0; i < cellCount; i++){
+            m_cells.lazySet(i, UNDEFINED);
+        }
+        if(DEBUG)printf("FDLookupTable [%d x %d x %d]\n", nx, ny, nz);
+    }
+
+    /**
+       @return true if lookup table can be used for the group
+       the group should consist of euclidean transforms
+     */
+    public static boolean isSupported(SymmetryGroup group){
+
+        return (getPairingMatrices(group) != null);
+
+    }
+
+    /**
+       transforms the point into fundamental domain
+       @return ResultCodes.RESULT_OK on success or ResultCodes.RESULT_OUTSIDE if the point can't be moved into FD
+     */
+    public int toFD(Vec pnt){
+
+        double v[] = pnt.v;
+        int ix = ux*(int)Math.floor((v[0] - xmin)/m_cellSize);
+        int iy = uy*(int)Math.floor((v[1] - ymin)/m_cellSize);
+        int iz = uz*(int)Math.floor((v[2] - zmin)/m_cellSize);
+
+        if(ix >= 0 && iy >= 0 && iz >= 0 && ix < nx && iy < ny && iz < nz){
+            int cell = ix + nx*(iy + ny*iz);
+            int element = m_cells.get(cell);
+            if(element == UNDEFINED)
+                element = initCell(cell, ix, iy, iz);
+            if(element >= 0){
+                transform(m_elements[element], v);
+            }
+        }
+        // refine the result
+        return m_group.toFDIterative(pnt);
+
+    }
+
+    /**
+       @return count of distinct group elements stored in the table
+     */
+    public int getElementCount(){
+        return m_elementCount;
+    }
+
+    /**
+       @return count of cells in the table
+     */
+    public int getCellCount(){
+        return m_cells.length();
+    }
+
+    /**
+       @return true if the coordinate along the axis is not used by planes of FD and is not changed by pairing transforms
+     */
+    boolean isInvariantAxis(int axis){
+
+        for(int i = 0; i < m_pairing.length; i++){
+            Matrix4d m = m_pairing[i];
+            for(int k = 0; k < 4; k++){
+                // row of the axis should be unit vector 
+                if(Math.abs(m.getElement(axis, k) - ((k == axis)? 1: 0)) > MATRIX_EPS)
+                    return false;
+                // column of the axis should be unit vector 
+                if(k < 3 && Math.abs(m.getElement(k, axis) - ((k == axis)? 1: 0)) > MATRIX_EPS)
+                    return false;
+            }
+            if(Math.abs(getNormal(m_planes[i], axis)) > MATRIX_EPS)
+                return false;
+        }
+        return true;
+    }
+
+    static double getNormal(FDPlane plane, int axis){
+        EPlane p = (EPlane)plane;
+        switch(axis){
+        default:
+        case 0: return p.nx;
+        case 1: return p.ny;
+        case 2: return p.nz;
+        }
+    }
+
+    /**
+       calculates group element of the cell
+     */
+    int initCell(int cell, int ix, int iy, int iz){
+
+        double p[] = new double[]{xmin + (ix + 0.5)*m_cellSize, ymin + (iy + 0.5)*m_cellSize, zmin + (iz + 0.5)*m_cellSize};
+        Matrix4d m = new Matrix4d();
+        m.setIdentity();
+        Vec pnt = new Vec(3);
+        pnt.set(p[0], p[1], p[2]);
+
+        int element = OUTSIDE;
+        if(getReduction(pnt, m)){
+            element = addElement(m);
+        }
+        m_cells.set(cell, element);
+        return element;
+    }
+
+    /**
+       performs iterative reduction of point to FD and accumulates composition of used pairing transforms
+       @return true if point was moved into FD
+     */
+    boolean getReduction(Vec pnt, Matrix4d m){
+
+        int planeCount = m_planes.length;
+        int iter = m_group.getMaxIterations();
+        while(iter-- > 0){
+
+            boolean planeFound = false;
+
+            for(int i = 0; i < planeCount; i++){
+                if(m_planes[i].distance(pnt) > 0) {
+                    planeFound = true;
+                    ETransform.transform(m_pairing[i], pnt.v);
+                    m.mul(m_pairing[i], m);
+                    break;
+                }
+            }
+            if(!planeFound){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+       adds element to the list of elements if it was not there
+       @return index of the element
+     */
+    synchronized int addElement(Matrix4d m){
+
+        double e[] = new double[]{m.m00, m.m01, m.m02, m.m03,
+                                  m.m10, m.m11, m.m12, m.m13,
+                                  m.m20, m.m21, m.m22, m.m23};
+        ElementKey key = new ElementKey(e);
+        Integer index = m_elementIndex.get(key);
+        if(index != null)
+            return index.intValue();
+
+        double elements[][] = m_elements;
+        if(m_elementCount == elements.length){
+            elements = Arrays.copyOf(elements, 2*elements.length);
+        }
+        elements[m_elementCount] = e;
+        // volatile write publishes new element to other threads
+        m_elements = elements;
+        m_elementIndex.put(key, m_elementCount);
+        return m_elementCount++;
+
+    }
+
+    /**
+       applies affine matrix to point
+     */
+    static final void transform(double m[], double p[]){
+
+        double x = p[0], y = p[1], z = p[2];
+        p[0] = m[0]*x + m[1]*y + m[2]*z + m[3];
+        p[1] = m[4]*x + m[5]*y + m[6]*z + m[7];
+        p[2] = m[8]*x + m[9]*y + m[10]*z + m[11];
+
+    }
+
+    /**
+       @return matrices of pairing transforms used in point reduction or null if group is not euclidean
+     */
+    static Matrix4d[] getPairingMatrices(SymmetryGroup group){
+
+        SPlane planes[] = group.m_splanes;
+        Matrix4d pairing[] = new Matrix4d[planes.length];
+
+        switch(group.getType()){
+        default:
+            return null;
+        case SymmetryGroup.TYPE_REFLECTIONS:
+            for(int i = 0; i < planes.length; i++){
+                if(!(planes[i] instanceof EPlane))
+                    return null;
+                EPlane p = (EPlane)planes[i];
+                pairing[i] = ETransform.getReflectionMatrix(p.getNormal(), p.getDist());
+            }
+            return pairing;
+
+        case SymmetryGroup.TYPE_EUCLIDEAN:
+            PairingTransform trans[] = group.m_transforms;
+            if(trans == null || trans.length < planes.length)
+                return null;
+            for(int i = 0; i < planes.length; i++){
+                if(!(planes[i] instanceof EPlane) || !(trans[i] instanceof ETransform))
+                    return null;
+                // ETransform moves points via inverse matrix
+                pairing[i] = ((ETransform)trans[i]).getInverseMatrix();
+            }
+            return pairing;
+        }
+    }
+
+    /**
+       key to find identical group elements
+     */
+    static class ElementKey {
+
+        long q[];
+        int hash;
+
+        ElementKey(double e[]){
+            q = new long[e.length];
+            for(int i = 0; i < e.length; i++){
+                q[i] = Math.round(e[i]/MATRIX_EPS);
+            }
+            hash = Arrays.hashCode(q);
+        }
+
+        public int hashCode(){
+            return hash;
+        }
+
+        public boolean equals(Object obj){
+            if(!(obj instanceof ElementKey))
+                return false;
+            return Arrays.equals(q, ((ElementKey)obj).q);
+        }
+    }
+
+} // class FDLookupTable
@@ -18,6 +18,7 @@ import javax.vecmath.Matrix4d;
 
 import static abfab3d.core.Output.printf;
 
+import abfab3d.core.Bounds;
 import abfab3d.core.Vec;
 import abfab3d.core.ResultCodes;
 
@@ -58,6 +59,8 @@ public class SymmetryGroup {
     //ITransform m_itransforms[]; // inversive transforms
     
     int m_maxIterations = 20;
+    // optional lookup table to accelerate calculations 
+    FDLookupTable m_lookupTable;
     
     public SymmetryGroup(SPlane splanes[]){
         m_type = TYPE_REFLECTIONS;
@@ -75,7 +78,7 @@ public class SymmetryGroup {
             m_etransforms[i] = new ETransform(transforms[i]);
         }
         // general transform are ETransform
-        m_transforms = m_transforms;
+        m_transforms = m_etransforms;
         
     }
 
@@ -110,8 +113,48 @@ public class SymmetryGroup {
         
     }
 
+    /**
+       creates lazy lookup table which stores group element for each cell of the table 
+       lookup table is used only for euclidean groups. It is ignored for groups with sphere inversions 
+       @param bounds area covered by the table 
+       @param cellSize size of table cell 
+       @return true if the table was created 
+     */
+    public boolean setLookupTable(Bounds bounds, double cellSize){
+
+        if(!FDLookupTable.isSupported(this)){
+            m_lookupTable = null;
+            return false;
+        }
+        m_lookupTable = new FDLookupTable(this, bounds, cellSize);
+        return true;
+
+    }
+
+    /**
+       removes lookup table 
+     */
+    public void clearLookupTable(){
+        m_lookupTable = null;
+    }
+
+    public FDLookupTable getLookupTable(){
+        return m_lookupTable;
+    }
+
     public int toFD(Vec pnt){
 
+        if(m_lookupTable != null)
+            return m_lookupTable.toFD(pnt);
+        else 
+            return toFDIterative(pnt);
+    }
+
+    /**
+       transforms point into fundamental domain by iterative reflections in the sides of FD
+     */
+    public int toFDIterative(Vec pnt){
+
         switch(m_type){
         default:
         case TYPE_REFLECTIONS:
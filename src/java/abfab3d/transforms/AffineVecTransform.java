@@ -0,0 +1,41 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.transforms;
+
+import javax.vecmath.Matrix4d;
+
+/**
+   transform which is affine and can be represented by 4x4 matrix 
+   CompositeTransform uses it to fuse sequences of affine transforms into single matrix 
+   matrices are valid after the transform was initialized 
+
+   @author Vladimir Bulatov
+ */
+public interface AffineVecTransform {
+
+    /**
+       @param matrix matrix of direct transform 
+     */
+    public void getMatrix(Matrix4d matrix);
+
+    /**
+       @param matrix matrix of inverse transform 
+     */
+    public void getInverseMatrix(Matrix4d matrix);
+
+    /**
+       @return factor by which the direct transform multiplies Vec.scaleFactor
+     */
+    public double getScaleFactor();
+
+}
@@ -12,8 +12,12 @@
 
 package abfab3d.transforms;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import javax.vecmath.Matrix4d;
+
+import abfab3d.core.BulkVecTransform;
 import abfab3d.core.Initializable;
 import abfab3d.core.ResultCodes;
 import abfab3d.core.Vec;
@@ -29,12 +33,17 @@ import static abfab3d.core.Output.printf;
 /**
 
    Arbitrary chain of transformations to be applied to the point 
+
+   initialize() fuses each run of consecutive affine transforms into single 4x4 matrix. 
+   The chain also can transform blocks of points via BulkVecTransform interface, 
+   transforms which do not implement BulkVecTransform are applied to the block point by point.
    
    @author Vladimir Bulatov   
  */
-public class CompositeTransform extends BaseTransform implements VecTransform, Initializable {
+public class CompositeTransform extends BaseTransform implements VecTransform, BulkVecTransform, Initializable {
         
-    private VecTransform aTransforms[]; // array of transforms used in calculations 
+    private VecTransform aTransforms[]; // array of transforms 
+    private VecTransform m_steps[]; // array of transforms used in calculations with fused affine transforms
 
     SNodeListParameter mp_transforms = new SNodeListParameter("transforms");
 
@@ -116,10 +125,42 @@ public class CompositeTransform extends BaseTransform implements VecTransform, I
                     return res;
             }
         }
+        m_steps = fuseAffineTransforms(aTransforms);
         
         return ResultCodes.RESULT_OK;
     }
 
+    /**
+       replaces runs of consecutive affine transforms with single matrix transform 
+     */
+    static VecTransform[] fuseAffineTransforms(VecTransform trans[]){
+
+        ArrayList<VecTransform> steps = new ArrayList<VecTransform>();
+        int size = trans.length;
+        int i = 0;
+        while(i < size){
+            int runEnd = i;
+            while(runEnd < size && trans[runEnd] instanceof AffineVecTransform)
+                runEnd++;
+            if(runEnd - i >= 2){
+                steps.add(new MatrixTransform(trans, i, runEnd));
+                i = runEnd;
+            } else {
+                steps.add(trans[i]);
+                i++;
+            }
+        }
+        return steps.toArray(new VecTransform[steps.size()]);
+    }
+
+    /**
+       @return count of transforms used in calculations after affine transforms were fused
+       @noRefGuide
+     */
+    public int getStepsCount(){
+        return m_steps.length;
+    }
+
     public VecTransform [] getTransformsArray(){
 
         List<SNode> trans = (List<SNode>)mp_transforms.getValue();
@@ -137,7 +178,7 @@ public class CompositeTransform extends BaseTransform implements VecTransform, I
      */
     public int transform(Vec in, Vec out) {
         
-        int len = aTransforms.length;
+        int len = m_steps.length;
         if(len < 1){
             // copy input to output                 
             out.set(in);
@@ -149,12 +190,11 @@ public class CompositeTransform extends BaseTransform implements VecTransform, I
         
         for(int i = 0; i < len; i++){
             
-            VecTransform tr = aTransforms[i];
-            int res = tr.transform(in, out);
-                if(res != RESULT_OK)
-                    return res;
-                
-                in.set(out);
+            VecTransform tr = m_steps[i];
+            int res = tr.transform(vin, out);
+            if(res != RESULT_OK)
+                return res;
+            vin.set(out);
         }
         
         return ResultCodes.RESULT_OK;
@@ -165,7 +205,7 @@ public class CompositeTransform extends BaseTransform implements VecTransform, I
      */
     public int inverse_transform(Vec in, Vec out) {
         
-        int len = aTransforms.length;
+        int len = m_steps.length;
         if(len < 1){
             // copy input to output                 
             out.set(in);
@@ -175,9 +215,9 @@ public class CompositeTransform extends BaseTransform implements VecTransform, I
         //TODO garbage generation 
         Vec vin = new Vec(in);
         
-        for(int i = aTransforms.length-1; i >= 0; i--){
+        for(int i = len-1; i >= 0; i--){
             
-            VecTransform tr = aTransforms[i];
+            VecTransform tr = m_steps[i];
             int res = tr.inverse_transform(vin, out);
             
             if(res != RESULT_OK)
@@ -189,6 +229,64 @@ public class CompositeTransform extends BaseTransform implements VecTransform, I
         
     }
 
+    /**
+       @noRefGuide
+     */
+    public void transform(double coord[], double scale[], int result[], int offset, int count) {
+
+        for(int i = 0; i < m_steps.length; i++){
+            transformBlock(m_steps[i], false, coord, scale, result, offset, count);
+        }
+    }
+
+    /**
+       @noRefGuide
+     */
+    public void inverse_transform(double coord[], double scale[], int result[], int offset, int count) {
+
+        for(int i = m_steps.length-1; i >= 0; i--){
+            transformBlock(m_steps[i], true, coord, scale, result, offset, count);
+        }
+    }
+
+    /**
+       applies single transform to the block of points 
+     */
+    static void transformBlock(VecTransform tr, boolean inverse, double coord[], double scale[], int result[], int offset, int count){
+
+        if(tr instanceof BulkVecTransform){
+            if(inverse) 
+                ((BulkVecTransform)tr).inverse_transform(coord, scale, result, offset, count);
+            else 
+                ((BulkVecTransform)tr).transform(coord, scale, result, offset, count);
+            return;
+        }
+        // point by point fallback 
+        Vec in = new Vec(3);
+        Vec out = new Vec(3);
+        int end = offset + count;
+        for(int i = offset; i < end; i++){
+            if(result != null && result[i] != RESULT_OK)
+                continue;
+            int k = 3*i;
+            in.v[0] = coord[k];
+            in.v[1] = coord[k+1];
+            in.v[2] = coord[k+2];
+            in.scaleFactor = (scale != null)? scale[i]: 1;
+            int res = (inverse)? tr.inverse_transform(in, out): tr.transform(in, out);
+            if(res != RESULT_OK){
+                if(result != null) 
+                    result[i] = res;
+                continue;
+            }
+            coord[k] = out.v[0];
+            coord[k+1] = out.v[1];
+            coord[k+2] = out.v[2];
+            if(scale != null)
+                scale[i] = out.scaleFactor;
+        }
+    }
+
     @Override
     public SNode[] getChildren() {
         
@@ -229,4 +327,97 @@ public class CompositeTransform extends BaseTransform implements VecTransform, I
             }
         }
     }
+
+    /**
+       sequence of affine transforms fused into single matrix 
+     */
+    static class MatrixTransform implements VecTransform, BulkVecTransform, AffineVecTransform {
+
+        Matrix4d m_matrix = new Matrix4d();
+        Matrix4d m_inverse = new Matrix4d();
+        double m_scaleFactor = 1;
+
+        /**
+           @param trans array of affine transforms 
+           @param start index of the first transform of the sequence 
+           @param end index after the last transform of the sequence 
+         */
+        MatrixTransform(VecTransform trans[], int start, int end){
+
+            m_matrix.setIdentity();
+            m_inverse.setIdentity();
+            Matrix4d m = new Matrix4d();
+            for(int i = start; i < end; i++){
+                AffineVecTransform at = (AffineVecTransform)trans[i];
+                // direct transforms are applied in order of the chain
+                at.getMatrix(m);
+                m_matrix.mul(m, m_matrix);
+                // inverse transforms are applied in reverse order
+                at.getInverseMatrix(m);
+                m_inverse.mul(m);
+                m_scaleFactor *= at.getScaleFactor();
+            }
+        }
+
+        public int transform(Vec in, Vec out) {
+            out.set(in);
+            apply(m_matrix, in.v, out.v);
+            out.mulScale(m_scaleFactor);
+            return RESULT_OK;
+        }
+
+        public int inverse_transform(Vec in, Vec out) {
+            out.set(in);
+            apply(m_inverse, in.v, out.v);
+            out.mulScale(1/m_scaleFactor);
+            return RESULT_OK;
+        }
+
+        public void transform(double coord[], double scale[], int result[], int offset, int count) {
+            apply(m_matrix, m_scaleFactor, coord, scale, result, offset, count);
+        }
+
+        public void inverse_transform(double coord[], double scale[], int result[], int offset, int count) {
+            apply(m_inverse, 1/m_scaleFactor, coord, scale, result, offset, count);
+        }
+
+        public void getMatrix(Matrix4d matrix){
+            matrix.set(m_matrix);
+        }
+
+        public void getInverseMatrix(Matrix4d matrix){
+            matrix.set(m_inverse);
+        }
+
+        public double getScaleFactor(){
+            return m_scaleFactor;
+        }
+
+        static final void apply(Matrix4d m, double in[], double out[]){
+            double x = in[0], y = in[1], z = in[2];
+            out[0] = m.m00*x + m.m01*y + m.m02*z + m.m03;
+            out[1] = m.m10*x + m.m11*y + m.m12*z + m.m13;
+            out[2] = m.m20*x + m.m21*y + m.m22*z + m.m23;
+        }
+
+        static void apply(Matrix4d m, double factor, double coord[], double scale[], int result[], int offset, int count){
+
+            double 
+                m00 = m.m00, m01 = m.m01, m02 = m.m02, m03 = m.m03,
+                m10 = m.m10, m11 = m.m11, m12 = m.m12, m13 = m.m13,
+                m20 = m.m20, m21 = m.m21, m22 = m.m22, m23 = m.m23;
+            int end = offset + count;
+            for(int i = offset; i < end; i++){
+                if(result != null && result[i] != RESULT_OK)
+                    continue;
+                int k = 3*i;
+                double x = coord[k], y = coord[k+1], z = coord[k+2];
+                coord[k]   = m00*x + m01*y + m02*z + m03;
+                coord[k+1] = m10*x + m11*y + m12*z + m13;
+                coord[k+2] = m20*x + m21*y + m22*z + m23;
+                if(scale != null)
+                    scale[i] *= factor;
+            }
+        }
+    } // class MatrixTransform
 }  // class CompositeTransform
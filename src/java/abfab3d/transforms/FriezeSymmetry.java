@@ -43,6 +43,7 @@ public class FriezeSymmetry extends BaseTransform implements Initializable {
     protected IntParameter  mp_maxCount = new IntParameter("maxCount","max count of iteratioins to get to fundamental domain",100);
     protected EnumParameter  mp_symmetryType = new EnumParameter("symmetryType","type of walpaper symetry",SymmetryNames, SymmetryNames[FRIEZE_II]);
     protected ObjectParameter  mp_symmetryGroup = new ObjectParameter("symmetryGroup","symmetry group to use",null);
+    protected SymmetryLookupTableParams m_tableParams = new SymmetryLookupTableParams();
 
     Parameter aparam[] = new Parameter[]{
         mp_domainWidth,
@@ -84,6 +85,7 @@ public class FriezeSymmetry extends BaseTransform implements Initializable {
      */
     public FriezeSymmetry() {
         super.addParams(aparam);
+        super.addParams(m_tableParams.getParams());
     }
 
     /**
@@ -103,6 +105,7 @@ public class FriezeSymmetry extends BaseTransform implements Initializable {
      */
     public FriezeSymmetry(int symmetryType, double domainWidth) {
         super.addParams(aparam);
+        super.addParams(m_tableParams.getParams());
         mp_symmetryType.setSelectedIndex(symmetryType);
         mp_domainWidth.setValue(domainWidth);
     }
@@ -169,6 +172,7 @@ public class FriezeSymmetry extends BaseTransform implements Initializable {
         // we do this to provide universal way to access m_group via get("symmetryGroup");
         mp_symmetryGroup.setValue(m_group);
         m_group.setMaxIterations(maxCount);
+        m_tableParams.initialize(m_group);
 
         return ResultCodes.RESULT_OK;
 
@@ -12,6 +12,9 @@
 
 package abfab3d.transforms;
 
+import javax.vecmath.Matrix4d;
+
+import abfab3d.core.BulkVecTransform;
 import abfab3d.core.ResultCodes;
 import abfab3d.param.BaseParameterizable;
 import abfab3d.core.Vec;
@@ -27,7 +30,7 @@ import static abfab3d.util.Symmetry.toFundamentalDomain;
    only transfers data 
    
 */
-public class Identity extends BaseParameterizable implements VecTransform {
+public class Identity extends BaseParameterizable implements VecTransform, BulkVecTransform, AffineVecTransform {
     /**
        @noRefGuide
      */
@@ -43,4 +46,37 @@ public class Identity extends BaseParameterizable implements VecTransform {
         return ResultCodes.RESULT_OK;
     }
     
+
+    /**
+       @noRefGuide
+     */
+    public void transform(double coord[], double scale[], int result[], int offset, int count) {
+    }
+
+    /**
+       @noRefGuide
+     */
+    public void inverse_transform(double coord[], double scale[], int result[], int offset, int count) {
+    }
+
+    /**
+       @noRefGuide
+     */
+    public void getMatrix(Matrix4d matrix) {
+        matrix.setIdentity();
+    }
+
+    /**
+       @noRefGuide
+     */
+    public void getInverseMatrix(Matrix4d matrix) {
+        matrix.setIdentity();
+    }
+
+    /**
+       @noRefGuide
+     */
+    public double getScaleFactor() {
+        return 1.;
+    }
 }
@@ -14,6 +14,7 @@ package abfab3d.transforms;
 
 import javax.vecmath.Vector3d;
 
+import abfab3d.core.BulkVecTransform;
 import abfab3d.core.ResultCodes;
 import abfab3d.param.Parameter;
 import abfab3d.param.Vector3dParameter;
@@ -41,7 +42,7 @@ import static abfab3d.core.Output.printf;
    The transformation works by mapping any point in space into corresponding point in the fundamental domain.    
 
 */
-public class PeriodicWrap extends BaseTransform implements Initializable {
+public class PeriodicWrap extends BaseTransform implements BulkVecTransform, Initializable {
     
     private static final boolean DEBUG = false;
 
@@ -272,5 +273,50 @@ public class PeriodicWrap extends BaseTransform implements Initializable {
         return ResultCodes.RESULT_OK;
         
     }
+
+    /**
+       @noRefGuide
+     */
+    public void transform(double coord[], double scale[], int result[], int offset, int count) {
+        // direct transform is identity 
+    }
+
+    /**
+       @noRefGuide
+     */
+    public void inverse_transform(double coord[], double scale[], int result[], int offset, int count) {
+
+        double 
+            ox = m_origin.x, oy = m_origin.y, oz = m_origin.z,
+            d1x = m_d1.x, d1y = m_d1.y, d1z = m_d1.z,
+            d2x = m_d2.x, d2y = m_d2.y, d2z = m_d2.z,
+            d3x = m_d3.x, d3y = m_d3.y, d3z = m_d3.z,
+            a1x = m_a1.x, a1y = m_a1.y, a1z = m_a1.z,
+            a2x = m_a2.x, a2y = m_a2.y, a2z = m_a2.z,
+            a3x = m_a3.x, a3y = m_a3.y, a3z = m_a3.z;
+        int dim = m_count;
+        int end = offset + count;
+
+        for(int i = offset; i < end; i++){
+            if(result != null && result[i] != RESULT_OK)
+                continue;
+            int k = 3*i;
+            double 
+                x = coord[k] - ox,
+                y = coord[k+1] - oy,
+                z = coord[k+2] - oz;
+            double 
+                c1 = (x*d1x + y*d1y + z*d1z),
+                c2 = (x*d2x + y*d2y + z*d2z),
+                c3 = (x*d3x + y*d3y + z*d3z);            
+            // only first dim coordinates are periodic
+            if(dim >= 3) c3 -= floor(c3);
+            if(dim >= 2) c2 -= floor(c2);
+            if(dim >= 1) c1 -= floor(c1);
+            coord[k]   = c1*a1x + c2*a2x + c3*a3x + ox;
+            coord[k+1] = c1*a1y + c2*a2y + c3*a3y + oy;
+            coord[k+2] = c1*a1z + c2*a2z + c3*a3z + oz;
+        }
+    }
     
 } // class Rotation
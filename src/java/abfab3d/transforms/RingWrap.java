@@ -12,6 +12,7 @@
 
 package abfab3d.transforms;
 
+import abfab3d.core.BulkVecTransform;
 import abfab3d.core.ResultCodes;
 import abfab3d.param.DoubleParameter;
 import abfab3d.param.Parameter;
@@ -38,7 +39,7 @@ import static abfab3d.util.Symmetry.toFundamentalDomain;
    <embed src="doc-files/ring_wrap.svg" type="image/svg+xml"/> 
    
 */
-public class RingWrap extends BaseTransform implements VecTransform, Initializable {
+public class RingWrap extends BaseTransform implements VecTransform, BulkVecTransform, Initializable {
     
     public double m_radius = 0.0; // units are meters       
         
@@ -134,4 +135,43 @@ public class RingWrap extends BaseTransform implements VecTransform, Initializab
         return ResultCodes.RESULT_OK;
         
     }
+
+    /**
+     * Calculate cartesian to polar coordinates for block of points
+     * @noRefGuide
+     */
+    public void transform(double coord[], double scale[], int result[], int offset, int count) {
+
+        double radius = m_radius;
+        int end = offset + count;
+        for(int i = offset; i < end; i++){
+            if(result != null && result[i] != RESULT_OK)
+                continue;
+            int k = 3*i;
+            double angle = coord[k] / radius;
+            double r = radius + coord[k+2];
+            coord[k] = r * FastMath.sin(angle);
+            coord[k+2] = r * FastMath.cos(angle);
+        }
+    }
+
+    /**
+     * Calculate polar to cartesian coordinates for block of points
+     * @noRefGuide
+     */
+    public void inverse_transform(double coord[], double scale[], int result[], int offset, int count) {
+
+        double radius = m_radius;
+        int end = offset + count;
+        for(int i = offset; i < end; i++){
+            if(result != null && result[i] != RESULT_OK)
+                continue;
+            int k = 3*i;
+            double wx = coord[k] / radius;
+            double wz = coord[k+2] / radius;
+            double dist = FastMath.sqrt(wx * wx + wz * wz);
+            coord[k] = FastMath.atan2(wx, wz) * radius;
+            coord[k+2] = (dist-1) * radius;
+        }
+    }
 }        
@@ -13,9 +13,11 @@
 package abfab3d.transforms;
 
 import javax.vecmath.Matrix3d;
+import javax.vecmath.Matrix4d;
 import javax.vecmath.Vector3d;
 import javax.vecmath.AxisAngle4d;
 
+import abfab3d.core.BulkVecTransform;
 import abfab3d.core.ResultCodes;
 import abfab3d.param.AxisAngle4dParameter;
 import abfab3d.param.Parameter;
@@ -29,7 +31,7 @@ import static abfab3d.core.Output.printf;
 /**
    performs rotation about given axis 
 */
-public class Rotation extends BaseTransform implements VecTransform, Initializable {
+public class Rotation extends BaseTransform implements VecTransform, BulkVecTransform, AffineVecTransform, Initializable {
     
     private Vector3d m_axis = new Vector3d(1,0,0); 
     private double m_angle = 0;
@@ -185,4 +187,67 @@ public class Rotation extends BaseTransform implements VecTransform, Initializab
         
     }
 
+    /**
+       @noRefGuide
+     */
+    public void transform(double coord[], double scale[], int result[], int offset, int count) {
+        rotate(mat, coord, result, offset, count);
+    }
+
+    /**
+       @noRefGuide
+     */
+    public void inverse_transform(double coord[], double scale[], int result[], int offset, int count) {
+        rotate(mat_inv, coord, result, offset, count);
+    }
+
+    private void rotate(Matrix3d m, double coord[], int result[], int offset, int count){
+
+        double cx = m_centerx, cy = m_centery, cz = m_centerz;
+        int end = offset + count;
+        for(int i = offset; i < end; i++){
+            if(result != null && result[i] != RESULT_OK)
+                continue;
+            int k = 3*i;
+            double x = coord[k] - cx;
+            double y = coord[k+1] - cy;
+            double z = coord[k+2] - cz;
+            coord[k]   = m.m00*x + m.m01*y + m.m02*z + cx;
+            coord[k+1] = m.m10*x + m.m11*y + m.m12*z + cy;
+            coord[k+2] = m.m20*x + m.m21*y + m.m22*z + cz;
+        }
+    }
+
+    /**
+       @noRefGuide
+     */
+    public void getMatrix(Matrix4d matrix){
+        getMatrix(mat, matrix);
+    }
+
+    /**
+       @noRefGuide
+     */
+    public void getInverseMatrix(Matrix4d matrix){
+        getMatrix(mat_inv, matrix);
+    }
+
+    // rotation about center: T(c) R T(-c)
+    private void getMatrix(Matrix3d m, Matrix4d matrix){
+
+        matrix.setIdentity();
+        matrix.setRotationScale(m);
+        double cx = m_centerx, cy = m_centery, cz = m_centerz;
+        matrix.m03 = cx - (m.m00*cx + m.m01*cy + m.m02*cz);
+        matrix.m13 = cy - (m.m10*cx + m.m11*cy + m.m12*cz);
+        matrix.m23 = cz - (m.m20*cx + m.m21*cy + m.m22*cz);
+    }
+
+    /**
+       @noRefGuide
+     */
+    public double getScaleFactor(){
+        return 1.;
+    }
+
 } // class Rotation
@@ -11,6 +11,7 @@
 
 package abfab3d.transforms;
 
+import abfab3d.core.BulkVecTransform;
 import abfab3d.core.ResultCodes;
 import abfab3d.param.Parameter;
 import abfab3d.param.Vector3dParameter;
@@ -18,13 +19,14 @@ import abfab3d.core.Initializable;
 import abfab3d.core.Vec;
 import abfab3d.core.VecTransform;
 
+import javax.vecmath.Matrix4d;
 import javax.vecmath.Vector3d;
 
 
 /**
  * Performs scaling by given factor
  */
-public class Scale extends BaseTransform implements VecTransform, Initializable {
+public class Scale extends BaseTransform implements VecTransform, BulkVecTransform, AffineVecTransform, Initializable {
 
     protected double sx = 1., sy = 1., sz = 1.;
     protected double cx = 0., cy = 0., cz = 0.;
@@ -131,9 +133,9 @@ public class Scale extends BaseTransform implements VecTransform, Initializable
 
         out.set(in);
 
-        out.v[0] = in.v[0] * sx;
-        out.v[1] = in.v[1] * sy;
-        out.v[2] = in.v[2] * sz;
+        out.v[0] = (in.v[0] - cx) * sx + cx;
+        out.v[1] = (in.v[1] - cy) * sy + cy;
+        out.v[2] = (in.v[2] - cz) * sz + cz;
 
         out.mulScale(averageScale);
 
@@ -173,4 +175,67 @@ public class Scale extends BaseTransform implements VecTransform, Initializable
 
     }
 
+    /**
+     @noRefGuide
+     */
+    public void transform(double coord[], double scale[], int result[], int offset, int count) {
+        scale(coord, scale, result, offset, count, sx, sy, sz, averageScale);
+    }
+
+    /**
+     @noRefGuide
+     */
+    public void inverse_transform(double coord[], double scale[], int result[], int offset, int count) {
+        scale(coord, scale, result, offset, count, 1 / sx, 1 / sy, 1 / sz, 1 / averageScale);
+    }
+
+    private void scale(double coord[], double scale[], int result[], int offset, int count,
+                       double sx, double sy, double sz, double factor) {
+
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            if (result != null && result[i] != RESULT_OK)
+                continue;
+            int k = 3 * i;
+            coord[k] = (coord[k] - cx) * sx + cx;
+            coord[k + 1] = (coord[k + 1] - cy) * sy + cy;
+            coord[k + 2] = (coord[k + 2] - cz) * sz + cz;
+            if (scale != null)
+                scale[i] *= factor;
+        }
+    }
+
+    /**
+     @noRefGuide
+     */
+    public void getMatrix(Matrix4d matrix) {
+        getMatrix(matrix, sx, sy, sz);
+    }
+
+    /**
+     @noRefGuide
+     */
+    public void getInverseMatrix(Matrix4d matrix) {
+        getMatrix(matrix, 1 / sx, 1 / sy, 1 / sz);
+    }
+
+    // scale about center: T(c) S T(-c)
+    private void getMatrix(Matrix4d matrix, double sx, double sy, double sz) {
+
+        matrix.setIdentity();
+        matrix.m00 = sx;
+        matrix.m11 = sy;
+        matrix.m22 = sz;
+        matrix.m03 = cx * (1 - sx);
+        matrix.m13 = cy * (1 - sy);
+        matrix.m23 = cz * (1 - sz);
+    }
+
+    /**
+     @noRefGuide
+     */
+    public double getScaleFactor() {
+        return averageScale;
+    }
+
 } // class Scale
@@ -0,0 +1,60 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.transforms;
+
+import javax.vecmath.Vector3d;
+
+import abfab3d.core.Bounds;
+
+import abfab3d.param.BooleanParameter;
+import abfab3d.param.DoubleParameter;
+import abfab3d.param.Parameter;
+import abfab3d.param.Vector3dParameter;
+
+import abfab3d.symmetry.SymmetryGroup;
+
+
+/**
+   parameters of fundamental domain lookup table shared by symmetry transforms
+
+   @author Vladimir Bulatov
+ */
+public class SymmetryLookupTableParams {
+
+    BooleanParameter  mp_useLookupTable = new BooleanParameter("useLookupTable","use lookup table to accelerate transformation into fundamental domain",false);
+    Vector3dParameter  mp_tableCenter = new Vector3dParameter("tableCenter","center of lookup table",new Vector3d(0,0,0));
+    Vector3dParameter  mp_tableSize = new Vector3dParameter("tableSize","size of lookup table",new Vector3d(0.1,0.1,0.1));
+    DoubleParameter  mp_tableCellSize = new DoubleParameter("tableCellSize","cell size of lookup table",0.001);
+
+    Parameter m_aparam[] = new Parameter[]{
+        mp_useLookupTable,
+        mp_tableCenter,
+        mp_tableSize,
+        mp_tableCellSize,
+    };
+
+    /**
+       @return parameters to be added to the transform
+     */
+    public Parameter[] getParams(){
+        return m_aparam;
+    }
+
+    /**
+       creates lookup table of the group if it is enabled
+     */
+    public void initialize(SymmetryGroup group){
+        if(mp_useLookupTable.getValue())
+            group.setLookupTable(new Bounds(mp_tableCenter.getValue(), mp_tableSize.getValue()), mp_tableCellSize.getValue());
+    }
+}
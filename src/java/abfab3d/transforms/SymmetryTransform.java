@@ -54,6 +54,7 @@ public class SymmetryTransform  extends BaseTransform implements VecTransform, I
     BooleanParameter mp_g6 = new BooleanParameter("g6", true);
     BooleanParameter mp_g7 = new BooleanParameter("g7", true);
     BooleanParameter mp_g8 = new BooleanParameter("g8", true);
+    SymmetryLookupTableParams m_tableParams = new SymmetryLookupTableParams();
 
 
     Parameter m_aparam[] = new Parameter[]{
@@ -87,6 +88,7 @@ public class SymmetryTransform  extends BaseTransform implements VecTransform, I
      */
     public SymmetryTransform(){            
         super.addParams(m_aparam);
+        super.addParams(m_tableParams.getParams());
     }
 
     /**
@@ -94,6 +96,7 @@ public class SymmetryTransform  extends BaseTransform implements VecTransform, I
      */
     public SymmetryTransform(SymmetryGenerator symmetryGenerator){            
         super.addParams(m_aparam);
+        super.addParams(m_tableParams.getParams());
         
         mp_symmetryGen.setValue(symmetryGenerator);
     }
@@ -118,6 +121,7 @@ public class SymmetryTransform  extends BaseTransform implements VecTransform, I
                 
         //m_group.setRiemannSphereRadius(mp_riemannSphereRadius.getValue());
         m_group.setMaxIterations(mp_iterations.getValue());
+        m_tableParams.initialize(m_group);
         return ResultCodes.RESULT_OK;
     }
     
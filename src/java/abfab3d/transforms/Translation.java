@@ -12,17 +12,19 @@
 
 package abfab3d.transforms;
 
+import abfab3d.core.BulkVecTransform;
 import abfab3d.core.ResultCodes;
 import abfab3d.param.Parameter;
 import abfab3d.param.Vector3dParameter;
 import abfab3d.core.Vec;
 
+import javax.vecmath.Matrix4d;
 import javax.vecmath.Vector3d;
 
 /**
  * Performs translation in space
  */
-public class Translation extends BaseTransform {
+public class Translation extends BaseTransform implements BulkVecTransform, AffineVecTransform {
 
     protected double tx = 1, ty = 1, tz = 1;
     protected Vector3dParameter  mp_trans = new Vector3dParameter("translation","translation",new Vector3d(0,0,0));
@@ -110,6 +112,56 @@ public class Translation extends BaseTransform {
 
     }
 
+    /**
+     * @noRefGuide
+     */
+    public void transform(double coord[], double scale[], int result[], int offset, int count) {
+        translate(coord, result, offset, count, tx, ty, tz);
+    }
+
+    /**
+     * @noRefGuide
+     */
+    public void inverse_transform(double coord[], double scale[], int result[], int offset, int count) {
+        translate(coord, result, offset, count, -tx, -ty, -tz);
+    }
+
+    static void translate(double coord[], int result[], int offset, int count, double tx, double ty, double tz){
+
+        int end = offset + count;
+        for(int i = offset; i < end; i++){
+            if(result != null && result[i] != ResultCodes.RESULT_OK)
+                continue;
+            int k = 3*i;
+            coord[k]   += tx;
+            coord[k+1] += ty;
+            coord[k+2] += tz;
+        }
+    }
+
+    /**
+     * @noRefGuide
+     */
+    public void getMatrix(Matrix4d matrix) {
+        matrix.setIdentity();
+        matrix.setTranslation(new Vector3d(tx, ty, tz));
+    }
+
+    /**
+     * @noRefGuide
+     */
+    public void getInverseMatrix(Matrix4d matrix) {
+        matrix.setIdentity();
+        matrix.setTranslation(new Vector3d(-tx, -ty, -tz));
+    }
+
+    /**
+     * @noRefGuide
+     */
+    public double getScaleFactor() {
+        return 1.;
+    }
+
     /**
      * Implement this as a value
      * @return
@@ -12,6 +12,7 @@
 
 package abfab3d.transforms;
 
+import abfab3d.core.BulkVecTransform;
 import abfab3d.core.ResultCodes;
 import abfab3d.param.DoubleParameter;
 import abfab3d.param.Parameter;
@@ -28,7 +29,7 @@ import static abfab3d.util.Symmetry.toFundamentalDomain;
    performs twist of space via rotation about z-axis 
    @author Vladimir Bulatov 
 */
-public class Twist extends BaseTransform implements VecTransform, Initializable {
+public class Twist extends BaseTransform implements VecTransform, BulkVecTransform, Initializable {
     
     private double m_twistSpeed = 2*Math.PI;
 
@@ -85,6 +86,36 @@ public class Twist extends BaseTransform implements VecTransform, Initializable
         
     }
 
+    /**
+       @noRefGuide
+     */
+    public void transform(double coord[], double scale[], int result[], int offset, int count) {
+        twist(coord, result, offset, count, m_twistSpeed);
+    }
+
+    /**
+       @noRefGuide
+     */
+    public void inverse_transform(double coord[], double scale[], int result[], int offset, int count) {
+        twist(coord, result, offset, count, -m_twistSpeed);
+    }
+
+    private static void twist(double coord[], int result[], int offset, int count, double speed){
+
+        int end = offset + count;
+        for(int i = offset; i < end; i++){
+            if(result != null && result[i] != RESULT_OK)
+                continue;
+            int k = 3*i;
+            double angle = speed*coord[k+2];
+            double cosa = cos(angle);
+            double sina = sin(angle);
+            double x = coord[k];
+            double y = coord[k+1];
+            coord[k]   = cosa * x + sina * y;
+            coord[k+1] = -sina * x + cosa * y;
+        }
+    }
     
     private static final void twistXY(double v[], double angle){
 
@@ -78,6 +78,7 @@ public class WallpaperSymmetry  extends BaseTransform implements Initializable {
     protected IntParameter  mp_maxCount = new IntParameter("maxCount","max count of iteratioins to get to fundamental domain",100);
     protected EnumParameter  mp_symmetryType = new EnumParameter("symmetryType","type of wallpaper symmetry",SymmetryNames, SymmetryNames[WP_S2222]);
     protected ObjectParameter  mp_symmetryGroup = new ObjectParameter("symmetryGroup","symmetry group to use",UNDEFINED);
+    protected SymmetryLookupTableParams m_tableParams = new SymmetryLookupTableParams();
 
     Parameter aparam[] = new Parameter[]{
         mp_domainWidth,
@@ -173,6 +174,7 @@ public class WallpaperSymmetry  extends BaseTransform implements Initializable {
      */
     public WallpaperSymmetry(int symmetryType){
         super.addParams(aparam);
+        super.addParams(m_tableParams.getParams());
         setSymmetryType(symmetryType);
     }
 
@@ -184,6 +186,7 @@ public class WallpaperSymmetry  extends BaseTransform implements Initializable {
      */
     public WallpaperSymmetry(int symmetryType, double width){
         super.addParams(aparam);
+        super.addParams(m_tableParams.getParams());
         setSymmetryType(symmetryType);
         setDomainWidth(width);
     }
@@ -196,6 +199,7 @@ public class WallpaperSymmetry  extends BaseTransform implements Initializable {
      */
     public WallpaperSymmetry(int symmetryType, double width, double height){
         super.addParams(aparam);
+        super.addParams(m_tableParams.getParams());
         setSymmetryType(symmetryType);
         setDomainWidth(width);
         setDomainHeight(height);
@@ -210,6 +214,7 @@ public class WallpaperSymmetry  extends BaseTransform implements Initializable {
      */
     public WallpaperSymmetry(int symmetryType, double width, double height, double skew){
         super.addParams(aparam);
+        super.addParams(m_tableParams.getParams());
         setSymmetryType(symmetryType);
         setDomainWidth(width);
         setDomainHeight(height);
@@ -317,6 +322,7 @@ public class WallpaperSymmetry  extends BaseTransform implements Initializable {
         // we do this to provide universal way to access m_group via get("symmetryGroup");
         mp_symmetryGroup.setValue(m_group);
         m_group.setMaxIterations(maxCount);
+        m_tableParams.initialize(m_group);
 
 
         return ResultCodes.RESULT_OK;
@@ -16,6 +16,7 @@ package abfab3d.util;
 import javax.vecmath.Vector3d;
 
 import abfab3d.core.TriangleCollector;
+import abfab3d.core.BulkTriangleCollector;
 import abfab3d.core.Bounds;
 import abfab3d.core.Grid;
 import abfab3d.core.AttributeGrid;
@@ -40,7 +41,7 @@ import static abfab3d.core.Output.printf;
 
    @author Vladimir Bulatov
  */
-public class MeshRasterizer implements TriangleCollector {
+public class MeshRasterizer implements TriangleCollector, BulkTriangleCollector {
 
     int exceptionCount = 100;
     static final boolean DEBUG = false;
@@ -144,6 +145,26 @@ public class MeshRasterizer implements TriangleCollector {
 
     }
 
+    /**
+       method of BulkTriangleCollector interface 
+       it is called for each block of triangles in the collection
+    */
+    public boolean addTriangles(double coord[], int offset, int triCount){
+
+        double 
+            sx = m_sx, sy = m_sy, sz = m_sz,
+            tx = m_tx, ty = m_ty, tz = m_tz;
+
+        int end = offset + 9*triCount;
+        for(int k = offset; k < end; k += 9){
+            m_zbuffer.fillTriangle(sx*coord[k]  +tx, sy*coord[k+1]+ty, sz*coord[k+2]+tz, 
+                                   sx*coord[k+3]+tx, sy*coord[k+4]+ty, sz*coord[k+5]+tz, 
+                                   sx*coord[k+6]+tx, sy*coord[k+7]+ty, sz*coord[k+8]+tz);
+        }
+        return true;
+
+    }
+
     /**
        the final mandatory step after all rasterization is done
        it stores data from ZBuffer into supplied grid
@@ -19,7 +19,6 @@ import static java.lang.Math.floor;
 import static java.lang.Math.abs;
 import static abfab3d.core.Output.fmt;
 import static abfab3d.core.Output.printf;
-import static abfab3d.core.MathUtil.toInterval;
 
 /**
  *
@@ -36,6 +35,8 @@ public class PerlinNoise3D {
 
     int nx, ny, nz;
     int nxy;
+    // reciprocals of grid dimensions 
+    double m_rnx, m_rny, m_rnz;
     double grad[];
     
     /**
@@ -51,6 +52,7 @@ public class PerlinNoise3D {
         this.ny = ny;
         this.nz = nz;
         nxy = nx*ny;
+        initReciprocals();
         this.grad = makeGradients( seed);
     }
 
@@ -61,9 +63,16 @@ public class PerlinNoise3D {
         this.ny = ny;
         this.nz = nz;
         this.nxy = nx*ny;
+        initReciprocals();
         this.grad = gradients;
     }
 
+    private void initReciprocals(){
+        m_rnx = 1./nx;
+        m_rny = 1./ny;
+        m_rnz = 1./nz;
+    }
+
     private double[] makeGradients(int seed){
 
         int nxyz3 = nx*ny*nz*3;
@@ -88,9 +97,10 @@ public class PerlinNoise3D {
     public double get(double x,double y,double z){
 
         //if(DEBUG) printf("%5.2f, %5.2f, %5.2f )\n", x, y, z);
-        x = toInterval(x,nx);
-        y = toInterval(y,ny);
-        z = toInterval(z,nz);
+        // periodic wrap into [0,n), multiplication by reciprocal may be off by one period 
+        x = wrap(x, nx, m_rnx);
+        y = wrap(y, ny, m_rny);
+        z = wrap(z, nz, m_rnz);
         //if(DEBUG) printf("%5.2f, %5.2f, %5.2f )\n", x, y, z);
 
         // half voxel shift 
@@ -141,37 +151,95 @@ public class PerlinNoise3D {
             m101 = magnitude(g101,dx1,dy, dz1),
             m111 = magnitude(g111,dx1,dy1,dz1),
             m011 = magnitude(g011,dx, dy1,dz1);
+        // weights are products of 1D weights
+        double 
+            cx0 = cubicInterp(1-dx), cx1 = cubicInterp(1+dx1),
+            cy0 = cubicInterp(1-dy), cy1 = cubicInterp(1+dy1),
+            cz0 = cubicInterp(1-dz), cz1 = cubicInterp(1+dz1);
         double 
-            w000 = weight( dx,  dy,  dz),
-            w100 = weight(-dx1, dy,  dz),
-            w010 = weight( dx, -dy1, dz),
-            w110 = weight(-dx1,-dy1, dz),
-            w001 = weight( dx,  dy, -dz1),
-            w101 = weight(-dx1, dy, -dz1),
-            w011 = weight( dx, -dy1,-dz1),
-            w111 = weight(-dx1,-dy1,-dz1);
+            w000 = cx0*cy0*cz0,
+            w100 = cx1*cy0*cz0,
+            w010 = cx0*cy1*cz0,
+            w110 = cx1*cy1*cz0,
+            w001 = cx0*cy0*cz1,
+            w101 = cx1*cy0*cz1,
+            w011 = cx0*cy1*cz1,
+            w111 = cx1*cy1*cz1;
         
         return 
             w000*m000 + w100*m100 + w110*m110 + w010*m010 +
             w001*m001 + w101*m101 + w111*m111 + w011*m011;            
     }    
+
+    /**
+       calculates noise for block of points 
+       @param coord points coordinates (x,y,z) triples 
+       @param values calculated values 
+       @param offset index of the first point 
+       @param count count of points 
+     */
+    public void get(double coord[], double values[], int offset, int count){
+
+        int end = offset + count;
+        for(int i = offset; i < end; i++){
+            int k = 3*i;
+            values[i] = get(coord[k], coord[k+1], coord[k+2]);
+        }
+    }
+
+    /**
+       fractal Brownian motion - sum of noise octaves 
+       each next octave has frequency multiplied by lacunarity and amplitude multiplied by gain
+       integer lacunarity preserves periodicity of the noise 
+
+       @param octaves count of octaves, 1 means plain noise 
+       @return fBm value 
+     */
+    public double fbm(double x,double y,double z, int octaves, double lacunarity, double gain){
+
+        double sum = 0;
+        double amp = 1;
+        for(int k = 0; k < octaves; k++){
+            sum += amp*get(x,y,z);
+            x *= lacunarity;
+            y *= lacunarity;
+            z *= lacunarity;
+            amp *= gain;
+        }
+        return sum;
+    }
+
+    /**
+       calculates fBm for block of points, all octaves are summed in the same pass 
+       @see #fbm(double, double, double, int, double, double)
+     */
+    public void fbm(double coord[], double values[], int offset, int count, int octaves, double lacunarity, double gain){
+
+        int end = offset + count;
+        for(int i = offset; i < end; i++){
+            int k = 3*i;
+            values[i] = fbm(coord[k], coord[k+1], coord[k+2], octaves, lacunarity, gain);
+        }
+    }
     
+    static final double wrap(double x, int n, double rn){
+        x -= n*floor(x*rn);
+        if(x < 0) x += n;
+        else if(x >= n) x -= n;
+        return x;
+    }
+
     // offset to gradient components 
     private final int grad(int x, int y, int z){
         return (x + y*nx + z * nxy)*3;
     }
     
 
-    double weight(double dx, double dy, double dz){
-        return cubicInterp(1-dx)*cubicInterp(1-dy)*cubicInterp(1-dz); 
-
-    }
-
     // smooth interpolation from (0 to 1) inside interval (0,1) 
     static final double cubicInterp(double t) {
         return t*t *(3 - 2*t); 
     }
-    double magnitude(int g, double dx, double dy, double dz){
+    final double magnitude(int g, double dx, double dy, double dz){
         return grad[g]*dx + grad[g+1]*dy + grad[g+2]*dz;
     }
 
@@ -238,6 +238,39 @@ public class SimplexNoise {  // Simplex noise in 2D, 3D and 4D
   }
 
 
+  // 3D simplex noise for block of points stored as (x,y,z) triples
+  public static void noise(double coord[], double values[], int offset, int count) {
+    int end = offset + count;
+    for(int i = offset; i < end; i++) {
+      int k = 3*i;
+      values[i] = noise(coord[k], coord[k+1], coord[k+2]);
+    }
+  }
+
+  // fractal Brownian motion, sum of octaves of 3D simplex noise
+  // each next octave has frequency multiplied by lacunarity and amplitude multiplied by gain
+  public static double fbm(double x, double y, double z, int octaves, double lacunarity, double gain) {
+    double sum = 0;
+    double amp = 1;
+    for(int k = 0; k < octaves; k++) {
+      sum += amp*noise(x, y, z);
+      x *= lacunarity;
+      y *= lacunarity;
+      z *= lacunarity;
+      amp *= gain;
+    }
+    return sum;
+  }
+
+  // fractal Brownian motion for block of points, all octaves are calculated in the same pass
+  public static void fbm(double coord[], double values[], int offset, int count, int octaves, double lacunarity, double gain) {
+    int end = offset + count;
+    for(int i = offset; i < end; i++) {
+      int k = 3*i;
+      values[i] = fbm(coord[k], coord[k+1], coord[k+2], octaves, lacunarity, gain);
+    }
+  }
+
   // 4D simplex noise, better simplex rank ordering method 2012-03-09
   public static double noise(double x, double y, double z, double w) {
 
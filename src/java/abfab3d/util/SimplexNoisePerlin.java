@@ -159,6 +159,30 @@ public final class SimplexNoisePerlin {
         
     }
     
+    /**
+       calculates noise for block of points stored as (x,y,z) triples 
+     */
+    public void noise(double coord[], double values[], int offset, int count) {
+        
+        int end = offset + count;
+        for(int i = offset; i < end; i++){
+            int k = 3*i;
+            values[i] = noise(coord[k], coord[k+1], coord[k+2]);
+        }
+    }
+
+    /**
+       calculates turbulence for block of points stored as (x,y,z) triples, all octaves are calculated in the same pass 
+     */
+    public void turbulence(double coord[], double values[], int offset, int count, int octaves, double persistence) {
+        
+        int end = offset + count;
+        for(int i = offset; i < end; i++){
+            int k = 3*i;
+            values[i] = turbulence(coord[k], coord[k+1], coord[k+2], octaves, persistence);
+        }
+    }
+    
     /**
        gradient is not random.
        it is one of 12 directions from center to the edges of the cube
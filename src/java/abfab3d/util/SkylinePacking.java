@@ -0,0 +1,173 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.util;
+
+import java.util.Arrays;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+
+
+/**
+   packing of rectangles using skyline bottom-left heuristic
+
+   1) rectangles are sorted into decreasing height
+   2) the band of fixed width is filled from the bottom. The upper boundary of packed rectangles
+   (skyline) is kept as list of horizontal segments
+   3) each rectangle is placed at the position along the skyline where its top is the lowest,
+   gaps under the skyline are not reused
+
+   Unlike rows packing of RectPacking the short rectangles fill the space above lower neighbors
+   which gives denser packing of rectangles of very different sizes (like charts of texture atlas).
+   Packing time is proportional to count of rectangles times count of skyline segments.
+
+   @author Vladimir Bulatov
+ */
+public class SkylinePacking extends RectPacking {
+
+    // fraction of empty space reserved in the band
+    double m_reserve = 0.1;
+
+    // skyline segments
+    double m_sx[], m_sy[], m_sw[];
+    int m_scount;
+
+    public SkylinePacking(){
+    }
+
+    /**
+       perform the packing
+     */
+    public void pack(){
+
+        m_rect = m_vrect.toArray(new Rect[m_count]);
+        long t0 = time();
+        Arrays.sort(m_rect, new HeightComparator());
+
+        m_bandWidth = Math.sqrt(m_area*(1 + m_reserve));
+        if(m_bandWidth < m_maxW) m_bandWidth = m_maxW;
+
+        m_sx = new double[16];
+        m_sy = new double[16];
+        m_sw = new double[16];
+        m_scount = 1;
+        m_sx[0] = 0;
+        m_sy[0] = 0;
+        m_sw[0] = m_bandWidth;
+        m_bandHeight = 0;
+
+        for(int i = 0; i < m_count; i++){
+            Rect rect = m_rect[i];
+            place(rect);
+            if(rect.y + rect.h > m_bandHeight)
+                m_bandHeight = rect.y + rect.h;
+        }
+
+        if(DEBUG){
+            printf("SkylinePacking rect count: %d\n", m_count);
+            printf("packed rect: %7.2f x %7.2f\n", m_bandWidth, m_bandHeight);
+            printf("packing ratio: %7.2f\n", m_area/(m_bandWidth* m_bandHeight));
+            printf("packing time: %d ms\n", (time() - t0));
+        }
+        m_sx = m_sy = m_sw = null;
+    }
+
+    /**
+       places rect at the lowest position along the skyline
+     */
+    void place(Rect rect){
+
+        double bestTop = Double.MAX_VALUE, bestY = 0;
+        int bestIndex = -1;
+
+        for(int i = 0; i < m_scount; i++){
+            double x = m_sx[i];
+            if(x + rect.w > m_bandWidth*(1+1.e-12))
+                break;
+            // max height of segments under the rect
+            double y = 0;
+            double xend = x + rect.w;
+            for(int j = i; j < m_scount && m_sx[j] < xend; j++){
+                if(m_sy[j] > y) y = m_sy[j];
+            }
+            if(y + rect.h < bestTop){
+                bestTop = y + rect.h;
+                bestY = y;
+                bestIndex = i;
+            }
+        }
+        if(bestIndex < 0) // should not happen, band is not narrower than any rect
+            throw new RuntimeException("failed to place rect: " + rect);
+
+        rect.x = m_sx[bestIndex];
+        rect.y = bestY;
+        addSegment(bestIndex, rect.x, rect.x + rect.w, bestTop);
+    }
+
+    /**
+       replaces part of skyline [x0, x1] starting with segment index by new segment at height y
+     */
+    void addSegment(int index, double x0, double x1, double y){
+
+        // find first segment which extends past x1
+        int j = index;
+        while(j < m_scount && m_sx[j] + m_sw[j] <= x1)
+            j++;
+        // segments [index, j) are fully covered
+        double tail[] = null;
+        if(j < m_scount && m_sx[j] < x1) {
+            // segment j is partially covered
+            double end = m_sx[j] + m_sw[j];
+            m_sx[j] = x1;
+            m_sw[j] = end - x1;
+        }
+        // new segments list: [0,index) + new + [j, count)
+        int removed = j - index;
+        int newCount = m_scount - removed + 1;
+        ensureCapacity(newCount);
+        System.arraycopy(m_sx, j, m_sx, index + 1, m_scount - j);
+        System.arraycopy(m_sy, j, m_sy, index + 1, m_scount - j);
+        System.arraycopy(m_sw, j, m_sw, index + 1, m_scount - j);
+        m_sx[index] = x0;
+        m_sy[index] = y;
+        m_sw[index] = x1 - x0;
+        m_scount = newCount;
+
+        // merge with neighbors of the same height
+        if(index + 1 < m_scount && m_sy[index + 1] == y)
+            merge(index);
+        if(index > 0 && m_sy[index - 1] == y)
+            merge(index - 1);
+    }
+
+    // merges segment with the next one
+    void merge(int index){
+
+        m_sw[index] += m_sw[index+1];
+        int n = m_scount - index - 2;
+        System.arraycopy(m_sx, index + 2, m_sx, index + 1, n);
+        System.arraycopy(m_sy, index + 2, m_sy, index + 1, n);
+        System.arraycopy(m_sw, index + 2, m_sw, index + 1, n);
+        m_scount--;
+    }
+
+    void ensureCapacity(int count){
+
+        if(count <= m_sx.length)
+            return;
+        int len = 2*count;
+        m_sx = Arrays.copyOf(m_sx, len);
+        m_sy = Arrays.copyOf(m_sy, len);
+        m_sw = Arrays.copyOf(m_sw, len);
+    }
+}
@@ -0,0 +1,131 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import abfab3d.grid.util.ExecutionStoppedException;
+
+
+/**
+   thread count handling and parallel processing of slices shared by multithreaded classes
+
+   @author Vladimir Bulatov
+ */
+public class ThreadUtil {
+
+    /**
+       @return max count of threads set in AbFab3DGlobals
+     */
+    public static int getMaxThreadCount(){
+        return ((Number)AbFab3DGlobals.get(AbFab3DGlobals.MAX_PROCESSOR_COUNT_KEY)).intValue();
+    }
+
+    /**
+       @return count of threads to use for requested count.
+       count < 1 means use all available processors, result does not exceed max count of threads
+     */
+    public static int getThreadCount(int count){
+
+        if (count < 1) {
+            count = Runtime.getRuntime().availableProcessors();
+        }
+        return Math.min(count, getMaxThreadCount());
+    }
+
+    /**
+       processes single slice of items
+     */
+    public interface SliceTask {
+
+        void processSlice(Slice slice);
+
+    }
+
+    /**
+       runs the same task in given count of threads. The task has to be thread safe
+     */
+    public static void runSlices(SliceManager slicer, SliceTask task, int threadCount){
+
+        threadCount = Math.max(1, Math.min(threadCount, slicer.getSliceCount()));
+        SliceTask tasks[] = new SliceTask[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            tasks[i] = task;
+        }
+        runSlices(slicer, tasks);
+    }
+
+    /**
+       runs each task in its own thread, tasks take slices from slicer until all slices are processed.
+       Single task runs in the calling thread.
+       First exception thrown by a task is rethrown to the caller, other tasks stop at their next slice.
+       Interruption of the calling thread throws ExecutionStoppedException.
+     */
+    public static void runSlices(final SliceManager slicer, SliceTask tasks[]){
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        if(tasks.length == 1){
+            runTask(slicer, tasks[0], failure);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(tasks.length);
+            for(int i = 0; i < tasks.length; i++){
+                final SliceTask task = tasks[i];
+                executor.submit(new Runnable(){
+                        public void run(){
+                            runTask(slicer, task, failure);
+                        }
+                    });
+            }
+            executor.shutdown();
+
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                throw new ExecutionStoppedException();
+            }
+        }
+        if(failure.get() != null)
+            throwUnchecked(failure.get());
+        if (Thread.currentThread().isInterrupted()) {
+            throw new ExecutionStoppedException();
+        }
+    }
+
+    static void runTask(SliceManager slicer, SliceTask task, AtomicReference<Throwable> failure){
+        try {
+            while(failure.get() == null){
+                Slice slice = slicer.getNextSlice();
+                if(slice == null)
+                    break;
+                task.processSlice(slice);
+            }
+        } catch(Throwable t){
+            failure.compareAndSet(null, t);
+        }
+    }
+
+    /**
+       rethrows failure of worker thread, checked exceptions are wrapped into RuntimeException
+     */
+    public static void throwUnchecked(Throwable failure){
+
+        if(failure instanceof RuntimeException) throw (RuntimeException)failure;
+        if(failure instanceof Error) throw (Error)failure;
+        throw new RuntimeException(failure);
+    }
+}
@@ -0,0 +1,112 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.util;
+
+import javax.vecmath.Vector3d;
+
+import abfab3d.core.BulkTriangleCollector;
+import abfab3d.core.BulkTriangleProducer;
+import abfab3d.core.TriangleCollector;
+import abfab3d.core.TriangleProducer;
+
+/**
+   adapter which accepts triangles one by one and passes them to BulkTriangleCollector in blocks 
+   
+   it is important to call flush() after last triangle was added
+
+   @author Vladimir Bulatov
+ */
+public class TriangleBlockBuffer implements TriangleCollector {
+
+    static public final int DEFAULT_BLOCK_SIZE = 1024;
+
+    BulkTriangleCollector m_collector;
+    double m_coord[];
+    int m_blockSize;
+    // count of triangles in the block 
+    int m_count = 0;
+    boolean m_result = true;
+
+    /**
+       @param collector collector to pass blocks of triangles to 
+       @param blockSize count of triangles in the block 
+     */
+    public TriangleBlockBuffer(BulkTriangleCollector collector, int blockSize){
+
+        if(blockSize < 1) 
+            throw new IllegalArgumentException("TriangleBlockBuffer: illegal block size: " + blockSize);
+        m_collector = collector;
+        m_blockSize = blockSize;
+        m_coord = new double[9*blockSize];
+    }
+
+    public TriangleBlockBuffer(BulkTriangleCollector collector){
+        this(collector, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+       method of TriangleCollector interface 
+     */
+    public boolean addTri(Vector3d v0,Vector3d v1,Vector3d v2){
+
+        double c[] = m_coord;
+        int k = 9*m_count;
+        c[k]   = v0.x; c[k+1] = v0.y; c[k+2] = v0.z;
+        c[k+3] = v1.x; c[k+4] = v1.y; c[k+5] = v1.z;
+        c[k+6] = v2.x; c[k+7] = v2.y; c[k+8] = v2.z;
+        if(++m_count == m_blockSize) 
+            flush();
+        return m_result;
+    }
+
+    /**
+       passes accumulated triangles to the collector 
+       @return true if all blocks were accepted by collector 
+     */
+    public boolean flush(){
+
+        if(m_count > 0){
+            m_result &= m_collector.addTriangles(m_coord, 0, m_count);
+            m_count = 0;
+        }
+        return m_result;
+    }
+
+    /**
+       feeds all triangles from producer into bulk collector 
+       producers which implement BulkTriangleProducer pass triangles directly
+       
+       @param producer source of triangles 
+       @param collector destination of triangles 
+       @param blockSize max count of triangles in one block 
+       @return true if success, false if failure
+     */
+    public static boolean getTriangles(TriangleProducer producer, BulkTriangleCollector collector, int blockSize){
+
+        if(producer instanceof BulkTriangleProducer){
+            return ((BulkTriangleProducer)producer).getTriangles(collector, blockSize);
+        } 
+        TriangleBlockBuffer buffer = new TriangleBlockBuffer(collector, blockSize);
+        boolean res = producer.getTriangles(buffer);
+        return buffer.flush() && res;
+
+    }
+
+    /**
+       feeds all triangles from producer into bulk collector using default block size
+     */
+    public static boolean getTriangles(TriangleProducer producer, BulkTriangleCollector collector){
+        return getTriangles(producer, collector, DEFAULT_BLOCK_SIZE);
+    }
+    
+}
@@ -0,0 +1,57 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.util;
+
+import javax.vecmath.Vector3d;
+
+import abfab3d.core.BulkTriangleCollector;
+import abfab3d.core.TriangleCollector;
+
+/**
+   adapter which accepts blocks of triangles and passes them one by one to TriangleCollector 
+
+   @author Vladimir Bulatov
+ */
+public class TriangleBlockSplitter implements BulkTriangleCollector {
+
+    TriangleCollector m_collector;
+
+    Vector3d // work vectors 
+        v0 = new Vector3d(),
+        v1 = new Vector3d(),
+        v2 = new Vector3d();
+
+    /**
+       @param collector collector to pass triangles to 
+     */
+    public TriangleBlockSplitter(TriangleCollector collector){
+        m_collector = collector;
+    }
+
+    /**
+       method of BulkTriangleCollector interface 
+     */
+    public boolean addTriangles(double coord[], int offset, int triCount){
+
+        boolean res = true;
+        int end = offset + 9*triCount;
+        for(int k = offset; k < end; k += 9){
+            v0.set(coord[k],  coord[k+1],coord[k+2]);
+            v1.set(coord[k+3],coord[k+4],coord[k+5]);
+            v2.set(coord[k+6],coord[k+7],coord[k+8]);
+            res &= m_collector.addTri(v0, v1, v2);
+        }
+        return res;
+    }
+
+}
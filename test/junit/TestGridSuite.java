@@ -34,6 +34,9 @@ public class TestGridSuite extends TestSuite {
 
         suite.addTest(TestRangeCheckWrapper.suite());
         suite.addTest(TestMaterialIndexedWrapper.suite());
+        suite.addTest(TestMaterialIndexedWrapperMT.suite());
+        suite.addTest(TestOverlapDetectorWrapper.suite());
+        suite.addTest(TestOccupancyPyramid.suite());
 
         suite.addTest(TestVoxelDataByte.suite());
         suite.addTest(TestVoxelDataShort.suite());
@@ -0,0 +1,279 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.datasources;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Vec;
+import abfab3d.grid.ArrayAttributeGridByte;
+import abfab3d.grid.ArrayAttributeGridInt;
+import abfab3d.grid.ArrayAttributeGridLong;
+import abfab3d.transforms.Scale;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of GridMipMap
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestGridMipMap extends TestCase {
+
+    static final boolean DEBUG = false;
+    static final double EPS = 1.e-12;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestGridMipMap.class);
+    }
+
+    /**
+       parallel levels are equal to levels calculated directly from grid
+     */
+    public void testLevels(){
+
+        int nx = 37, ny = 50, nz = 21;
+        AttributeGrid grid = makeRandomGrid(new ArrayAttributeGridByte(nx, ny, nz, 0.1*MM, 0.1*MM), 255, 11);
+        int types[] = new int[]{GridMipMap.SCALING_MAX, GridMipMap.SCALING_AVERAGE};
+
+        for(int t = 0; t < types.length; t++){
+            GridMipMap mipmap = new GridMipMap(grid);
+            mipmap.setScalingType(types[t]);
+            mipmap.setThreadCount(4);
+            mipmap.setSliceThickness(2);
+            mipmap.initialize();
+            assertEquals("levels", 7, mipmap.getLevelsCount());
+
+            AttributeGrid expected = grid;
+            for(int k = 1; k < mipmap.getLevelsCount(); k++){
+                expected = makeHalfSize(expected, types[t]);
+                assertGridEquals(expected, mipmap.getLevel(k));
+            }
+            assertTrue("top level", mipmap.getLevel(0) == grid);
+        }
+    }
+
+    /**
+       levels of attributes wider than 16 bits keep exact values
+     */
+    public void testWideLevels(){
+
+        int nx = 21, ny = 17, nz = 13;
+        AttributeGrid grids[] = new AttributeGrid[]{
+            makeRandomGrid(new ArrayAttributeGridInt(nx, ny, nz, 0.1*MM, 0.1*MM), (1L << 30) + 7, 3),
+            makeRandomGrid(new ArrayAttributeGridLong(nx, ny, nz, 0.1*MM, 0.1*MM), (1L << 40) + 7, 5),
+        };
+        long maxAttribute[] = new long[]{(1L << 30) + 7, (1L << 40) + 7};
+
+        for(int g = 0; g < grids.length; g++){
+            GridMipMap mipmap = new GridMipMap(grids[g]);
+            mipmap.setMaxAttribute(maxAttribute[g]);
+            mipmap.setScalingType(GridMipMap.SCALING_AVERAGE);
+            mipmap.setThreadCount(2);
+            mipmap.initialize();
+
+            AttributeGrid expected = grids[g];
+            for(int k = 1; k < mipmap.getLevelsCount(); k++){
+                expected = makeHalfSize(expected, GridMipMap.SCALING_AVERAGE);
+                assertGridEquals(expected, mipmap.getLevel(k));
+            }
+        }
+    }
+
+    /**
+       batch sampling is equal to single point sampling
+     */
+    public void testBatch(){
+
+        int nx = 40, ny = 30, nz = 20;
+        double vs = 0.1*MM;
+        // large attributes are stored as int
+        long maxAttribute = 100000;
+        AttributeGrid grid = makeRandomGrid(new ArrayAttributeGridInt(nx, ny, nz, vs, vs), maxAttribute, 13);
+        int count = 300, offset = 4;
+        Random rnd = new Random(7);
+        double coord[] = new double[3*(offset + count)];
+        double voxelSize[] = new double[offset + count];
+        for(int i = 0; i < offset + count; i++){
+            coord[3*i] = (nx*rnd.nextDouble() - 2)*vs;
+            coord[3*i+1] = (ny*rnd.nextDouble() - 2)*vs;
+            coord[3*i+2] = (nz*rnd.nextDouble() - 2)*vs;
+            voxelSize[i] = 10*vs*rnd.nextDouble();
+        }
+        int sampling[] = new int[]{GridMipMap.SAMPLING_LINEAR, GridMipMap.SAMPLING_CUBIC};
+        for(int s = 0; s < sampling.length; s++){
+            GridMipMap mipmap = new GridMipMap(grid);
+            mipmap.setMaxAttribute(maxAttribute);
+            mipmap.setSamplingType(sampling[s]);
+            mipmap.setRepeatType(GridMipMap.REPEAT_X);
+            Scale scale = new Scale(2, 2, 2);
+            mipmap.setTransform(scale);
+            mipmap.initialize();
+
+            double values[] = new double[offset + count];
+            mipmap.getDataValues(coord, voxelSize, values, offset, count);
+
+            Vec pnt = new Vec(3);
+            Vec data = new Vec(3);
+            for(int i = offset; i < offset + count; i++){
+                pnt.set(coord[3*i], coord[3*i+1], coord[3*i+2]);
+                pnt.setScaleFactor(1);
+                pnt.setVoxelSize(voxelSize[i]);
+                mipmap.getDataValue(pnt, data);
+                assertEquals("batch value", data.v[0], values[i], EPS);
+            }
+            assertEquals("untouched", 0., values[0]);
+        }
+    }
+
+    /**
+       cubic sampling reproduces linear function
+     */
+    public void testCubic(){
+
+        int nx = 10, ny = 12, nz = 14;
+        double vs = 1*MM;
+        AttributeGrid grid = new ArrayAttributeGridByte(nx, ny, nz, vs, vs);
+        for(int y = 0; y < ny; y++){
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    grid.setAttribute(x, y, z, 2*x + 3*y + 5*z);
+                }
+            }
+        }
+        GridMipMap mipmap = new GridMipMap(grid);
+        mipmap.setMaxAttribute(1);
+        mipmap.setSamplingType(GridMipMap.SAMPLING_CUBIC);
+        mipmap.initialize();
+
+        Random rnd = new Random(3);
+        Vec pnt = new Vec(3);
+        Vec data = new Vec(3);
+        for(int i = 0; i < 100; i++){
+            // stay 2 voxels away from the boundary
+            double
+                x = 2 + (nx - 4)*rnd.nextDouble(),
+                y = 2 + (ny - 4)*rnd.nextDouble(),
+                z = 2 + (nz - 4)*rnd.nextDouble();
+            pnt.set(x*vs, y*vs, z*vs);
+            pnt.setVoxelSize(0);
+            mipmap.getDataValue(pnt, data);
+            double expected = 2*(x-0.5) + 3*(y-0.5) + 5*(z-0.5);
+            assertEquals("cubic value", expected, data.v[0], 1.e-9);
+        }
+    }
+
+    /**
+       attributes which do not fit into level storage are rejected
+     */
+    public void testStorageRange(){
+
+        int n = 8;
+        AttributeGrid grid = new ArrayAttributeGridInt(n, n, n, 0.1*MM, 0.1*MM);
+        for(int y = 0; y < n; y++){
+            for(int x = 0; x < n; x++){
+                for(int z = 0; z < n; z++){
+                    grid.setAttribute(x, y, z, 100000);
+                }
+            }
+        }
+        GridMipMap mipmap = new GridMipMap(grid);
+        try {
+            // default max attribute selects 16 bit storage
+            mipmap.initialize();
+            fail("IllegalArgumentException expected");
+        } catch(IllegalArgumentException e){
+            if(DEBUG) printf("%s\n", e.getMessage());
+        }
+        mipmap = new GridMipMap(grid);
+        mipmap.setMaxAttribute(100000);
+        mipmap.initialize();
+        assertEquals("level value", 100000, mipmap.getLevel(2).getAttribute(1, 1, 1));
+    }
+
+    /**
+       speed of parallel mipmap creation
+     */
+    void devTestSpeed(){
+
+        int n = 300;
+        AttributeGrid grid = makeRandomGrid(new ArrayAttributeGridByte(n, n, n, 0.1*MM, 0.1*MM), 255, 5);
+        for(int threads = 1; threads <= 8; threads *= 2){
+            GridMipMap mipmap = new GridMipMap(grid);
+            mipmap.setThreadCount(threads);
+            long t0 = time();
+            mipmap.initialize();
+            printf("threads: %d  %d ms\n", threads, (time() - t0));
+        }
+    }
+
+    static AttributeGrid makeRandomGrid(AttributeGrid grid, long maxAttribute, long seed){
+
+        Random rnd = new Random(seed);
+        for(int y = 0; y < grid.getHeight(); y++){
+            for(int x = 0; x < grid.getWidth(); x++){
+                for(int z = 0; z < grid.getDepth(); z++){
+                    grid.setAttribute(x, y, z, (long)(rnd.nextDouble()*(maxAttribute+1)));
+                }
+            }
+        }
+        return grid;
+    }
+
+    static AttributeGrid makeHalfSize(AttributeGrid in, int type){
+
+        int nx = in.getWidth(), ny = in.getHeight(), nz = in.getDepth();
+        int nx1 = (nx+1)/2, ny1 = (ny+1)/2, nz1 = (nz+1)/2;
+        AttributeGrid out = (AttributeGrid)in.createEmpty(nx1, ny1, nz1, 1., 1.);
+        for(int y = 0; y < ny1; y++){
+            for(int x = 0; x < nx1; x++){
+                for(int z = 0; z < nz1; z++){
+                    long s = 0, m = 0;
+                    for(int dy = 0; dy < 2; dy++){
+                        for(int dx = 0; dx < 2; dx++){
+                            for(int dz = 0; dz < 2; dz++){
+                                long a = in.getAttribute(Math.min(2*x+dx, nx-1), Math.min(2*y+dy, ny-1), Math.min(2*z+dz, nz-1));
+                                s += a;
+                                m = Math.max(m, a);
+                            }
+                        }
+                    }
+                    out.setAttribute(x, y, z, (type == GridMipMap.SCALING_MAX)? m: (s + 4) >> 3);
+                }
+            }
+        }
+        return out;
+    }
+
+    static void assertGridEquals(AttributeGrid expected, AttributeGrid grid){
+
+        assertEquals("width", expected.getWidth(), grid.getWidth());
+        assertEquals("height", expected.getHeight(), grid.getHeight());
+        assertEquals("depth", expected.getDepth(), grid.getDepth());
+        for(int y = 0; y < grid.getHeight(); y++){
+            for(int x = 0; x < grid.getWidth(); x++){
+                for(int z = 0; z < grid.getDepth(); z++){
+                    assertEquals("attribute", expected.getAttribute(x, y, z), grid.getAttribute(x, y, z));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.datasources;
+
+import java.util.Random;
+
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.Vec;
+import abfab3d.transforms.Rotation;
+import abfab3d.util.PerlinNoise3D;
+import abfab3d.util.SimplexNoise;
+import abfab3d.util.SimplexNoisePerlin;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of Noise and noise generators
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestNoise extends TestCase {
+
+    static final boolean DEBUG = false;
+    static final double EPS = 1.e-12;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestNoise.class);
+    }
+
+    /**
+       batch evaluation and fBm of noise generators
+     */
+    public void testNoiseGenerators(){
+
+        int count = 500, offset = 3;
+        double coord[] = makeCoord(offset + count, 10., 7);
+        double values[] = new double[offset + count];
+
+        PerlinNoise3D perlin = new PerlinNoise3D(4, 5, 6, 11);
+        perlin.get(coord, values, offset, count);
+        for(int i = offset; i < offset + count; i++){
+            double x = coord[3*i], y = coord[3*i+1], z = coord[3*i+2];
+            assertEquals("perlin", perlin.get(x, y, z), values[i], 0.);
+            assertEquals("one octave", perlin.get(x, y, z), perlin.fbm(x, y, z, 1, 2., 0.5), 0.);
+            // noise is periodic
+            assertEquals("period", perlin.get(x, y, z), perlin.get(x + 4, y - 10, z + 18), 1.e-10);
+            // fBm with integer lacunarity is periodic
+            assertEquals("fbm period", perlin.fbm(x, y, z, 4, 2., 0.5), perlin.fbm(x - 8, y + 5, z + 6, 4, 2., 0.5), 1.e-9);
+        }
+        assertEquals("untouched", 0., values[0]);
+
+        perlin.fbm(coord, values, offset, count, 3, 2., 0.6);
+        for(int i = offset; i < offset + count; i++){
+            double x = coord[3*i], y = coord[3*i+1], z = coord[3*i+2];
+            double expected = perlin.get(x, y, z) + 0.6*perlin.get(2*x, 2*y, 2*z) + 0.36*perlin.get(4*x, 4*y, 4*z);
+            assertEquals("perlin fbm", expected, values[i], EPS);
+        }
+
+        SimplexNoise.fbm(coord, values, offset, count, 2, 3., 0.5);
+        for(int i = offset; i < offset + count; i++){
+            double x = coord[3*i], y = coord[3*i+1], z = coord[3*i+2];
+            double expected = SimplexNoise.noise(x, y, z) + 0.5*SimplexNoise.noise(3*x, 3*y, 3*z);
+            assertEquals("simplex fbm", expected, values[i], EPS);
+        }
+
+        SimplexNoisePerlin spn = new SimplexNoisePerlin(5);
+        spn.turbulence(coord, values, offset, count, 3, 0.5);
+        for(int i = offset; i < offset + count; i++){
+            assertEquals("turbulence", spn.turbulence(coord[3*i], coord[3*i+1], coord[3*i+2], 3, 0.5), values[i], 0.);
+        }
+    }
+
+    /**
+       batch evaluation of Noise data source is equal to single point evaluation
+     */
+    public void testDataSource(){
+
+        int count = 300, offset = 5;
+        double coord[] = makeCoord(offset + count, 20*MM, 13);
+        Noise noise = new Noise(new Vector3d(10*MM, 12*MM, 14*MM), 3, 4, 5);
+        noise.setOctaves(3);
+        noise.setFactor(2);
+        noise.setOffset(0.1);
+        noise.setTransform(new Rotation(new Vector3d(1,1,1), 0.5));
+        noise.initialize();
+
+        double values[] = new double[offset + count];
+        noise.getDataValues(coord, null, values, offset, count);
+
+        Vec pnt = new Vec(3);
+        Vec data = new Vec(3);
+        for(int i = offset; i < offset + count; i++){
+            pnt.set(coord[3*i], coord[3*i+1], coord[3*i+2]);
+            noise.getDataValue(pnt, data);
+            assertEquals("noise value", data.v[0], values[i], EPS);
+        }
+        assertEquals("untouched", 0., values[offset-1]);
+    }
+
+    /**
+       speed of batch evaluation
+     */
+    void devTestSpeed(){
+
+        int count = 1000000;
+        double coord[] = makeCoord(count, 10., 3);
+        double values[] = new double[count];
+        PerlinNoise3D perlin = new PerlinNoise3D(10, 10, 10, 11);
+        for(int k = 0; k < 5; k++){
+            long t0 = time();
+            perlin.fbm(coord, values, 0, count, 4, 2., 0.5);
+            printf("perlin fbm: %d ms\n", (time() - t0));
+            t0 = time();
+            SimplexNoise.fbm(coord, values, 0, count, 4, 2., 0.5);
+            printf("simplex fbm: %d ms\n", (time() - t0));
+        }
+    }
+
+    static double[] makeCoord(int count, double size, long seed){
+
+        Random rnd = new Random(seed);
+        double coord[] = new double[3*count];
+        for(int i = 0; i < coord.length; i++){
+            coord[i] = size*(rnd.nextDouble() - 0.5);
+        }
+        return coord;
+    }
+}
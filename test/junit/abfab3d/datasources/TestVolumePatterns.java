@@ -26,6 +26,7 @@ import javax.vecmath.Vector3d;
 
 import abfab3d.core.Vec;
 import abfab3d.core.DataSource;
+import abfab3d.core.BulkDataSource;
 
 import static abfab3d.core.Output.printf;
 import static abfab3d.core.Output.fmt;
@@ -111,6 +112,49 @@ public class TestVolumePatterns extends TestCase {
         }
    }
 
+    /**
+       bulk calculation gives the same values as calculation of single points 
+     */
+    public void testBulk() {
+
+        TransformableDataSource patterns[] = new TransformableDataSource[]{
+            new VolumePatterns.Gyroid(1., 0.1),
+            new VolumePatterns.Lidinoid(1., 0.1),
+            new VolumePatterns.SchwarzP(1., 0.1),
+            new VolumePatterns.SchwarzD(1., 0.1),
+        };
+        int count = 100, offset = 2;
+        double coord[] = new double[3*(offset + count)];
+        double voxelSize[] = new double[offset + count];
+        java.util.Random rnd = new java.util.Random(5);
+        for(int i = 0; i < offset + count; i++){
+            coord[3*i] = 4*rnd.nextDouble()-2;
+            coord[3*i+1] = 4*rnd.nextDouble()-2;
+            coord[3*i+2] = 4*rnd.nextDouble()-2;
+            voxelSize[i] = 0.1*rnd.nextDouble();
+        }
+        int types[] = new int[]{DataSource.DATA_TYPE_DISTANCE, DataSource.DATA_TYPE_DENSITY};
+        Vec pnt = new Vec(3);
+        Vec data = new Vec(3);
+        for(int k = 0; k < patterns.length; k++){
+            for(int t = 0; t < types.length; t++){
+                TransformableDataSource shape = patterns[k];
+                shape.setDataType(types[t]);
+                shape.setTransform(new abfab3d.transforms.Scale(1.5, 1.5, 1.5));
+                shape.initialize();
+                double values[] = new double[offset + count];
+                ((BulkDataSource)shape).getDataValues(coord, voxelSize, values, offset, count);
+                for(int i = offset; i < offset + count; i++){
+                    pnt.set(coord[3*i], coord[3*i+1], coord[3*i+2]);
+                    pnt.setScaleFactor(1);
+                    pnt.voxelSize = voxelSize[i];
+                    shape.getDataValue(pnt, data);
+                    assertEquals("bulk value", data.v[0], values[i], 1.e-12);
+                }
+            }
+        }
+    }
+
     static final double EPS = 1.e-7;
 
     public static void main(String[] args) {
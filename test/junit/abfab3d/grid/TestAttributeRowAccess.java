@@ -0,0 +1,140 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.grid;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.AttributeRowAccess;
+import abfab3d.core.DenseAttributeGrid;
+import abfab3d.core.Grid;
+import abfab3d.grid.util.GridUtil;
+
+/**
+ * Tests row access to grid attributes
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestAttributeRowAccess extends TestCase {
+
+    static final int NX = 7, NY = 5, NZ = 23;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestAttributeRowAccess.class);
+    }
+
+    /**
+       rows written and read in bulk are the same as written and read per voxel
+     */
+    public void testDenseGrids(){
+
+        double vs = 0.1;
+        checkRows(new ArrayAttributeGridByte(NX, NY, NZ, vs, vs), new ArrayAttributeGridByte(NX, NY, NZ, vs, vs), 0xFF);
+        checkRows(new ArrayAttributeGridShort(NX, NY, NZ, vs, vs), new ArrayAttributeGridShort(NX, NY, NZ, vs, vs), 0xFFFF);
+        checkRows(new ArrayAttributeGridInt(NX, NY, NZ, vs, vs), new ArrayAttributeGridInt(NX, NY, NZ, vs, vs), 0xFFFFFFFFL);
+        checkRows(new ArrayAttributeGridLong(NX, NY, NZ, vs, vs), new ArrayAttributeGridLong(NX, NY, NZ, vs, vs), Long.MAX_VALUE);
+    }
+
+    /**
+       bulk write preserves voxel state stored by InsideOutsideFunc
+     */
+    public void testInsideOutsideFunc(){
+
+        double vs = 0.1;
+        AttributeGrid grid = new ArrayAttributeGridShort(NX, NY, NZ, vs, vs, StoredInsideOutsideFuncFactory.create(2, 14));
+        AttributeGrid ref = new ArrayAttributeGridShort(NX, NY, NZ, vs, vs, StoredInsideOutsideFuncFactory.create(2, 14));
+        for(int y = 0; y < NY; y++){
+            for(int x = 0; x < NX; x++){
+                for(int z = 0; z < NZ; z++){
+                    byte state = ((x + y + z) % 3 == 0)? Grid.INSIDE: Grid.OUTSIDE;
+                    grid.setState(x, y, z, state);
+                    ref.setState(x, y, z, state);
+                }
+            }
+        }
+        checkRows(grid, ref, 0x3FFF);
+
+        for(int y = 0; y < NY; y++){
+            for(int x = 0; x < NX; x++){
+                for(int z = 0; z < NZ; z++){
+                    assertEquals("state", ref.getState(x, y, z), grid.getState(x, y, z));
+                }
+            }
+        }
+    }
+
+    /**
+       wrapper passes rows to the wrapped grid and checks the range
+     */
+    public void testRangeCheckWrapper(){
+
+        double vs = 0.1;
+        AttributeGrid grid = new RangeCheckAttributeWrapper(new ArrayAttributeGridShort(NX, NY, NZ, vs, vs));
+        checkRows(grid, new ArrayAttributeGridShort(NX, NY, NZ, vs, vs), 0xFFFF);
+        // grid without row access
+        grid = new RangeCheckAttributeWrapper(new GridShortIntervals(NX, NY, NZ, vs, vs));
+        checkRows(grid, new ArrayAttributeGridShort(NX, NY, NZ, vs, vs), 0xFFFF);
+
+        try {
+            ((AttributeRowAccess)grid).getAttributes(0, 0, NZ-2, NZ+1, new long[3], 0);
+            fail("row outside of grid");
+        } catch(IllegalArgumentException e){
+            // expected
+        }
+    }
+
+    public void testStrides(){
+
+        DenseAttributeGrid grid = new ArrayAttributeGridInt(NX, NY, NZ, 0.1, 0.1);
+        assertEquals("row stride", NZ, grid.getRowStride());
+        assertEquals("slice stride", NX*NZ, grid.getSliceStride());
+    }
+
+    /**
+       writes random rows into grid in bulk and into reference grid per voxel and compares results
+     */
+    static void checkRows(AttributeGrid grid, AttributeGrid ref, long mask){
+
+        Random rnd = new Random(11);
+        int offset = 3;
+        long row[] = new long[NZ + offset];
+        long row1[] = new long[NZ + offset];
+        for(int y = 0; y < NY; y++){
+            for(int x = 0; x < NX; x++){
+                // partial row
+                int zmin = rnd.nextInt(NZ/2), zmax = NZ/2 + rnd.nextInt(NZ/2);
+                for(int z = zmin; z < zmax; z++){
+                    long a = rnd.nextLong() & mask;
+                    row[offset + z - zmin] = a;
+                    ref.setAttribute(x, y, z, a);
+                }
+                GridUtil.setAttributes(grid, x, y, zmin, zmax, row, offset);
+            }
+        }
+        for(int y = 0; y < NY; y++){
+            for(int x = 0; x < NX; x++){
+                GridUtil.getAttributes(grid, x, y, 0, NZ, row1, offset);
+                for(int z = 0; z < NZ; z++){
+                    assertEquals("voxel", ref.getAttribute(x, y, z), grid.getAttribute(x, y, z));
+                    assertEquals("row", ref.getAttribute(x, y, z), row1[offset + z]);
+                }
+            }
+        }
+    }
+}
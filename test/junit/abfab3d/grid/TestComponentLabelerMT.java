@@ -0,0 +1,226 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of ComponentLabelerMT
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestComponentLabelerMT extends TestCase {
+
+    static final boolean DEBUG = false;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestComponentLabelerMT.class);
+    }
+
+    /**
+       components should be the same as found by simple flood fill
+     */
+    public void testCompareWithFloodFill(){
+
+        AttributeGrid grid = makeRandomGrid(40, 50, 30, 0.3);
+        long expected[] = getVolumesFloodFill(grid, 1);
+
+        for(int thickness = 1; thickness <= 16; thickness *= 4){
+            for(int threads = 1; threads <= 4; threads *= 4){
+                ComponentLabelerMT labeler = new ComponentLabelerMT(new AttributeTesterValue(1));
+                labeler.setSliceThickness(thickness);
+                labeler.setThreadCount(threads);
+                long t0 = time();
+                int count = labeler.label(grid);
+                if(DEBUG) printf("thickness: %d threads: %d components: %d time: %d ms\n", thickness, threads, count, (time() - t0));
+                assertEquals("component count", expected.length, count);
+                assertTrue("volumes", Arrays.equals(expected, getVolumes(labeler.getComponents())));
+            }
+        }
+    }
+
+    /**
+       large component crossing all slabs and bounds of components
+     */
+    public void testBounds(){
+
+        AttributeGrid grid = new ArrayAttributeGridByte(20, 30, 20, 0.1*MM, 0.1*MM);
+        // zigzag going through all slices
+        for(int y = 0; y < 30; y++){
+            int x = 2 + Math.abs((y % 6) - 3);
+            grid.setAttribute(x, y, 5, 1);
+            grid.setAttribute(x + 1, y, 5, 1);
+        }
+        // small box
+        for(int y = 10; y < 13; y++){
+            for(int x = 10; x < 12; x++){
+                for(int z = 10; z < 15; z++){
+                    grid.setAttribute(x,y,z,1);
+                }
+            }
+        }
+        ComponentLabelerMT labeler = new ComponentLabelerMT(new AttributeTesterValue(1));
+        labeler.setSliceThickness(4);
+        assertEquals("component count", 2, labeler.label(grid));
+        Vector<ComponentLabelerMT.Component> comp = labeler.getComponents();
+        ComponentLabelerMT.Component c0 = comp.get(0);
+        assertEquals("seed", 0, c0.seedY);
+        assertEquals("ymin", 0, c0.ymin);
+        assertEquals("ymax", 29, c0.ymax);
+        assertEquals("xmin", 2, c0.xmin);
+        assertEquals("xmax", 6, c0.xmax);
+        assertEquals("volume", 60, c0.volume);
+        ComponentLabelerMT.Component c1 = comp.get(1);
+        assertEquals("volume", 3*2*5, c1.volume);
+        assertEquals("xmin", 10, c1.xmin);
+        assertEquals("ymax", 12, c1.ymax);
+        assertEquals("zmax", 14, c1.zmax);
+    }
+
+    public void testRemoveSmall(){
+
+        AttributeGrid grid = makeRandomGrid(30, 40, 35, 0.3);
+        int minSize = 5;
+        long volumes[] = getVolumesFloodFill(grid, 1);
+        int largeCount = 0;
+        long largeVolume = 0;
+        for(int i = 0; i < volumes.length; i++){
+            if(volumes[i] >= minSize){
+                largeCount++;
+                largeVolume += volumes[i];
+            }
+        }
+        assertTrue("test needs small and large components", largeCount > 0 && largeCount < volumes.length);
+
+        Vector<ComponentLabelerMT.Component> comp = RegionCounter.removeSmallComponentsMT(grid, new AttributeTesterValue(1), minSize, 0, 4);
+        assertEquals("remaining components", largeCount, comp.size());
+
+        long remaining[] = getVolumesFloodFill(grid, 1);
+        assertEquals("components after removal", largeCount, remaining.length);
+        long sum = 0;
+        for(int i = 0; i < remaining.length; i++){
+            assertTrue("small component", remaining[i] >= minSize);
+            sum += remaining[i];
+        }
+        assertEquals("remaining volume", largeVolume, sum);
+    }
+
+    /**
+       failure in worker thread is rethrown by label
+     */
+    public void testWorkerFailure(){
+
+        AttributeGrid grid = new ArrayAttributeGridByte(30, 40, 35, 0.1*MM, 0.1*MM){
+                public long getAttribute(int x, int y, int z){
+                    if(y == 17) throw new IllegalStateException("bad voxel");
+                    return super.getAttribute(x,y,z);
+                }
+            };
+        for(int threads = 1; threads <= 4; threads *= 4){
+            ComponentLabelerMT labeler = new ComponentLabelerMT(new AttributeTesterValue(1));
+            labeler.setThreadCount(threads);
+            labeler.setSliceThickness(5);
+            try {
+                labeler.label(grid);
+                fail("failure was not reported");
+            } catch(IllegalStateException e){
+                assertEquals("bad voxel", e.getMessage());
+            }
+        }
+    }
+
+    static AttributeGrid makeRandomGrid(int nx, int ny, int nz, double fill){
+        AttributeGrid grid = new ArrayAttributeGridByte(nx, ny, nz, 0.1*MM, 0.1*MM);
+        Random rnd = new Random(127);
+        for(int y = 0; y < ny; y++){
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    if(rnd.nextDouble() < fill)
+                        grid.setAttribute(x,y,z,1);
+                }
+            }
+        }
+        return grid;
+    }
+
+    static long[] getVolumes(Vector<ComponentLabelerMT.Component> comp){
+        long v[] = new long[comp.size()];
+        for(int i = 0; i < v.length; i++){
+            v[i] = comp.get(i).volume;
+        }
+        Arrays.sort(v);
+        return v;
+    }
+
+    /**
+       @return sorted volumes of 6-connected components found by flood fill
+     */
+    static long[] getVolumesFloodFill(AttributeGrid grid, long material){
+
+        int nx = grid.getWidth(), ny = grid.getHeight(), nz = grid.getDepth();
+        boolean visited[] = new boolean[nx*ny*nz];
+        ArrayList<Long> volumes = new ArrayList<Long>();
+        int stack[] = new int[3*nx*ny*nz];
+        int d[][] = {{1,0,0},{-1,0,0},{0,1,0},{0,-1,0},{0,0,1},{0,0,-1}};
+        for(int y = 0; y < ny; y++){
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    int ind = (y*nx + x)*nz + z;
+                    if(visited[ind] || grid.getAttribute(x,y,z) != material)
+                        continue;
+                    visited[ind] = true;
+                    int top = 0;
+                    stack[top++] = x; stack[top++] = y; stack[top++] = z;
+                    long volume = 0;
+                    while(top > 0){
+                        int vz = stack[--top], vy = stack[--top], vx = stack[--top];
+                        volume++;
+                        for(int k = 0; k < 6; k++){
+                            int ux = vx + d[k][0], uy = vy + d[k][1], uz = vz + d[k][2];
+                            if(ux < 0 || uy < 0 || uz < 0 || ux >= nx || uy >= ny || uz >= nz)
+                                continue;
+                            int uind = (uy*nx + ux)*nz + uz;
+                            if(visited[uind] || grid.getAttribute(ux,uy,uz) != material)
+                                continue;
+                            visited[uind] = true;
+                            stack[top++] = ux; stack[top++] = uy; stack[top++] = uz;
+                        }
+                    }
+                    volumes.add(volume);
+                }
+            }
+        }
+        long v[] = new long[volumes.size()];
+        for(int i = 0; i < v.length; i++){
+            v[i] = volumes.get(i);
+        }
+        Arrays.sort(v);
+        return v;
+    }
+}
@@ -17,6 +17,13 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 import junit.framework.TestCase;
 
+import java.util.Random;
+
+import abfab3d.core.Grid;
+
+import abfab3d.grid.op.SetDifference;
+import abfab3d.grid.op.SubtractOpMT;
+
 // Internal Imports
 
 import static abfab3d.core.Output.printf;
@@ -56,6 +63,135 @@ public class TestGridBitIntervals extends TestCase {
         }
     }
 
+    /**
+       interval boolean operations give the same result as voxel by voxel operations
+     */
+    public void testCombine(){
+
+        int nx = 9, ny = 11, nz = 70;
+        int ops[] = {BitIntervals.UNION, BitIntervals.SUBTRACT, BitIntervals.INTERSECT};
+
+        for(int threads = 1; threads <= 4; threads *= 4){
+            for(int op : ops){
+                GridBitIntervals a = makeRandomGrid(nx, ny, nz, 5);
+                GridBitIntervals b = makeRandomGrid(nx, ny, nz, 7);
+                GridBitIntervals ref = (GridBitIntervals)a.clone();
+                a.combine(b, op, threads);
+                for(int y = 0; y < ny; y++){
+                    for(int x = 0; x < nx; x++){
+                        for(int z = 0; z < nz; z++){
+                            boolean ia = (ref.getState(x,y,z) != Grid.OUTSIDE), ib = (b.getState(x,y,z) != Grid.OUTSIDE);
+                            boolean r;
+                            switch(op){
+                            default:
+                            case BitIntervals.UNION: r = ia || ib; break;
+                            case BitIntervals.SUBTRACT: r = ia && !ib; break;
+                            case BitIntervals.INTERSECT: r = ia && ib; break;
+                            }
+                            assertEquals(fmt("op: %d threads: %d (%d,%d,%d)",op, threads, x,y,z), r, a.getState(x,y,z) != Grid.OUTSIDE);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+       states copied to dense grid and back are unchanged
+     */
+    public void testCopyStates(){
+
+        int nx = 9, ny = 11, nz = 70;
+        GridBitIntervals grid = makeRandomGrid(nx, ny, nz, 3);
+        ArrayAttributeGridByte dense = new ArrayAttributeGridByte(nx, ny, nz, 1., 1.);
+        grid.copyStatesTo(dense, 4);
+        GridBitIntervals copy = new GridBitIntervals(nx, ny, nz);
+        copy.copyStatesFrom(dense, 4);
+        for(int y = 0; y < ny; y++){
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    assertEquals("dense", grid.getState(x,y,z), dense.getState(x,y,z));
+                    assertEquals("copy", grid.getState(x,y,z), copy.getState(x,y,z));
+                }
+            }
+        }
+    }
+
+    /**
+       exception of row thread is rethrown to the caller
+     */
+    public void testRowFailure(){
+
+        int nx = 9, ny = 11, nz = 70;
+        GridBitIntervals grid = makeRandomGrid(nx, ny, nz, 3);
+        ArrayAttributeGridByte dense = new ArrayAttributeGridByte(nx, ny, nz, 1., 1.){
+                public void setState(int x, int y, int z, byte state){
+                    if(y == 7)
+                        throw new IllegalStateException("row failed");
+                    super.setState(x, y, z, state);
+                }
+            };
+        for(int threads = 1; threads <= 4; threads *= 4){
+            try {
+                grid.copyStatesTo(dense, threads);
+                fail("exception expected");
+            } catch(IllegalStateException e){
+                assertEquals("message", "row failed", e.getMessage());
+            }
+        }
+    }
+
+    /**
+       grid operations use interval path and match results on dense grids
+     */
+    public void testOps(){
+
+        int nx = 9, ny = 11, nz = 70;
+        GridBitIntervals a = makeRandomGrid(nx, ny, nz, 13);
+        GridBitIntervals b = makeRandomGrid(nx, ny, nz, 17);
+        ArrayAttributeGridByte da = new ArrayAttributeGridByte(nx, ny, nz, 1., 1.);
+        ArrayAttributeGridByte db = new ArrayAttributeGridByte(nx, ny, nz, 1., 1.);
+        a.copyStatesTo(da, 1);
+        b.copyStatesTo(db, 1);
+
+        Grid diff = new SetDifference(a, b, 1).execute(null);
+        Grid ddiff = new SetDifference(da, db, 1).execute(null);
+
+        SubtractOpMT sub = new SubtractOpMT(b, 4);
+        sub.execute(a);
+        sub = new SubtractOpMT(db, 4);
+        sub.execute(da);
+
+        for(int y = 0; y < ny; y++){
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    assertEquals("difference", ddiff.getState(x,y,z) != Grid.OUTSIDE, diff.getState(x,y,z) != Grid.OUTSIDE);
+                    assertEquals("subtract", da.getState(x,y,z), a.getState(x,y,z));
+                }
+            }
+        }
+    }
+
+    static GridBitIntervals makeRandomGrid(int nx, int ny, int nz, long seed){
+
+        Random rnd = new Random(seed);
+        GridBitIntervals grid = new GridBitIntervals(nx, ny, nz);
+        for(int y = 0; y < ny; y++){
+            for(int x = 0; x < nx; x++){
+                if(rnd.nextInt(8) == 0)
+                    continue; // empty row
+                int z = rnd.nextInt(5);
+                while(z < nz){
+                    int len = 1 + rnd.nextInt(10);
+                    for(int k = z; k < Math.min(nz, z + len); k++)
+                        grid.setState(x,y,k,Grid.INSIDE);
+                    z += len + 1 + rnd.nextInt(10);
+                }
+            }
+        }
+        return grid;
+    }
+
     public static void main(String arg[]){
 
         new TestGridBitIntervals().testSmallGrid();
@@ -0,0 +1,91 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Grid;
+
+/**
+ * Tests concurrent writes into MaterialIndexedWrapper
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestMaterialIndexedWrapperMT extends TestCase {
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestMaterialIndexedWrapperMT.class);
+    }
+
+    /**
+     * Test that writes from several threads are all indexed.
+     */
+    public void testMultiThreadedWrites() throws Exception {
+        final int size = 40;
+        final int numMaterials = 5;
+        int threads = 4;
+
+        AttributeGrid grid = new ArrayAttributeGridByte(size,size,size,0.001, 0.001);
+        final MaterialIndexedWrapper wrapper = new MaterialIndexedWrapper(grid);
+
+        Thread[] workers = new Thread[threads];
+        for(int t=0; t < threads; t++) {
+            final int ymin = t * size / threads;
+            final int ymax = (t+1) * size / threads;
+            workers[t] = new Thread() {
+                public void run() {
+                    for(int y=ymin; y < ymax; y++) {
+                        for(int x=0; x < size; x++) {
+                            for(int z=0; z < size; z++) {
+                                wrapper.setData(x,y,z,Grid.INSIDE, (x+y+z) % numMaterials + 1);
+                            }
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for(int t=0; t < threads; t++) {
+            workers[t].join();
+        }
+
+        int total = 0;
+        for(int i=1; i <= numMaterials; i++) {
+            int expected = 0;
+            for(int y=0; y < size; y++) {
+                for(int x=0; x < size; x++) {
+                    for(int z=0; z < size; z++) {
+                        if ((x+y+z) % numMaterials + 1 == i) expected++;
+                    }
+                }
+            }
+            assertEquals("Material count", expected, wrapper.findCount(i));
+            total += expected;
+        }
+        assertEquals("Total count", size*size*size, total);
+
+        wrapper.removeAttribute(1);
+        assertEquals("Material not removed", 0, wrapper.findCount(1));
+        assertEquals("Grid not cleared", Grid.OUTSIDE, wrapper.getState(0, 0, numMaterials));
+
+        // writes after a query are indexed as well
+        wrapper.setData(0, 0, 0, Grid.INSIDE, 7);
+        assertEquals("Write after query", 1, wrapper.findCount(7));
+    }
+}
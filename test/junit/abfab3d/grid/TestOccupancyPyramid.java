@@ -0,0 +1,229 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.grid;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Bounds;
+import abfab3d.core.Grid;
+import abfab3d.core.GridDataChannel;
+import abfab3d.grid.query.BoundsCalculatorMT;
+import abfab3d.grid.query.CountStates;
+
+/**
+ * Tests the functionality of OccupancyPyramid
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestOccupancyPyramid extends TestCase {
+
+    static final int NX = 37, NY = 29, NZ = 45;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestOccupancyPyramid.class);
+    }
+
+    /**
+       queries of built pyramid are the same as calculated from voxels
+     */
+    public void testQueries(){
+
+        AttributeGrid grid = new ArrayAttributeGridByte(NX, NY, NZ, 0.1, 0.1);
+        fillBlobs(grid, 5, 3);
+
+        for(int threads = 1; threads <= 4; threads *= 4){
+            OccupancyPyramid pyramid = new OccupancyPyramid(grid, 4);
+            pyramid.build(threads);
+            checkPyramid(grid, pyramid, new Random(threads));
+        }
+
+        // empty grid
+        OccupancyPyramid pyramid = new OccupancyPyramid(new ArrayAttributeGridByte(NX, NY, NZ, 0.1, 0.1), 8);
+        pyramid.build(2);
+        assertEquals("count", 0, pyramid.getCount());
+        assertFalse("bounds", pyramid.getOccupiedBounds(new int[3], new int[3]));
+        assertFalse("box", pyramid.hasOccupied(0, NX, 0, NY, 0, NZ));
+    }
+
+    /**
+       pyramid of wrapper is updated by writes
+     */
+    public void testUpdates(){
+
+        AttributeGrid grid = new ArrayAttributeGridByte(NX, NY, NZ, 0.1, 0.1);
+        fillBlobs(grid, 3, 5);
+        OccupancyPyramidWrapper wrapper = new OccupancyPyramidWrapper(grid, 2);
+        Random rnd = new Random(7);
+
+        for(int k = 0; k < 20; k++){
+            for(int i = 0; i < 100; i++){
+                int x = rnd.nextInt(NX), y = rnd.nextInt(NY), z = rnd.nextInt(NZ);
+                switch(rnd.nextInt(3)){
+                default:
+                case 0: wrapper.setState(x, y, z, Grid.OUTSIDE); break;
+                case 1: wrapper.setState(x, y, z, Grid.INSIDE); break;
+                case 2: wrapper.setData(x, y, z, (rnd.nextBoolean())? Grid.INSIDE: Grid.OUTSIDE, 1); break;
+                }
+            }
+            checkPyramid(grid, wrapper.getPyramid(), rnd);
+        }
+
+        // clear everything
+        for(int y = 0; y < NY; y++){
+            for(int x = 0; x < NX; x++){
+                for(int z = 0; z < NZ; z++){
+                    wrapper.setState(x, y, z, Grid.OUTSIDE);
+                }
+            }
+        }
+        assertEquals("count", 0, wrapper.getPyramid().getCount());
+        assertFalse("bounds", wrapper.getPyramid().getOccupiedBounds(new int[3], new int[3]));
+
+        // copy of data rebuilds the pyramid
+        AttributeGrid source = new ArrayAttributeGridByte(NX, NY, NZ, 0.1, 0.1);
+        fillBlobs(source, 4, 11);
+        wrapper.copyData(source);
+        checkPyramid(grid, wrapper.getPyramid(), rnd);
+    }
+
+    /**
+       queries answered from pyramid are the same as full grid scan
+     */
+    public void testGridQueries(){
+
+        AttributeGrid grid = new ArrayAttributeGridByte(NX, NY, NZ, 0.1, 0.1);
+        Random rnd = new Random(3);
+        for(int y = 3; y < NY-5; y++){
+            for(int x = 2; x < NX-7; x++){
+                for(int z = 4; z < NZ-1; z++){
+                    grid.setAttribute(x, y, z, rnd.nextInt(120));
+                }
+            }
+        }
+        GridDataChannel channel = grid.getDataChannel();
+        double threshold = 0.4;
+
+        OccupancyPyramid pyramid = new OccupancyPyramid(grid, channel, threshold, 8);
+        pyramid.build(4);
+
+        BoundsCalculatorMT bc = new BoundsCalculatorMT(threshold);
+        Bounds expected = bc.execute(grid, channel);
+        Bounds bounds = bc.execute(pyramid);
+        assertEquals("bounds", expected.toString(), bounds.toString());
+
+        AttributeGrid states = new ArrayAttributeGridByte(NX, NY, NZ, 0.1, 0.1);
+        fillBlobs(states, 4, 11);
+        OccupancyPyramid statePyramid = new OccupancyPyramid(states);
+        statePyramid.build(1);
+        assertEquals("states", new CountStates().execute(states), new CountStates().execute(statePyramid));
+
+        // channel pyramid has no states
+        assertFalse("state based", pyramid.isStateBased());
+        try {
+            new CountStates().execute(pyramid);
+            fail("exception expected");
+        } catch(IllegalArgumentException e){
+            // expected
+        }
+    }
+
+    /**
+       exception of block thread is rethrown by build
+     */
+    public void testBuildFailure(){
+
+        AttributeGrid grid = new ArrayAttributeGridByte(NX, NY, NZ, 0.1, 0.1){
+                public byte getState(int x, int y, int z){
+                    if(y == 17)
+                        throw new IllegalStateException("block failed");
+                    return super.getState(x, y, z);
+                }
+            };
+        for(int threads = 1; threads <= 4; threads *= 4){
+            OccupancyPyramid pyramid = new OccupancyPyramid(grid, 4);
+            try {
+                pyramid.build(threads);
+                fail("exception expected");
+            } catch(IllegalStateException e){
+                assertEquals("message", "block failed", e.getMessage());
+            }
+        }
+    }
+
+    static void checkPyramid(Grid grid, OccupancyPyramid pyramid, Random rnd){
+
+        long count = 0;
+        int min[] = new int[]{NX, NY, NZ}, max[] = new int[]{-1, -1, -1};
+        for(int y = 0; y < NY; y++){
+            for(int x = 0; x < NX; x++){
+                for(int z = 0; z < NZ; z++){
+                    if(grid.getState(x, y, z) != Grid.OUTSIDE){
+                        count++;
+                        min[0] = Math.min(min[0], x); max[0] = Math.max(max[0], x);
+                        min[1] = Math.min(min[1], y); max[1] = Math.max(max[1], y);
+                        min[2] = Math.min(min[2], z); max[2] = Math.max(max[2], z);
+                    }
+                }
+            }
+        }
+        assertEquals("count", count, pyramid.getCount());
+        int pmin[] = new int[3], pmax[] = new int[3];
+        assertEquals("not empty", count > 0, pyramid.getOccupiedBounds(pmin, pmax));
+        if(count > 0){
+            for(int i = 0; i < 3; i++){
+                assertEquals("min", min[i], pmin[i]);
+                assertEquals("max", max[i], pmax[i]);
+            }
+        }
+
+        for(int k = 0; k < 200; k++){
+            int x0 = rnd.nextInt(NX), y0 = rnd.nextInt(NY), z0 = rnd.nextInt(NZ);
+            int x1 = x0 + rnd.nextInt(12), y1 = y0 + rnd.nextInt(12), z1 = z0 + rnd.nextInt(12);
+            boolean found = false;
+            for(int y = y0; y <= Math.min(y1, NY-1) && !found; y++){
+                for(int x = x0; x <= Math.min(x1, NX-1) && !found; x++){
+                    for(int z = z0; z <= Math.min(z1, NZ-1) && !found; z++){
+                        found = (grid.getState(x, y, z) != Grid.OUTSIDE);
+                    }
+                }
+            }
+            assertEquals("box", found, pyramid.hasOccupied(x0, x1, y0, y1, z0, z1));
+        }
+    }
+
+    /**
+       fills grid with random balls
+     */
+    static void fillBlobs(Grid grid, int count, long seed){
+
+        Random rnd = new Random(seed);
+        for(int i = 0; i < count; i++){
+            int cx = rnd.nextInt(NX), cy = rnd.nextInt(NY), cz = rnd.nextInt(NZ), r = 2 + rnd.nextInt(6);
+            for(int y = Math.max(0, cy-r); y <= Math.min(NY-1, cy+r); y++){
+                for(int x = Math.max(0, cx-r); x <= Math.min(NX-1, cx+r); x++){
+                    for(int z = Math.max(0, cz-r); z <= Math.min(NZ-1, cz+r); z++){
+                        if((x-cx)*(x-cx) + (y-cy)*(y-cy) + (z-cz)*(z-cz) <= r*r)
+                            grid.setState(x, y, z, Grid.INSIDE);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid;
+
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Grid;
+
+/**
+ * Tests the functionality of OverlapDetectorWrapper
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestOverlapDetectorWrapper extends TestCase {
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestOverlapDetectorWrapper.class);
+    }
+
+    /**
+       overlaps of occupied voxels with different materials are detected
+     */
+    public void testOverlaps() {
+
+        AttributeGrid grid = new ArrayAttributeGridByte(10, 10, 10, 0.001, 0.001);
+        OverlapDetectorWrapper wrapper = new OverlapDetectorWrapper(grid);
+
+        wrapper.setData(1, 1, 1, Grid.INSIDE, 1);
+        wrapper.setData(2, 2, 2, Grid.INSIDE, 2);
+        assertEquals("no overlaps", 0, wrapper.getOverlaps().size());
+
+        // same material
+        wrapper.setData(1, 1, 1, Grid.INSIDE, 1);
+        assertEquals("same material", 0, wrapper.getOverlaps().size());
+
+        wrapper.setData(1, 1, 1, Grid.INSIDE, 3);
+        wrapper.setData(2, 2, 2, Grid.INSIDE, 3);
+        Set<Long> overlaps = wrapper.getOverlaps();
+        assertEquals("overlaps", 2, overlaps.size());
+        assertTrue("material 1", overlaps.contains(new Long(1)));
+        assertTrue("material 2", overlaps.contains(new Long(2)));
+
+        wrapper.clearOverlaps();
+        assertEquals("cleared", 0, wrapper.getOverlaps().size());
+        // cached last material is cleared as well
+        wrapper.setData(3, 3, 3, Grid.INSIDE, 2);
+        wrapper.setData(3, 3, 3, Grid.INSIDE, 4);
+        assertTrue("after clear", wrapper.getOverlaps().contains(new Long(2)));
+    }
+
+    /**
+       overlaps found by several threads are merged
+     */
+    public void testMultiThreadedWrites() throws Exception {
+
+        final int size = 40;
+        int threads = 4;
+        AttributeGrid grid = new ArrayAttributeGridByte(size, size, size, 0.001, 0.001);
+        for(int y = 0; y < size; y++){
+            for(int x = 0; x < size; x++){
+                for(int z = 0; z < size; z++){
+                    grid.setData(x, y, z, Grid.INSIDE, y+1);
+                }
+            }
+        }
+        final OverlapDetectorWrapper wrapper = new OverlapDetectorWrapper(grid);
+
+        Thread workers[] = new Thread[threads];
+        for(int t = 0; t < threads; t++){
+            final int ymin = t*size/threads;
+            final int ymax = (t+1)*size/threads;
+            workers[t] = new Thread() {
+                public void run() {
+                    for(int y = ymin; y < ymax; y++){
+                        for(int x = 0; x < size; x++){
+                            for(int z = 0; z < size; z++){
+                                // every other row overwrites with the same material
+                                wrapper.setData(x, y, z, Grid.INSIDE, (y % 2 == 0)? 100: y+1);
+                            }
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for(int t = 0; t < threads; t++){
+            workers[t].join();
+        }
+
+        Set<Long> overlaps = wrapper.getOverlaps();
+        assertEquals("overlaps count", size/2, overlaps.size());
+        for(int y = 0; y < size; y += 2){
+            assertTrue("overlap", overlaps.contains(new Long(y+1)));
+        }
+    }
+}
@@ -30,6 +30,7 @@ import abfab3d.core.GridDataDesc;
 import abfab3d.core.GridDataChannel;
 import abfab3d.grid.ArrayAttributeGridInt;
 import abfab3d.grid.ArrayAttributeGridShort;
+import abfab3d.grid.Grid2DInt;
 import abfab3d.grid.util.GridUtil;
 
 import abfab3d.core.Bounds;
@@ -67,6 +68,24 @@ public class TestClosestPointIndexerMT extends TestCase {
         // to make tester happy 
     }
 
+    /**
+       exception of 2D slice processor is rethrown to the caller 
+     */
+    public void testPI2Failure(){
+
+        int n = 100;
+        Grid2DInt indexGrid = new Grid2DInt(n, n);
+        // index outside of points arrays 
+        indexGrid.setAttribute(10, 70, 1000);
+        double coordx[] = new double[10], coordy[] = new double[10];
+        try {
+            ClosestPointIndexerMT.PI2_MT(9, coordx, coordy, indexGrid, 4);
+            fail("exception expected");
+        } catch(ArrayIndexOutOfBoundsException e){
+            // expected
+        }
+    }
+
     
     /**
        this test compares result of MT and ST distance calculations 
@@ -18,6 +18,7 @@ import abfab3d.core.Grid2D;
 import abfab3d.grid.Grid2DShort;
 
 import java.io.File;
+import java.util.Random;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
@@ -61,6 +62,53 @@ public class TestDistanceTransform2D extends BaseTestDistanceTransform {
 
     }
 
+    /**
+       parallel transform gives the same result as single threaded 
+     */
+    public void testThreads() {
+
+        int n = 300;
+        Grid2DShort grid = new Grid2DShort(n, n, pixelSize);
+        // smooth disks 
+        Random rnd = new Random(11);
+        for(int i = 0; i < 10; i++){
+            double cx = rnd.nextDouble()*n, cy = rnd.nextDouble()*n, r = rnd.nextDouble()*n/6;
+            for(int y = 0; y < n; y++){
+                for(int x = 0; x < n; x++){
+                    double v = clamp(0.5 - (Math.hypot(x - cx, y - cy) - r)/3, 0., 1.);
+                    long att = (long)(v*0xFFFF);
+                    if(att > grid.getAttribute(x,y))
+                        grid.setAttribute(x, y, att);
+                }
+            }
+        }
+        Grid2D dist1 = null;
+        for(int threads = 1; threads <= 4; threads *= 2){
+            DistanceTransform2DOp dt = new DistanceTransform2DOp(3*MM, 3*MM, 0.5);
+            dt.setThreadCount(threads);
+            Grid2D dist = dt.execute(grid);
+            if(dist1 == null) {
+                dist1 = dist;
+                continue;
+            }
+            for(int y = 0; y < n; y++){
+                for(int x = 0; x < n; x++){
+                    assertEquals("distance", dist1.getAttribute(x,y), dist.getAttribute(x,y));
+                }
+            }
+        }
+        // distance at the center of the grid is consistent with the image value
+        GridDataChannel dc = dist1.getDataDesc().getChannel(0);
+        for(int y = 0; y < n; y += 10){
+            for(int x = 0; x < n; x += 10){
+                double v = grid.getAttribute(x,y)/(double)0xFFFF;
+                double d = dc.getValue(dist1.getAttribute(x,y));
+                if(v > 0.9) assertTrue("interior", d < 0);
+                if(v < 0.1) assertTrue("exterior", d > 0);
+            }
+        }
+    }
+
     public void _test1() throws Exception {
         
         //Grid2D grid = loadImageToGrid2D("test/images/white_pixel.png");
@@ -0,0 +1,232 @@
+package abfab3d.grid.op;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Grid;
+import abfab3d.grid.ArrayAttributeGridByte;
+import abfab3d.grid.ArrayGridByte;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+import static abfab3d.core.Units.MM;
+import static abfab3d.core.MathUtil.L2S;
+
+/**
+ * Test the DistanceTransformSeparable class.
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestDistanceTransformSeparable extends BaseTestDistanceTransform {
+
+    private static final boolean DEBUG = false;
+
+    double surfaceThickness = Math.sqrt(3)/2;
+    int maxAttribute = 100;
+    double voxelSize = 0.1*MM;
+
+    public void testBoxBoth(){
+
+        int nx = 128;
+        double boxWidth = 2.0 * MM;
+        AttributeGrid grid = makeBox(nx, boxWidth, voxelSize, maxAttribute, surfaceThickness);
+        double maxInDistance = 0.5*MM;
+        double maxOutDistance = 0.5*MM;
+
+        long t0 = time();
+        DistanceTransformSeparable dt = new DistanceTransformSeparable(maxAttribute, maxInDistance, maxOutDistance);
+        AttributeGrid dg = dt.execute(grid);
+        printf("DistanceTransformSeparable done: %d ms\n", time() - t0);
+
+        if (DEBUG) printRow(dg, 40, 90, nx/2, nx/2);
+
+        int min = -(int)(Math.ceil(boxWidth/2.0*maxAttribute/grid.getVoxelSize() + 0.5));
+        int max = (int)(Math.ceil(boxWidth/2.0*maxAttribute/grid.getVoxelSize() + 0.5));
+
+        long not_calced_inside = dt.getInsideDefault();
+        long not_calced_outside = dt.getOutsideDefault();
+
+        checkMinValue(min, not_calced_inside, not_calced_outside, dg);
+        checkMaxValue(max, not_calced_inside, not_calced_outside, dg);
+        checkHightToLowToHigh(nx/2, nx/2, nx/2, not_calced_inside, not_calced_outside, dg);
+    }
+
+    /**
+       compare with DistanceTransformExact
+     */
+    public void testSphereCompareExact(){
+
+        int nx = 64;
+        double sphereRadius = 2.0 * MM;
+        AttributeGrid grid = makeSphereDensity(nx, sphereRadius, voxelSize, maxAttribute);
+        double maxInDistance = 1*MM;
+        double maxOutDistance = 1*MM;
+
+        DistanceTransformExact dt_exact = new DistanceTransformExact(maxAttribute, maxInDistance, maxOutDistance);
+        AttributeGrid dg_exact = dt_exact.execute(grid);
+
+        long t0 = time();
+        DistanceTransformSeparable dt = new DistanceTransformSeparable(maxAttribute, maxInDistance, maxOutDistance);
+        AttributeGrid dg = dt.execute(grid);
+        printf("DistanceTransformSeparable done: %d ms\n", time() - t0);
+
+        long diff[] = getDiffHistogram(dg_exact, dg);
+        if(DEBUG) printDiffHistogram(diff);
+
+        // DistanceTransformExact measures distances to axis crossings, so small differences are expected
+        // distances should differ from exact by less than half voxel and mostly by less than quarter of voxel
+        long total = 0;
+        long bad = 0;
+        for(int k = 0; k < diff.length-1; k++){
+            total += diff[k];
+            if(k >= maxAttribute/4) bad += diff[k];
+            if(k >= maxAttribute/2) assertEquals("distance differs more than half voxel", 0, diff[k]);
+        }
+        printf("bad: %d of %d\n", bad, total);
+        assertTrue("too many bad voxels: " + bad, bad < total/100);
+
+        // distance at voxel on the axis of sphere
+        int c = nx/2;
+        int x = c - 15;
+        double dist = sphereRadius/voxelSize - (c - (x + 0.5));
+        assertEquals("axis distance", -maxAttribute*dist, L2S(dg.getAttribute(x,c,c)), maxAttribute/10);
+        // distance at the center of sphere is beyond maxInDistance
+        assertEquals("center distance", dt.getInsideDefault(), L2S(dg.getAttribute(c,c,c)));
+
+    }
+
+    /**
+       results should not depend on number of threads
+     */
+    public void testThreadCount(){
+
+        int nx = 50;
+        AttributeGrid grid = makeSphereDensity(nx, 1.5*MM, voxelSize, maxAttribute);
+        double maxInDistance = 1*MM;
+        double maxOutDistance = 2*MM;
+
+        DistanceTransformSeparable dt1 = new DistanceTransformSeparable(maxAttribute, maxInDistance, maxOutDistance);
+        dt1.setThreadCount(1);
+        AttributeGrid dg1 = dt1.execute(grid);
+
+        DistanceTransformSeparable dt4 = new DistanceTransformSeparable(maxAttribute, maxInDistance, maxOutDistance);
+        dt4.setThreadCount(4);
+        dt4.setSliceThickness(3);
+        AttributeGrid dg4 = dt4.execute(grid);
+
+        for(int y = 0; y < nx; y++){
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nx; z++){
+                    assertEquals("distance", L2S(dg1.getAttribute(x,y,z)), L2S(dg4.getAttribute(x,y,z)));
+                }
+            }
+        }
+    }
+
+    /**
+       makes density grid of sphere centered at the corner of the central voxel
+     */
+    AttributeGrid makeSphereDensity(int gridSize, double radius, double voxelSize, int maxAttribute){
+
+        AttributeGrid grid = new ArrayAttributeGridByte(gridSize, gridSize, gridSize, voxelSize, voxelSize);
+        double c = gridSize/2;
+        for(int y = 0; y < gridSize; y++){
+            for(int x = 0; x < gridSize; x++){
+                for(int z = 0; z < gridSize; z++){
+                    double dx = x + 0.5 - c, dy = y + 0.5 - c, dz = z + 0.5 - c;
+                    double d = radius/voxelSize - Math.sqrt(dx*dx + dy*dy + dz*dz);
+                    double v = Math.max(0., Math.min(1., d + 0.5));
+                    grid.setAttribute(x,y,z,(long)(v*maxAttribute + 0.5));
+                }
+            }
+        }
+        return grid;
+    }
+
+    public void testLine1D(){
+
+        double coord[] = new double[]{1.5, 2.5, 2.5, 6};
+        double value[] = new double[]{1, 0.25, 0.5, 0};
+        int closest[] = new int[7];
+        int count = DistanceTransformSeparable.DT1(coord, value, coord.length, closest.length, closest, new int[5], new double[5]);
+        assertEquals("envelope size", 3, count);
+        int expect[] = new int[]{0, 0, 1, 1, 1, 3, 3};
+        for(int i = 0; i < closest.length; i++){
+            assertEquals("closest[" + i + "]", expect[i], closest[i]);
+        }
+    }
+
+    /**
+       voxels with value equal to surface value should not produce undefined seeds
+     */
+    public void testSurfaceValue(){
+
+        int nx = 20;
+        AttributeGrid grid = new ArrayAttributeGridByte(nx, nx, nx, voxelSize, voxelSize);
+        for(int y = 5; y < 15; y++){
+            for(int x = 5; x < 15; x++){
+                for(int z = 5; z < 15; z++){
+                    grid.setAttribute(x,y,z,maxAttribute);
+                }
+            }
+        }
+        // voxel with value exactly at the surface
+        grid.setAttribute(4,10,10, maxAttribute/2);
+
+        DistanceTransformSeparable dt = new DistanceTransformSeparable(maxAttribute, 0.5*MM, 0.5*MM);
+        AttributeGrid dg = dt.execute(grid);
+        assertEquals("surface voxel", 0, (short)dg.getAttribute(4,10,10));
+        assertEquals("near voxel", maxAttribute, (short)dg.getAttribute(3,10,10));
+        assertEquals("far voxel", dt.getOutsideDefault(), (short)dg.getAttribute(0,0,0));
+    }
+
+    /**
+       grid of voxel states is transformed as density grid with full density inside
+     */
+    public void testStatesGrid(){
+
+        int nx = 20;
+        Grid states = new ArrayGridByte(nx, nx, nx, voxelSize, voxelSize);
+        AttributeGrid density = new ArrayAttributeGridByte(nx, nx, nx, voxelSize, voxelSize);
+        for(int y = 5; y < 15; y++){
+            for(int x = 5; x < 15; x++){
+                for(int z = 5; z < 15; z++){
+                    states.setState(x,y,z,Grid.INSIDE);
+                    density.setAttribute(x,y,z,maxAttribute);
+                }
+            }
+        }
+        DistanceTransformSeparable dt = new DistanceTransformSeparable(maxAttribute, 0.5*MM, 0.5*MM);
+        AttributeGrid dg = (AttributeGrid)dt.execute(states);
+        AttributeGrid expected = dt.execute(density);
+        for(int y = 0; y < nx; y++){
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nx; z++){
+                    assertEquals("distance", L2S(expected.getAttribute(x,y,z)), L2S(dg.getAttribute(x,y,z)));
+                }
+            }
+        }
+    }
+
+    /**
+       failure in worker thread is rethrown by execute
+     */
+    public void testWorkerFailure(){
+
+        int nx = 20;
+        AttributeGrid grid = new ArrayAttributeGridByte(nx, nx, nx, voxelSize, voxelSize){
+                public long getAttribute(int x, int y, int z){
+                    if(z == 13) throw new IllegalStateException("bad voxel");
+                    return super.getAttribute(x,y,z);
+                }
+            };
+        for(int threads = 1; threads <= 4; threads *= 4){
+            DistanceTransformSeparable dt = new DistanceTransformSeparable(maxAttribute, 0.5*MM, 0.5*MM);
+            dt.setThreadCount(threads);
+            try {
+                dt.execute(grid);
+                fail("failure was not reported");
+            } catch(IllegalStateException e){
+                assertEquals("bad voxel", e.getMessage());
+            }
+        }
+    }
+}
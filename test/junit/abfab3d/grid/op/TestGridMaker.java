@@ -37,8 +37,12 @@ import junit.framework.TestSuite;
 // Internal Imports
 //import abfab3d.grid.Grid;
 import abfab3d.core.AttributeGrid;
+import abfab3d.core.Bounds;
+import abfab3d.core.DataSource;
 import abfab3d.grid.ArrayAttributeGridByte;
 import abfab3d.grid.GridShortIntervals;
+import abfab3d.grid.VoxelBox;
+import abfab3d.grid.DirtyRegion;
 
 import abfab3d.core.Vec;
 import abfab3d.core.MathUtil;
@@ -2260,6 +2264,64 @@ public class TestGridMaker extends TestCase {
         }
     }
 
+    /**
+       recalculation of dirty region gives the same grid as full recalculation 
+     */
+    public void testRegionUpdate() {
+
+        double vs = 0.5*MM;
+        int n = 40;
+        double s = n*vs/2;
+        double bounds[] = new double[]{-s, s, -s, s, -s, s};
+        Sphere sphere1 = new Sphere(new Vector3d(-2*MM, 0, 0), 4*MM);
+        Sphere sphere2 = new Sphere(new Vector3d(3*MM, 1*MM, 0), 3*MM);
+        // density is local, distance would change everywhere 
+        sphere1.setDataType(DataSource.DATA_TYPE_DENSITY);
+        sphere2.setDataType(DataSource.DATA_TYPE_DENSITY);
+        int threads[] = new int[]{1, 4};
+
+        for(int t = 0; t < threads.length; t++){
+
+            AttributeGrid grid = new ArrayAttributeGridByte(n, n, n, vs, vs);
+            grid.setGridBounds(bounds);
+            GridMaker gm = new GridMaker();
+            gm.setThreadCount(threads[t]);
+            gm.setMargin(1);
+            gm.setSource(sphere1);
+            gm.makeGrid(grid);
+
+            // move the sphere and patch both old and new location 
+            DirtyRegion dirty = new DirtyRegion();
+            dirty.add(new Bounds(-7*MM, 3*MM, -5*MM, 5*MM, -5*MM, 5*MM), grid);
+            dirty.add(new Bounds(-1*MM, 7*MM, -3*MM, 5*MM, -4*MM, 4*MM), grid);
+            assertEquals("merged boxes", 1, dirty.getBoxes().length);
+            assertTrue("partial region", dirty.getVolume() < ((long)n)*n*n);
+
+            gm.setSource(sphere2);
+            gm.updateGrid(grid, dirty);
+
+            AttributeGrid expected = new ArrayAttributeGridByte(n, n, n, vs, vs);
+            expected.setGridBounds(bounds);
+            GridMaker gm2 = new GridMaker();
+            gm2.setMargin(1);
+            gm2.setSource(sphere2);
+            gm2.makeGrid(expected);
+
+            for(int y = 0; y < n; y++){
+                for(int x = 0; x < n; x++){
+                    for(int z = 0; z < n; z++){
+                        assertEquals("attribute", expected.getAttribute(x, y, z), grid.getAttribute(x, y, z));
+                    }
+                }
+            }
+
+            // voxels outside of region are not touched 
+            grid.setAttribute(0, 0, 0, 7);
+            gm.makeGrid(grid, new VoxelBox(n/2, n, 0, n, 0, n));
+            assertEquals("untouched voxel", 7, grid.getAttribute(0, 0, 0));
+        }
+    }
+
     public static void main(String[] args) {
         //new TestGridMaker().devTestMakeSlice();
     }
@@ -0,0 +1,208 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid.op;
+
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Bounds;
+import abfab3d.core.DataSource;
+import abfab3d.core.GridDataDesc;
+import abfab3d.core.VecTransform;
+import abfab3d.datasources.Noise;
+import abfab3d.datasources.Sphere;
+import abfab3d.datasources.VolumePatterns;
+import abfab3d.grid.ArrayAttributeGridByte;
+import abfab3d.grid.ArrayAttributeGridShort;
+import abfab3d.grid.AttributePackerDensity;
+import abfab3d.grid.GridShortIntervals;
+import abfab3d.grid.VoxelBox;
+import abfab3d.transforms.CompositeTransform;
+import abfab3d.transforms.Rotation;
+import abfab3d.transforms.Scale;
+import abfab3d.transforms.SphereInversion;
+import abfab3d.transforms.Translation;
+
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests bulk calculation of rows in GridMaker
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestGridMakerBulk extends TestCase {
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestGridMakerBulk.class);
+    }
+
+    static final int N = 30;
+    static final double VS = 0.5*MM;
+
+    /**
+       bulk calculation gives the same grid as calculation of each voxel
+     */
+    public void testSameAsPerVoxel(){
+
+        VolumePatterns.Gyroid gyroid = new VolumePatterns.Gyroid(6*MM, 0.5*MM);
+        gyroid.setDataType(DataSource.DATA_TYPE_DENSITY);
+        gyroid.setTransform(new Rotation(new Vector3d(1,1,0), 0.3));
+        Noise noise = new Noise(new Vector3d(8*MM, 8*MM, 8*MM), 4, 4, 4);
+        noise.setTransform(new Translation(1*MM, 0, 0));
+
+        DataSource sources[] = new DataSource[]{gyroid, noise};
+        for(int i = 0; i < sources.length; i++){
+            for(int threads = 1; threads <= 4; threads *= 4){
+                AttributeGrid bulk = makeGrid(new ArrayAttributeGridByte(N, N, N, VS, VS), sources[i], threads, true);
+                AttributeGrid voxels = makeGrid(new ArrayAttributeGridByte(N, N, N, VS, VS), sources[i], threads, false);
+                assertTrue("empty grid", countNonZero(voxels) > 0);
+                assertSameGrids(voxels, bulk);
+            }
+        }
+    }
+
+    /**
+       bulk calculation with grid transform gives the same grid as calculation of each voxel
+       rows with scaled points are calculated for each voxel 
+     */
+    public void testGridTransform(){
+
+        VolumePatterns.Gyroid gyroid = new VolumePatterns.Gyroid(6*MM, 0.5*MM);
+        gyroid.setDataType(DataSource.DATA_TYPE_DISTANCE);
+        CompositeTransform rotation = new CompositeTransform();
+        rotation.add(new Rotation(new Vector3d(0,1,1), 0.5));
+        rotation.add(new Translation(0.3*MM, 0, 0));
+        VecTransform transforms[] = new VecTransform[]{rotation, new Scale(1.5)};
+
+        for(int i = 0; i < transforms.length; i++){
+            for(int threads = 1; threads <= 4; threads *= 4){
+                AttributeGrid grids[] = new AttributeGrid[2];
+                for(int k = 0; k < 2; k++){
+                    AttributeGrid grid = new ArrayAttributeGridShort(N, N, N, VS, VS);
+                    setBounds(grid);
+                    GridMaker gm = makeGridMaker(gyroid, threads, (k == 0));
+                    gm.setAttributePacker(GridDataDesc.getDistance(16, 5*MM).getAttributePacker());
+                    gm.setTransform(transforms[i]);
+                    gm.makeGrid(grid);
+                    grids[k] = grid;
+                }
+                assertTrue("empty grid", countNonZero(grids[1]) > 0);
+                assertSameGrids(grids[1], grids[0]);
+            }
+        }
+    }
+
+    /**
+       bulk calculation of region overwrites voxels of region only
+     */
+    public void testRegion(){
+
+        VolumePatterns.Gyroid gyroid = new VolumePatterns.Gyroid(6*MM, 0.5*MM);
+        gyroid.setDataType(DataSource.DATA_TYPE_DENSITY);
+        Sphere sphere = new Sphere(new Vector3d(0,0,0), 5*MM);
+        sphere.setDataType(DataSource.DATA_TYPE_DENSITY);
+        for(int threads = 1; threads <= 4; threads *= 4){
+            AttributeGrid grids[] = new AttributeGrid[2];
+            for(int k = 0; k < 2; k++){
+                boolean useBulk = (k == 0);
+                AttributeGrid grid = makeGrid(new GridShortIntervals(N, N, N, VS, VS), sphere, threads, useBulk);
+                GridMaker gm = makeGridMaker(gyroid, threads, useBulk);
+                gm.makeGrid(grid, new VoxelBox(5, 20, 3, 25, 10, 22));
+                grids[k] = grid;
+            }
+            assertSameGrids(grids[1], grids[0]);
+        }
+    }
+
+    /**
+       sources which can not be calculated in bulk are calculated for each voxel
+     */
+    public void testFallback(){
+
+        VolumePatterns.Gyroid gyroid = new VolumePatterns.Gyroid(6*MM, 0.5*MM);
+        AttributeGrid grid = new ArrayAttributeGridByte(N, N, N, VS, VS);
+        setBounds(grid);
+
+        GridMaker gm = makeGridMaker(gyroid, 1, true);
+        gm.makeGrid(grid);
+        assertNotNull("bulk source", gm.getBulkSource());
+
+        gm.setTransform(new Translation(1*MM, 0, 0));
+        gm.makeGrid(grid);
+        assertNotNull("bulk grid transform", gm.getBulkSource());
+
+        gm.setTransform(new SphereInversion(new Vector3d(0,0,0), 5*MM));
+        gm.makeGrid(grid);
+        assertNull("grid transform", gm.getBulkSource());
+
+        gm = makeGridMaker(new Sphere(new Vector3d(0,0,0), 5*MM), 1, true);
+        gm.makeGrid(grid);
+        assertNull("not bulk source", gm.getBulkSource());
+
+        gyroid.setMaterial(new Sphere(new Vector3d(0,0,0), 5*MM));
+        gm = makeGridMaker(gyroid, 1, true);
+        gm.makeGrid(grid);
+        assertNull("material channel", gm.getBulkSource());
+    }
+
+    GridMaker makeGridMaker(DataSource source, int threads, boolean useBulk){
+
+        GridMaker gm = new GridMaker();
+        gm.setSource(source);
+        gm.setThreadCount(threads);
+        gm.setAttributePacker(new AttributePackerDensity(255));
+        gm.setUseBulkCalculation(useBulk);
+        return gm;
+    }
+
+    AttributeGrid makeGrid(AttributeGrid grid, DataSource source, int threads, boolean useBulk){
+
+        setBounds(grid);
+        makeGridMaker(source, threads, useBulk).makeGrid(grid);
+        return grid;
+    }
+
+    static void setBounds(AttributeGrid grid){
+        double s = N*VS/2;
+        grid.setGridBounds(new Bounds(-s, s, -s, s, -s, s));
+    }
+
+    static long countNonZero(AttributeGrid grid){
+        long count = 0;
+        for(int y = 0; y < N; y++){
+            for(int x = 0; x < N; x++){
+                for(int z = 0; z < N; z++){
+                    if(grid.getAttribute(x,y,z) != 0) count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    static void assertSameGrids(AttributeGrid expected, AttributeGrid grid){
+        for(int y = 0; y < N; y++){
+            for(int x = 0; x < N; x++){
+                for(int z = 0; z < N; z++){
+                    assertEquals("voxel (" + x + "," + y + "," + z + ")", expected.getAttribute(x,y,z), grid.getAttribute(x,y,z));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid.op;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Grid2D;
+import abfab3d.core.GridDataChannel;
+import abfab3d.core.MathUtil;
+import abfab3d.grid.ArrayAttributeGridByte;
+import abfab3d.grid.Grid2DShort;
+import abfab3d.grid.GridShortIntervals;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Test SeparableConvolution
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestSeparableConvolution extends TestCase {
+
+    static final boolean DEBUG = false;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestSeparableConvolution.class);
+    }
+
+    /**
+       parallel convolution should give the same result as simple convolution
+     */
+    public void testCompareWithSimple(){
+
+        double kernel[] = MathUtil.getGaussianKernel(2.);
+        // tile size and kernel size are not aligned with grid size
+        AttributeGrid grid = makeRandomGrid(new ArrayAttributeGridByte(37, 29, 71, 0.1*MM, 0.1*MM));
+        AttributeGrid expected = simpleConvolution((AttributeGrid)grid.clone(), kernel, true, 0.);
+
+        SeparableConvolution conv = new SeparableConvolution(kernel);
+        conv.setThreadCount(4);
+        conv.setTileSize(16);
+        long t0 = time();
+        conv.execute(grid);
+        if(DEBUG) printf("convolution: %d ms\n", (time() - t0));
+
+        assertGridsEqual(expected, grid);
+    }
+
+    /**
+       constant boundary and different kernels along axes
+     */
+    public void testConstantBoundary(){
+
+        double kx[] = MathUtil.getBoxKernel(3);
+        double kz[] = MathUtil.getGaussianKernel(1.5);
+        AttributeGrid grid = makeRandomGrid(new ArrayAttributeGridByte(20, 30, 40, 0.1*MM, 0.1*MM));
+        AttributeGrid expected = (AttributeGrid)grid.clone();
+        GridDataChannel channel = grid.getDataDesc().getChannel(0);
+        convolveX(expected, channel, kx, false, 0.5);
+        convolveZ(expected, channel, kz, false, 0.5);
+
+        SeparableConvolution conv = new SeparableConvolution(kx, null, kz);
+        conv.setBoundaryType(SeparableConvolution.BOUNDARY_CONSTANT);
+        conv.setBoundaryValue(0.5);
+        conv.execute(grid);
+
+        assertGridsEqual(expected, grid);
+    }
+
+    /**
+       result should not depend on thread count and should be the same for grids storing data in rows
+     */
+    public void testThreads(){
+
+        double kernel[] = MathUtil.getGaussianKernel(3.);
+        AttributeGrid grid1 = makeRandomGrid(new ArrayAttributeGridByte(50, 40, 30, 0.1*MM, 0.1*MM));
+        AttributeGrid grid2 = (AttributeGrid)grid1.clone();
+        AttributeGrid grid3 = new GridShortIntervals(50, 40, 30, 0.1*MM, 0.1*MM);
+        grid3.setDataDesc(grid1.getDataDesc());
+        copy(grid1, grid3);
+
+        SeparableConvolution conv = new SeparableConvolution(kernel);
+        conv.setThreadCount(1);
+        conv.execute(grid1);
+        conv.setThreadCount(8);
+        conv.execute(grid2);
+        conv.execute(grid3);
+
+        assertGridsEqual(grid1, grid2);
+        assertGridsEqual(grid1, grid3);
+    }
+
+    /**
+       failure in worker thread is rethrown by execute
+     */
+    public void testWorkerFailure(){
+
+        AttributeGrid grid = new ArrayAttributeGridByte(20, 30, 40, 0.1*MM, 0.1*MM){
+                public long getAttribute(int x, int y, int z){
+                    if(y == 17) throw new IllegalStateException("bad voxel");
+                    return super.getAttribute(x,y,z);
+                }
+            };
+        for(int threads = 1; threads <= 4; threads *= 4){
+            SeparableConvolution conv = new SeparableConvolution(MathUtil.getBoxKernel(3));
+            conv.setThreadCount(threads);
+            try {
+                conv.execute(grid);
+                fail("failure was not reported");
+            } catch(IllegalStateException e){
+                assertEquals("bad voxel", e.getMessage());
+            }
+        }
+    }
+
+    public void testGaussianBlur(){
+
+        double vs = 0.1*MM;
+        AttributeGrid grid = makeRandomGrid(new ArrayAttributeGridByte(25, 25, 25, vs, vs));
+        AttributeGrid expected = simpleConvolution((AttributeGrid)grid.clone(), MathUtil.getGaussianKernel(2., 0.001), true, 0.);
+        new GaussianBlur(2*vs).execute(grid);
+        assertGridsEqual(expected, grid);
+    }
+
+    /**
+       parallel 2D blur gives the same result as row by row convolution
+     */
+    public void testGaussianBlur2D(){
+
+        double vs = 0.1*MM;
+        Grid2DShort grid = new Grid2DShort(150, 97, vs);
+        Random rnd = new Random(123);
+        for(int y = 0; y < grid.getHeight(); y++){
+            for(int x = 0; x < grid.getWidth(); x++){
+                grid.setAttribute(x,y, rnd.nextInt(0x10000));
+            }
+        }
+        double kernel[] = MathUtil.getGaussianKernel(3., 0.001);
+        Grid2DShort expected = (Grid2DShort)grid.clone();
+        GridDataChannel channel = expected.getDataDesc().getChannel(0);
+        simpleConvolution2D(expected, channel, kernel, 1, 0);
+        simpleConvolution2D(expected, channel, kernel, 0, 1);
+
+        for(int threads = 1; threads <= 4; threads *= 2){
+            Grid2DShort blurred = (Grid2DShort)grid.clone();
+            GaussianBlur blur = new GaussianBlur(3*vs);
+            blur.setThreadCount(threads);
+            blur.execute(blurred);
+            for(int y = 0; y < grid.getHeight(); y++){
+                for(int x = 0; x < grid.getWidth(); x++){
+                    assertEquals("pixel", expected.getAttribute(x,y), blurred.getAttribute(x,y));
+                }
+            }
+        }
+    }
+
+    static void simpleConvolution2D(Grid2DShort grid, GridDataChannel channel, double kernel[], int dx, int dy){
+
+        int nx = grid.getWidth(), ny = grid.getHeight();
+        Grid2DShort src = (Grid2DShort)grid.clone();
+        int ksize = kernel.length/2;
+        for(int y = 0; y < ny; y++){
+            for(int x = 0; x < nx; x++){
+                double sum = 0;
+                for(int k = 0; k < kernel.length; k++){
+                    int xx = MathUtil.clamp(x - dx*(k - ksize), 0, nx-1);
+                    int yy = MathUtil.clamp(y - dy*(k - ksize), 0, ny-1);
+                    sum += kernel[k]*channel.getValue(src.getAttribute(xx,yy));
+                }
+                grid.setAttribute(x,y, channel.makeAtt(sum));
+            }
+        }
+    }
+
+    static AttributeGrid makeRandomGrid(AttributeGrid grid){
+        Random rnd = new Random(121);
+        for(int y = 0; y < grid.getHeight(); y++){
+            for(int x = 0; x < grid.getWidth(); x++){
+                for(int z = 0; z < grid.getDepth(); z++){
+                    grid.setAttribute(x,y,z, rnd.nextInt(256));
+                }
+            }
+        }
+        return grid;
+    }
+
+    static void copy(AttributeGrid src, AttributeGrid dest){
+        for(int y = 0; y < src.getHeight(); y++){
+            for(int x = 0; x < src.getWidth(); x++){
+                for(int z = 0; z < src.getDepth(); z++){
+                    dest.setAttribute(x,y,z, src.getAttribute(x,y,z));
+                }
+            }
+        }
+    }
+
+    static void assertGridsEqual(AttributeGrid expected, AttributeGrid grid){
+        long sum = 0;
+        for(int y = 0; y < grid.getHeight(); y++){
+            for(int x = 0; x < grid.getWidth(); x++){
+                for(int z = 0; z < grid.getDepth(); z++){
+                    assertEquals("voxel", expected.getAttribute(x,y,z), grid.getAttribute(x,y,z));
+                    sum += grid.getAttribute(x,y,z);
+                }
+            }
+        }
+        assertTrue("empty grid", sum > 0);
+    }
+
+    /**
+       straightforward voxel by voxel convolution
+     */
+    static AttributeGrid simpleConvolution(AttributeGrid grid, double kernel[], boolean clamp, double boundaryValue){
+
+        GridDataChannel channel = grid.getDataDesc().getChannel(0);
+        convolveX(grid, channel, kernel, clamp, boundaryValue);
+        convolveY(grid, channel, kernel, clamp, boundaryValue);
+        convolveZ(grid, channel, kernel, clamp, boundaryValue);
+        return grid;
+    }
+
+    static double getValue(AttributeGrid grid, GridDataChannel channel, int x, int y, int z, boolean clamp, double boundaryValue){
+        int nx = grid.getWidth(), ny = grid.getHeight(), nz = grid.getDepth();
+        if(x < 0 || y < 0 || z < 0 || x >= nx || y >= ny || z >= nz){
+            if(!clamp)
+                return boundaryValue;
+            x = MathUtil.clamp(x, 0, nx-1);
+            y = MathUtil.clamp(y, 0, ny-1);
+            z = MathUtil.clamp(z, 0, nz-1);
+        }
+        return channel.getValue(grid.getAttribute(x,y,z));
+    }
+
+    static void convolveX(AttributeGrid grid, GridDataChannel channel, double kernel[], boolean clamp, double boundaryValue){
+        convolve(grid, channel, kernel, 1, 0, 0, clamp, boundaryValue);
+    }
+
+    static void convolveY(AttributeGrid grid, GridDataChannel channel, double kernel[], boolean clamp, double boundaryValue){
+        convolve(grid, channel, kernel, 0, 1, 0, clamp, boundaryValue);
+    }
+
+    static void convolveZ(AttributeGrid grid, GridDataChannel channel, double kernel[], boolean clamp, double boundaryValue){
+        convolve(grid, channel, kernel, 0, 0, 1, clamp, boundaryValue);
+    }
+
+    static void convolve(AttributeGrid grid, GridDataChannel channel, double kernel[], int dx, int dy, int dz, boolean clamp, double boundaryValue){
+
+        int nx = grid.getWidth(), ny = grid.getHeight(), nz = grid.getDepth();
+        AttributeGrid src = (AttributeGrid)grid.clone();
+        int ksize = kernel.length/2;
+        for(int y = 0; y < ny; y++){
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    double sum = 0;
+                    for(int k = 0; k < kernel.length; k++){
+                        int d = -(k - ksize);
+                        sum += kernel[k]*getValue(src, channel, x + d*dx, y + d*dy, z + d*dz, clamp, boundaryValue);
+                    }
+                    grid.setAttribute(x,y,z, channel.makeAtt(sum));
+                }
+            }
+        }
+    }
+}
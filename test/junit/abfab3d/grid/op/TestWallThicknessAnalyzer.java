@@ -0,0 +1,142 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.grid.op;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.grid.ArrayAttributeGridByte;
+import abfab3d.grid.ComponentLabelerMT;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of WallThicknessAnalyzer
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestWallThicknessAnalyzer extends TestCase {
+
+    static final boolean DEBUG = false;
+    static final int SVR = 255;
+    static final double VS = 0.1*MM;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestWallThicknessAnalyzer.class);
+    }
+
+    /**
+       exception of slice thread is rethrown by the pass
+     */
+    public void testPassFailure(){
+
+        for(int threads = 1; threads <= 4; threads *= 4){
+            WallThicknessAnalyzer wta = new WallThicknessAnalyzer(1*MM, SVR);
+            wta.setThreadCount(threads);
+            try {
+                wta.runPass(new WallThicknessAnalyzer.SliceProcessor(){
+                        void processSlice(int y){
+                            if(y == 23)
+                                throw new IllegalStateException("slice failed");
+                        }
+                    }, 60);
+                fail("exception expected");
+            } catch(IllegalStateException e){
+                assertEquals("message", "slice failed", e.getMessage());
+            }
+        }
+    }
+
+    /**
+       thick block with thin plate attached
+     */
+    public void testThinPlate(){
+
+        AttributeGrid grid = new ArrayAttributeGridByte(60, 60, 60, VS, VS);
+        // block 3mm
+        fill(grid, 5, 35, 5, 35, 5, 35);
+        // plate 0.4mm thick sticking out of the block
+        fill(grid, 35, 55, 15, 25, 18, 22);
+
+        WallThicknessAnalyzer wta = new WallThicknessAnalyzer(1*MM, SVR);
+        WallThicknessAnalyzer.Result res = wta.analyze(grid);
+        if(DEBUG) printf("%s\n", res);
+
+        AttributeGrid cg = res.getClassificationGrid();
+        assertEquals("block center", WallThicknessAnalyzer.CLASS_THICK, cg.getAttribute(20,20,20));
+        assertEquals("block face", WallThicknessAnalyzer.CLASS_THICK, cg.getAttribute(5,20,20));
+        assertEquals("plate", WallThicknessAnalyzer.CLASS_THIN, cg.getAttribute(45,20,20));
+        assertEquals("outside", WallThicknessAnalyzer.CLASS_OUTSIDE, cg.getAttribute(50,50,50));
+        assertEquals("shape voxels", 30*30*30 + 20*10*4, res.getShapeVoxels());
+
+        // plate is thin region with large boundary/interface ratio, slivers along edges of block have small ratio
+        int plateVolume = 20*10*4;
+        double voxelVolume = VS*VS*VS;
+        assertTrue("plate volume", res.getThinVoxels() >= plateVolume);
+        assertEquals("plate region", 1, res.getThinRegionCount(plateVolume*voxelVolume/2, 1.5));
+        for(int i = 0; i < res.getThinRegions().size(); i++){
+            ComponentLabelerMT.Component c = res.getThinRegions().get(i);
+            double ratio = WallThicknessAnalyzer.Result.getBoundaryInterfaceRatio(c);
+            if(DEBUG) printf("region: %d ratio: %7.3f\n", c.volume, ratio);
+            if(c.xmin >= 35) {
+                assertEquals("plate volume", plateVolume, c.volume);
+                assertTrue("plate ratio", ratio > 10);
+            } else {
+                assertTrue("sliver ratio", ratio < 1.5);
+            }
+        }
+        assertEquals("no gaps", 0, res.getGapVoxels());
+    }
+
+    /**
+       two blocks with narrow gap between them
+     */
+    public void testGap(){
+
+        AttributeGrid grid = new ArrayAttributeGridByte(60, 40, 40, VS, VS);
+        fill(grid, 5, 28, 5, 35, 5, 35);
+        // 0.3 mm gap
+        fill(grid, 31, 55, 5, 35, 5, 35);
+
+        WallThicknessAnalyzer wta = new WallThicknessAnalyzer(1*MM, SVR);
+        wta.setMinGapDistance(0.6*MM);
+        wta.setThreadCount(4);
+        WallThicknessAnalyzer.Result res = wta.analyze(grid);
+        if(DEBUG) printf("%s\n", res);
+
+        AttributeGrid cg = res.getClassificationGrid();
+        assertEquals("gap", WallThicknessAnalyzer.CLASS_GAP, cg.getAttribute(29,20,20));
+        assertEquals("gap", WallThicknessAnalyzer.CLASS_GAP, cg.getAttribute(30,20,20));
+        assertEquals("outside", WallThicknessAnalyzer.CLASS_OUTSIDE, cg.getAttribute(1,20,20));
+        assertEquals("block", WallThicknessAnalyzer.CLASS_THICK, cg.getAttribute(15,20,20));
+        assertEquals("gap regions", 1, res.getGapRegionCount(3*20*20*VS*VS*VS));
+        assertTrue("gap voxels", res.getGapVoxels() >= 2*30*30);
+
+    }
+
+    static void fill(AttributeGrid grid, int x0, int x1, int y0, int y1, int z0, int z1){
+        for(int y = y0; y < y1; y++){
+            for(int x = x0; x < x1; x++){
+                for(int z = z0; z < z1; z++){
+                    grid.setAttribute(x,y,z,SVR);
+                }
+            }
+        }
+    }
+}
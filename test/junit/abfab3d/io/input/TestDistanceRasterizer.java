@@ -0,0 +1,134 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.io.input;
+
+import java.util.Arrays;
+
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Bounds;
+import abfab3d.core.BulkTriangleCollector;
+import abfab3d.core.GridDataChannel;
+import abfab3d.core.GridDataDesc;
+import abfab3d.core.TriangleProducer;
+import abfab3d.geom.TriangulatedModels;
+import abfab3d.grid.ArrayAttributeGridShort;
+import abfab3d.util.TriangleBlockBuffer;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of DistanceRasterizer
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestDistanceRasterizer extends TestCase {
+
+    static final boolean DEBUG = false;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestDistanceRasterizer.class);
+    }
+
+    /**
+       all consumers of pipeline receive all triangles in original order 
+     */
+    public void testPipeline(){
+
+        TriangleProducer sphere = new TriangulatedModels.Sphere(5*MM, new Vector3d(0,0,0), 4);
+        TriangleArray c0 = new TriangleArray(), c1 = new TriangleArray(), c2 = new TriangleArray();
+        TriangleBlockBuffer.getTriangles(sphere, c0, 7);
+
+        TriangleBlockPipeline pipeline = new TriangleBlockPipeline(new BulkTriangleCollector[]{c1, c2});
+        pipeline.setBlockSize(7);
+        pipeline.setQueueSize(2);
+        assertTrue("result", pipeline.getTriangles(sphere));
+        assertEquals("tri count", c0.count, pipeline.getTriCount());
+        assertEquals("consumer 1 count", c0.count, c1.count);
+        assertEquals("consumer 2 count", c0.count, c2.count);
+        for(int i = 0; i < 9*c0.count; i++){
+            assertEquals("consumer 1 coord", c0.coord[i], c1.coord[i]);
+            assertEquals("consumer 2 coord", c0.coord[i], c2.coord[i]);
+        }
+        if(DEBUG) printf("%s\n", pipeline.getTimings());
+    }
+
+    /**
+       pipelined calculation gives the same distances as sequential calculation 
+     */
+    public void testPipelinedDistances(){
+
+        TriangleProducer sphere = new TriangulatedModels.Sphere(5*MM, new Vector3d(0.3*MM,0.2*MM,0.1*MM), 4);
+        double vs = 0.2*MM;
+        Bounds bounds = new Bounds(-6*MM, 6*MM, -6*MM, 6*MM, -6*MM, 6*MM, vs);
+
+        AttributeGrid grid1 = makeDistances(sphere, bounds, false, 1);
+        AttributeGrid grid2 = makeDistances(sphere, bounds, true, 1);
+        AttributeGrid grid3 = makeDistances(sphere, bounds, true, 4);
+        for(int y = 0; y < grid1.getHeight(); y++){
+            for(int x = 0; x < grid1.getWidth(); x++){
+                for(int z = 0; z < grid1.getDepth(); z++){
+                    long a = grid1.getAttribute(x, y, z);
+                    assertEquals("pipelined", a, grid2.getAttribute(x, y, z));
+                    assertEquals("pipelined MT", a, grid3.getAttribute(x, y, z));
+                }
+            }
+        }
+    }
+
+    static AttributeGrid makeDistances(TriangleProducer producer, Bounds bounds, boolean pipelined, int threads){
+
+        double maxDist = 1*MM;
+        DistanceRasterizer rasterizer = new DistanceRasterizer(bounds, bounds.getGridWidth(), bounds.getGridHeight(), bounds.getGridDepth());
+        rasterizer.setMaxInDistance(maxDist);
+        rasterizer.setMaxOutDistance(maxDist);
+        rasterizer.setThreadCount(threads);
+        rasterizer.setPipelined(pipelined);
+        rasterizer.setBlockSize(100);
+
+        double vs = bounds.getVoxelSize();
+        AttributeGrid grid = new ArrayAttributeGridShort(bounds, vs, vs);
+        grid.setDataDesc(new GridDataDesc(new GridDataChannel(GridDataChannel.DISTANCE, "dist", 16, 0, -maxDist, maxDist)));
+        rasterizer.getDistances(producer, grid);
+        if(pipelined) 
+            assertTrue("timings", rasterizer.getStageTime(DistanceRasterizer.STAGE_TOTAL) > 0);
+        if(DEBUG) printf("%s\n", rasterizer.getStageTimings());
+        return grid;
+    }
+
+    /**
+       collects triangles into array 
+     */
+    static class TriangleArray implements BulkTriangleCollector {
+
+        double coord[] = new double[0];
+        int count;
+
+        public boolean addTriangles(double c[], int offset, int triCount){
+            if(coord.length < 9*(count + triCount))
+                coord = Arrays.copyOf(coord, 2*9*(count + triCount));
+            System.arraycopy(c, offset, coord, 9*count, 9*triCount);
+            count += triCount;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.io.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Bounds;
+import abfab3d.grid.ArrayAttributeGridByte;
+import abfab3d.io.output.SVXWriter;
+
+import static abfab3d.core.Units.MM;
+
+/**
+ * Test SVXLazyGrid
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestSVXLazyGrid extends TestCase {
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestSVXLazyGrid.class);
+    }
+
+    int nx = 30, ny = 20, nz = 25;
+
+    public void testLazyLoad() throws IOException {
+
+        String path = writeTestFile();
+        try {
+            SVXReader reader = new SVXReader();
+            AttributeGrid grid = reader.load(path);
+
+            SVXLazyGrid lazy = reader.loadLazy(path, 4);
+            assertEquals("width", grid.getWidth(), lazy.getWidth());
+            assertEquals("height", grid.getHeight(), lazy.getHeight());
+            assertEquals("depth", grid.getDepth(), lazy.getDepth());
+            assertEquals("voxel size", grid.getVoxelSize(), lazy.getVoxelSize(), 1.e-10);
+            Bounds b0 = grid.getGridBounds();
+            Bounds b1 = lazy.getGridBounds();
+            assertEquals("xmin", b0.xmin, b1.xmin, 1.e-10);
+            assertEquals("ymax", b0.ymax, b1.ymax, 1.e-10);
+
+            assertEquals("nothing decoded", 0, lazy.getDecodedSliceCount());
+            // single voxel access decodes single slice
+            assertEquals("voxel", grid.getAttribute(3,5,7), lazy.getAttribute(3,5,7));
+            assertEquals("decoded slices", 1, lazy.getDecodedSliceCount());
+
+            long sum = 0;
+            for(int y = 0; y < ny; y++){
+                for(int x = 0; x < nx; x++){
+                    for(int z = 0; z < nz; z++){
+                        assertEquals("voxel", grid.getAttribute(x,y,z), lazy.getAttribute(x,y,z));
+                        sum += grid.getAttribute(x,y,z);
+                    }
+                }
+            }
+            assertTrue("empty grid", sum > 0);
+            assertEquals("cached slices", 4, lazy.getCachedSliceCount());
+            // slice 5 was evicted and decoded again
+            assertEquals("decoded slices", ny + 1, lazy.getDecodedSliceCount());
+            lazy.close();
+
+        } finally {
+            new File(path).delete();
+        }
+    }
+
+    public void testRegion() throws IOException {
+
+        String path = writeTestFile();
+        try {
+            SVXReader reader = new SVXReader();
+            AttributeGrid grid = reader.load(path);
+            int x0 = 5, x1 = 17, y0 = 3, y1 = 11, z0 = 2, z1 = 20;
+            AttributeGrid region = reader.loadRegion(path, x0, x1, y0, y1, z0, z1);
+
+            assertEquals("width", x1 - x0, region.getWidth());
+            assertEquals("height", y1 - y0, region.getHeight());
+            assertEquals("depth", z1 - z0, region.getDepth());
+            double vs = grid.getVoxelSize();
+            assertEquals("xmin", grid.getGridBounds().xmin + x0*vs, region.getGridBounds().xmin, 1.e-10);
+            assertEquals("zmax", grid.getGridBounds().zmin + z1*vs, region.getGridBounds().zmax, 1.e-10);
+            for(int y = y0; y < y1; y++){
+                for(int x = x0; x < x1; x++){
+                    for(int z = z0; z < z1; z++){
+                        assertEquals("voxel", grid.getAttribute(x,y,z), region.getAttribute(x-x0,y-y0,z-z0));
+                    }
+                }
+            }
+        } finally {
+            new File(path).delete();
+        }
+    }
+
+    public void testConcurrentRead() throws Exception {
+
+        String path = writeTestFile();
+        try {
+            SVXReader reader = new SVXReader();
+            final AttributeGrid grid = reader.load(path);
+            final SVXLazyGrid lazy = reader.loadLazy(path, ny);
+            final AtomicInteger errors = new AtomicInteger();
+            Thread threads[] = new Thread[4];
+            for(int i = 0; i < threads.length; i++){
+                threads[i] = new Thread(){
+                        public void run(){
+                            for(int y = 0; y < ny; y++){
+                                for(int x = 0; x < nx; x++){
+                                    for(int z = 0; z < nz; z++){
+                                        if(grid.getAttribute(x,y,z) != lazy.getAttribute(x,y,z))
+                                            errors.incrementAndGet();
+                                    }
+                                }
+                            }
+                        }
+                    };
+                threads[i].start();
+            }
+            for(int i = 0; i < threads.length; i++){
+                threads[i].join();
+            }
+            assertEquals("errors", 0, errors.get());
+            // each slice is decoded once
+            assertEquals("decoded slices", ny, lazy.getDecodedSliceCount());
+            lazy.close();
+        } finally {
+            new File(path).delete();
+        }
+    }
+
+    /**
+       writes grid with distinct values into temp file
+     */
+    String writeTestFile() throws IOException {
+
+        double vs = 0.1*MM;
+        AttributeGrid grid = new ArrayAttributeGridByte(nx, ny, nz, vs, vs);
+        grid.setGridBounds(new Bounds(1*MM, 1*MM + nx*vs, 2*MM, 2*MM + ny*vs, 3*MM, 3*MM + nz*vs));
+        for(int y = 0; y < ny; y++){
+            for(int x = 0; x < nx; x++){
+                for(int z = 0; z < nz; z++){
+                    grid.setAttribute(x,y,z, (x*7 + y*13 + z*3) & 0xFF);
+                }
+            }
+        }
+        File file = File.createTempFile("lazy", ".svx");
+        new SVXWriter().write(grid, file.getPath());
+        return file.getPath();
+    }
+}
@@ -0,0 +1,186 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.io.output;
+
+import javax.vecmath.Vector2d;
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.geom.TriangulatedModels;
+import abfab3d.mesh.IndexedTriangleSetBuilder;
+import abfab3d.mesh.WingedEdgeTriangleMesh;
+import abfab3d.util.DefaultLongConverter;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of ChartPacker
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestChartPacker extends TestCase {
+
+    static final boolean DEBUG = false;
+    static final double EPS = 1.e-9;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestChartPacker.class);
+    }
+
+    /**
+       charts are flat, do not overlap and make texture smaller than individual triangles
+     */
+    public void testCharts(){
+
+        double vs = 0.1*MM;
+        IndexedTriangleSetBuilder its = new IndexedTriangleSetBuilder();
+        new TriangulatedModels.Sphere(2*MM, new Vector3d(0,0,0), 4).getTriangles(its);
+        double coord[] = its.getVertices();
+        int faces[] = its.getFaces();
+        int fcount = its.getFaceCount();
+
+        ChartPacker cp = new ChartPacker();
+        cp.setTexturePixelSize(0.75*vs);
+        cp.setGap(1.5);
+        cp.setMaxChartAngle(Math.PI/4);
+        cp.packMesh(coord, faces, fcount);
+
+        int chartCount = cp.getChartCount();
+        assertTrue("chart count", chartCount > 1 && chartCount < fcount/10);
+
+        int charts[] = cp.getFaceCharts();
+        double tex[] = cp.getTexCoord();
+        int tindex[] = cp.getTexCoordIndex();
+        Vector2d size = cp.getPackedSize();
+        // texture triangles keep orientation and stay inside of the texture
+        double bounds[] = new double[4*chartCount];
+        for(int c = 0; c < chartCount; c++){
+            bounds[4*c] = bounds[4*c+2] = Double.MAX_VALUE;
+            bounds[4*c+1] = bounds[4*c+3] = -Double.MAX_VALUE;
+        }
+        for(int f = 0; f < fcount; f++){
+            double
+                u0 = tex[2*tindex[3*f]], v0 = tex[2*tindex[3*f]+1],
+                u1 = tex[2*tindex[3*f+1]], v1 = tex[2*tindex[3*f+1]+1],
+                u2 = tex[2*tindex[3*f+2]], v2 = tex[2*tindex[3*f+2]+1];
+            assertTrue("orientation", (u1-u0)*(v2-v0) - (u2-u0)*(v1-v0) > 0);
+            int c = charts[f];
+            for(int k = 0; k < 3; k++){
+                double u = tex[2*tindex[3*f+k]], v = tex[2*tindex[3*f+k]+1];
+                assertTrue("inside", u >= 0 && v >= 0 && u <= size.x + EPS && v <= size.y + EPS);
+                bounds[4*c] = Math.min(bounds[4*c], u);
+                bounds[4*c+1] = Math.max(bounds[4*c+1], u);
+                bounds[4*c+2] = Math.min(bounds[4*c+2], v);
+                bounds[4*c+3] = Math.max(bounds[4*c+3], v);
+            }
+        }
+        for(int i = 0; i < chartCount; i++){
+            for(int j = i+1; j < chartCount; j++){
+                boolean overlap = (bounds[4*i] < bounds[4*j+1] && bounds[4*j] < bounds[4*i+1] &&
+                                   bounds[4*i+2] < bounds[4*j+3] && bounds[4*j+2] < bounds[4*i+3]);
+                assertFalse("charts overlap", overlap);
+            }
+        }
+
+        TrianglePacker tp = new TrianglePacker();
+        tp.setGap(1.5);
+        tp.setTexturePixelSize(0.75*vs);
+        new TriangulatedModels.Sphere(2*MM, new Vector3d(0,0,0), 4).getTriangles(tp);
+        tp.packTriangles();
+        Vector2d tsize = tp.getPackedSize();
+        if(DEBUG)printf("charts: %d texture: %7.1f x %7.1f triangles: %7.1f x %7.1f\n", chartCount, size.x, size.y, tsize.x, tsize.y);
+        assertTrue("smaller texture", 2*size.x*size.y < tsize.x*tsize.y);
+
+        // rendered texture covers all charts
+        AttributeGrid dataGrid = TestTextureBaker.makeColorGrid(50, vs, 3);
+        AttributeGrid texGrid = TestTextureBaker.makeTexGrid(cp);
+        cp.renderTexturedTriangles(dataGrid, new DefaultLongConverter(), texGrid, 1, 2);
+        int covered = 0;
+        for(int v = 0; v < texGrid.getDepth(); v++){
+            for(int u = 0; u < texGrid.getWidth(); u++){
+                if(texGrid.getAttribute(u, 0, v) != 0) covered++;
+            }
+        }
+        assertTrue("covered", covered > size.x*size.y/2);
+    }
+
+    /**
+       mesh arrays of winged edge mesh give the same charts as indexed triangle set
+     */
+    public void testWingedEdgeMesh(){
+
+        IndexedTriangleSetBuilder its = new IndexedTriangleSetBuilder();
+        new TriangulatedModels.Sphere(2*MM, new Vector3d(0,0,0), 4).getTriangles(its);
+        WingedEdgeTriangleMesh mesh = new WingedEdgeTriangleMesh(its.getVertices(), its.getFaces());
+
+        ChartPacker cp = new ChartPacker();
+        cp.setTexturePixelSize(0.05*MM);
+        cp.packMesh(its.getVertices(), its.getFaces(), its.getFaceCount());
+        ChartPacker cpm = new ChartPacker();
+        cpm.setTexturePixelSize(0.05*MM);
+        cpm.packMesh(mesh);
+
+        assertEquals("chart count", cp.getChartCount(), cpm.getChartCount());
+        assertEquals("face count", its.getFaceCount(), cpm.getFaceCharts().length);
+        assertEquals("packed width", cp.getPackedSize().x, cpm.getPackedSize().x, EPS);
+        assertEquals("packed height", cp.getPackedSize().y, cpm.getPackedSize().y, EPS);
+    }
+
+    /**
+       degenerate faces are not added to charts of their neighbors
+     */
+    public void testDegenerateFaces(){
+
+        // flat strip of 5 faces and degenerate face (2,1,0) with collinear vertices
+        double coord[] = new double[]{
+            0,0,0, 1,0,0, 2,0,0, 3,0,0,
+            0,1,0, 1,1,0, 3,1,0,
+        };
+        int faces[] = new int[]{
+            2,1,0, 0,1,5, 0,5,4, 1,2,5, 2,6,5, 2,3,6
+        };
+        ChartPacker cp = new ChartPacker();
+        cp.setTexturePixelSize(0.1);
+        cp.packMesh(coord, faces, faces.length/3);
+        int charts[] = cp.getFaceCharts();
+        assertEquals("chart count", 2, cp.getChartCount());
+        for(int f = 2; f < charts.length; f++){
+            assertEquals("flat chart", charts[1], charts[f]);
+        }
+        assertTrue("degenerate face chart", charts[0] != charts[1]);
+    }
+
+    /**
+       texel budget is respected
+     */
+    public void testBudget(){
+
+        IndexedTriangleSetBuilder its = new IndexedTriangleSetBuilder();
+        new TriangulatedModels.Sphere(2*MM, new Vector3d(0,0,0), 4).getTriangles(its);
+
+        ChartPacker cp = new ChartPacker();
+        cp.setTexturePixelSize(0.01*MM);
+        cp.setMaxTexelCount(200*200);
+        cp.packMesh(its.getVertices(), its.getFaces(), its.getFaceCount());
+        Vector2d size = cp.getPackedSize();
+        assertTrue("budget", (size.x + 4)*(size.y + 4) <= 200*200);
+        assertTrue("pixel size", cp.getTexturePixelSize() > 0.01*MM);
+    }
+}
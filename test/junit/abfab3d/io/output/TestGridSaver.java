@@ -18,8 +18,10 @@ package abfab3d.io.output;
 import javax.vecmath.Vector3d;
 
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 
 // external imports
@@ -87,6 +89,34 @@ public class TestGridSaver extends TestCase {
         //this test here is to make Test happy. 
     }
 
+    /**
+       default IndexedMeshWriter writes the same STL as STLWriter 
+     */
+    public void testMeshWriterSTL() throws IOException {
+
+        double vs = 0.2*MM;
+        double w = 6*MM;
+        AttributeGrid grid = new ArrayAttributeGridByte(new Bounds(-w/2,w/2,-w/2,w/2,-w/2,w/2), vs, vs);
+        Sphere sphere = new Sphere(new Vector3d(0,0,0), 2*MM);
+        sphere.setDataType(DataSource.DATA_TYPE_DENSITY);
+        GridMaker gm = new GridMaker();
+        gm.setSource(sphere);
+        gm.setThreadCount(1);
+        gm.makeGrid(grid);
+
+        GridSaver saver = new GridSaver();
+        saver.setMaxThreads(1);
+        ByteArrayOutputStream os1 = new ByteArrayOutputStream();
+        saver.write(grid, os1, GridSaver.TYPE_STL);
+
+        saver.setUseMeshWriter(false);
+        ByteArrayOutputStream os2 = new ByteArrayOutputStream();
+        saver.write(grid, os2, GridSaver.TYPE_STL);
+
+        assertTrue("empty STL", os1.size() > 84);
+        assertTrue("same STL", Arrays.equals(os2.toByteArray(), os1.toByteArray()));
+    }
+
     void devTestDistanceGrid() throws IOException{
 
         printf("devTestDistanceGrid()\n");  
@@ -0,0 +1,183 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.io.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.geom.TriangulatedModels;
+import abfab3d.mesh.IndexedTriangleSetBuilder;
+import abfab3d.mesh.WingedEdgeTriangleMesh;
+
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of IndexedMeshWriter
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestIndexedMeshWriter extends TestCase {
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestIndexedMeshWriter.class);
+    }
+
+    /**
+       parallel STL is the same as written by STLWriter
+     */
+    public void testSTL() throws Exception {
+
+        IndexedTriangleSetBuilder its = makeSphere(4);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        STLWriter stl = new STLWriter(expected, its.getFaceCount());
+        its.getTriangles(stl);
+        stl.close();
+
+        for(int threads = 1; threads <= 4; threads *= 2){
+            IndexedMeshWriter writer = makeWriter(its, threads);
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            writer.write(os, GridSaver.TYPE_STL);
+            assertTrue("STL stream", Arrays.equals(expected.toByteArray(), os.toByteArray()));
+
+            File file = File.createTempFile("mesh", ".stl");
+            try {
+                writer.write(file.getPath());
+                assertTrue("STL file", Arrays.equals(expected.toByteArray(), Files.readAllBytes(file.toPath())));
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+       text X3D contains all coordinates and indices in order
+     */
+    public void testX3D() throws Exception {
+
+        IndexedTriangleSetBuilder its = makeSphere(3);
+        double coord[] = its.getVertices();
+        int faces[] = its.getFaces();
+
+        for(int type : new int[]{GridSaver.TYPE_X3DV, GridSaver.TYPE_X3D}){
+
+            ByteArrayOutputStream os1 = new ByteArrayOutputStream();
+            makeWriter(its, 1).write(os1, type);
+            ByteArrayOutputStream os4 = new ByteArrayOutputStream();
+            makeWriter(its, 4).write(os4, type);
+            assertTrue("threads", Arrays.equals(os1.toByteArray(), os4.toByteArray()));
+
+            String text = new String(os1.toByteArray(), "US-ASCII");
+            String point = (type == GridSaver.TYPE_X3D)? getBetween(text, "point='", "'"): getBetween(text, "point [", "]");
+            String index = (type == GridSaver.TYPE_X3D)? getBetween(text, "coordIndex='", "'"): getBetween(text, "coordIndex [", "]");
+            String pv[] = point.trim().split("\\s+");
+            String iv[] = index.trim().split("\\s+");
+            assertEquals("coord count", 3*its.getVertexCount(), pv.length);
+            assertEquals("index count", 4*its.getFaceCount(), iv.length);
+            for(int i = 0; i < pv.length; i++){
+                assertEquals("coord", (float)coord[i], Float.parseFloat(pv[i]));
+            }
+            for(int f = 0; f < its.getFaceCount(); f++){
+                for(int k = 0; k < 3; k++){
+                    assertEquals("index", faces[3*f + k], Integer.parseInt(iv[4*f + k]));
+                }
+                assertEquals("face end", -1, Integer.parseInt(iv[4*f + 3]));
+            }
+        }
+
+        ByteArrayOutputStream x3db = new ByteArrayOutputStream();
+        makeWriter(its, 4).write(x3db, GridSaver.TYPE_X3DB);
+        assertTrue("X3DB", x3db.size() > 0);
+    }
+
+    /**
+       writer of WingedEdgeTriangleMesh writes the same STL as STLWriter
+     */
+    public void testWingedEdgeMesh() throws Exception {
+
+        IndexedTriangleSetBuilder its = makeSphere(3);
+        WingedEdgeTriangleMesh mesh = new WingedEdgeTriangleMesh(its.getVertices(), its.getVertexCount(), its.getFaces(), its.getFaceCount());
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        STLWriter stl = new STLWriter(expected, mesh.getTriangleCount());
+        mesh.getTriangles(stl);
+        stl.close();
+
+        IndexedMeshWriter writer = new IndexedMeshWriter(mesh);
+        writer.setThreadCount(4);
+        writer.setChunkSize(37);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writer.write(os, GridSaver.TYPE_STL);
+        assertTrue("STL", Arrays.equals(expected.toByteArray(), os.toByteArray()));
+    }
+
+    /**
+       exception of encoding thread is rethrown to the caller
+     */
+    public void testEncoderFailure() throws Exception {
+
+        IndexedTriangleSetBuilder its = makeSphere(3);
+        int faces[] = its.getFaces().clone();
+        // index outside of coordinates
+        faces[3*100] = its.getVertexCount() + 5;
+        for(int threads = 1; threads <= 4; threads *= 4){
+            IndexedMeshWriter writer = new IndexedMeshWriter(its.getVertices(), its.getVertexCount(), faces, its.getFaceCount());
+            writer.setThreadCount(threads);
+            writer.setChunkSize(37);
+            File file = File.createTempFile("mesh", ".stl");
+            try {
+                writer.write(file.getPath());
+                fail("exception expected");
+            } catch(ArrayIndexOutOfBoundsException e){
+                // expected
+            } finally {
+                file.delete();
+            }
+            try {
+                writer.write(new ByteArrayOutputStream(), GridSaver.TYPE_STL);
+                fail("exception expected");
+            } catch(ArrayIndexOutOfBoundsException e){
+                // expected
+            }
+        }
+    }
+
+    static String getBetween(String text, String start, String end){
+        int i0 = text.indexOf(start) + start.length();
+        return text.substring(i0, text.indexOf(end, i0));
+    }
+
+    static IndexedMeshWriter makeWriter(IndexedTriangleSetBuilder its, int threads){
+
+        IndexedMeshWriter writer = new IndexedMeshWriter(its.getVertices(), its.getVertexCount(), its.getFaces(), its.getFaceCount());
+        writer.setThreadCount(threads);
+        // many small chunks
+        writer.setChunkSize(37);
+        return writer;
+    }
+
+    static IndexedTriangleSetBuilder makeSphere(int subdivision){
+
+        IndexedTriangleSetBuilder its = new IndexedTriangleSetBuilder();
+        new TriangulatedModels.Sphere(2*MM, new Vector3d(0,0,0), subdivision).getTriangles(its);
+        return its;
+    }
+}
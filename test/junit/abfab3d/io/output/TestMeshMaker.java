@@ -16,11 +16,13 @@ package abfab3d.io.output;
 
 
 import java.io.File;
+import java.util.Arrays;
 import javax.vecmath.Vector3d;
 
 
 // external imports
 import abfab3d.core.AttributeGrid;
+import abfab3d.core.Bounds;
 import abfab3d.core.AttributePacker;
 import abfab3d.core.DataSource;
 import abfab3d.core.MathUtil;
@@ -42,6 +44,8 @@ import abfab3d.datasources.DataSourceMixer;
 import abfab3d.datasources.Sphere;
 import abfab3d.datasources.Plane;
 import abfab3d.datasources.Intersection;
+import abfab3d.datasources.Union;
+import abfab3d.mesh.IndexedTriangleSetBuilder;
 
 import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
@@ -81,6 +85,59 @@ public class TestMeshMaker extends TestCase {
         
     }
 
+    /**
+       mesh updated in dirty region is the same as mesh made from scratch 
+     */
+    public void testUpdateMesh(){
+
+        double vs = 0.5*MM;
+        int n = 50;
+        double s = n*vs/2;
+        double bounds[] = new double[]{-s, s, -s, s, -s, s};
+        AttributeGrid grid = new ArrayAttributeGridByte(n, n, n, vs, vs);
+        grid.setGridBounds(bounds);
+
+        Sphere sphere = new Sphere(new Vector3d(-3*MM, 0, 0), 6*MM);
+        sphere.setDataType(DataSource.DATA_TYPE_DENSITY);
+        GridMaker gm = new GridMaker();
+        gm.setThreadCount(4);
+        gm.setAttributePacker(new AttributePackerDensity(255));
+        gm.setSource(sphere);
+        gm.makeGrid(grid);
+
+        MeshMakerMT mm = new MeshMakerMT();
+        mm.setThreadCount(4);
+        mm.setBlockSize(10);
+        mm.setMaxDecimationError(1.e-10);
+        IndexedTriangleSetBuilder its0 = new IndexedTriangleSetBuilder();
+        assertEquals("initial mesh", ResultCodes.RESULT_OK, mm.updateMesh(grid, (DirtyRegion)null, its0));
+
+        // add small bump 
+        Sphere bump = new Sphere(new Vector3d(3*MM, 0, 0), 2*MM);
+        bump.setDataType(DataSource.DATA_TYPE_DENSITY);
+        Union union = new Union(sphere, bump);
+        union.setDataType(DataSource.DATA_TYPE_DENSITY);
+        gm.setSource(union);
+        VoxelBox box = VoxelBox.getVoxelBox(new Bounds(0*MM, 6*MM, -3*MM, 3*MM, -3*MM, 3*MM), grid);
+        gm.makeGrid(grid, box);
+
+        IndexedTriangleSetBuilder its1 = new IndexedTriangleSetBuilder();
+        assertEquals("updated mesh", ResultCodes.RESULT_OK, mm.updateMesh(grid, box, its1));
+
+        MeshMakerMT mm2 = new MeshMakerMT();
+        mm2.setThreadCount(4);
+        mm2.setBlockSize(10);
+        mm2.setMaxDecimationError(1.e-10);
+        IndexedTriangleSetBuilder its2 = new IndexedTriangleSetBuilder();
+        mm2.updateMesh(grid, (DirtyRegion)null, its2);
+
+        printf("faces initial: %d updated: %d expected: %d\n", its0.getFaceCount(), its1.getFaceCount(), its2.getFaceCount());
+        assertTrue("mesh changed", its0.getFaceCount() != its1.getFaceCount());
+        assertEquals("face count", its2.getFaceCount(), its1.getFaceCount());
+        assertTrue("faces", Arrays.equals(its2.getFaces(), its1.getFaces()));
+        assertTrue("vertices", Arrays.equals(its2.getVertices(), its1.getVertices()));
+    }
+
     public static void makeColorSphere() throws Exception {
         
         printf("makeColorSphere()\n");    
@@ -0,0 +1,92 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.io.output;
+
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.DataSource;
+import abfab3d.core.ResultCodes;
+import abfab3d.datasources.Sphere;
+import abfab3d.grid.ArrayAttributeGridByte;
+import abfab3d.grid.AttributePackerDensity;
+import abfab3d.grid.DensityMaker;
+import abfab3d.grid.op.GridMaker;
+import abfab3d.mesh.AreaCalculator;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests presmoothing of grid in MeshMakerMT
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestMeshMakerPresmooth extends TestCase {
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestMeshMakerPresmooth.class);
+    }
+
+    /**
+       presmoothed grid gives the same shape as block smoothing for non linear density maker
+     */
+    public void testNonLinearDensityMaker(){
+
+        double vs = 0.5*MM;
+        int n = 40;
+        double s = n*vs/2;
+        AttributeGrid grid = new ArrayAttributeGridByte(n, n, n, vs, vs);
+        grid.setGridBounds(new double[]{-s, s, -s, s, -s, s});
+
+        Sphere sphere = new Sphere(new Vector3d(0, 0, 0), 6*MM);
+        sphere.setDataType(DataSource.DATA_TYPE_DENSITY);
+        GridMaker gm = new GridMaker();
+        gm.setAttributePacker(new AttributePackerDensity(255));
+        gm.setSource(sphere);
+        gm.makeGrid(grid);
+
+        // only voxels with attribute above 3/4 of max are interior
+        DensityMaker densityMaker = new DensityMaker(){
+                public double makeDensity(long attribute){
+                    return (attribute > 191)? 1.: 0.;
+                }
+            };
+
+        double volume = makeVolume(grid, densityMaker, false);
+        double volumePresmoothed = makeVolume(grid, densityMaker, true);
+        printf("volume: %7.3f mm^3 presmoothed: %7.3f mm^3\n", volume/(MM*MM*MM), volumePresmoothed/(MM*MM*MM));
+        assertEquals("presmoothed volume", volume, volumePresmoothed, volume*0.01);
+    }
+
+    double makeVolume(AttributeGrid grid, DensityMaker densityMaker, boolean presmooth){
+
+        MeshMakerMT mm = new MeshMakerMT();
+        mm.setThreadCount(4);
+        mm.setBlockSize(10);
+        mm.setSmoothingWidth(1.);
+        mm.setMaxDecimationError(1.e-10);
+        mm.setDensityMaker(densityMaker);
+        mm.setPresmoothGrid(presmooth);
+        AreaCalculator ac = new AreaCalculator();
+        assertEquals("result", ResultCodes.RESULT_OK, mm.makeMesh(grid, ac));
+        return ac.getVolume();
+    }
+}
@@ -18,11 +18,26 @@ package abfab3d.io.output;
 import javax.vecmath.Vector3d;
 
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
 
 
 // external imports
@@ -96,6 +111,117 @@ public class TestSlicesWriter extends TestCase {
         //this test here is to make Test happy. 
     }
 
+    /**
+       images encoded by SliceImageEncoder are decoded by ImageIO into the same pixels 
+     */
+    public void testEncoder() throws Exception {
+
+        Random rnd = new Random(5);
+        int width = 37, height = 23;
+        for(int bits : new int[]{1, 2, 4, 8}){
+            BufferedImage image = SlicesWriter.makeImage(width, height, bits);
+            byte data[] = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+            rnd.nextBytes(data);
+            for(String format : new String[]{"png", "bmp"}){
+                if(!SliceImageEncoder.canEncode(format, bits))
+                    continue;
+                byte encoded[] = SliceImageEncoder.encode(data, width, height, bits, format, 6);
+                BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encoded));
+                assertEquals("width", width, decoded.getWidth());
+                assertEquals("height", height, decoded.getHeight());
+                for(int y = 0; y < height; y++){
+                    for(int x = 0; x < width; x++){
+                        assertEquals(fmt("%s %d bits (%d,%d)", format, bits, x, y), image.getRGB(x,y), decoded.getRGB(x,y));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+       slices written in parallel are the same as written by single thread and 
+       slices of data source are the same as slices of grid made from it 
+     */
+    public void testParallelSlices() throws Exception {
+
+        int nx = 40, ny = 30, nz = 35;
+        double vs = 0.1*MM;
+        Bounds bounds = new Bounds(-nx*vs/2, nx*vs/2, -ny*vs/2, ny*vs/2, -nz*vs/2, nz*vs/2);
+        Sphere sphere = new Sphere(0.2*MM, 0.1*MM, 0, 1.3*MM);
+
+        AttributeGrid grid = new ArrayAttributeGridByte(bounds, vs, vs);
+        GridMaker gm = new GridMaker();
+        gm.setBounds(bounds);
+        gm.setSource(sphere);
+        gm.makeGrid(grid);
+        GridDataChannel channel = grid.getDataDesc().getChannel(0);
+
+        for(int orientation = 0; orientation < 3; orientation++){
+            int sliceCount = SlicesWriter.getSliceCount(nx, ny, nz, orientation);
+
+            SlicesWriter writer = new SlicesWriter();
+            List<byte[]> expected = readZip(writeZip(writer, grid, orientation, sliceCount, channel));
+            assertEquals("slice count", sliceCount, expected.size());
+
+            writer.setThreadCount(4);
+            checkSlices("parallel zip", expected, readZip(writeZip(writer, grid, orientation, sliceCount, channel)));
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ZipOutputStream zos = new ZipOutputStream(bos);
+            writer.writeSlices(sphere, bounds, nx, ny, nz, orientation, grid.getDataDesc(), 0, zos, "slice%04d.png", 0);
+            zos.close();
+            checkSlices("data source zip", expected, readZip(bos.toByteArray()));
+
+            // separate files 
+            File dir = Files.createTempDirectory("slices").toFile();
+            try {
+                writer.writeSlices(grid, new File(dir, "slice%04d.png").getPath(), 0, 0, sliceCount, orientation, channel.getBitCount(), channel);
+                for(int i = 0; i < sliceCount; i++){
+                    byte file[] = Files.readAllBytes(new File(dir, fmt("slice%04d.png", i)).toPath());
+                    assertTrue("file", Arrays.equals(expected.get(i), file));
+                }
+            } finally {
+                for(File f : dir.listFiles())
+                    f.delete();
+                dir.delete();
+            }
+        }
+    }
+
+    static void checkSlices(String message, List<byte[]> expected, List<byte[]> slices){
+
+        assertEquals(message, expected.size(), slices.size());
+        for(int i = 0; i < expected.size(); i++){
+            assertTrue(message, Arrays.equals(expected.get(i), slices.get(i)));
+        }
+    }
+
+    /**
+       @return content of zip entries in order 
+     */
+    static List<byte[]> readZip(byte zip[]) throws IOException {
+
+        List<byte[]> entries = new ArrayList<byte[]>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip));
+        for(ZipEntry ze = zis.getNextEntry(); ze != null; ze = zis.getNextEntry()){
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            byte buf[] = new byte[4096];
+            for(int n = zis.read(buf); n > 0; n = zis.read(buf))
+                entry.write(buf, 0, n);
+            entries.add(entry.toByteArray());
+        }
+        return entries;
+    }
+
+    static byte[] writeZip(SlicesWriter writer, AttributeGrid grid, int orientation, int sliceCount, GridDataChannel channel) throws IOException {
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(bos);
+        writer.writeSlices(grid, zos, "slice%04d.png", 0, 0, sliceCount, orientation, channel.getBitCount(), channel);
+        zos.close();
+        return bos.toByteArray();
+    }
+
     void multichannelTest() throws IOException{
         
         printf("multichannelTest()\n");
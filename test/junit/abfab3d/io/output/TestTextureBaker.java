@@ -0,0 +1,211 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.io.output;
+
+import java.util.Random;
+
+import javax.vecmath.Vector2d;
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Bounds;
+import abfab3d.grid.ArrayAttributeGridInt;
+import abfab3d.geom.TriangulatedModels;
+import abfab3d.util.DefaultLongConverter;
+import abfab3d.util.SliceManager;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of TextureBaker
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestTextureBaker extends TestCase {
+
+    static final boolean DEBUG = false;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestTextureBaker.class);
+    }
+
+    /**
+       parallel baking gives the same texture as sequential rendering
+     */
+    public void testBaking(){
+
+        double vs = 0.1*MM;
+        AttributeGrid dataGrid = makeColorGrid(50, vs, 17);
+        TrianglePacker tp = makePacker(vs, 3);
+        double ext = 1.5;
+
+        AttributeGrid tex1 = makeTexGrid(tp);
+        tp.renderTexturedTriangles(dataGrid, new DefaultLongConverter(), tex1, ext);
+
+        for(int threads = 1; threads <= 4; threads *= 2){
+            AttributeGrid tex2 = makeTexGrid(tp);
+            tp.renderTexturedTriangles(dataGrid, new DefaultLongConverter(), tex2, ext, 0, threads);
+            assertTexEquals(tex1, tex2);
+        }
+    }
+
+    /**
+       gutter dilation fills pixels next to rendered pixels and does not change rendered pixels
+     */
+    public void testGutter(){
+
+        double vs = 0.1*MM;
+        AttributeGrid dataGrid = makeColorGrid(50, vs, 19);
+        TrianglePacker tp = makePacker(vs, 2);
+        AttributeGrid tex = makeTexGrid(tp);
+        int nu = tex.getWidth(), nv = tex.getDepth();
+
+        double triCoord[] = new double[9*tp.getTriCount()];
+        int k = 0;
+        for(int i = 0; i < 3*tp.getTriCount(); i++){
+            Vector3d v = tp.m_tri.get(i);
+            triCoord[k++] = v.x; triCoord[k++] = v.y; triCoord[k++] = v.z;
+        }
+        TextureBaker baker = new TextureBaker(dataGrid, new DefaultLongConverter());
+        baker.setThreadCount(4);
+        baker.setTileSize(16);
+        int raster0[] = baker.bake(triCoord, tp.getTexCoord(), tp.getTriCount(), 0., nu, nv);
+        baker.setGutterWidth(2);
+        int raster2[] = baker.bake(triCoord, tp.getTexCoord(), tp.getTriCount(), 0., nu, nv);
+
+        int filled = 0;
+        for(int v = 0; v < nv; v++){
+            for(int u = 0; u < nu; u++){
+                int c = raster0[u + v*nu];
+                if(c != TextureBaker.EMPTY){
+                    assertEquals("rendered pixel", c, raster2[u + v*nu]);
+                    continue;
+                }
+                if(raster2[u + v*nu] != TextureBaker.EMPTY)
+                    filled++;
+                // pixels at distance 2 from rendered pixels are filled
+                for(int dv = -2; dv <= 2; dv++){
+                    for(int du = -2; du <= 2; du++){
+                        int uu = u + du, vv = v + dv;
+                        if(uu >= 0 && uu < nu && vv >= 0 && vv < nv && raster0[uu + vv*nu] != TextureBaker.EMPTY)
+                            assertTrue("gutter pixel", raster2[u + v*nu] != TextureBaker.EMPTY);
+                    }
+                }
+            }
+        }
+        assertTrue("filled pixels", filled > 0);
+    }
+
+    /**
+       exception of worker thread is rethrown to the caller
+     */
+    public void testWorkerFailure(){
+
+        TextureBaker baker = new TextureBaker(makeColorGrid(10, 0.1*MM, 3), new DefaultLongConverter());
+        for(int threads = 1; threads <= 4; threads *= 4){
+            baker.setThreadCount(threads);
+            try {
+                baker.run(new SliceManager(100, 4), new TextureBaker.SliceWorker(){
+                        public Object makeLocal(){
+                            return null;
+                        }
+                        public void process(int smin, int smax, Object local){
+                            if(smin == 40)
+                                throw new IllegalStateException("slice failed");
+                        }
+                    });
+                fail("exception expected");
+            } catch(IllegalStateException e){
+                assertEquals("message", "slice failed", e.getMessage());
+            }
+        }
+    }
+
+    /**
+       speed of parallel baking
+     */
+    void devTestSpeed(){
+
+        double vs = 0.1*MM;
+        AttributeGrid dataGrid = makeColorGrid(200, vs, 17);
+        TrianglePacker tp = makePacker(vs, 7);
+        long t0 = time();
+        tp.renderTexturedTriangles(dataGrid, new DefaultLongConverter(), makeTexGrid(tp), 1.5);
+        printf("sequential: %d ms\n", (time() - t0));
+        for(int threads = 1; threads <= 8; threads *= 2){
+            t0 = time();
+            tp.renderTexturedTriangles(dataGrid, new DefaultLongConverter(), makeTexGrid(tp), 1.5, 0, threads);
+            printf("threads: %d  %d ms\n", threads, (time() - t0));
+        }
+    }
+
+    static AttributeGrid makeColorGrid(int n, double vs, long seed){
+
+        double s = n*vs/2;
+        AttributeGrid grid = new ArrayAttributeGridInt(new Bounds(-s, s, -s, s, -s, s), vs, vs);
+        Random rnd = new Random(seed);
+        for(int y = 0; y < n; y++){
+            for(int x = 0; x < n; x++){
+                for(int z = 0; z < n; z++){
+                    grid.setAttribute(x, y, z, rnd.nextInt(0x1000000));
+                }
+            }
+        }
+        return grid;
+    }
+
+    static TrianglePacker makePacker(double vs, int subdivision){
+
+        int n = 50;
+        TrianglePacker tp = new TrianglePacker();
+        tp.setGap(1.5);
+        tp.setTexturePixelSize(vs*0.75);
+        new TriangulatedModels.Sphere(0.4*n*vs, new Vector3d(0,0,0), subdivision).getTriangles(tp);
+        tp.packTriangles();
+        return tp;
+    }
+
+    static AttributeGrid makeTexGrid(TrianglePacker tp){
+        return makeTexGrid(tp.getPackedSize());
+    }
+
+    static AttributeGrid makeTexGrid(ChartPacker cp){
+        return makeTexGrid(cp.getPackedSize());
+    }
+
+    static AttributeGrid makeTexGrid(Vector2d area){
+
+        int width = (int)(area.x + 3), height = (int)(area.y + 3);
+        Bounds texBounds = new Bounds(0, width, 0, 1, 0, height);
+        AttributeGrid texGrid = new ArrayAttributeGridInt(texBounds, 1., 1.);
+        texGrid.setGridBounds(texBounds);
+        return texGrid;
+    }
+
+    static void assertTexEquals(AttributeGrid expected, AttributeGrid tex){
+
+        for(int v = 0; v < tex.getDepth(); v++){
+            for(int u = 0; u < tex.getWidth(); u++){
+                assertEquals("pixel", expected.getAttribute(u, 0, v), tex.getAttribute(u, 0, v));
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.io.output;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.AttributeGrid;
+import abfab3d.core.Bounds;
+import abfab3d.core.LongConverter;
+import abfab3d.grid.ArrayAttributeGridInt;
+import abfab3d.geom.TriangulatedModels;
+import abfab3d.mesh.IndexedTriangleSetBuilder;
+import abfab3d.mesh.WingedEdgeTriangleMesh;
+import abfab3d.util.DefaultLongConverter;
+
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of VertexColoredMesh
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestVertexColoredMesh extends TestCase {
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestVertexColoredMesh.class);
+    }
+
+    /**
+       parallel sampling gives the same colors as sequential sampling
+     */
+    public void testSampling(){
+
+        double vs = 0.1*MM;
+        AttributeGrid grid = TestTextureBaker.makeColorGrid(50, vs, 23);
+
+        VertexColoredMesh m1 = makeSphere(vs, 5);
+        m1.sampleColors(grid, new DefaultLongConverter());
+        GridColorSampler sampler = new GridColorSampler(grid, new DefaultLongConverter());
+        double coord[] = m1.getCoord();
+        for(int i = 0; i < m1.getVertexCount(); i++){
+            assertEquals("color", sampler.getColor(coord[3*i], coord[3*i+1], coord[3*i+2]), m1.getColors()[i]);
+        }
+
+        VertexColoredMesh m4 = makeSphere(vs, 5);
+        m4.setThreadCount(4);
+        m4.sampleColors(grid, new DefaultLongConverter());
+        for(int i = 0; i < m1.getVertexCount(); i++){
+            assertEquals("color", m1.getColors()[i], m4.getColors()[i]);
+        }
+    }
+
+    /**
+       exception of sampling thread is rethrown to the caller
+     */
+    public void testSamplingFailure(){
+
+        double vs = 0.1*MM;
+        AttributeGrid grid = TestTextureBaker.makeColorGrid(50, vs, 23);
+        for(int threads = 1; threads <= 4; threads *= 4){
+            VertexColoredMesh mesh = makeSphere(vs, 5);
+            mesh.setThreadCount(threads);
+            final AtomicInteger calls = new AtomicInteger();
+            try {
+                mesh.sampleColors(grid, new LongConverter(){
+                        public long get(long data){
+                            if(calls.incrementAndGet() == 1000)
+                                throw new IllegalStateException("sampling failed");
+                            return data;
+                        }
+                    });
+                fail("exception expected");
+            } catch(IllegalStateException e){
+                assertEquals("message", "sampling failed", e.getMessage());
+            }
+        }
+    }
+
+    /**
+       subdivision splits triangles across color boundary and keeps mesh closed
+     */
+    public void testSubdivision(){
+
+        double vs = 0.1*MM;
+        int n = 50;
+        double s = n*vs/2;
+        // two colors separated by plane x = 0
+        AttributeGrid grid = new ArrayAttributeGridInt(new Bounds(-s, s, -s, s, -s, s), vs, vs);
+        for(int y = 0; y < n; y++){
+            for(int x = 0; x < n; x++){
+                for(int z = 0; z < n; z++){
+                    grid.setAttribute(x, y, z, (x < n/2)? 0xFF: 0xFF0000);
+                }
+            }
+        }
+        VertexColoredMesh mesh = makeSphere(vs, 3);
+        mesh.setThreadCount(4);
+        int faceCount = mesh.getFaceCount();
+        mesh.sampleColors(grid, new DefaultLongConverter());
+        int added = mesh.subdivide(grid, new DefaultLongConverter(), 32, 0.1*vs, 3);
+
+        assertTrue("added vertices", added > 0);
+        assertTrue("face count", mesh.getFaceCount() > faceCount);
+        assertEquals("colors count", mesh.getVertexCount(), mesh.getColors().length);
+
+        // each directed edge has opposite edge
+        HashMap<Long, Integer> edges = new HashMap<Long, Integer>();
+        int faces[] = mesh.getFaces();
+        for(int f = 0; f < mesh.getFaceCount(); f++){
+            for(int k = 0; k < 3; k++){
+                long key = ((long)faces[3*f + k] << 32) | faces[3*f + (k+1)%3];
+                assertNull("duplicate edge", edges.put(key, f));
+            }
+        }
+        for(Long key : edges.keySet()){
+            long k = key.longValue();
+            long twin = ((k & 0xFFFFFFFFL) << 32) | (k >>> 32);
+            assertTrue("twin edge", edges.containsKey(twin));
+        }
+    }
+
+    /**
+       sizes of binary files
+     */
+    public void testWriters() throws Exception {
+
+        double vs = 0.1*MM;
+        AttributeGrid grid = TestTextureBaker.makeColorGrid(50, vs, 29);
+        VertexColoredMesh mesh = makeSphere(vs, 2);
+        mesh.sampleColors(grid, new DefaultLongConverter());
+        int nv = mesh.getVertexCount(), nf = mesh.getFaceCount();
+
+        ByteArrayOutputStream stl = new ByteArrayOutputStream();
+        mesh.write(stl, GridSaver.TYPE_STL);
+        assertEquals("STL size", 84 + 50*nf, stl.size());
+
+        ByteArrayOutputStream ply = new ByteArrayOutputStream();
+        mesh.write(ply, GridSaver.TYPE_PLY);
+        String text = new String(ply.toByteArray(), "US-ASCII");
+        int headerSize = text.indexOf("end_header\n") + "end_header\n".length();
+        assertEquals("PLY size", headerSize + 15*nv + 13*nf, ply.size());
+
+        ByteArrayOutputStream obj = new ByteArrayOutputStream();
+        mesh.write(obj, GridSaver.TYPE_OBJ);
+        String lines[] = new String(obj.toByteArray(), "US-ASCII").split("\n");
+        assertEquals("OBJ lines", nv + nf, lines.length);
+        assertEquals("OBJ vertex", 7, lines[0].split(" ").length);
+
+        ByteArrayOutputStream x3d = new ByteArrayOutputStream();
+        mesh.write(x3d, GridSaver.TYPE_X3DV);
+        assertTrue("X3D colors", new String(x3d.toByteArray(), "US-ASCII").indexOf("Color") > 0);
+    }
+
+    /**
+       STL face color is VisCAM color and header does not declare Materialise colors
+     */
+    public void testSTLColor() throws Exception {
+
+        double coord[] = new double[]{0,0,0, 1*MM,0,0, 0,1*MM,0};
+        VertexColoredMesh mesh = new VertexColoredMesh(coord, 3, new int[]{0,1,2}, 1);
+        AttributeGrid grid = new ArrayAttributeGridInt(4, 4, 4, 1*MM, 1*MM);
+        grid.setGridBounds(new Bounds(-2*MM, 2*MM, -2*MM, 2*MM, -2*MM, 2*MM));
+        mesh.sampleColors(grid, new LongConverter(){
+                public long get(long value){
+                    // red, color maker stores first channel in the low byte as for TextureRenderer
+                    return 0x0000FF;
+                }
+            });
+        ByteArrayOutputStream stl = new ByteArrayOutputStream();
+        mesh.writeSTL(stl);
+        byte data[] = stl.toByteArray();
+        assertFalse("Materialise header", new String(data, 0, 80, "US-ASCII").startsWith("COLOR="));
+        int word = ByteBuffer.wrap(data, 84 + 48, 2).order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF;
+
+        // VisCAM: bit 15 is valid color, red in bits 10-14
+        assertTrue("VisCAM valid", (word & 0x8000) != 0);
+        assertEquals("VisCAM red", 31, (word >> 10) & 0x1F);
+        assertEquals("VisCAM green", 0, (word >> 5) & 0x1F);
+        assertEquals("VisCAM blue", 0, word & 0x1F);
+
+        // Materialise: bit 15 set means default color, red in bits 0-4
+        assertTrue("Materialise default color", (word & 0x8000) != 0);
+        assertEquals("Materialise red", 0, word & 0x1F);
+        assertEquals("Materialise blue", 31, (word >> 10) & 0x1F);
+    }
+
+    /**
+       mesh arrays of winged edge mesh are used directly
+     */
+    public void testWingedEdgeMesh(){
+
+        IndexedTriangleSetBuilder its = new IndexedTriangleSetBuilder();
+        new TriangulatedModels.Sphere(2*MM, new Vector3d(0,0,0), 3).getTriangles(its);
+        WingedEdgeTriangleMesh we = new WingedEdgeTriangleMesh(its.getVertices(), its.getFaces());
+        VertexColoredMesh mesh = new VertexColoredMesh(we);
+        assertEquals("vertex count", its.getVertexCount(), mesh.getVertexCount());
+        assertEquals("face count", its.getFaceCount(), mesh.getFaceCount());
+        double coord[] = mesh.getCoord();
+        int faces[] = mesh.getFaces();
+        for(int f = 0; f < mesh.getFaceCount(); f++){
+            for(int k = 0; k < 3; k++){
+                int v = faces[3*f + k];
+                assertTrue("vertex index", v >= 0 && v < mesh.getVertexCount());
+                assertEquals("vertex radius", 2*MM, Math.sqrt(coord[3*v]*coord[3*v] + coord[3*v+1]*coord[3*v+1] + coord[3*v+2]*coord[3*v+2]), 1.e-9);
+            }
+        }
+    }
+
+    static VertexColoredMesh makeSphere(double vs, int subdivision){
+
+        IndexedTriangleSetBuilder its = new IndexedTriangleSetBuilder();
+        new TriangulatedModels.Sphere(20*vs, new Vector3d(0,0,0), subdivision).getTriangles(its);
+        return new VertexColoredMesh(its.getVertices(), its.getVertexCount(), its.getFaces(), its.getFaceCount());
+    }
+}
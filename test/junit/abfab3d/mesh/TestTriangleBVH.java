@@ -0,0 +1,213 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.mesh;
+
+import java.util.Random;
+
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.Vec;
+import abfab3d.core.TriangleProducer;
+import abfab3d.geom.TriangulatedModels;
+import abfab3d.datasources.DistanceToMeshDataSource;
+import abfab3d.util.PointToTriangleDistance;
+import abfab3d.util.TriangulatedSphere;
+
+import static java.lang.Math.sqrt;
+import static java.lang.Math.min;
+import static java.lang.Math.abs;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of TriangleBVH
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestTriangleBVH extends TestCase {
+
+    static final boolean DEBUG = false;
+    static final double EPS = 1.e-10;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestTriangleBVH.class);
+    }
+
+    /**
+       distances are equal to brute force distances, sign is negative inside
+     */
+    public void testSphere(){
+
+        double radius = 10*MM;
+        TriangleBVH.TriangleArray ta = getTriangles(new TriangulatedModels.Sphere(radius, new Vector3d(1*MM, 2*MM, 3*MM), 4));
+        TriangleBVH bvh = new TriangleBVH(ta.coord, ta.count);
+        assertEquals("triangles", ta.count, bvh.getTriangleCount());
+
+        Random rnd = new Random(55);
+        double maxDistance = 100*MM;
+        long t0 = time();
+        for(int k = 0; k < 500; k++){
+            double
+                x = 1*MM + 30*MM*(rnd.nextDouble()-0.5),
+                y = 2*MM + 30*MM*(rnd.nextDouble()-0.5),
+                z = 3*MM + 30*MM*(rnd.nextDouble()-0.5);
+            double expected = getBruteForceDistance(ta, x, y, z);
+            double dist = bvh.getSignedDistance(x, y, z, maxDistance);
+            double r = sqrt((x-1*MM)*(x-1*MM) + (y-2*MM)*(y-2*MM) + (z-3*MM)*(z-3*MM));
+            // tesselated sphere is inside of the exact sphere
+            boolean inside = (r < radius*0.99);
+            boolean outside = (r > radius);
+            if(DEBUG) printf("r: %7.3f mm dist: %7.3f mm\n", r/MM, dist/MM);
+            assertEquals("distance", expected, abs(dist), EPS);
+            if(inside) assertTrue("inside sign", dist < 0);
+            if(outside) assertTrue("outside sign", dist > 0);
+        }
+        if(DEBUG) printf("queries: %d ms\n", (time() - t0));
+    }
+
+    /**
+       distances farther than maxDistance are clamped
+     */
+    public void testMaxDistance(){
+
+        TriangleBVH.TriangleArray ta = getTriangles(new TriangulatedModels.Box(0, 0, 0, 10*MM, 10*MM, 10*MM));
+        TriangleBVH bvh = new TriangleBVH(ta.coord, ta.count);
+        double maxDistance = 2*MM;
+
+        assertEquals("far outside", maxDistance, bvh.getSignedDistance(20*MM, 0, 0, maxDistance), EPS);
+        assertEquals("near outside", 1*MM, bvh.getSignedDistance(6*MM, 0, 0, maxDistance), EPS);
+        assertEquals("inside", -maxDistance, bvh.getSignedDistance(0, 0, 0, maxDistance), EPS);
+        assertEquals("near inside", -1*MM, bvh.getSignedDistance(0, 4*MM, 0, maxDistance), EPS);
+        assertEquals("unsigned", 1*MM, bvh.getDistance(0, 4*MM, 0, maxDistance), EPS);
+        assertEquals("winding inside", 1., bvh.getWindingNumber(1*MM, 2*MM, 3*MM), 1.e-3);
+        assertEquals("winding outside", 0., bvh.getWindingNumber(21*MM, 2*MM, 3*MM), 1.e-3);
+    }
+
+    /**
+       batch queries give the same result as single point queries
+     */
+    public void testBatch(){
+
+        TriangleBVH.TriangleArray ta = getTriangles(new TriangulatedModels.Sphere(5*MM, new Vector3d(0,0,0), 3));
+        TriangleBVH bvh = new TriangleBVH(ta.coord, ta.count);
+
+        int count = 5000, offset = 3;
+        double coord[] = new double[3*(offset + count)];
+        Random rnd = new Random(17);
+        for(int i = 0; i < coord.length; i++){
+            coord[i] = 16*MM*(rnd.nextDouble()-0.5);
+        }
+        double maxDistance = 3*MM;
+        double dist1[] = new double[offset + count];
+        double dist2[] = new double[offset + count];
+        bvh.getDistances(coord, dist1, offset, count, maxDistance, true);
+        bvh.getDistances(coord, dist2, offset, count, maxDistance, true, 4);
+        for(int i = 0; i < offset + count; i++){
+            double expected = (i < offset)? 0: bvh.getSignedDistance(coord[3*i], coord[3*i+1], coord[3*i+2], maxDistance);
+            assertEquals("batch", expected, dist1[i], 0.);
+            assertEquals("parallel batch", expected, dist2[i], 0.);
+        }
+    }
+
+    /**
+       failure of parallel batch query is rethrown to the caller
+     */
+    public void testParallelFailure(){
+
+        TriangleBVH.TriangleArray ta = getTriangles(new TriangulatedModels.Sphere(5*MM, new Vector3d(0,0,0), 2));
+        TriangleBVH bvh = new TriangleBVH(ta.coord, ta.count);
+        int count = 5000;
+        // coordinates of the last points are missing
+        double coord[] = new double[3*(count - 10)];
+        double dist[] = new double[count];
+        try {
+            bvh.getDistances(coord, dist, 0, count, 3*MM, true, 4);
+            fail("exception expected");
+        } catch(ArrayIndexOutOfBoundsException e){
+            // expected
+        }
+    }
+
+    /**
+       exact distance can not be calculated for mesh with vertex attributes
+     */
+    public void testExactAttributedMesh(){
+
+        DistanceToMeshDataSource dmds = new DistanceToMeshDataSource(new TriangulatedSphere(5*MM, new Vector3d(0,0,0), 2));
+        dmds.set("exactDistance", true);
+        try {
+            dmds.initialize();
+            fail("exception expected");
+        } catch(IllegalArgumentException e){
+            // expected
+        }
+    }
+
+    /**
+       identical meshes share the hierarchy, data source uses it for exact distance
+     */
+    public void testCacheAndDataSource(){
+
+        double radius = 8*MM;
+        TriangleProducer sphere = new TriangulatedModels.Sphere(radius, new Vector3d(0,0,0), 3);
+        TriangleBVH bvh1 = TriangleBVH.getCachedBVH(sphere);
+        TriangleBVH bvh2 = TriangleBVH.getCachedBVH(new TriangulatedModels.Sphere(radius, new Vector3d(0,0,0), 3));
+        TriangleBVH bvh3 = TriangleBVH.getCachedBVH(new TriangulatedModels.Sphere(radius, new Vector3d(0,0,0), 2));
+        assertTrue("same mesh", bvh1 == bvh2);
+        assertTrue("different mesh", bvh1 != bvh3);
+
+        DistanceToMeshDataSource dmds = new DistanceToMeshDataSource(sphere);
+        dmds.set("exactDistance", true);
+        dmds.set("margins", 2*MM);
+        dmds.set("maxDistance", 5*MM);
+        dmds.initialize();
+        assertTrue("cached hierarchy", dmds.getTriangleBVH() == bvh1);
+
+        Vec pnt = new Vec(3);
+        Vec data = new Vec(3);
+        double x[] = new double[]{0, 4*MM, 7.9*MM, 9*MM, 12*MM};
+        for(int i = 0; i < x.length; i++){
+            pnt.set(x[i], 0, 0);
+            dmds.getDataValue(pnt, data);
+            double expected = bvh1.getSignedDistance(x[i], 0, 0, 5*MM);
+            if(DEBUG) printf("x: %7.3f mm dist: %7.3f mm\n", x[i]/MM, data.v[0]/MM);
+            assertEquals("data source distance", expected, data.v[0], EPS);
+        }
+    }
+
+    static TriangleBVH.TriangleArray getTriangles(TriangleProducer producer){
+
+        TriangleBVH.TriangleArray ta = new TriangleBVH.TriangleArray();
+        abfab3d.util.TriangleBlockBuffer.getTriangles(producer, ta);
+        return ta;
+    }
+
+    static double getBruteForceDistance(TriangleBVH.TriangleArray ta, double x, double y, double z){
+
+        double c[] = ta.coord;
+        double d2 = Double.MAX_VALUE;
+        for(int t = 0; t < ta.count; t++){
+            int k = 9*t;
+            d2 = min(d2, PointToTriangleDistance.getSquared(x, y, z, c[k],c[k+1],c[k+2],c[k+3],c[k+4],c[k+5],c[k+6],c[k+7],c[k+8], null));
+        }
+        return sqrt(d2);
+    }
+}
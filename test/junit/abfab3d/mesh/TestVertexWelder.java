@@ -0,0 +1,190 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.mesh;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.TriangleProducer;
+import abfab3d.geom.TriangulatedModels;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of VertexWelder
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestVertexWelder extends TestCase {
+
+    static final boolean DEBUG = false;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestVertexWelder.class);
+    }
+
+    /**
+       parallel welding gives the same indexed set as sequential welding
+     */
+    public void testWelding(){
+
+        TriangleProducer sphere = new TriangulatedModels.Sphere(10*MM, new Vector3d(1*MM, 2*MM, 3*MM), 5);
+
+        IndexedTriangleSetBuilder its1 = new IndexedTriangleSetBuilder();
+        sphere.getTriangles(its1);
+        // degenerate face is ignored
+        its1.addTri(new Vector3d(0,0,0), new Vector3d(0,0,0), new Vector3d(1*MM,0,0));
+
+        for(int threads = 2; threads <= 8; threads *= 2){
+            IndexedTriangleSetBuilder its2 = new IndexedTriangleSetBuilder();
+            its2.setThreadCount(threads);
+            sphere.getTriangles(its2);
+            its2.addTri(new Vector3d(0,0,0), new Vector3d(0,0,0), new Vector3d(1*MM,0,0));
+
+            assertEquals("vertex count", its1.getVertexCount(), its2.getVertexCount());
+            assertEquals("face count", its1.getFaceCount(), its2.getFaceCount());
+            assertTrue("vertices", java.util.Arrays.equals(its1.getVertices(), its2.getVertices()));
+            assertTrue("faces", java.util.Arrays.equals(its1.getFaces(), its2.getFaces()));
+        }
+    }
+
+    /**
+       twins are equal to twins found via map of half edges
+     */
+    public void testTwins(){
+
+        IndexedTriangleSetBuilder its = new IndexedTriangleSetBuilder();
+        new TriangulatedModels.Sphere(10*MM, new Vector3d(0,0,0), 4).getTriangles(its);
+        int faceCount = its.getFaceCount();
+        int faces[] = its.getFaces();
+        // remove few faces to make holes
+        Random rnd = new Random(5);
+        for(int i = 0; i < 20; i++){
+            int f = rnd.nextInt(faceCount);
+            faces[3*f+2] = faces[3*f+1];
+        }
+
+        HashMap<Long, Integer> edges = new HashMap<Long, Integer>();
+        for(int h = 0; h < 3*faceCount; h++){
+            Long key = getKey(faces[h], faces[next(h)]);
+            if(!edges.containsKey(key))
+                edges.put(key, h);
+        }
+        for(int threads = 1; threads <= 8; threads *= 2){
+            int twins[] = VertexWelder.getTwins(faces, faceCount, threads);
+            for(int h = 0; h < 3*faceCount; h++){
+                Integer t = edges.get(getKey(faces[next(h)], faces[h]));
+                assertEquals("twin", (t == null)? -1: t.intValue(), twins[h]);
+            }
+        }
+    }
+
+    /**
+       mesh made with parallel twin search has the same structure
+     */
+    public void testMesh(){
+
+        IndexedTriangleSetBuilder its = new IndexedTriangleSetBuilder();
+        its.setThreadCount(4);
+        new TriangulatedModels.Sphere(10*MM, new Vector3d(0,0,0), 5).getTriangles(its);
+
+        WingedEdgeTriangleMesh mesh1 = new WingedEdgeTriangleMesh(its.getVertices(), its.getVertexCount(), its.getFaces(), its.getFaceCount());
+        WingedEdgeTriangleMesh mesh2 = new WingedEdgeTriangleMesh(its.getVertices(), its.getVertexCount(), its.getFaces(), its.getFaceCount(), 4);
+
+        assertEquals("vertex count", mesh1.getVertexCount(), mesh2.getVertexCount());
+        assertEquals("edge count", mesh1.getEdgeCount(), mesh2.getEdgeCount());
+        assertEquals("face count", mesh1.getFaceCount(), mesh2.getFaceCount());
+        // closed sphere
+        assertEquals("euler characteristic", 2, mesh2.getVertexCount() - mesh2.getEdgeCount() + mesh2.getFaceCount());
+    }
+
+    /**
+       mesh with non-manifold edge has the same size with both twin searches
+     */
+    public void testNonManifoldMesh(){
+
+        // three triangles share edge (0,1)
+        double vert[] = new double[]{0,0,0, 0,0,1, 1,0,0, 0,1,0, -1,-1,0};
+        int faces[] = new int[]{0,1,2, 1,0,3, 0,1,4};
+
+        for(int threads = 1; threads <= 4; threads *= 4){
+            int twins[] = VertexWelder.getTwins(faces, 3, threads);
+            // first half edge of opposite direction
+            assertEquals("twin", 3, twins[0]);
+            assertEquals("twin", 0, twins[3]);
+            assertEquals("twin", 3, twins[6]);
+        }
+
+        WingedEdgeTriangleMesh mesh1 = new WingedEdgeTriangleMesh(vert, 5, faces, 3);
+        WingedEdgeTriangleMesh mesh2 = new WingedEdgeTriangleMesh(vert, 5, faces, 3, 4);
+        assertEquals("vertex count", mesh1.getVertexCount(), mesh2.getVertexCount());
+        assertEquals("face count", mesh1.getFaceCount(), mesh2.getFaceCount());
+    }
+
+    /**
+       exception of chunk task is rethrown to the caller
+     */
+    public void testTaskFailure(){
+
+        for(int threads = 1; threads <= 4; threads *= 4){
+            try {
+                VertexWelder.runChunks(100000, 1000, threads, new VertexWelder.ChunkTask(){
+                        public void run(int chunk, int start, int end){
+                            if(chunk == 37)
+                                throw new IllegalStateException("chunk failed");
+                        }
+                    });
+                fail("exception expected");
+            } catch(IllegalStateException e){
+                assertEquals("message", "chunk failed", e.getMessage());
+            }
+        }
+    }
+
+    /**
+       speed of parallel welding
+     */
+    void devTestSpeed(){
+
+        IndexedTriangleSetBuilder its0 = new IndexedTriangleSetBuilder();
+        TriangleProducer sphere = new TriangulatedModels.Sphere(10*MM, new Vector3d(0,0,0), 9);
+        for(int threads = 1; threads <= 8; threads *= 2){
+            IndexedTriangleSetBuilder its = new IndexedTriangleSetBuilder();
+            its.setThreadCount(threads);
+            long t0 = time();
+            sphere.getTriangles(its);
+            int fc = its.getFaceCount();
+            long t1 = time();
+            new WingedEdgeTriangleMesh(its.getVertices(), its.getVertexCount(), its.getFaces(), fc, threads);
+            printf("threads: %d faces: %d  weld: %d ms mesh: %d ms\n", threads, fc, (t1 - t0), (time() - t1));
+        }
+    }
+
+    static int next(int h){
+        return (h % 3 == 2)? h - 2: h + 1;
+    }
+
+    static Long getKey(int a, int b){
+        return new Long((((long)a) << 32) | b);
+    }
+}
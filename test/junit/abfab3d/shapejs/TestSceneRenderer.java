@@ -0,0 +1,125 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.shapejs;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import javax.vecmath.AxisAngle4d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.Bounds;
+import abfab3d.datasources.Sphere;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of SceneRenderer
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestSceneRenderer extends TestCase {
+
+    static final boolean DEBUG = false;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestSceneRenderer.class);
+    }
+
+    /**
+       sphere in the center of the image, background in the corners
+     */
+    public void testSphere(){
+
+        int width = 64, height = 48;
+        Scene scene = makeScene();
+        SceneRenderer renderer = new SceneRenderer(scene, new ImageSetup(width, height, null, ImageSetup.IMAGE_PNG, 0.5f, 1, false, 0f, 1), makeCamera());
+        long t0 = time();
+        BufferedImage image = renderer.render();
+        if(DEBUG) printf("render: %d ms\n", (time() - t0));
+
+        int center = image.getRGB(width/2, height/2);
+        int corner = image.getRGB(0, 0);
+        assertTrue("sphere is not rendered", center != corner);
+        assertEquals("background", corner, image.getRGB(width-1, 0));
+        // sphere occupies about 2/3 of image height
+        assertTrue("top", image.getRGB(width/2, 2) == image.getRGB(width/2, 0));
+        assertTrue("bottom", image.getRGB(width/2, height/2 + height/4) != image.getRGB(width/2, height-1));
+    }
+
+    /**
+       final image does not depend on progressive refinement and threads
+     */
+    public void testProgressive(){
+
+        int width = 50, height = 37;
+        ImageSetup setup = new ImageSetup(width, height, null, ImageSetup.IMAGE_PNG, 0.5f, 1, false, 0f, 1);
+        Scene scene = makeScene();
+        Camera camera = makeCamera();
+
+        SceneRenderer renderer = new SceneRenderer(scene, setup, camera);
+        renderer.setInitialStep(1);
+        renderer.setThreadCount(1);
+        int expected[] = new int[width*height];
+        renderer.render(expected);
+
+        final int passes[] = new int[1];
+        renderer = new SceneRenderer(scene, setup, camera);
+        renderer.setInitialStep(8);
+        renderer.setTileSize(12);
+        renderer.setThreadCount(4);
+        renderer.setProgressListener(new SceneRenderer.ProgressListener(){
+                public void imageUpdated(int pixels[], int width, int height, int step){
+                    passes[0]++;
+                }
+            });
+        int pixels[] = new int[width*height];
+        renderer.render(pixels);
+
+        assertEquals("passes", 4, passes[0]);
+        assertTrue("progressive image", Arrays.equals(expected, pixels));
+    }
+
+    /**
+       data source interface used by ImageMaker
+     */
+    public void testDataSource(){
+
+        int width = 32, height = 32;
+        Scene scene = makeScene();
+        ImageSetup setup = new ImageSetup(width, height, null, ImageSetup.IMAGE_PNG, 0.5f, 2, false, 0f, 1);
+        SceneImageDataSource sids = new SceneImageDataSource(scene, setup, makeCamera());
+        BufferedImage image = new abfab3d.grid.op.ImageMaker().renderImage(width, height, scene.getBounds(), sids);
+        assertFalse("constant image", ImageUtilTest.isConstantImage(image));
+    }
+
+    static Scene makeScene(){
+        double r = 10*MM;
+        Scene scene = new Scene(new Sphere(r), new Bounds(-r, r, -r, r, -r, r), 0.1*MM);
+        return scene;
+    }
+
+    static Camera makeCamera(){
+        SimpleCamera camera = new SimpleCamera();
+        camera.setViewpointDistance(3.);
+        camera.setRotation(new AxisAngle4d(0,1,0,0.3));
+        return camera;
+    }
+}
@@ -0,0 +1,125 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.symmetry;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.Bounds;
+import abfab3d.core.Vec;
+import abfab3d.core.ResultCodes;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Output.time;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of FDLookupTable
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestFDLookupTable extends TestCase {
+
+    static final boolean DEBUG = false;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestFDLookupTable.class);
+    }
+
+    public void testWallpaper() {
+
+        double w = 10*MM;
+        compareWithIterations("S2222", WallpaperSymmetries.getS2222(w, 1.5*w));
+        compareWithIterations("2222", WallpaperSymmetries.get2222(w, 1.5*w));
+        compareWithIterations("S632", WallpaperSymmetries.getS632(w));
+        compareWithIterations("632", WallpaperSymmetries.get632(w));
+        compareWithIterations("442", WallpaperSymmetries.get442(w));
+        compareWithIterations("XX", WallpaperSymmetries.getXX(w, w));
+        compareWithIterations("O", WallpaperSymmetries.getO(w, w, 0.2));
+    }
+
+    public void testFrieze() {
+
+        double w = 10*MM;
+        compareWithIterations("II", FriezeSymmetries.getII(w));
+        compareWithIterations("S22I", FriezeSymmetries.getS22I(w));
+        compareWithIterations("2SI", FriezeSymmetries.get2SI(w));
+        compareWithIterations("IX", FriezeSymmetries.getIX(w));
+    }
+
+    public void testInvariantAxis() {
+
+        SymmetryGroup group = WallpaperSymmetries.getS2222(10*MM, 10*MM);
+        FDLookupTable table = new FDLookupTable(group, new Bounds(-50*MM, 50*MM, -50*MM, 50*MM, -50*MM, 50*MM), 1*MM);
+        // z-axis is not changed by wallpaper group
+        assertEquals("cell count", 100*100, table.getCellCount());
+    }
+
+    void compareWithIterations(String name, SymmetryGroup group){
+
+        int maxIterations = 100;
+        group.setMaxIterations(maxIterations);
+        double s = 50*MM;
+        assertTrue("lookup table not created", group.setLookupTable(new Bounds(-s, s, -s, s, -s, s), 1*MM));
+
+        Random rnd = new Random(101);
+        int count = 100000;
+        int different = 0;
+        Vec p0 = new Vec(3);
+        Vec p1 = new Vec(3);
+        long t0 = time();
+        for(int i = 0; i < count; i++){
+
+            // some points are outside of table
+            double x = 1.2*s*(2*rnd.nextDouble()-1);
+            double y = 1.2*s*(2*rnd.nextDouble()-1);
+            double z = 1.2*s*(2*rnd.nextDouble()-1);
+
+            p0.set(x,y,z);
+            p1.set(x,y,z);
+            int res0 = group.toFDIterative(p0);
+            int res1 = group.toFD(p1);
+            assertEquals("result code", res0, res1);
+            if(res0 != ResultCodes.RESULT_OK)
+                continue;
+            assertTrue("point is not in FD", isInFD(group, p1));
+            if(distance(p0, p1) > 1.e-9)
+                different++;
+        }
+        if(DEBUG) printf("%s: %d ms elements: %d different: %d\n", name, (time() - t0), group.getLookupTable().getElementCount(), different);
+        // points on boundary of FD may be mapped into different points on boundary
+        assertTrue(name + ": too many different points: " + different, different < count/1000);
+    }
+
+    static boolean isInFD(SymmetryGroup group, Vec pnt){
+        SPlane planes[] = group.getFundamentalDomain();
+        for(int i = 0; i < planes.length; i++){
+            if(planes[i].distance(pnt) > 1.e-9)
+                return false;
+        }
+        return true;
+    }
+
+    static double distance(Vec p0, Vec p1){
+        double dx = p0.v[0] - p1.v[0];
+        double dy = p0.v[1] - p1.v[1];
+        double dz = p0.v[2] - p1.v[2];
+        return Math.sqrt(dx*dx + dy*dy + dz*dz);
+    }
+}
@@ -0,0 +1,169 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.transforms;
+
+import java.util.Random;
+
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.Vec;
+import abfab3d.core.VecTransform;
+
+import static abfab3d.core.Output.printf;
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of CompositeTransform
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestCompositeTransform extends TestCase {
+
+    static final boolean DEBUG = false;
+    static final double EPS = 1.e-12;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestCompositeTransform.class);
+    }
+
+    /**
+       fused affine transforms give the same result as transforms applied one by one
+     */
+    public void testAffineFusion() {
+
+        VecTransform trans[] = new VecTransform[]{
+            new Translation(1*MM, 2*MM, 3*MM),
+            new Rotation(new Vector3d(1,1,0), 0.3, new Vector3d(2*MM, 0, 1*MM)),
+            makeScale(1.5, 0.5, 2., new Vector3d(1*MM, 1*MM, 0)),
+            new Twist(10*MM),
+            new Rotation(new Vector3d(0,0,1), 1.2),
+            new Translation(-1*MM, 0, 0),
+        };
+        CompositeTransform ct = makeComposite(trans);
+        // first three transforms are fused, last two as well
+        assertEquals("steps", 3, ct.getStepsCount());
+
+        Random rnd = new Random(101);
+        for(int k = 0; k < 100; k++){
+            Vec p = randomPoint(rnd);
+            Vec expected = new Vec(3);
+            Vec result = new Vec(3);
+
+            applyOneByOne(trans, p, expected, false);
+            ct.transform(new Vec(p), result);
+            assertVecEquals(expected, result);
+
+            applyOneByOne(trans, p, expected, true);
+            ct.inverse_transform(new Vec(p), result);
+            assertVecEquals(expected, result);
+        }
+    }
+
+    /**
+       bulk transform of blocks gives the same result as transform of single points
+     */
+    public void testBulk() {
+
+        VecTransform trans[] = new VecTransform[]{
+            new Translation(1*MM, 2*MM, 3*MM),
+            makeScale(2., 2., 2., new Vector3d()),
+            new PeriodicWrap(new Vector3d(5*MM,0,0), new Vector3d(0,7*MM,0)),
+            new RingWrap(20*MM),
+            new Rotation(new Vector3d(0,1,0), 0.7),
+            new Twist(15*MM),
+            new Identity(),
+        };
+        CompositeTransform ct = makeComposite(trans);
+
+        int count = 37, offset = 5;
+        Random rnd = new Random(121);
+        double coord[] = new double[3*(offset + count)];
+        double scale[] = new double[offset + count];
+        int result[] = new int[offset + count];
+        Vec points[] = new Vec[offset + count];
+        for(int i = 0; i < points.length; i++){
+            points[i] = randomPoint(rnd);
+        }
+        for(int inverse = 0; inverse < 2; inverse++){
+            for(int i = 0; i < points.length; i++){
+                coord[3*i] = points[i].v[0];
+                coord[3*i+1] = points[i].v[1];
+                coord[3*i+2] = points[i].v[2];
+                scale[i] = 1;
+                result[i] = VecTransform.RESULT_OK;
+            }
+            if(inverse == 1) ct.inverse_transform(coord, scale, result, offset, count);
+            else ct.transform(coord, scale, result, offset, count);
+
+            for(int i = 0; i < points.length; i++){
+                Vec expected = new Vec(points[i]);
+                if(i >= offset){
+                    Vec in = new Vec(points[i]);
+                    if(inverse == 1) ct.inverse_transform(in, expected);
+                    else ct.transform(in, expected);
+                }
+                assertEquals("result", VecTransform.RESULT_OK, result[i]);
+                assertEquals("x", expected.v[0], coord[3*i], EPS);
+                assertEquals("y", expected.v[1], coord[3*i+1], EPS);
+                assertEquals("z", expected.v[2], coord[3*i+2], EPS);
+                assertEquals("scale", expected.getScaleFactor(), scale[i], EPS);
+            }
+        }
+    }
+
+    static Scale makeScale(double sx, double sy, double sz, Vector3d center){
+        Scale s = new Scale(sx, sy, sz);
+        s.set("center", center);
+        return s;
+    }
+
+    static CompositeTransform makeComposite(VecTransform trans[]){
+        CompositeTransform ct = new CompositeTransform();
+        for(int i = 0; i < trans.length; i++){
+            ct.add(trans[i]);
+        }
+        ct.initialize();
+        return ct;
+    }
+
+    static void applyOneByOne(VecTransform trans[], Vec in, Vec out, boolean inverse){
+
+        Vec v = new Vec(in);
+        for(int k = 0; k < trans.length; k++){
+            VecTransform tr = trans[(inverse)? trans.length-1-k: k];
+            if(inverse) tr.inverse_transform(v, out);
+            else tr.transform(v, out);
+            v.set(out);
+        }
+    }
+
+    static Vec randomPoint(Random rnd){
+        return new Vec(20*MM*(rnd.nextDouble()-0.5), 20*MM*(rnd.nextDouble()-0.5), 20*MM*(rnd.nextDouble()-0.5));
+    }
+
+    static void assertVecEquals(Vec expected, Vec v){
+        if(DEBUG) printf("(%10.7f,%10.7f,%10.7f) (%10.7f,%10.7f,%10.7f)\n",
+                         expected.v[0],expected.v[1],expected.v[2], v.v[0],v.v[1],v.v[2]);
+        for(int i = 0; i < 3; i++){
+            assertEquals("coord", expected.v[i], v.v[i], EPS);
+        }
+        assertEquals("scale", expected.getScaleFactor(), v.getScaleFactor(), EPS);
+    }
+}
@@ -55,7 +55,36 @@ public class TestPeriodicWrap extends TestCase {
         printf("(%7.5f,%7.5f,%7.5f) ->  (%7.5f,%7.5f,%7.5f)\n", v.v[0],v.v[1],v.v[2], out.v[0],out.v[1],out.v[2]);
 
     }
-   
+
+    /**
+       bulk inverse transform gives the same points as single point transform
+     */
+    public void testBulk() {
+
+        Vector3d a1 = new Vector3d(1,1,0), a2 = new Vector3d(-1,1,0), a3 = new Vector3d(0,0.5,1);
+        PeriodicWrap wraps[] = new PeriodicWrap[]{
+            new PeriodicWrap(a1), new PeriodicWrap(a1, a2), new PeriodicWrap(a1, a2, a3)
+        };
+        int count = 50;
+        double coord[] = new double[3*count];
+        for(int i = 0; i < coord.length; i++)
+            coord[i] = 0.37*i - 7.9*(i % 5);
+
+        for(int w = 0; w < wraps.length; w++){
+            PeriodicWrap pw = wraps[w];
+            pw.initialize();
+            double bulk[] = coord.clone();
+            pw.inverse_transform(bulk, null, null, 0, count);
+            Vec in = new Vec(3), out = new Vec(3);
+            for(int i = 0; i < count; i++){
+                in.set(coord[3*i], coord[3*i+1], coord[3*i+2]);
+                pw.inverse_transform(in, out);
+                for(int k = 0; k < 3; k++)
+                    assertEquals("coord", out.v[k], bulk[3*i+k], 1.e-10);
+            }
+        }
+    }
+
     public static void main(String[] args) {
         new TestPeriodicWrap().testSimple();
     }
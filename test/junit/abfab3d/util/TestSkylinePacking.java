@@ -0,0 +1,82 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+package abfab3d.util;
+
+import java.util.Random;
+
+import javax.vecmath.Vector2d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import static abfab3d.core.Output.printf;
+
+/**
+ * Tests the functionality of SkylinePacking
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestSkylinePacking extends TestCase {
+
+    static final boolean DEBUG = false;
+    static final double EPS = 1.e-9;
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestSkylinePacking.class);
+    }
+
+    /**
+       packed rectangles do not overlap and are inside of packed area
+     */
+    public void testPacking(){
+
+        int count = 2000;
+        Random rnd = new Random(11);
+        double w[] = new double[count], h[] = new double[count];
+        SkylinePacking packer = new SkylinePacking();
+        RectPacking rpacker = new RectPacking();
+        for(int i = 0; i < count; i++){
+            // few large rects and many small
+            double s = (i % 50 == 0)? 40: 4;
+            w[i] = 1 + s*rnd.nextDouble();
+            h[i] = 1 + s*rnd.nextDouble();
+            packer.addRect(w[i], h[i]);
+            rpacker.addRect(w[i], h[i]);
+        }
+        packer.pack();
+        rpacker.pack();
+
+        Vector2d size = packer.getPackedSize();
+        double x[] = new double[count], y[] = new double[count];
+        Vector2d origin = new Vector2d();
+        for(int i = 0; i < count; i++){
+            packer.getRectOrigin(i, origin);
+            x[i] = origin.x;
+            y[i] = origin.y;
+            assertTrue("inside", x[i] >= 0 && y[i] >= 0 && x[i] + w[i] <= size.x + EPS && y[i] + h[i] <= size.y + EPS);
+        }
+        for(int i = 0; i < count; i++){
+            for(int j = i+1; j < count; j++){
+                boolean overlap = (x[i] < x[j] + w[j] - EPS && x[j] < x[i] + w[i] - EPS &&
+                                   y[i] < y[j] + h[j] - EPS && y[j] < y[i] + h[i] - EPS);
+                assertFalse("overlap", overlap);
+            }
+        }
+        Vector2d rsize = rpacker.getPackedSize();
+        if(DEBUG)printf("skyline: %7.1f x %7.1f rows: %7.1f x %7.1f\n", size.x, size.y, rsize.x, rsize.y);
+        assertTrue("denser than rows packing", size.x*size.y < rsize.x*rsize.y);
+    }
+}
@@ -0,0 +1,73 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests the functionality of ThreadUtil
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestThreadUtil extends TestCase {
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestThreadUtil.class);
+    }
+
+    /**
+       every slice is processed exactly once
+     */
+    public void testSlices(){
+
+        for(int threads = 1; threads <= 4; threads *= 2){
+            final AtomicIntegerArray counts = new AtomicIntegerArray(1000);
+            ThreadUtil.runSlices(new SliceManager(1000, 7), new ThreadUtil.SliceTask(){
+                    public void processSlice(Slice slice){
+                        for(int i = slice.smin; i < slice.smax; i++)
+                            counts.incrementAndGet(i);
+                    }
+                }, threads);
+            for(int i = 0; i < counts.length(); i++){
+                assertEquals("count", 1, counts.get(i));
+            }
+        }
+    }
+
+    /**
+       first exception of a task is rethrown to the caller
+     */
+    public void testFailure(){
+
+        for(int threads = 1; threads <= 4; threads *= 4){
+            try {
+                ThreadUtil.runSlices(new SliceManager(1000, 7), new ThreadUtil.SliceTask(){
+                        public void processSlice(Slice slice){
+                            if(slice.smin == 497)
+                                throw new IllegalStateException("slice failed");
+                        }
+                    }, threads);
+                fail("exception expected");
+            } catch(IllegalStateException e){
+                assertEquals("message", "slice failed", e.getMessage());
+            }
+        }
+    }
+}
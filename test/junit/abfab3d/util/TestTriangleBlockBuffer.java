@@ -0,0 +1,181 @@
+/*****************************************************************************
+ *                        Shapeways, Inc Copyright (c) 2016
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read http://www.gnu.org/copyleft/lgpl.html for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ ****************************************************************************/
+
+package abfab3d.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+import javax.vecmath.Vector3d;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import abfab3d.core.Bounds;
+import abfab3d.core.BulkTriangleCollector;
+import abfab3d.core.TriangleCollector;
+import abfab3d.grid.ArrayAttributeGridByte;
+import abfab3d.core.AttributeGrid;
+import abfab3d.io.input.STLReader;
+import abfab3d.io.output.STLWriter;
+
+import static abfab3d.core.Units.MM;
+
+/**
+ * Tests the functionality of bulk triangle transfer
+ *
+ * @author Vladimir Bulatov
+ */
+public class TestTriangleBlockBuffer extends TestCase {
+
+    /**
+     * Creates a test suite consisting of all the methods that start with "test".
+     */
+    public static Test suite() {
+        return new TestSuite(TestTriangleBlockBuffer.class);
+    }
+
+    /**
+       triangles passed via blocks should be the same as triangles passed one by one
+     */
+    public void testBlockBuffer(){
+
+        TriangulatedSphere sphere = new TriangulatedSphere(10*MM, new Vector3d(1*MM,2*MM,3*MM), 3);
+        TriangleList single = new TriangleList();
+        sphere.getTriangles(single);
+
+        BlockCounter blocks = new BlockCounter();
+        int blockSize = 7;
+        assertTrue(TriangleBlockBuffer.getTriangles(sphere, blocks, blockSize));
+        assertEquals("coordinates", single.coord, blocks.list.coord);
+        assertTrue("block size", blocks.maxBlock <= blockSize);
+        assertEquals("block count", (single.coord.size()/9 + blockSize - 1)/blockSize, blocks.blockCount);
+
+    }
+
+    /**
+       STL written in blocks should be identical to STL written by triangles and bulk reading should give the same triangles
+     */
+    public void testSTL() throws Exception {
+
+        TriangulatedSphere sphere = new TriangulatedSphere(10*MM, new Vector3d(1*MM,2*MM,3*MM), 3);
+        ByteArrayOutputStream os1 = new ByteArrayOutputStream();
+        ByteArrayOutputStream os2 = new ByteArrayOutputStream();
+        TriangleList single = new TriangleList();
+        sphere.getTriangles(single);
+        int triCount = single.coord.size()/9;
+
+        STLWriter w1 = new STLWriter(os1, triCount);
+        sphere.getTriangles(w1);
+        w1.close();
+
+        STLWriter w2 = new STLWriter(os2, triCount);
+        TriangleBlockBuffer.getTriangles(sphere, w2, 100);
+        w2.close();
+
+        byte b1[] = os1.toByteArray();
+        byte b2[] = os2.toByteArray();
+        assertEquals("file length", b1.length, b2.length);
+        for(int i = 0; i < b1.length; i++){
+            assertEquals("byte " + i, b1[i], b2[i]);
+        }
+
+        TriangleList read1 = new TriangleList();
+        new STLReader(new ByteArrayInputStream(b1)).getTriangles(read1);
+
+        TriangleList read2 = new TriangleList();
+        BlockCounter blocks = new BlockCounter();
+        new STLReader(new ByteArrayInputStream(b1)).getTriangles(blocks.reset(new TriangleBlockSplitter(read2)), 33);
+        assertEquals("triangle count", triCount, read1.coord.size()/9);
+        assertEquals("coordinates", read1.coord, read2.coord);
+        assertEquals("block count", (triCount + 32)/33, blocks.blockCount);
+
+    }
+
+    /**
+       bulk rasterization should give the same result as rasterization by triangles
+     */
+    public void testRasterizer(){
+
+        TriangulatedSphere sphere = new TriangulatedSphere(8*MM, new Vector3d(0.1*MM,0.2*MM,0.3*MM), 3);
+        int n = 40;
+        Bounds bounds = new Bounds(-10*MM, 10*MM, -10*MM, 10*MM, -10*MM, 10*MM);
+
+        MeshRasterizer r1 = new MeshRasterizer(bounds, n, n, n);
+        sphere.getTriangles(r1);
+        AttributeGrid g1 = new ArrayAttributeGridByte(n,n,n, 0.5*MM, 0.5*MM);
+        r1.getRaster(g1);
+
+        MeshRasterizer r2 = new MeshRasterizer(bounds, n, n, n);
+        TriangleBlockBuffer.getTriangles(sphere, r2, 50);
+        AttributeGrid g2 = new ArrayAttributeGridByte(n,n,n, 0.5*MM, 0.5*MM);
+        r2.getRaster(g2);
+
+        long count = 0;
+        for(int y = 0; y < n; y++){
+            for(int x = 0; x < n; x++){
+                for(int z = 0; z < n; z++){
+                    assertEquals("voxel", g1.getAttribute(x,y,z), g2.getAttribute(x,y,z));
+                    count += g1.getAttribute(x,y,z);
+                }
+            }
+        }
+        assertTrue("empty raster", count > 0);
+    }
+
+    /**
+       stores coordinates of all triangles
+     */
+    static class TriangleList implements TriangleCollector {
+
+        ArrayList<Double> coord = new ArrayList<Double>();
+
+        public boolean addTri(Vector3d v0,Vector3d v1,Vector3d v2){
+            add(v0);
+            add(v1);
+            add(v2);
+            return true;
+        }
+
+        void add(Vector3d v){
+            coord.add(v.x);
+            coord.add(v.y);
+            coord.add(v.z);
+        }
+    }
+
+    /**
+       counts blocks passed to collector
+     */
+    static class BlockCounter implements BulkTriangleCollector {
+
+        TriangleList list = new TriangleList();
+        BulkTriangleCollector collector = new TriangleBlockSplitter(list);
+        int blockCount = 0;
+        int maxBlock = 0;
+
+        BlockCounter reset(BulkTriangleCollector collector){
+            this.collector = collector;
+            blockCount = 0;
+            maxBlock = 0;
+            return this;
+        }
+
+        public boolean addTriangles(double coord[], int offset, int triCount){
+            blockCount++;
+            maxBlock = Math.max(maxBlock, triCount);
+            return collector.addTriangles(coord, offset, triCount);
+        }
+    }
+}